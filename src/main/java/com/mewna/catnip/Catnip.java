@@ -30,6 +30,7 @@ package com.mewna.catnip;
 import com.mewna.catnip.cache.CacheFlag;
 import com.mewna.catnip.cache.EntityCache;
 import com.mewna.catnip.cache.EntityCacheWorker;
+import com.mewna.catnip.cache.MessageCache;
 import com.mewna.catnip.entity.Entity;
 import com.mewna.catnip.entity.channel.Webhook;
 import com.mewna.catnip.entity.misc.GatewayInfo;
@@ -64,12 +65,14 @@ import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * @author amy
@@ -465,6 +468,40 @@ public interface Catnip {
      */
     long memberChunkTimeout();
     
+    /**
+     * @return The decompressed size, in bytes, above which {@code GUILD_CREATE}
+     * payloads are streamed into the cache. {@code 0} if disabled.
+     */
+    @Nonnegative
+    int streamingGuildCreateThreshold();
+    
+    /**
+     * @return How many entities of a single type are cached at once while
+     * streaming a {@code GUILD_CREATE}.
+     */
+    @Nonnegative
+    int streamingGuildCreateBatchSize();
+    
+    /**
+     * @return How many threads the built-in cache workers use to apply cache
+     * updates.
+     */
+    @Nonnegative
+    int cacheUpdateThreads();
+    
+    /**
+     * @return Whether events are only emitted once their cache update has
+     * been applied.
+     */
+    boolean awaitCacheUpdates();
+    
+    /**
+     * @return The cache of recent messages, or {@code null} if messages
+     * aren't cached.
+     */
+    @Nullable
+    MessageCache messageCache();
+    
     /**
      * Opens a voice connection to the provided guild and channel. The connection is
      * opened asynchronously, with
@@ -616,6 +653,28 @@ public interface Catnip {
      */
     void chunkMembers(@Nonnull String guildId, @Nonnull String query, @Nonnegative int limit);
     
+    /**
+     * Request specific guild members for the given guild. To request members
+     * as they're needed, batching requests for the same shard together, see
+     * {@link com.mewna.catnip.cache.MemberChunker MemberChunker}.
+     *
+     * @param guildId Guild to request for.
+     * @param userIds IDs of the members to return. At most 100.
+     */
+    default void chunkMembers(final long guildId, @Nonnull final Collection<Long> userIds) {
+        chunkMembers(Long.toString(guildId), userIds.stream().map(Long::toUnsignedString).collect(Collectors.toList()));
+    }
+    
+    /**
+     * Request specific guild members for the given guild. To request members
+     * as they're needed, batching requests for the same shard together, see
+     * {@link com.mewna.catnip.cache.MemberChunker MemberChunker}.
+     *
+     * @param guildId Guild to request for.
+     * @param userIds IDs of the members to return. At most 100.
+     */
+    void chunkMembers(@Nonnull String guildId, @Nonnull Collection<String> userIds);
+    
     /**
      * Get the presence for the specified shard.
      *
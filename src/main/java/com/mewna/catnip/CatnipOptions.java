@@ -30,6 +30,8 @@ package com.mewna.catnip;
 import com.google.common.collect.ImmutableSet;
 import com.mewna.catnip.cache.CacheFlag;
 import com.mewna.catnip.cache.EntityCacheWorker;
+import com.mewna.catnip.cache.MemoryEntityCache;
+import com.mewna.catnip.cache.MessageCache;
 import com.mewna.catnip.cache.SplitMemoryEntityCache;
 import com.mewna.catnip.entity.Entity;
 import com.mewna.catnip.entity.guild.Guild;
@@ -213,6 +215,56 @@ public final class CatnipOptions implements Cloneable {
      * to make sure we're not missing any.
      */
     private long memberChunkTimeout = TimeUnit.SECONDS.toMillis(10);
+    /**
+     * The decompressed size, in bytes, above which a {@code GUILD_CREATE}
+     * payload is streamed into the cache instead of being decoded into a
+     * {@link JsonObject} tree first. A value of {@code 0} (the default)
+     * disables streaming entirely.
+     * <p>
+     * When a payload is streamed, its roles, channels, members, emojis,
+     * presences, and voice states are left out of the {@code d} object seen
+     * by {@link com.mewna.catnip.extension.hook.CatnipHook}s and the event
+     * buffer, and are instead handed to the cache worker as raw JSON. Only
+     * the built-in {@link MemoryEntityCache} implementations know how to
+     * read them, so this option is ignored for any other cache worker.
+     */
+    private int streamingGuildCreateThreshold;
+    /**
+     * How many entities of a single type are parsed before being handed to
+     * the cache worker while streaming a {@code GUILD_CREATE}. See
+     * {@link #streamingGuildCreateThreshold}. Defaults to {@code 1000}.
+     */
+    private int streamingGuildCreateBatchSize = 1000;
+    /**
+     * How many threads {@link MemoryEntityCache} uses to apply cache updates.
+     * Updates for a guild are always applied in order, on the same thread;
+     * updates for different guilds may be applied in parallel. Defaults to
+     * the number of available processors.
+     */
+    private int cacheUpdateThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * Whether to wait for an event's cache update to be applied before
+     * emitting the event, so that handlers always see the cache with the
+     * event already applied. Events for other guilds are not held up by
+     * this. Defaults to {@code false}.
+     * <p>
+     * Deletes, and updates that are dispatched with the entity they replace
+     * (ex. {@code GUILD_MEMBER_UPDATE}), are still emitted before they're
+     * cached, as the old entity would be gone otherwise.
+     * <p>
+     * Only applies to events emitted by the default {@link CachingBuffer}.
+     */
+    private boolean awaitCacheUpdates;
+    /**
+     * The cache of recent messages. When set, edits and deletes of cached
+     * messages are also emitted as
+     * {@link com.mewna.catnip.shard.DiscordEvent#CACHED_MESSAGE_UPDATE CACHED_MESSAGE_UPDATE}
+     * and {@link com.mewna.catnip.shard.DiscordEvent#CACHED_MESSAGE_DELETE CACHED_MESSAGE_DELETE},
+     * which carry the message as it was before. Defaults to {@code null},
+     * which disables message caching.
+     */
+    @Nullable
+    private MessageCache messageCache;
     
     @Override
     public Object clone() {
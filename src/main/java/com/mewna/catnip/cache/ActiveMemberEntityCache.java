@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.view.BoundedNamedCacheView;
+import com.mewna.catnip.cache.view.CacheBudget;
+import com.mewna.catnip.cache.view.EvictionListener.Cause;
+import com.mewna.catnip.cache.view.MutableNamedCacheView;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.user.User;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+
+/**
+ * {@link UnifiedMemoryEntityCache UnifiedMemoryEntityCache} that only keeps
+ * active members cached, rather than every member of every guild. Members
+ * are cached when they're seen in {@code MESSAGE_CREATE},
+ * {@code VOICE_STATE_UPDATE} and {@code GUILD_MEMBER_ADD} events, along
+ * with the members sent in {@code GUILD_CREATE}, and expire once they
+ * haven't been seen or read for a while. Expired members are cleaned up at
+ * least once a minute. Since most members of large guilds
+ * are never active, this keeps nearly every member that's actually used
+ * while caching a fraction of them.
+ * <p>
+ * Members that are needed but aren't cached can be requested with
+ * {@link #requestMembers(long, Collection)}; members that are updated
+ * while they aren't cached are requested automatically. Requests are
+ * batched per shard by a {@link MemberChunker}.
+ * <p>
+ * This cache is meant to be used with
+ * {@code CatnipOptions#chunkMembers} disabled, as chunking would cache every member anyway. Our own member is
+ * kept in every guild even if it expires, so that permission checks keep
+ * working. Users are dropped once none of their members are cached, apart
+ * from ourselves.
+ */
+public class ActiveMemberEntityCache extends UnifiedMemoryEntityCache {
+    // How long to collect member requests for a shard before sending them
+    private static final long CHUNK_DELAY_MILLIS = 250;
+    // Longest time expired members are seen by anything other than lookups
+    private static final long CLEAN_UP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    
+    private final CacheBudget<Member> memberBudget;
+    private final long cleanUpIntervalMillis;
+    // Our own members that expired, by guild
+    private final Map<Long, Member> selfMembers = new ConcurrentHashMap<>();
+    // How many of each user's members are cached, across all guilds
+    private final Map<Long, Integer> memberships = new ConcurrentHashMap<>();
+    private MemberChunker chunker;
+    private long cleanUpTimer = -1;
+    
+    /**
+     * Creates a cache whose members expire after an hour of inactivity.
+     */
+    public ActiveMemberEntityCache() {
+        this(1, TimeUnit.HOURS);
+    }
+    
+    /**
+     * @param duration How long members are kept after they were last seen
+     *                 or read.
+     * @param unit     Unit of the duration.
+     */
+    public ActiveMemberEntityCache(@Nonnegative final long duration, @Nonnull final TimeUnit unit) {
+        this(Long.MAX_VALUE, duration, unit);
+    }
+    
+    /**
+     * @param maximumMembers The maximum number of members to cache across all
+     *                       guilds. The least recently used members are
+     *                       evicted past it.
+     * @param duration       How long members are kept after they were last
+     *                       seen or read.
+     * @param unit           Unit of the duration.
+     */
+    public ActiveMemberEntityCache(@Nonnegative final long maximumMembers, @Nonnegative final long duration,
+                                   @Nonnull final TimeUnit unit) {
+        memberBudget = new CacheBudget<Member>(maximumMembers)
+                .expireAfterAccess(duration, unit)
+                .listener(this::evicted);
+        cleanUpIntervalMillis = Math.max(1, Math.min(unit.toMillis(duration), CLEAN_UP_INTERVAL_MILLIS));
+    }
+    
+    /**
+     * @return The budget shared by every guild's members, ex. for reporting
+     * how many members expired.
+     */
+    @Nonnull
+    public CacheBudget<Member> memberBudget() {
+        return memberBudget;
+    }
+    
+    /**
+     * @return The chunker used to request missing members. {@code null}
+     * until this cache is given a catnip instance.
+     */
+    @Nullable
+    public MemberChunker chunker() {
+        return chunker;
+    }
+    
+    /**
+     * Requests members that aren't cached from the gateway. They're cached
+     * once they arrive.
+     *
+     * @param guildId The ID of the guild the members are in.
+     * @param userIds The IDs of the members.
+     */
+    public void requestMembers(final long guildId, @Nonnull final Collection<Long> userIds) {
+        chunker.request(guildId, userIds);
+    }
+    
+    @Override
+    protected boolean cacheMembersFromActivity() {
+        return true;
+    }
+    
+    @Nonnull
+    @Override
+    @CheckReturnValue
+    protected MutableNamedCacheView<Member> createMemberCacheView() {
+        return new MemberView(memberBudget, memberNameFunction());
+    }
+    
+    @Override
+    protected void uncachedMemberUpdated(final long guildId, final long id) {
+        chunker.request(guildId, id);
+    }
+    
+    @Override
+    protected void deleteMemberCache(final long guildId) {
+        // Take the members out of the budget now, rather than waiting for
+        // them to expire from a view that's about to be thrown away
+        final MutableNamedCacheView<Member> view = memberCache(guildId, true);
+        if(view != null) {
+            view.removeIf(__ -> true);
+        }
+        selfMembers.remove(guildId);
+        super.deleteMemberCache(guildId);
+    }
+    
+    @Override
+    protected void invalidateShard(final int id, final int shardCount) {
+        super.invalidateShard(id, shardCount);
+        selfMembers.keySet().removeIf(guildId -> (guildId >> 22) % shardCount == id);
+    }
+    
+    @Nullable
+    @Override
+    public Member member(final long guildId, final long id) {
+        final Member member = super.member(guildId, id);
+        if(member == null) {
+            final User self = selfUser();
+            if(self != null && self.idAsLong() == id) {
+                return selfMembers.get(guildId);
+            }
+        }
+        return member;
+    }
+    
+    @Nonnull
+    @Override
+    public EntityCache catnip(@Nonnull final Catnip catnip) {
+        super.catnip(catnip);
+        chunker = new MemberChunker(catnip, CHUNK_DELAY_MILLIS);
+        // Iterating members doesn't drop the ones that expired, so they're
+        // dropped here, instead of lingering until the next member is cached
+        if(cleanUpTimer == -1) {
+            cleanUpTimer = catnip.vertx().setPeriodic(cleanUpIntervalMillis, __ -> memberBudget.cleanUp());
+        }
+        if(catnip.chunkMembers()) {
+            catnip.logAdapter().warn("ActiveMemberEntityCache is in use with member chunking enabled, so every " +
+                    "member will be cached anyway. Disable CatnipOptions#chunkMembers to only cache active members.");
+        }
+        return this;
+    }
+    
+    @Override
+    public void shutdown() {
+        if(cleanUpTimer != -1) {
+            catnip().vertx().cancelTimer(cleanUpTimer);
+            cleanUpTimer = -1;
+        }
+        super.shutdown();
+    }
+    
+    private void evicted(final long id, @Nonnull final Member member, @Nonnull final Cause cause) {
+        final User self = selfUser();
+        if(self != null && self.idAsLong() == id) {
+            selfMembers.put(member.guildIdAsLong(), member);
+        }
+        memberEvicted(member);
+        leave(member);
+    }
+    
+    private void join(final long id) {
+        memberships.merge(id, 1, Integer::sum);
+    }
+    
+    private void leave(@Nonnull final Member member) {
+        final long id = member.idAsLong();
+        // Dropping the user inside compute keeps a concurrent join of the same
+        // user from being counted before the user is gone. A user that's
+        // cached again between being dropped and their member being put
+        // comes back with the next event that carries them.
+        memberships.computeIfPresent(id, (__, count) -> {
+            if(count > 1) {
+                return count - 1;
+            }
+            final User self = selfUser();
+            if(self == null || self.idAsLong() != id) {
+                uncacheUser(shardId(member.guildIdAsLong()), id);
+            }
+            return null;
+        });
+    }
+    
+    /**
+     * Keeps {@link #memberships} up to date with every way members enter and
+     * leave a view, apart from evictions, which {@link #evicted(long, Member, Cause)}
+     * handles.
+     */
+    private final class MemberView extends BoundedNamedCacheView<Member> {
+        private MemberView(@Nonnull final CacheBudget<Member> budget, @Nonnull final Function<Member, String> nameFunction) {
+            super(budget, nameFunction);
+        }
+        
+        @Nullable
+        @Override
+        public Member put(final long key, @Nonnull final Member value) {
+            final Member old = super.put(key, value);
+            if(old == null) {
+                join(key);
+            }
+            return old;
+        }
+        
+        @Nullable
+        @Override
+        public Member remove(final long key) {
+            final Member old = super.remove(key);
+            if(old != null) {
+                leave(old);
+            }
+            return old;
+        }
+        
+        @Override
+        public void removeIf(@Nonnull final LongPredicate predicate) {
+            final Collection<Member> removed = new ArrayList<>();
+            super.removeIf(id -> {
+                if(predicate.test(id)) {
+                    final Member member = map.get(id);
+                    if(member != null) {
+                        removed.add(member);
+                    }
+                    return true;
+                }
+                return false;
+            });
+            removed.forEach(ActiveMemberEntityCache.this::leave);
+        }
+    }
+}
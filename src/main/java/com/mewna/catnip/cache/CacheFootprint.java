@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.cache.view.CacheView;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Approximate report of how much memory a {@link MemoryEntityCache} retains,
+ * by entity type and by guild, as returned by
+ * {@link MemoryEntityCache#footprint()}. Meant to be polled, ex. by an
+ * extension that reports it to metrics, or that picks {@link CacheFlag}s and
+ * eviction budgets based on which types and guilds are the heaviest.
+ * <p>
+ * The size of views that keep their entities as objects is estimated by
+ * measuring a sample of each type's entities, and multiplying the average
+ * by the number of entities cached, plus a fixed cost per entry for the
+ * view's table. The size of views that keep their entities encoded, such as
+ * {@link OffHeapMemoryEntityCache off-heap members}, is exact. Neither
+ * includes secondary indexes or other bookkeeping, so the numbers are best
+ * used to compare types and guilds against each other, rather than against
+ * the size of the heap.
+ */
+public final class CacheFootprint {
+    private static final EntityType[] TYPES = EntityType.values();
+    
+    private final long[] bytes;
+    private final long[] counts;
+    // Heaviest first
+    private final List<GuildFootprint> guilds;
+    
+    private CacheFootprint(@Nonnull final long[] bytes, @Nonnull final long[] counts,
+                           @Nonnull final List<GuildFootprint> guilds) {
+        this.bytes = bytes;
+        this.counts = counts;
+        this.guilds = Collections.unmodifiableList(guilds);
+    }
+    
+    /**
+     * @param type The type of entity.
+     *
+     * @return The approximate number of bytes retained by cached entities of
+     * the given type, across all guilds.
+     */
+    @Nonnegative
+    public long bytes(@Nonnull final EntityType type) {
+        return bytes[type.ordinal()];
+    }
+    
+    /**
+     * @param type The type of entity.
+     *
+     * @return The number of cached entities of the given type, across all
+     * guilds.
+     */
+    @Nonnegative
+    public long count(@Nonnull final EntityType type) {
+        return counts[type.ordinal()];
+    }
+    
+    /**
+     * @return The approximate number of bytes retained by the whole cache.
+     */
+    @Nonnegative
+    public long totalBytes() {
+        return Arrays.stream(bytes).sum();
+    }
+    
+    /**
+     * @return The footprint of every guild with anything cached, heaviest
+     * first.
+     */
+    @Nonnull
+    public List<GuildFootprint> guilds() {
+        return guilds;
+    }
+    
+    /**
+     * @param n The maximum number of guilds to return.
+     *
+     * @return The footprint of the {@code n} heaviest guilds, heaviest first.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public List<GuildFootprint> topGuilds(@Nonnegative final int n) {
+        return guilds.subList(0, Math.min(n, guilds.size()));
+    }
+    
+    /**
+     * @param guildId The ID of the guild.
+     *
+     * @return The footprint of the guild, or {@code null} if nothing is
+     * cached for it.
+     */
+    @Nullable
+    @CheckReturnValue
+    public GuildFootprint guild(final long guildId) {
+        for(final GuildFootprint guild : guilds) {
+            if(guild.guildIdAsLong == guildId) {
+                return guild;
+            }
+        }
+        return null;
+    }
+    
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("CacheFootprint (");
+        for(final EntityType type : TYPES) {
+            sb.append(type).append('=').append(bytes(type)).append("B/").append(count(type)).append(", ");
+        }
+        return sb.append("guilds=").append(guilds.size()).append(')').toString();
+    }
+    
+    /**
+     * Types of cached entities. Guilds and the entities in them are counted
+     * both per guild and in the totals, while the others are only counted in
+     * the totals.
+     */
+    public enum EntityType {
+        GUILD(true),
+        ROLE(true),
+        CHANNEL(true),
+        EMOJI(true),
+        VOICE_STATE(true),
+        MEMBER(true),
+        USER(false),
+        PRESENCE(false),
+        DM_CHANNEL(false),
+        ;
+        
+        private final boolean guildScoped;
+        
+        EntityType(final boolean guildScoped) {
+            this.guildScoped = guildScoped;
+        }
+        
+        /**
+         * @return Whether entities of this type belong to a guild.
+         */
+        public boolean guildScoped() {
+            return guildScoped;
+        }
+    }
+    
+    /**
+     * How much memory is retained by a single guild: the guild itself, and
+     * the roles, channels, emojis, voice states and members cached in it.
+     */
+    public static final class GuildFootprint {
+        private final long guildIdAsLong;
+        private final long[] bytes = new long[TYPES.length];
+        private final long[] counts = new long[TYPES.length];
+        private long totalBytes;
+        
+        private GuildFootprint(final long guildIdAsLong) {
+            this.guildIdAsLong = guildIdAsLong;
+        }
+        
+        public long guildIdAsLong() {
+            return guildIdAsLong;
+        }
+        
+        @Nonnull
+        public String guildId() {
+            return Long.toUnsignedString(guildIdAsLong);
+        }
+        
+        /**
+         * @param type The type of entity.
+         *
+         * @return The approximate number of bytes retained by the guild's
+         * entities of the given type.
+         */
+        @Nonnegative
+        public long bytes(@Nonnull final EntityType type) {
+            return bytes[type.ordinal()];
+        }
+        
+        /**
+         * @param type The type of entity.
+         *
+         * @return The number of the guild's entities of the given type.
+         */
+        @Nonnegative
+        public long count(@Nonnull final EntityType type) {
+            return counts[type.ordinal()];
+        }
+        
+        /**
+         * @return The approximate number of bytes retained by the guild.
+         */
+        @Nonnegative
+        public long totalBytes() {
+            return totalBytes;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("GuildFootprint (%s, %d bytes)", guildId(), totalBytes);
+        }
+    }
+    
+    /**
+     * Collects views and entities, and turns them into a footprint once all
+     * of them have been seen, as averages depend on every sample taken.
+     */
+    static final class Builder {
+        // Rough cost of a view's table slot for an entity: a long key and a
+        // reference, in a table that's kept about half full
+        static final int ENTRY_OVERHEAD = 24;
+        private static final int SAMPLES_PER_VIEW = 4;
+        
+        private final int maxSamples;
+        private final long[] sampledBytes = new long[TYPES.length];
+        private final int[] samples = new int[TYPES.length];
+        // Per type, the number of entities to estimate, and the exact size
+        // of those that don't need to be
+        private final long[] estimated = new long[TYPES.length];
+        private final long[] exact = new long[TYPES.length];
+        private final long[] counts = new long[TYPES.length];
+        private final Map<Long, Tally> guilds = new HashMap<>();
+        
+        /**
+         * @param maxSamples The maximum number of entities of each type to
+         *                   measure.
+         */
+        Builder(@Nonnegative final int maxSamples) {
+            this.maxSamples = maxSamples;
+        }
+        
+        /**
+         * Counts a view of entities of a guild-scoped type.
+         */
+        void view(final long guildId, @Nonnull final EntityType type, @Nullable final CacheView<?> view) {
+            if(view != null) {
+                add(guilds.computeIfAbsent(guildId, Tally::new), type, view);
+            }
+        }
+        
+        /**
+         * Counts a view of entities of a type that isn't guild-scoped.
+         */
+        void view(@Nonnull final EntityType type, @Nullable final CacheView<?> view) {
+            if(view != null) {
+                add(null, type, view);
+            }
+        }
+        
+        /**
+         * Counts a single guild-scoped entity, ex. the guild itself.
+         */
+        void entity(final long guildId, @Nonnull final EntityType type, @Nonnull final Object entity) {
+            final int t = type.ordinal();
+            counts[t]++;
+            estimated[t]++;
+            sample(t, entity);
+            final Tally tally = guilds.computeIfAbsent(guildId, Tally::new);
+            tally.counts[t]++;
+            tally.estimated[t]++;
+        }
+        
+        private void add(@Nullable final Tally tally, @Nonnull final EntityType type, @Nonnull final CacheView<?> view) {
+            final int t = type.ordinal();
+            final long size = view.size();
+            final long encoded = view.encodedBytes();
+            counts[t] += size;
+            if(tally != null) {
+                tally.counts[t] += size;
+            }
+            if(encoded >= 0) {
+                exact[t] += encoded;
+                if(tally != null) {
+                    tally.exact[t] += encoded;
+                }
+            } else if(size > 0) {
+                estimated[t] += size;
+                if(tally != null) {
+                    tally.estimated[t] += size;
+                }
+                if(samples[t] < maxSamples) {
+                    // anyMatch, since it's the one short-circuiting operation
+                    // every view makes safe against concurrent writes
+                    final int[] taken = {0};
+                    view.anyMatch(entity -> {
+                        sample(t, entity);
+                        return ++taken[0] >= SAMPLES_PER_VIEW || samples[t] >= maxSamples;
+                    });
+                }
+            }
+        }
+        
+        private void sample(final int type, @Nonnull final Object entity) {
+            if(samples[type] < maxSamples) {
+                sampledBytes[type] += SizeEstimator.estimate(entity);
+                samples[type]++;
+            }
+        }
+        
+        private long bytes(final int type, final long exact, final long estimated) {
+            final long average = samples[type] == 0 ? 0 : sampledBytes[type] / samples[type];
+            return exact + estimated * (average + ENTRY_OVERHEAD);
+        }
+        
+        @Nonnull
+        CacheFootprint build() {
+            final long[] bytes = new long[TYPES.length];
+            for(int t = 0; t < TYPES.length; t++) {
+                bytes[t] = bytes(t, exact[t], estimated[t]);
+            }
+            final List<GuildFootprint> footprints = new ArrayList<>(guilds.size());
+            for(final Tally tally : guilds.values()) {
+                final GuildFootprint footprint = new GuildFootprint(tally.guildId);
+                for(int t = 0; t < TYPES.length; t++) {
+                    footprint.counts[t] = tally.counts[t];
+                    footprint.bytes[t] = bytes(t, tally.exact[t], tally.estimated[t]);
+                    footprint.totalBytes += footprint.bytes[t];
+                }
+                footprints.add(footprint);
+            }
+            footprints.sort(Comparator.comparingLong(GuildFootprint::totalBytes).reversed());
+            return new CacheFootprint(bytes, counts.clone(), footprints);
+        }
+    }
+    
+    private static final class Tally {
+        private final long guildId;
+        private final long[] counts = new long[TYPES.length];
+        private final long[] estimated = new long[TYPES.length];
+        private final long[] exact = new long[TYPES.length];
+        
+        private Tally(final long guildId) {
+            this.guildId = guildId;
+        }
+    }
+}
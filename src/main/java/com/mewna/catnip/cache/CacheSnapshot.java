@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.entity.RequiresCatnip;
+import com.mewna.catnip.entity.Snowflake;
+import com.mewna.catnip.entity.channel.GuildChannel;
+import com.mewna.catnip.entity.channel.UserDMChannel;
+import com.mewna.catnip.entity.guild.Guild;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.guild.Role;
+import com.mewna.catnip.entity.impl.*;
+import com.mewna.catnip.entity.misc.Emoji.CustomEmoji;
+import com.mewna.catnip.entity.user.Presence;
+import com.mewna.catnip.entity.user.User;
+import com.mewna.catnip.entity.user.VoiceState;
+import com.mewna.catnip.util.CatnipMeta;
+import io.vertx.core.json.Json;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Writes the contents of a {@link MemoryEntityCache} to a file, and reads
+ * them back, so that a restarted bot that resumes its gateway sessions
+ * doesn't have to wait for every guild to be sent and chunked again.
+ * <p>
+ * The file is a small header followed by one record per entity: a kind
+ * byte, saying which cache the entity belongs in, a byte identifying the
+ * entity's class, the entity's id, and the entity itself as length-prefixed
+ * JSON. Records are written in ascending order of kind, as restoring some
+ * kinds depends on others having been read first, and a file whose records
+ * are out of order is rejected. An end marker is written last, so that a
+ * truncated file (ex. from a crash while writing) is rejected instead of
+ * being partially restored.
+ * Snapshots are written to a temporary file first, and then moved over the
+ * target, so the previous snapshot stays intact until the new one is done.
+ * <p>
+ * Entities are restored through the cache's own caching methods, so they're
+ * recorded in its mutation log like any other update, into the shard their
+ * guild belongs to. Users and presences are restored into every
+ * shard they have a member on, and DM channels into shard 0. Restoring needs
+ * the shard count, so it must happen after the shard manager is set up.
+ * <p>
+ * The cache isn't locked while a snapshot is written, so entities updated
+ * while writing may be written in either state. Snapshots should be taken
+ * on shutdown, or accepted as slightly inconsistent.
+ */
+public final class CacheSnapshot {
+    private static final int MAGIC = 0x43_41_54_53; // CATS
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int BATCH_SIZE = 1000;
+    
+    private static final byte END = 0;
+    private static final byte GUILD = 1;
+    private static final byte ROLE = 2;
+    private static final byte CHANNEL = 3;
+    private static final byte EMOJI = 4;
+    private static final byte VOICE_STATE = 5;
+    private static final byte MEMBER = 6;
+    private static final byte USER = 7;
+    private static final byte PRESENCE = 8;
+    private static final byte DM_CHANNEL = 9;
+    private static final byte SELF_USER = 10;
+    
+    // Index in this list is the class byte of a record, here and in
+    // MutationLog. Only ever append!
+    static final List<Class<?>> CLASSES = Collections.unmodifiableList(Arrays.asList(
+            GuildImpl.class, RoleImpl.class, TextChannelImpl.class, VoiceChannelImpl.class, CategoryImpl.class,
+            NewsChannelImpl.class, StoreChannelImpl.class, CustomEmojiImpl.class, VoiceStateImpl.class,
+            MemberImpl.class, UserImpl.class, PresenceImpl.class, UserDMChannelImpl.class
+    ));
+    
+    private CacheSnapshot() {
+    }
+    
+    /**
+     * Writes a snapshot of the given cache to the given file, replacing it
+     * if it already exists.
+     *
+     * @param cache The cache to snapshot.
+     * @param path  The file to write to.
+     *
+     * @throws IOException If writing the snapshot fails.
+     */
+    public static void write(@Nonnull final MemoryEntityCache cache, @Nonnull final Path path) throws IOException {
+        final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try(final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(CatnipMeta.VERSION);
+            final Writer writer = new Writer(cache, out);
+            writer.writeAll(GUILD, cache.guilds());
+            writer.writeAll(ROLE, cache.roles());
+            writer.writeAll(CHANNEL, cache.channels());
+            writer.writeAll(EMOJI, cache.emojis());
+            for(final VoiceState state : cache.voiceStates()) {
+                writer.write(VOICE_STATE, state.userIdAsLong(), state);
+            }
+            // Members must come before users and presences, as restoring
+            // uses them to figure out which shards users belong on
+            writer.writeAll(MEMBER, cache.members());
+            writer.writeAll(USER, cache.users());
+            for(final long id : cache.presences().keys()) {
+                final Presence presence = cache.presences().getById(id);
+                if(presence != null) {
+                    writer.write(PRESENCE, id, presence);
+                }
+            }
+            writer.writeAll(DM_CHANNEL, cache.dmChannels());
+            final User self = cache.selfUser();
+            if(self != null) {
+                writer.write(SELF_USER, self.idAsLong(), self);
+            }
+            out.writeByte(END);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Restores a snapshot written by {@link #write(MemoryEntityCache, Path)}
+     * into the given cache. Entities already in the cache with the same ids
+     * are replaced.
+     *
+     * @param cache The cache to restore into.
+     * @param path  The snapshot file.
+     *
+     * @throws IOException If reading the snapshot fails, or the file isn't
+     *                     a complete snapshot.
+     */
+    public static void restore(@Nonnull final MemoryEntityCache cache, @Nonnull final Path path) throws IOException {
+        try(final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            if(in.readInt() != MAGIC) {
+                throw new IOException(path + " is not a cache snapshot");
+            }
+            final int format = in.readInt();
+            if(format != FORMAT_VERSION) {
+                throw new IOException("Unsupported cache snapshot format " + format);
+            }
+            final String version = in.readUTF();
+            if(!CatnipMeta.VERSION.equals(version) && cache.catnip().warnOnEntityVersionMismatch()) {
+                cache.catnip().logAdapter().warn("Restoring a cache snapshot from catnip v{}, but we're on v{}! " +
+                        "This may not work, so update your versions!", version, CatnipMeta.VERSION);
+            }
+            new Reader(cache, in).readAll();
+        } catch(final EOFException e) {
+            throw new IOException(path + " is truncated", e);
+        }
+    }
+    
+    private static final class Writer {
+        private final MemoryEntityCache cache;
+        private final DataOutputStream out;
+        private final Map<Class<?>, Integer> classes = new HashMap<>();
+        private byte lastKind = END;
+        
+        private Writer(final MemoryEntityCache cache, final DataOutputStream out) {
+            this.cache = cache;
+            this.out = out;
+            for(int i = 0; i < CLASSES.size(); i++) {
+                classes.put(CLASSES.get(i), i);
+            }
+        }
+        
+        private <T extends Snowflake> void writeAll(final byte kind, final Iterable<T> entities) throws IOException {
+            for(final T entity : entities) {
+                write(kind, entity.idAsLong(), entity);
+            }
+        }
+        
+        private void write(final byte kind, final long id, final Object entity) throws IOException {
+            if(kind < lastKind) {
+                throw new IllegalStateException("Record kind " + kind + " written after " + lastKind);
+            }
+            lastKind = kind;
+            final Integer type = classes.get(entity.getClass());
+            if(type == null) {
+                cache.catnip().logAdapter().warn("Not writing {} {} to cache snapshot, as {} isn't supported",
+                        entity.getClass().getSimpleName(), id, entity.getClass().getName());
+                return;
+            }
+            final byte[] data = Json.mapper.writeValueAsBytes(entity);
+            out.writeByte(kind);
+            out.writeByte(type);
+            out.writeLong(id);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+    
+    private static final class Reader {
+        private final MemoryEntityCache cache;
+        private final DataInputStream in;
+        private final int shardCount;
+        private final ShardIndex userShards = new ShardIndex();
+        private final Batch<Role> roles;
+        private final Batch<GuildChannel> channels;
+        private final Batch<CustomEmoji> emoji;
+        private final Batch<VoiceState> voiceStates;
+        private final Batch<Member> members;
+        private final Batch<User> users;
+        private final Batch<Map.Entry<String, Presence>> presences;
+        private byte[] scratch = new byte[8192];
+        private byte lastKind = END;
+        
+        private Reader(final MemoryEntityCache cache, final DataInputStream in) {
+            this.cache = cache;
+            this.in = in;
+            shardCount = cache.catnip().shardManager().shardCount();
+            roles = new Batch<>(cache::bulkCacheRoles);
+            channels = new Batch<>(cache::bulkCacheChannels);
+            emoji = new Batch<>(cache::bulkCacheEmoji);
+            voiceStates = new Batch<>(cache::bulkCacheVoiceStates);
+            members = new Batch<>(cache::bulkCacheMembers);
+            users = new Batch<>(cache::bulkCacheUsers);
+            presences = new Batch<>((shard, batch) -> {
+                final Map<String, Presence> map = new HashMap<>(batch.size() * 4 / 3 + 1);
+                batch.forEach(e -> map.put(e.getKey(), e.getValue()));
+                cache.bulkCachePresences(shard, map);
+            });
+        }
+        
+        private int shardOf(final long guildId) {
+            return (int) ((guildId >> 22) % shardCount);
+        }
+        
+        private void readAll() throws IOException {
+            byte kind;
+            while((kind = in.readByte()) != END) {
+                // Users and presences are put on the shards of the members
+                // read before them
+                if(kind < lastKind) {
+                    throw new IOException("Record kind " + kind + " is out of order in cache snapshot");
+                }
+                lastKind = kind;
+                final int type = in.readUnsignedByte();
+                if(type >= CLASSES.size()) {
+                    throw new IOException("Unknown entity type " + type + " in cache snapshot");
+                }
+                final long id = in.readLong();
+                final int length = in.readInt();
+                if(scratch.length < length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                in.readFully(scratch, 0, length);
+                final Object entity = Json.mapper.readValue(scratch, 0, length, CLASSES.get(type));
+                if(entity instanceof RequiresCatnip) {
+                    ((RequiresCatnip) entity).catnip(cache.catnip());
+                }
+                restore(kind, id, entity);
+            }
+            for(final Batch<?> batch : Arrays.asList(roles, channels, emoji, voiceStates, members, users, presences)) {
+                batch.flush();
+            }
+        }
+        
+        private void restore(final byte kind, final long id, final Object entity) throws IOException {
+            switch(kind) {
+                case GUILD: {
+                    // Goes through the cache so that it's recorded for followers
+                    cache.cacheGuild((Guild) entity);
+                    break;
+                }
+                case ROLE: {
+                    final Role role = (Role) entity;
+                    roles.add(shardOf(role.guildIdAsLong()), role);
+                    break;
+                }
+                case CHANNEL: {
+                    final GuildChannel channel = (GuildChannel) entity;
+                    channels.add(shardOf(channel.guildIdAsLong()), channel);
+                    break;
+                }
+                case EMOJI: {
+                    final CustomEmoji customEmoji = (CustomEmoji) entity;
+                    emoji.add(shardOf(customEmoji.guildIdAsLong()), customEmoji);
+                    break;
+                }
+                case VOICE_STATE: {
+                    final VoiceState state = (VoiceState) entity;
+                    voiceStates.add(shardOf(state.guildIdAsLong()), state);
+                    break;
+                }
+                case MEMBER: {
+                    final Member member = (Member) entity;
+                    final int shard = shardOf(member.guildIdAsLong());
+                    members.add(shard, member);
+                    userShards.add(id, shard);
+                    break;
+                }
+                case USER: {
+                    for(final int shard : shardsOf(id)) {
+                        users.add(shard, (User) entity);
+                    }
+                    break;
+                }
+                case PRESENCE: {
+                    final Map.Entry<String, Presence> presence =
+                            new AbstractMap.SimpleImmutableEntry<>(Long.toUnsignedString(id), (Presence) entity);
+                    for(final int shard : shardsOf(id)) {
+                        presences.add(shard, presence);
+                    }
+                    break;
+                }
+                case DM_CHANNEL: {
+                    cache.cacheDMChannel(0, (UserDMChannel) entity);
+                    break;
+                }
+                case SELF_USER: {
+                    cache.selfUser.set((User) entity);
+                    break;
+                }
+                default: {
+                    throw new IOException("Unknown record kind " + kind + " in cache snapshot");
+                }
+            }
+        }
+        
+        private int[] shardsOf(final long userId) {
+            final int[] shards = userShards.shards(userId);
+            return shards == null ? new int[]{0} : shards;
+        }
+    }
+    
+    /**
+     * Collects entities per shard, and hands them to a bulk caching method
+     * once enough of them have been collected.
+     */
+    private static final class Batch<T> {
+        private final BiConsumer<Integer, List<T>> sink;
+        private final Map<Integer, List<T>> pending = new HashMap<>();
+        private int size;
+        
+        private Batch(final BiConsumer<Integer, List<T>> sink) {
+            this.sink = sink;
+        }
+        
+        private void add(final int shard, final T entity) {
+            pending.computeIfAbsent(shard, __ -> new ArrayList<>()).add(entity);
+            if(++size >= BATCH_SIZE) {
+                flush();
+            }
+        }
+        
+        private void flush() {
+            pending.forEach(sink);
+            pending.clear();
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies cache updates in order per guild, and in parallel across guilds.
+ * Every guild is assigned to one of a fixed number of single-threaded lanes,
+ * so updates for one guild never run concurrently or out of order, while a
+ * huge {@code GUILD_CREATE} only holds up the guilds sharing its lane.
+ * <p>
+ * Cheap updates don't need to leave the calling thread, as long as nothing
+ * is queued for their guild: see {@link #execute(long, Runnable, boolean)}.
+ * This relies on all updates for a guild being submitted from one thread
+ * at a time, which holds as every guild belongs to a single shard.
+ * <p>
+ * Updates that affect many guilds at once, like invalidating a shard, go
+ * through every lane: see {@link #executeAcrossGuilds(Runnable)}. The lanes
+ * are threads, so an executor should be created once per cache, and shut
+ * down along with it.
+ */
+final class CacheUpdateExecutor {
+    private final Catnip catnip;
+    private final ExecutorService[] lanes;
+    // Guild id -> number of updates queued or running in its lane
+    private final Map<Long, Integer> pending = new ConcurrentHashMap<>();
+    // Number of updates across guilds that haven't been applied yet
+    private final AtomicInteger barriers = new AtomicInteger();
+    
+    CacheUpdateExecutor(@Nonnull final Catnip catnip, @Nonnegative final int threads) {
+        this.catnip = catnip;
+        lanes = new ExecutorService[Math.max(1, threads)];
+        for(int i = 0; i < lanes.length; i++) {
+            final String name = "catnip-cache-update-" + i;
+            lanes[i] = Executors.newSingleThreadExecutor(r -> {
+                final Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+    
+    /**
+     * Runs a cache update for the given guild.
+     *
+     * @param guildId The guild the update belongs to.
+     * @param update  The update to apply.
+     * @param heavy   Whether the update may take long enough that it should
+     *                never run on the calling thread, ex. a
+     *                {@code GUILD_CREATE}. Other updates only go to the
+     *                guild's lane if earlier updates for the guild are still
+     *                pending, and run right away otherwise.
+     *
+     * @return A future completed once the update has been applied, on the
+     * calling thread's vert.x context if there is one.
+     */
+    @Nonnull
+    Future<Void> execute(final long guildId, @Nonnull final Runnable update, final boolean heavy) {
+        if(!heavy && barriers.get() == 0 && !pending.containsKey(guildId)) {
+            update.run();
+            return Future.succeededFuture();
+        }
+        final Future<Void> future = Future.future();
+        final Context context = Vertx.currentContext();
+        pending.merge(guildId, 1, Integer::sum);
+        lanes[(int) (Long.hashCode(guildId) & Integer.MAX_VALUE) % lanes.length].execute(() -> {
+            Throwable error = null;
+            try {
+                update.run();
+            } catch(final Throwable e) {
+                catnip.logAdapter().warn("Got error applying cache update for guild {}", guildId, e);
+                error = e;
+            } finally {
+                pending.computeIfPresent(guildId, (__, count) -> count == 1 ? null : count - 1);
+            }
+            complete(context, future, error);
+        });
+        return future;
+    }
+    
+    /**
+     * Runs a cache update that affects many guilds, ex. invalidating a shard,
+     * once every update submitted before it has been applied. Every lane is
+     * held until it's done, and no updates run on the calling thread until
+     * then, so every update submitted after it is applied after it.
+     *
+     * @param update The update to apply.
+     *
+     * @return A future completed once the update has been applied, on the
+     * calling thread's vert.x context if there is one.
+     */
+    @Nonnull
+    Future<Void> executeAcrossGuilds(@Nonnull final Runnable update) {
+        final Future<Void> future = Future.future();
+        final Context context = Vertx.currentContext();
+        final AtomicInteger waiting = new AtomicInteger(lanes.length);
+        final CountDownLatch applied = new CountDownLatch(1);
+        barriers.incrementAndGet();
+        for(final ExecutorService lane : lanes) {
+            lane.execute(() -> {
+                // The last lane to get here applies the update
+                if(waiting.decrementAndGet() > 0) {
+                    try {
+                        applied.await();
+                    } catch(final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return;
+                }
+                Throwable error = null;
+                try {
+                    update.run();
+                } catch(final Throwable e) {
+                    catnip.logAdapter().warn("Got error applying cache update across guilds", e);
+                    error = e;
+                } finally {
+                    barriers.decrementAndGet();
+                    applied.countDown();
+                }
+                complete(context, future, error);
+            });
+        }
+        return future;
+    }
+    
+    /**
+     * Stops the lanes once the updates already submitted have been applied.
+     */
+    void shutdown() {
+        for(final ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+    }
+    
+    private static void complete(final Context context, final Future<Void> future, final Throwable error) {
+        if(context == null) {
+            complete(future, error);
+        } else {
+            context.runOnContext(__ -> complete(future, error));
+        }
+    }
+    
+    private static void complete(final Future<Void> future, final Throwable error) {
+        if(error == null) {
+            future.complete();
+        } else {
+            future.fail(error);
+        }
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.koloboke.collect.LongIterator;
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.view.ConcurrentCacheView;
+import com.mewna.catnip.cache.view.LongEntityMap;
+import com.mewna.catnip.entity.impl.PresenceImpl;
+import com.mewna.catnip.entity.impl.PresenceImpl.ActivityImpl;
+import com.mewna.catnip.entity.user.Presence;
+import com.mewna.catnip.entity.user.Presence.Activity;
+import com.mewna.catnip.entity.user.Presence.OnlineStatus;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Stores presences compactly. The presence cache holds one presence per
+ * online user, and is written to by every {@code PRESENCE_UPDATE}, so it's
+ * worth keeping small. The four statuses of a presence are packed into a
+ * single short, and activities are interned, so that every presence
+ * playing the same game shares a single copy of it, and presences listening
+ * to the same song at least share its name, details and album art. Nothing
+ * else is kept per presence; {@link Presence} objects are only created when
+ * they're read, and aren't kept around.
+ * <p>
+ * Activities are shared between presences, and between stores, so the
+ * activities of presences read from a store must not be modified. Writing a
+ * presence identical to the stored one changes nothing.
+ * <p>
+ * Reads share a read-write lock, so they only wait for writes, not for
+ * each other. Iteration works on a snapshot of the ids taken when the
+ * iterator is created, and skips presences removed since.
+ */
+@SuppressWarnings("NullableProblems")
+final class CompactPresenceStore extends AbstractMap<Long, Presence> implements LongEntityMap<Presence> {
+    private static final OnlineStatus[] STATUSES = OnlineStatus.values();
+    // Bits per status, with 0 meaning null
+    private static final int STATUS_BITS = 3;
+    private static final int STATUS_MASK = (1 << STATUS_BITS) - 1;
+    // Held weakly, so that parts no presence uses anymore can be collected
+    private static final Interner<Object> PARTS = Interners.newWeakInterner();
+    
+    private final Supplier<Catnip> catnip;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Linear probing, without tombstones. A slot is empty when its
+    // statuses are 0, which they never are for a stored presence.
+    private long[] keys;
+    private short[] statuses;
+    private Activity[] activities;
+    private int size;
+    
+    /**
+     * @param catnip       Supplies the catnip instance to attach to read
+     *                     presences. Only called on reads, so that stores can
+     *                     be created before the cache has a catnip instance.
+     * @param expectedSize How many presences the store is expected to hold.
+     */
+    CompactPresenceStore(@Nonnull final Supplier<Catnip> catnip, final int expectedSize) {
+        this.catnip = catnip;
+        final int slots = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1;
+        keys = new long[slots];
+        statuses = new short[slots];
+        activities = new Activity[slots];
+    }
+    
+    private static int mix(final long id) {
+        final long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32);
+    }
+    
+    // Encoding
+    
+    static short pack(@Nonnull final Presence presence) {
+        if(presence.status() == null) {
+            throw new IllegalArgumentException("Presences must have a status");
+        }
+        return (short) (bits(presence.status())
+                | bits(presence.mobileStatus()) << STATUS_BITS
+                | bits(presence.webStatus()) << 2 * STATUS_BITS
+                | bits(presence.desktopStatus()) << 3 * STATUS_BITS);
+    }
+    
+    private static int bits(@Nullable final OnlineStatus status) {
+        return status == null ? 0 : status.ordinal() + 1;
+    }
+    
+    @Nullable
+    static OnlineStatus unpack(final short packed, final int index) {
+        final int bits = packed >> index * STATUS_BITS & STATUS_MASK;
+        return bits == 0 ? null : STATUSES[bits - 1];
+    }
+    
+    /**
+     * Returns the shared copy of an activity, with the parts that often
+     * repeat on their own (names, art, etc.) shared as well.
+     */
+    @Nullable
+    static Activity intern(@Nullable final Activity activity) {
+        if(!(activity instanceof ActivityImpl)) {
+            return internPart(activity);
+        }
+        final ActivityImpl impl = (ActivityImpl) activity;
+        return internPart(ActivityImpl.builder()
+                .name(internPart(impl.name()))
+                .type(impl.type())
+                .url(internPart(impl.url()))
+                .timestamps(internPart(impl.timestamps()))
+                .applicationIdAsLong(impl.applicationIdAsLong())
+                .details(internPart(impl.details()))
+                .state(internPart(impl.state()))
+                .party(internPart(impl.party()))
+                .assets(internPart(impl.assets()))
+                .secrets(internPart(impl.secrets()))
+                .instance(impl.instance())
+                .flags(internPart(impl.flags()))
+                .build());
+    }
+    
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private static <T> T internPart(@Nullable final T part) {
+        return part == null ? null : (T) PARTS.intern(part);
+    }
+    
+    // Index
+    
+    private int slotOf(final long id) {
+        final int mask = keys.length - 1;
+        for(int slot = mix(id) & mask; ; slot = slot + 1 & mask) {
+            if(statuses[slot] == 0 || keys[slot] == id) {
+                return slot;
+            }
+        }
+    }
+    
+    private void grow() {
+        final long[] oldKeys = keys;
+        final short[] oldStatuses = statuses;
+        final Activity[] oldActivities = activities;
+        keys = new long[oldKeys.length * 2];
+        statuses = new short[oldKeys.length * 2];
+        activities = new Activity[oldKeys.length * 2];
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldStatuses[i] != 0) {
+                final int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                statuses[slot] = oldStatuses[i];
+                activities[slot] = oldActivities[i];
+            }
+        }
+    }
+    
+    @Nonnull
+    private Presence read(final int slot) {
+        final short packed = statuses[slot];
+        return PresenceImpl.builder()
+                .catnip(catnip.get())
+                .status(unpack(packed, 0))
+                .mobileStatus(unpack(packed, 1))
+                .webStatus(unpack(packed, 2))
+                .desktopStatus(unpack(packed, 3))
+                .activity(activities[slot])
+                .build();
+    }
+    
+    // Map
+    
+    /**
+     * @param key   The id of the user.
+     * @param value The presence to compare against.
+     *
+     * @return Whether the given presence is the one stored for the user.
+     * Compares the packed statuses and the activity, without decoding the
+     * stored presence.
+     */
+    boolean holds(final long key, @Nonnull final Presence value) {
+        final short packed = pack(value);
+        lock.readLock().lock();
+        try {
+            final int slot = slotOf(key);
+            // Stored activities are interned, so unchanged ones are usually
+            // the same instance
+            return statuses[slot] == packed
+                    && (activities[slot] == value.activity() || Objects.equals(activities[slot], value.activity()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Nullable
+    @Override
+    public Presence get(final long key) {
+        lock.readLock().lock();
+        try {
+            final int slot = slotOf(key);
+            return statuses[slot] == 0 ? null : read(slot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Nullable
+    @Override
+    public Presence put(final long key, @Nonnull final Presence value) {
+        final short packed = pack(value);
+        lock.writeLock().lock();
+        try {
+            int slot = slotOf(key);
+            if(statuses[slot] != 0) {
+                final Presence old = read(slot);
+                statuses[slot] = packed;
+                // Most updates keep the activity, so there's nothing to intern
+                if(!Objects.equals(activities[slot], value.activity())) {
+                    activities[slot] = intern(value.activity());
+                }
+                return old;
+            }
+            if((size + 1) * 2 > keys.length) {
+                grow();
+                slot = slotOf(key);
+            }
+            keys[slot] = key;
+            statuses[slot] = packed;
+            activities[slot] = intern(value.activity());
+            size++;
+            return null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Nullable
+    @Override
+    public Presence remove(final long key) {
+        lock.writeLock().lock();
+        try {
+            int hole = slotOf(key);
+            if(statuses[hole] == 0) {
+                return null;
+            }
+            final Presence old = read(hole);
+            final int mask = keys.length - 1;
+            statuses[hole] = 0;
+            activities[hole] = null;
+            // Shift back entries that probed past the hole
+            for(int slot = hole + 1 & mask; statuses[slot] != 0; slot = slot + 1 & mask) {
+                final int home = mix(keys[slot]) & mask;
+                if((slot - home & mask) >= (slot - hole & mask)) {
+                    keys[hole] = keys[slot];
+                    statuses[hole] = statuses[slot];
+                    activities[hole] = activities[slot];
+                    statuses[slot] = 0;
+                    activities[slot] = null;
+                    hole = slot;
+                }
+            }
+            size--;
+            return old;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public long encodedBytes() {
+        lock.readLock().lock();
+        try {
+            // Activities are shared, so they aren't counted against any store
+            return (long) keys.length * Long.BYTES + (long) statuses.length * Short.BYTES
+                    + (long) activities.length * Integer.BYTES;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public boolean containsKey(final Object key) {
+        if(!(key instanceof Long)) {
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            return statuses[slotOf((Long) key)] != 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public Presence get(final Object key) {
+        return key instanceof Long ? get((long) (Long) key) : null;
+    }
+    
+    @Override
+    public Presence put(final Long key, final Presence value) {
+        return put((long) key, value);
+    }
+    
+    @Override
+    public Presence remove(final Object key) {
+        return key instanceof Long ? remove((long) (Long) key) : null;
+    }
+    
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            Arrays.fill(statuses, (short) 0);
+            Arrays.fill(activities, null);
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Nonnull
+    private long[] ids() {
+        lock.readLock().lock();
+        try {
+            final long[] ids = new long[size];
+            int index = 0;
+            for(int slot = 0; slot < keys.length; slot++) {
+                if(statuses[slot] != 0) {
+                    ids[index++] = keys[slot];
+                }
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Nonnull
+    @Override
+    public LongIterator iterator() {
+        return new KeyIterator(ids());
+    }
+    
+    @Nonnull
+    @Override
+    public Set<Entry<Long, Presence>> entrySet() {
+        return new AbstractSet<Entry<Long, Presence>>() {
+            @Override
+            public Iterator<Entry<Long, Presence>> iterator() {
+                final long[] ids = ids();
+                return new Iterator<Entry<Long, Presence>>() {
+                    private int index;
+                    private Presence next;
+                    private long nextId;
+                    private long current;
+                    
+                    @Override
+                    public boolean hasNext() {
+                        while(next == null && index < ids.length) {
+                            nextId = ids[index++];
+                            next = get(nextId);
+                        }
+                        return next != null;
+                    }
+                    
+                    @Override
+                    public Entry<Long, Presence> next() {
+                        if(!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        final Presence presence = next;
+                        next = null;
+                        current = nextId;
+                        return new SimpleImmutableEntry<>(current, presence);
+                    }
+                    
+                    @Override
+                    public void remove() {
+                        CompactPresenceStore.this.remove(current);
+                    }
+                };
+            }
+            
+            @Override
+            public int size() {
+                return CompactPresenceStore.this.size();
+            }
+        };
+    }
+    
+    /**
+     * View over a store, which can check whether a presence is already
+     * stored without decoding the stored one.
+     */
+    static final class View extends ConcurrentCacheView<Presence> {
+        private final CompactPresenceStore store;
+        
+        View(@Nonnull final CompactPresenceStore store) {
+            super(store);
+            this.store = store;
+        }
+        
+        boolean holds(final long key, @Nonnull final Presence presence) {
+            return store.holds(key, presence);
+        }
+    }
+    
+    private final class KeyIterator implements LongIterator {
+        private final long[] ids;
+        private int index;
+        
+        private KeyIterator(final long[] ids) {
+            this.ids = ids;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return index < ids.length;
+        }
+        
+        @Override
+        public long nextLong() {
+            if(index >= ids.length) {
+                throw new NoSuchElementException();
+            }
+            return ids[index++];
+        }
+        
+        @Override
+        public Long next() {
+            return nextLong();
+        }
+        
+        @Override
+        public void forEachRemaining(@Nonnull final LongConsumer action) {
+            while(index < ids.length) {
+                action.accept(ids[index++]);
+            }
+        }
+        
+        // Abstract in LongIterator, so it has to be implemented even though
+        // it's deprecated in favour of the LongConsumer overload
+        @Deprecated
+        @Override
+        public void forEachRemaining(@Nonnull final Consumer<? super Long> action) {
+            while(index < ids.length) {
+                action.accept(ids[index++]);
+            }
+        }
+        
+        @Override
+        public void remove() {
+            if(index == 0) {
+                throw new IllegalStateException();
+            }
+            CompactPresenceStore.this.remove(ids[index - 1]);
+        }
+    }
+}
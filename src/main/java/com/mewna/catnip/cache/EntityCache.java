@@ -42,6 +42,7 @@ import com.mewna.catnip.entity.user.VoiceState;
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -249,6 +250,35 @@ public interface EntityCache {
     @Nonnull
     NamedCacheView<Member> members();
     
+    /**
+     * Get all members of the guild with the given ID that have the role with
+     * the given ID.
+     *
+     * @param guildId The ID of the guild.
+     * @param roleId  The ID of the role.
+     *
+     * @return A snapshot of the cached members with the role.
+     */
+    @Nonnull
+    default Collection<Member> membersWithRole(@Nonnull final String guildId, @Nonnull final String roleId) {
+        return membersWithRole(Long.parseUnsignedLong(guildId), Long.parseUnsignedLong(roleId));
+    }
+    
+    /**
+     * Get all members of the guild with the given ID that have the role with
+     * the given ID.
+     *
+     * @param guildId The ID of the guild.
+     * @param roleId  The ID of the role.
+     *
+     * @return A snapshot of the cached members with the role.
+     */
+    @Nonnull
+    default Collection<Member> membersWithRole(final long guildId, final long roleId) {
+        final String id = Long.toUnsignedString(roleId);
+        return members(guildId).find(member -> member.roleIds().contains(id));
+    }
+    
     /**
      * Get the role with the given ID from the guild with the given ID. May be
      * {@code null}.
@@ -391,6 +421,34 @@ public interface EntityCache {
     @Nonnull
     NamedCacheView<GuildChannel> channels();
     
+    /**
+     * Get all channels of the guild with the given ID that are in the
+     * category with the given ID.
+     *
+     * @param guildId    The ID of the guild.
+     * @param categoryId The ID of the category.
+     *
+     * @return A snapshot of the cached channels in the category.
+     */
+    @Nonnull
+    default Collection<GuildChannel> channelsInCategory(@Nonnull final String guildId, @Nonnull final String categoryId) {
+        return channelsInCategory(Long.parseUnsignedLong(guildId), Long.parseUnsignedLong(categoryId));
+    }
+    
+    /**
+     * Get all channels of the guild with the given ID that are in the
+     * category with the given ID.
+     *
+     * @param guildId    The ID of the guild.
+     * @param categoryId The ID of the category.
+     *
+     * @return A snapshot of the cached channels in the category.
+     */
+    @Nonnull
+    default Collection<GuildChannel> channelsInCategory(final long guildId, final long categoryId) {
+        return channels(guildId).find(channel -> channel.parentIdAsLong() == categoryId);
+    }
+    
     /**
      * Get the DM channel with the given ID. May be {@code null}.
      *
@@ -580,6 +638,64 @@ public interface EntityCache {
     @Nonnull
     CacheView<VoiceState> voiceStates();
     
+    /**
+     * Get the voice states of everyone connected to the voice channel with
+     * the given ID.
+     *
+     * @param guildId   The ID of the guild.
+     * @param channelId The ID of the voice channel.
+     *
+     * @return A snapshot of the cached voice states in the channel.
+     */
+    @Nonnull
+    default Collection<VoiceState> voiceStatesInChannel(@Nonnull final String guildId, @Nonnull final String channelId) {
+        return voiceStatesInChannel(Long.parseUnsignedLong(guildId), Long.parseUnsignedLong(channelId));
+    }
+    
+    /**
+     * Get the voice states of everyone connected to the voice channel with
+     * the given ID.
+     *
+     * @param guildId   The ID of the guild.
+     * @param channelId The ID of the voice channel.
+     *
+     * @return A snapshot of the cached voice states in the channel.
+     */
+    @Nonnull
+    default Collection<VoiceState> voiceStatesInChannel(final long guildId, final long channelId) {
+        return voiceStates(guildId).find(state -> state.channelIdAsLong() == channelId);
+    }
+    
+    /**
+     * Take a snapshot of the guild with the given ID, its roles and its
+     * channels, for computations that need them to be consistent with each
+     * other. See {@link GuildSnapshot}.
+     *
+     * @param guildId The ID of the guild.
+     *
+     * @return A snapshot of the guild.
+     */
+    @Nonnull
+    @CheckReturnValue
+    default GuildSnapshot snapshot(@Nonnull final String guildId) {
+        return snapshot(Long.parseUnsignedLong(guildId));
+    }
+    
+    /**
+     * Take a snapshot of the guild with the given ID, its roles and its
+     * channels, for computations that need them to be consistent with each
+     * other. See {@link GuildSnapshot}.
+     *
+     * @param guildId The ID of the guild.
+     *
+     * @return A snapshot of the guild.
+     */
+    @Nonnull
+    @CheckReturnValue
+    default GuildSnapshot snapshot(final long guildId) {
+        return GuildSnapshot.lookingUp(this, guildId);
+    }
+    
     /**
      * @return The currently-logged-in user. May be {@code null} if no shards
      * have logged in.
@@ -598,4 +714,19 @@ public interface EntityCache {
     @Nonnull
     @CheckReturnValue
     CompletableFuture<User> selfUserAsync();
+    
+    /**
+     * Whether or not this cache is synchronous, ie. whether its blocking
+     * getters, such as {@link #guild(long)}, answer straight from memory
+     * without waiting on I/O. Callers that see {@code true} may skip the
+     * {@code *Async} methods and the futures they allocate entirely.
+     * <p>
+     * Defaults to {@code false}, which is always safe to report.
+     *
+     * @return Whether this cache's getters never block.
+     */
+    @CheckReturnValue
+    default boolean synchronous() {
+        return false;
+    }
 }
@@ -81,6 +81,13 @@ public interface EntityCacheWorker extends EntityCache {
     
     void invalidateShard(@Nonnegative int id);
     
+    /**
+     * Releases anything this cache holds on to that would outlive catnip,
+     * ex. threads. Called when catnip is shut down. Does nothing by default.
+     */
+    default void shutdown() {
+    }
+    
     @Nonnull
     EntityCache catnip(@Nonnull Catnip catnip);
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.cache.MutationLog.Mutation;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache worker that replicates another {@link MemoryEntityCache} from its
+ * {@link MutationLog}, instead of caching gateway events itself. Subscribe
+ * it to the primary cache's log in-process, or feed it mutations read from
+ * an append-only file with {@link MutationLog#replay}. Gateway events given
+ * to it through {@link #updateCache(String, int, JsonObject)} are ignored.
+ * <p>
+ * Mutations are applied through the same paths as gateway events, so the
+ * follower keeps the same secondary indexes, and its own mutation log can
+ * be followed in turn. The last sequence number seen for every shard is
+ * tracked, and a gap is logged as a warning, as it means the replica has
+ * missed changes; a follower that starts from a snapshot may start at any
+ * sequence number.
+ */
+public class FollowerEntityCache extends SplitMemoryEntityCache implements MutationLog.Listener {
+    private final Map<Integer, Long> sequences = new ConcurrentHashMap<>();
+    
+    @Nonnull
+    @Override
+    public Future<Void> updateCache(@Nonnull final String eventType, @Nonnegative final int shardId,
+                                    @Nonnull final JsonObject payload) {
+        // Followers only change through the log
+        return Future.succeededFuture();
+    }
+    
+    @Override
+    public void onMutation(@Nonnull final Mutation mutation) {
+        // The log delivers a shard's mutations one at a time, so this can't
+        // race with itself for the same shard
+        final Long last = sequences.put(mutation.shardId(), mutation.sequence());
+        if(last != null && mutation.sequence() != last + 1) {
+            catnip().logAdapter().warn("Mutation log of shard {} skipped from {} to {}, replica may be inconsistent!",
+                    mutation.shardId(), last, mutation.sequence());
+        }
+        applyMutation(mutation);
+    }
+    
+    /**
+     * @param shardId The shard to check.
+     *
+     * @return The sequence number of the last mutation applied for the
+     * shard, or 0 if none were.
+     */
+    @CheckReturnValue
+    public long sequence(@Nonnegative final int shardId) {
+        return sequences.getOrDefault(shardId, 0L);
+    }
+}
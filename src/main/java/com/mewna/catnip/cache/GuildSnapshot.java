@@ -0,0 +1,426 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.cache.view.CacheView;
+import com.mewna.catnip.cache.view.DefaultNamedCacheView;
+import com.mewna.catnip.cache.view.MutableNamedCacheView;
+import com.mewna.catnip.cache.view.NamedCacheView;
+import com.mewna.catnip.entity.channel.GuildChannel;
+import com.mewna.catnip.entity.guild.Guild;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.guild.Role;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Immutable view of a guild, its roles and its channels as they were at one
+ * point in time, for computations that read several of them and need them
+ * to agree with each other, such as permission checks. Get one with
+ * {@link EntityCache#snapshot(long)}.
+ * <p>
+ * Members aren't copied into snapshots, as a guild can have far more of
+ * them than the other entities combined. Instead, a member is read from the
+ * cache the first time it's asked for, and the snapshot keeps returning that
+ * same member afterwards. Snapshots are meant to be used for a single
+ * computation, on a single thread.
+ * <p>
+ * How consistent snapshots are depends on the cache. The
+ * {@link MemoryEntityCache memory caches} version every guild, and only
+ * ever hand out the guild, roles and channels of one version; see
+ * {@link #version()}. Other caches don't copy anything up front: the guild,
+ * roles and channels are looked up like members are, so a snapshot only
+ * costs the lookups that are actually made.
+ */
+public final class GuildSnapshot {
+    private final Source state;
+    private final LongFunction<Member> memberLoader;
+    private final Map<Long, Member> members = new HashMap<>();
+    
+    GuildSnapshot(@Nonnull final State state, @Nonnull final LongFunction<Member> memberLoader) {
+        this((Source) state, memberLoader);
+    }
+    
+    private GuildSnapshot(@Nonnull final Source state, @Nonnull final LongFunction<Member> memberLoader) {
+        this.state = state;
+        this.memberLoader = memberLoader;
+    }
+    
+    /**
+     * Looks up the guild, roles and channels in the given cache as they're
+     * first asked for, with no guarantee that they are from the same point
+     * in time. Whole views are only copied if {@link #roles()} or
+     * {@link #channels()} is called.
+     */
+    @Nonnull
+    static GuildSnapshot lookingUp(@Nonnull final EntityCache cache, final long guildId) {
+        return new GuildSnapshot(new Lookup(cache, guildId), id -> cache.member(guildId, id));
+    }
+    
+    /**
+     * Like {@link #lookingUp(EntityCache, long)}, but starting with a guild
+     * and roles the cache has already looked up.
+     *
+     * @param guild The guild, or {@code null} if it isn't cached.
+     * @param roles Roles by id, with {@code null} values for roles that
+     *              aren't cached.
+     */
+    @Nonnull
+    static GuildSnapshot lookingUp(@Nonnull final EntityCache cache, final long guildId, @Nullable final Guild guild,
+                                   @Nonnull final Map<Long, Role> roles) {
+        final Lookup lookup = new Lookup(cache, guildId);
+        lookup.guild = guild;
+        lookup.guildLoaded = true;
+        lookup.roles.putAll(roles);
+        return new GuildSnapshot(lookup, id -> cache.member(guildId, id));
+    }
+    
+    /**
+     * @return The id of the guild.
+     */
+    @CheckReturnValue
+    public long guildIdAsLong() {
+        return state.guildId();
+    }
+    
+    /**
+     * @return The id of the guild.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public String guildId() {
+        return Long.toUnsignedString(state.guildId());
+    }
+    
+    /**
+     * Version of the guild this snapshot was taken at. Every change to the
+     * guild, its roles or its channels increases the version, so two
+     * snapshots of the same guild with the same version hold the same
+     * entities. Always 0 for caches that don't version guilds.
+     *
+     * @return The version of the guild.
+     */
+    @CheckReturnValue
+    public long version() {
+        return state.version();
+    }
+    
+    /**
+     * @return The guild, or {@code null} if it wasn't cached.
+     */
+    @Nullable
+    @CheckReturnValue
+    public Guild guild() {
+        return state.guild();
+    }
+    
+    /**
+     * @return The guild's roles.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public NamedCacheView<Role> roles() {
+        return state.roles();
+    }
+    
+    /**
+     * @param id The id of the role.
+     *
+     * @return The role, or {@code null} if it wasn't cached.
+     */
+    @Nullable
+    @CheckReturnValue
+    public Role role(final long id) {
+        return state.role(id);
+    }
+    
+    /**
+     * @param id The id of the role.
+     *
+     * @return The role, or {@code null} if it wasn't cached.
+     */
+    @Nullable
+    @CheckReturnValue
+    public Role role(@Nonnull final String id) {
+        return role(Long.parseUnsignedLong(id));
+    }
+    
+    /**
+     * @return The guild's channels.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public NamedCacheView<GuildChannel> channels() {
+        return state.channels();
+    }
+    
+    /**
+     * @param id The id of the channel.
+     *
+     * @return The channel, or {@code null} if it wasn't cached.
+     */
+    @Nullable
+    @CheckReturnValue
+    public GuildChannel channel(final long id) {
+        return state.channel(id);
+    }
+    
+    /**
+     * @param id The id of the channel.
+     *
+     * @return The channel, or {@code null} if it wasn't cached.
+     */
+    @Nullable
+    @CheckReturnValue
+    public GuildChannel channel(@Nonnull final String id) {
+        return channel(Long.parseUnsignedLong(id));
+    }
+    
+    /**
+     * Gets a member of the guild. The first call for a member reads it from
+     * the cache, and later calls return the same member, even if the cache
+     * has changed since.
+     *
+     * @param id The id of the member.
+     *
+     * @return The member, or {@code null} if it isn't cached.
+     */
+    @Nullable
+    @CheckReturnValue
+    public Member member(final long id) {
+        return members.computeIfAbsent(id, memberLoader::apply);
+    }
+    
+    /**
+     * Gets a member of the guild. The first call for a member reads it from
+     * the cache, and later calls return the same member, even if the cache
+     * has changed since.
+     *
+     * @param id The id of the member.
+     *
+     * @return The member, or {@code null} if it isn't cached.
+     */
+    @Nullable
+    @CheckReturnValue
+    public Member member(@Nonnull final String id) {
+        return member(Long.parseUnsignedLong(id));
+    }
+    
+    /**
+     * Where a snapshot gets its entities from.
+     */
+    private interface Source {
+        long guildId();
+        
+        long version();
+        
+        @Nullable
+        Guild guild();
+        
+        @Nullable
+        Role role(long id);
+        
+        @Nonnull
+        NamedCacheView<Role> roles();
+        
+        @Nullable
+        GuildChannel channel(long id);
+        
+        @Nonnull
+        NamedCacheView<GuildChannel> channels();
+    }
+    
+    /**
+     * The copied entities of a snapshot. Never changes once created, so it's
+     * shared by every snapshot of the same version.
+     */
+    static final class State implements Source {
+        private final long guildId;
+        private final long version;
+        private final Guild guild;
+        private final NamedCacheView<Role> roles;
+        private final NamedCacheView<GuildChannel> channels;
+        
+        private State(final long guildId, final long version, @Nullable final Guild guild,
+                      @Nonnull final NamedCacheView<Role> roles, @Nonnull final NamedCacheView<GuildChannel> channels) {
+            this.guildId = guildId;
+            this.version = version;
+            this.guild = guild;
+            this.roles = roles;
+            this.channels = channels;
+        }
+        
+        @Nonnull
+        static State copy(final long guildId, final long version, @Nullable final Guild guild,
+                          @Nullable final CacheView<Role> roles, @Nullable final CacheView<GuildChannel> channels) {
+            return new State(guildId, version, guild, copy(roles, Role::name, Role::idAsLong),
+                    copy(channels, GuildChannel::name, GuildChannel::idAsLong));
+        }
+        
+        @Nonnull
+        private static <T> NamedCacheView<T> copy(@Nullable final CacheView<T> view,
+                                                  @Nonnull final Function<T, String> nameFunction,
+                                                  @Nonnull final ToLongFunction<T> idFunction) {
+            final MutableNamedCacheView<T> copy = new DefaultNamedCacheView<>(nameFunction);
+            if(view != null) {
+                view.forEach(entity -> copy.put(idFunction.applyAsLong(entity), entity));
+            }
+            return copy;
+        }
+        
+        @Override
+        public long guildId() {
+            return guildId;
+        }
+        
+        @Override
+        public long version() {
+            return version;
+        }
+        
+        @Nullable
+        @Override
+        public Guild guild() {
+            return guild;
+        }
+        
+        @Nullable
+        @Override
+        public Role role(final long id) {
+            return roles.getById(id);
+        }
+        
+        @Nonnull
+        @Override
+        public NamedCacheView<Role> roles() {
+            return roles;
+        }
+        
+        @Nullable
+        @Override
+        public GuildChannel channel(final long id) {
+            return channels.getById(id);
+        }
+        
+        @Nonnull
+        @Override
+        public NamedCacheView<GuildChannel> channels() {
+            return channels;
+        }
+    }
+    
+    /**
+     * Entities looked up from a cache the first time they're asked for, and
+     * reused afterwards.
+     */
+    private static final class Lookup implements Source {
+        private final EntityCache cache;
+        private final long guildId;
+        private final Map<Long, Role> roles = new HashMap<>();
+        private final Map<Long, GuildChannel> channels = new HashMap<>();
+        private boolean guildLoaded;
+        private Guild guild;
+        private NamedCacheView<Role> roleView;
+        private NamedCacheView<GuildChannel> channelView;
+        
+        private Lookup(@Nonnull final EntityCache cache, final long guildId) {
+            this.cache = cache;
+            this.guildId = guildId;
+        }
+        
+        @Override
+        public long guildId() {
+            return guildId;
+        }
+        
+        @Override
+        public long version() {
+            return 0;
+        }
+        
+        @Nullable
+        @Override
+        public Guild guild() {
+            if(!guildLoaded) {
+                guild = cache.guild(guildId);
+                guildLoaded = true;
+            }
+            return guild;
+        }
+        
+        @Nullable
+        @Override
+        public Role role(final long id) {
+            if(roleView != null) {
+                return roleView.getById(id);
+            }
+            // Misses are remembered too, as a snapshot mustn't change
+            if(!roles.containsKey(id)) {
+                roles.put(id, cache.role(guildId, id));
+            }
+            return roles.get(id);
+        }
+        
+        @Nonnull
+        @Override
+        public NamedCacheView<Role> roles() {
+            if(roleView == null) {
+                roleView = State.copy(cache.roles(guildId), Role::name, Role::idAsLong);
+            }
+            return roleView;
+        }
+        
+        @Nullable
+        @Override
+        public GuildChannel channel(final long id) {
+            if(channelView != null) {
+                return channelView.getById(id);
+            }
+            if(!channels.containsKey(id)) {
+                channels.put(id, cache.channel(guildId, id));
+            }
+            return channels.get(id);
+        }
+        
+        @Nonnull
+        @Override
+        public NamedCacheView<GuildChannel> channels() {
+            if(channelView == null) {
+                channelView = State.copy(cache.channels(guildId), GuildChannel::name, GuildChannel::idAsLong);
+            }
+            return channelView;
+        }
+    }
+}
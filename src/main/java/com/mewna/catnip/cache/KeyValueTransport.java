@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+import lombok.experimental.Accessors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The connection to a remote key-value store that a {@link RemoteEntityCache}
+ * keeps its entities in, ex. a Redis client. Keys are strings and values are
+ * opaque bytes; the store doesn't need to understand either.
+ * <p>
+ * Every call to this interface is expected to cost one round-trip to the
+ * store, so implementations should send everything passed to a single call
+ * together, ex. as a Redis pipeline or {@code MGET}, rather than one command
+ * at a time. Calls may be made from any thread, and should not block.
+ * <p>
+ * A {@link RemoteEntityCache} never has more than one {@link #write(List)}
+ * in flight per shard, so writes don't need to be ordered relative to other
+ * calls.
+ */
+public interface KeyValueTransport {
+    /**
+     * Reads the values of the given keys, in one round-trip.
+     *
+     * @param keys The keys to read.
+     *
+     * @return A future completed with the value of each key, in the same
+     * order as the keys, with {@code null} for keys that have no value.
+     */
+    @Nonnull
+    CompletableFuture<List<byte[]>> read(@Nonnull List<String> keys);
+    
+    /**
+     * Applies the given writes, in order, in one round-trip.
+     *
+     * @param writes The writes to apply.
+     *
+     * @return A future completed once every write is applied.
+     */
+    @Nonnull
+    CompletableFuture<Void> write(@Nonnull List<Write> writes);
+    
+    enum Operation {
+        /**
+         * Sets the key to the write's value.
+         */
+        SET,
+        /**
+         * Deletes the key.
+         */
+        DELETE,
+        /**
+         * Deletes every key starting with the write's key. With Redis, this
+         * can be done with {@code SCAN} and {@code UNLINK}, or with a script.
+         */
+        DELETE_PREFIX,
+    }
+    
+    /**
+     * A single change to the store.
+     */
+    @Value
+    @Accessors(fluent = true)
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    final class Write {
+        private Operation operation;
+        private String key;
+        /**
+         * The new value, for sets.
+         */
+        @Nullable
+        private byte[] value;
+        
+        @Nonnull
+        public static Write set(@Nonnull final String key, @Nonnull final byte[] value) {
+            return new Write(Operation.SET, key, value);
+        }
+        
+        @Nonnull
+        public static Write delete(@Nonnull final String key) {
+            return new Write(Operation.DELETE, key, null);
+        }
+        
+        @Nonnull
+        public static Write deletePrefix(@Nonnull final String prefix) {
+            return new Write(Operation.DELETE_PREFIX, prefix, null);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * Requests specific members from the gateway as they're needed, to fill
+ * gaps in caches that don't chunk every member up front, such as
+ * {@link ActiveMemberEntityCache}. Requested members arrive as
+ * {@code GUILD_MEMBERS_CHUNK} events, and are cached like any other chunk.
+ * <p>
+ * Requests are batched per shard: the first request for a shard starts a
+ * short delay, after which everything requested for the shard in the
+ * meantime is sent, as one gateway request per guild. Guilds that collect
+ * {@link #MAX_USER_IDS} ids are sent right away. Ids that are already
+ * waiting to be sent are only requested once.
+ * <p>
+ * To request members by name instead, use
+ * {@link Catnip#chunkMembers(long, String, int)}, as those requests can't
+ * be combined.
+ */
+public class MemberChunker {
+    /**
+     * The maximum number of user ids per gateway request.
+     */
+    public static final int MAX_USER_IDS = 100;
+    
+    private final Catnip catnip;
+    private final long delay;
+    // shard -> guild -> user ids. Guarded by this.
+    private final Map<Integer, Map<Long, Set<Long>>> pending = new HashMap<>();
+    
+    /**
+     * @param catnip The catnip instance to send requests through.
+     * @param delay  How long to collect requests for a shard before sending
+     *               them, in milliseconds.
+     */
+    public MemberChunker(@Nonnull final Catnip catnip, @Nonnegative final long delay) {
+        this.catnip = catnip;
+        this.delay = Math.max(delay, 1);
+    }
+    
+    /**
+     * Requests a member, to be sent with the next batch for its shard.
+     *
+     * @param guildId The ID of the guild the member is in.
+     * @param userId  The ID of the member.
+     */
+    public void request(final long guildId, final long userId) {
+        request(guildId, Collections.singleton(userId));
+    }
+    
+    /**
+     * Requests members of the same guild, to be sent with the next batch for
+     * the guild's shard.
+     *
+     * @param guildId The ID of the guild the members are in.
+     * @param userIds The IDs of the members.
+     */
+    public void request(final long guildId, @Nonnull final Collection<Long> userIds) {
+        final int shardId = shardId(guildId);
+        final List<Set<Long>> full = new ArrayList<>();
+        final boolean schedule;
+        synchronized(this) {
+            schedule = !pending.containsKey(shardId);
+            final Map<Long, Set<Long>> guilds = pending.computeIfAbsent(shardId, __ -> new HashMap<>());
+            Set<Long> ids = guilds.computeIfAbsent(guildId, __ -> new HashSet<>());
+            for(final long userId : userIds) {
+                ids.add(userId);
+                if(ids.size() == MAX_USER_IDS) {
+                    full.add(ids);
+                    ids = new HashSet<>();
+                    guilds.put(guildId, ids);
+                }
+            }
+            if(ids.isEmpty()) {
+                guilds.remove(guildId);
+            }
+        }
+        full.forEach(ids -> send(guildId, ids));
+        if(schedule) {
+            catnip.vertx().setTimer(delay, __ -> flush(shardId));
+        }
+    }
+    
+    /**
+     * Sends everything requested for a shard right away.
+     *
+     * @param shardId The shard to send requests for.
+     */
+    public void flush(@Nonnegative final int shardId) {
+        final Map<Long, Set<Long>> guilds;
+        synchronized(this) {
+            guilds = pending.remove(shardId);
+        }
+        if(guilds != null) {
+            guilds.forEach(this::send);
+        }
+    }
+    
+    /**
+     * @return The number of members waiting to be requested.
+     */
+    public synchronized int pending() {
+        int count = 0;
+        for(final Map<Long, Set<Long>> guilds : pending.values()) {
+            for(final Set<Long> ids : guilds.values()) {
+                count += ids.size();
+            }
+        }
+        return count;
+    }
+    
+    private void send(final long guildId, @Nonnull final Set<Long> userIds) {
+        catnip.chunkMembers(guildId, userIds);
+    }
+    
+    private int shardId(final long guildId) {
+        return (int) ((guildId >> 22) % catnip.shardManager().shardCount());
+    }
+}
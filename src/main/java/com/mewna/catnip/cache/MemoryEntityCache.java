@@ -28,6 +28,10 @@
 package com.mewna.catnip.cache;
 
 import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.CacheFootprint.EntityType;
+import com.mewna.catnip.cache.MutationLog.Kind;
+import com.mewna.catnip.cache.MutationLog.Mutation;
+import com.mewna.catnip.cache.MutationLog.Operation;
 import com.mewna.catnip.cache.view.*;
 import com.mewna.catnip.entity.channel.Channel;
 import com.mewna.catnip.entity.channel.GuildChannel;
@@ -36,11 +40,14 @@ import com.mewna.catnip.entity.guild.Guild;
 import com.mewna.catnip.entity.guild.Member;
 import com.mewna.catnip.entity.guild.Role;
 import com.mewna.catnip.entity.impl.EntityBuilder;
+import com.mewna.catnip.entity.impl.MemberImpl;
+import com.mewna.catnip.entity.impl.StreamingEntityBuilder;
+import com.mewna.catnip.entity.impl.StreamingEntityBuilder.RawGuildCollections;
+import com.mewna.catnip.entity.impl.UserImpl;
 import com.mewna.catnip.entity.misc.Emoji.CustomEmoji;
 import com.mewna.catnip.entity.user.Presence;
 import com.mewna.catnip.entity.user.User;
 import com.mewna.catnip.entity.user.VoiceState;
-import com.mewna.catnip.util.SafeVertxCompletableFuture;
 import io.vertx.core.Future;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -51,16 +58,20 @@ import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.format.DateTimeFormatter;
-import java.util.Collection;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
 import java.util.function.Function;
 import java.util.function.LongPredicate;
+import java.util.function.Supplier;
 
 import static com.mewna.catnip.shard.DiscordEvent.Raw;
+import static com.mewna.catnip.util.JsonUtil.toStringSet;
 import static com.mewna.catnip.util.Utils.removeIf;
 
 /**
@@ -70,6 +81,26 @@ import static com.mewna.catnip.util.Utils.removeIf;
 @Accessors(fluent = true, chain = true)
 @SuppressWarnings({"unused", "MismatchedQueryAndUpdateOfCollection"})
 public abstract class MemoryEntityCache implements EntityCacheWorker {
+    // Snapshots that keep racing with writes wait for them instead
+    private static final int OPTIMISTIC_SNAPSHOT_ATTEMPTS = 3;
+    // Entities measured per type when estimating the cache's footprint
+    private static final int FOOTPRINT_SAMPLES = 256;
+    private static final SecondaryIndex.Keys<Member> MEMBER_ROLES = (member, sink) -> {
+        for(final String id : member.roleIds()) {
+            sink.accept(Long.parseUnsignedLong(id));
+        }
+    };
+    private static final SecondaryIndex.Keys<GuildChannel> CHANNEL_PARENT = (channel, sink) -> {
+        if(channel.parentIdAsLong() != 0) {
+            sink.accept(channel.parentIdAsLong());
+        }
+    };
+    private static final SecondaryIndex.Keys<VoiceState> VOICE_STATE_CHANNEL = (state, sink) -> {
+        if(state.channelIdAsLong() != 0) {
+            sink.accept(state.channelIdAsLong());
+        }
+    };
+    
     @SuppressWarnings("WeakerAccess")
     protected final MutableNamedCacheView<Guild> guildCache = createGuildCacheView();
     @SuppressWarnings("WeakerAccess")
@@ -82,11 +113,29 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
     protected final Map<Long, MutableNamedCacheView<CustomEmoji>> emojiCache = new ConcurrentHashMap<>();
     @SuppressWarnings("WeakerAccess")
     protected final Map<Long, MutableCacheView<VoiceState>> voiceStateCache = new ConcurrentHashMap<>();
+    // Secondary indexes, per guild. They're maintained alongside the views
+    // above, and deleted with them.
+    @SuppressWarnings("WeakerAccess")
+    protected final Map<Long, SecondaryIndex<Member>> membersByRole = new ConcurrentHashMap<>();
+    @SuppressWarnings("WeakerAccess")
+    protected final Map<Long, SecondaryIndex<GuildChannel>> channelsByParent = new ConcurrentHashMap<>();
+    @SuppressWarnings("WeakerAccess")
+    protected final Map<Long, SecondaryIndex<VoiceState>> voiceStatesByChannel = new ConcurrentHashMap<>();
     @SuppressWarnings("WeakerAccess")
     protected final AtomicReference<User> selfUser = new AtomicReference<>(null);
+    // Versions of guilds, their roles and their channels, for snapshots
+    private final Map<Long, GuildEpoch> guildEpochs = new ConcurrentHashMap<>();
+    /**
+     * Log of every change made to this cache, for keeping replicas of it.
+     * See {@link MutationLog}.
+     */
+    @Getter
+    private final MutationLog mutationLog = new MutationLog();
     @Getter
     private Catnip catnip;
     private EntityBuilder entityBuilder;
+    private StreamingEntityBuilder streamingEntityBuilder;
+    private CacheUpdateExecutor cacheUpdateExecutor;
     
     /**
      * Function used to map members to their name, for named cache views.
@@ -117,13 +166,13 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
      *
      * @return A new guild cache view.
      *
-     * @implNote Defaults to calling {@link #createNamedCacheView(Function)}.
+     * @implNote Defaults to calling {@link #createNamedCacheView(Class, Function)}.
      */
     @SuppressWarnings("WeakerAccess")
     @Nonnull
     @CheckReturnValue
     protected MutableNamedCacheView<Guild> createGuildCacheView() {
-        return createNamedCacheView(Guild::name);
+        return createNamedCacheView(Guild.class, Guild::name);
     }
     
     /**
@@ -132,13 +181,13 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
      *
      * @return A new user cache view.
      *
-     * @implNote Defaults to calling {@link #createNamedCacheView(Function)}.
+     * @implNote Defaults to calling {@link #createNamedCacheView(Class, Function)}.
      */
     @SuppressWarnings("WeakerAccess")
     @Nonnull
     @CheckReturnValue
     protected MutableNamedCacheView<User> createUserCacheView() {
-        return createNamedCacheView(User::username);
+        return createNamedCacheView(User.class, User::username);
     }
     
     /**
@@ -162,13 +211,20 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
      *
      * @return A new presence cache view.
      *
-     * @implNote Defaults to calling {@link #createCacheView()}.
+     * @implNote Defaults to a {@link ConcurrentCacheView} over a compact
+     * store, which packs statuses into bits and shares identical activities
+     * between presences, as presences are by far the most written-to part of
+     * the cache. Presences read from it are created on every read. The store
+     * is guarded by a single read-write lock, so reads run in parallel with
+     * each other but wait for writes, and vice versa. Unchanged presences are
+     * detected in the store, without decoding the cached one, and aren't
+     * written again.
      */
     @SuppressWarnings("WeakerAccess")
     @Nonnull
     @CheckReturnValue
     protected MutableCacheView<Presence> createPresenceCacheView() {
-        return createCacheView();
+        return new CompactPresenceStore.View(new CompactPresenceStore(this::catnip, 16));
     }
     
     /**
@@ -177,13 +233,13 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
      *
      * @return A new guild channel cache view.
      *
-     * @implNote Defaults to calling {@link #createNamedCacheView(Function)}.
+     * @implNote Defaults to calling {@link #createNamedCacheView(Class, Function)}.
      */
     @SuppressWarnings("WeakerAccess")
     @Nonnull
     @CheckReturnValue
     protected MutableNamedCacheView<GuildChannel> createGuildChannelCacheView() {
-        return createNamedCacheView(GuildChannel::name);
+        return createNamedCacheView(GuildChannel.class, GuildChannel::name);
     }
     
     /**
@@ -192,28 +248,30 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
      *
      * @return A new role cache view.
      *
-     * @implNote Defaults to calling {@link #createNamedCacheView(Function)}.
+     * @implNote Defaults to calling {@link #createNamedCacheView(Class, Function)}.
      */
     @SuppressWarnings("WeakerAccess")
     @Nonnull
     @CheckReturnValue
     protected MutableNamedCacheView<Role> createRoleCacheView() {
-        return createNamedCacheView(Role::name);
+        return createNamedCacheView(Role.class, Role::name);
     }
     
     /**
      * Creates a new member cache view. Subclasses can override this method to
-     * use a different cache view implementation.
+     * use a different cache view implementation, ex. views from a
+     * {@link CacheBudget CacheBudget} to only keep a bounded working set of
+     * members across all guilds.
      *
      * @return A new member cache view.
      *
-     * @implNote Defaults to calling {@link #createNamedCacheView(Function)}.
+     * @implNote Defaults to calling {@link #createNamedCacheView(Class, Function)}.
      */
     @SuppressWarnings("WeakerAccess")
     @Nonnull
     @CheckReturnValue
     protected MutableNamedCacheView<Member> createMemberCacheView() {
-        return createNamedCacheView(memberNameFunction());
+        return createNamedCacheView(Member.class, memberNameFunction());
     }
     
     /**
@@ -222,13 +280,13 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
      *
      * @return A new emoji cache view.
      *
-     * @implNote Defaults to calling {@link #createNamedCacheView(Function)}.
+     * @implNote Defaults to calling {@link #createNamedCacheView(Class, Function)}.
      */
     @SuppressWarnings("WeakerAccess")
     @Nonnull
     @CheckReturnValue
     protected MutableNamedCacheView<CustomEmoji> createEmojiCacheView() {
-        return createNamedCacheView(CustomEmoji::name);
+        return createNamedCacheView(CustomEmoji.class, CustomEmoji::name);
     }
     
     /**
@@ -253,6 +311,11 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
      * @param <T> Type of the elements to be held by this view.
      *
      * @return A new cache view.
+     *
+     * @implNote Defaults to a {@link DefaultCacheView}. If many threads look
+     * up entities in the same views, {@link StampedCacheView} avoids
+     * contending on the read lock for point lookups, and
+     * {@link ConcurrentCacheView} doesn't lock at all.
      */
     @SuppressWarnings("WeakerAccess")
     @Nonnull
@@ -268,6 +331,11 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
      * @param <T> Type of the elements to be held by this view.
      *
      * @return A new named cache view.
+     *
+     * @implNote Defaults to a {@link DefaultNamedCacheView}. See
+     * {@link StampedNamedCacheView}, {@link ConcurrentNamedCacheView}, and
+     * {@link CopyOnWriteNamedCacheView} for implementations better suited to
+     * read-heavy views.
      */
     @SuppressWarnings("WeakerAccess")
     @Nonnull
@@ -276,6 +344,100 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
         return new DefaultNamedCacheView<>(nameFunction);
     }
     
+    /**
+     * Creates a new named cache view for the given entity type. Subclasses
+     * can override this method to use a different cache view implementation.
+     *
+     * @param type         Type of the entities to be held by this view.
+     * @param nameFunction Function used to map entities to their name.
+     * @param <T>          Type of the elements to be held by this view.
+     *
+     * @return A new named cache view.
+     *
+     * @implNote Returns an {@link IndexedNamedCacheView} if
+     * {@link #indexNames(Class)} returns {@code true} for the type, and calls
+     * {@link #createNamedCacheView(Function)} otherwise.
+     */
+    @SuppressWarnings("WeakerAccess")
+    @Nonnull
+    @CheckReturnValue
+    protected <T> MutableNamedCacheView<T> createNamedCacheView(@Nonnull final Class<T> type,
+                                                               @Nonnull final Function<T, String> nameFunction) {
+        return indexNames(type) ? new IndexedNamedCacheView<>(nameFunction) : createNamedCacheView(nameFunction);
+    }
+    
+    /**
+     * Whether or not the named views holding the given entity type should
+     * maintain a name index, making exact and prefix name lookups much
+     * faster, at the cost of some memory and slower writes. Subclasses can
+     * override this method to enable it, ex. for {@link Member} views of very
+     * large guilds.
+     * <p>
+     * Since some views are created while this cache is being constructed,
+     * implementations must not depend on any state of the subclass.
+     *
+     * @param type Type of the entities held by the view. One of
+     *             {@link Guild}, {@link User}, {@link GuildChannel},
+     *             {@link Role}, {@link Member}, or {@link CustomEmoji}.
+     *
+     * @return Whether or not to index names. Defaults to {@code false}.
+     */
+    @SuppressWarnings("WeakerAccess")
+    @CheckReturnValue
+    protected boolean indexNames(@Nonnull final Class<?> type) {
+        return false;
+    }
+    
+    /**
+     * Whether or not members should be cached when they're seen in
+     * {@code MESSAGE_CREATE} and {@code VOICE_STATE_UPDATE} events, on top of
+     * the usual sources. Caches that don't chunk every member, such as
+     * {@link ActiveMemberEntityCache}, use this to keep the members that are
+     * actually active cached.
+     *
+     * @return Whether to cache members from activity. Defaults to
+     * {@code false}, in which case message events are ignored entirely.
+     */
+    @SuppressWarnings("WeakerAccess")
+    @CheckReturnValue
+    protected boolean cacheMembersFromActivity() {
+        return false;
+    }
+    
+    /**
+     * Called when a {@code GUILD_MEMBER_UPDATE} arrives for a member that
+     * isn't cached. Defaults to logging a warning, as with member chunking
+     * this means that the cache is missing something it should have.
+     *
+     * @param guildId The ID of the guild the member is in.
+     * @param id      The ID of the member.
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected void uncachedMemberUpdated(final long guildId, final long id) {
+        catnip.logAdapter().warn("Got GUILD_MEMBER_UPDATE for {} in {}, but we don't have them cached?!", id, guildId);
+    }
+    
+    /**
+     * Forgets a member that a member view dropped on its own, ex. because it
+     * expired from a {@link CacheBudget}, by removing it from the role index
+     * and recording its removal. Subclasses whose member views evict members
+     * should call this from their eviction listener, while the view is still
+     * locked.
+     *
+     * @param member The evicted member.
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected void memberEvicted(@Nonnull final Member member) {
+        final long guildId = member.guildIdAsLong();
+        final MutableCacheView<Member> current = memberCache(guildId, true);
+        // The member may have been evicted from a view that was already
+        // thrown away, and cached again in the guild's new view since
+        if(current == null || current.getById(member.idAsLong()) == null) {
+            unindex(membersByRole, guildId, member.idAsLong(), member);
+            recordInGuild(Operation.REMOVE, Kind.MEMBER, guildId, member.idAsLong(), null);
+        }
+    }
+    
     protected abstract MutableNamedCacheView<User> userCache(int shardId);
     protected abstract MutableCacheView<UserDMChannel> dmChannelCache(int shardId);
     protected abstract MutableCacheView<Presence> presenceCache(int shardId);
@@ -293,6 +455,7 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
     @SuppressWarnings("WeakerAccess")
     protected void deleteMemberCache(final long guildId) {
         memberCache.remove(guildId);
+        membersByRole.remove(guildId);
     }
     
     @SuppressWarnings("WeakerAccess")
@@ -313,6 +476,7 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
     @SuppressWarnings("WeakerAccess")
     protected void deleteChannelCache(final long guildId) {
         guildChannelCache.remove(guildId);
+        channelsByParent.remove(guildId);
     }
     
     @SuppressWarnings("WeakerAccess")
@@ -333,93 +497,351 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
     @SuppressWarnings("WeakerAccess")
     protected void deleteVoiceStateCache(final long guildId) {
         voiceStateCache.remove(guildId);
+        voiceStatesByChannel.remove(guildId);
     }
     
-    // Man these """async""" methods are a joke.
+    @Override
+    public boolean synchronous() {
+        return true;
+    }
+    
+    // Everything here lives in memory, so the async methods are just the
+    // blocking getters wrapped in an already-completed future. These are
+    // plain futures on purpose: there's nothing to wait for, so there's no
+    // reason to pay for looking up a vert.x context to complete them on.
     
     @Nonnull
     @Override
     public CompletableFuture<Guild> guildAsync(final long id) {
-        return SafeVertxCompletableFuture.completedFuture(guild(id));
+        return CompletableFuture.completedFuture(guild(id));
     }
     
     @Nonnull
     @Override
     public CompletableFuture<User> userAsync(final long id) {
-        return SafeVertxCompletableFuture.completedFuture(user(id));
+        return CompletableFuture.completedFuture(user(id));
     }
     
     @Nonnull
     @Override
     public CompletableFuture<Presence> presenceAsync(final long id) {
-        return SafeVertxCompletableFuture.completedFuture(presence(id));
+        return CompletableFuture.completedFuture(presence(id));
     }
     
     @Nonnull
     @Override
     public CompletableFuture<Member> memberAsync(final long guildId, final long id) {
-        return SafeVertxCompletableFuture.completedFuture(member(guildId, id));
+        return CompletableFuture.completedFuture(member(guildId, id));
     }
     
     @Nonnull
     @Override
     public CompletableFuture<Role> roleAsync(final long guildId, final long id) {
-        return SafeVertxCompletableFuture.completedFuture(role(guildId, id));
+        return CompletableFuture.completedFuture(role(guildId, id));
     }
     
     @Nonnull
     @Override
     public CompletableFuture<GuildChannel> channelAsync(final long guildId, final long id) {
-        return SafeVertxCompletableFuture.completedFuture(channel(guildId, id));
+        return CompletableFuture.completedFuture(channel(guildId, id));
     }
     
     @Nonnull
     @Override
     public CompletableFuture<UserDMChannel> dmChannelAsync(final long id) {
-        return SafeVertxCompletableFuture.completedFuture(dmChannel(id));
+        return CompletableFuture.completedFuture(dmChannel(id));
     }
     
     @Nonnull
     @Override
     public CompletableFuture<CustomEmoji> emojiAsync(final long guildId, final long id) {
-        return SafeVertxCompletableFuture.completedFuture(emoji(guildId, id));
+        return CompletableFuture.completedFuture(emoji(guildId, id));
     }
     
     @Nonnull
     @Override
     public CompletableFuture<VoiceState> voiceStateAsync(final long guildId, final long id) {
-        return SafeVertxCompletableFuture.completedFuture(voiceState(guildId, id));
+        return CompletableFuture.completedFuture(voiceState(guildId, id));
     }
     
     @Nonnull
     @Override
     public CompletableFuture<User> selfUserAsync() {
-        return SafeVertxCompletableFuture.completedFuture(selfUser());
+        return CompletableFuture.completedFuture(selfUser());
     }
     
     protected int shardId(final long entityId) {
         return (int)((entityId >> 22) % catnip.shardManager().shardCount());
     }
     
+    /**
+     * Caches a user on the given shard. Every single user that this cache
+     * stores goes through this method, except for {@link #bulkCacheUsers(int, Collection)}.
+     *
+     * @param shardId The shard the user was received on.
+     * @param user    The user to cache.
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected void cacheUser(final int shardId, @Nonnull final User user) {
+        final User old = userCache(shardId).put(user.idAsLong(), user);
+        record(Operation.PUT, Kind.USER, shardId, 0, user.idAsLong(), user);
+        reindexIfRenamed(old, user);
+    }
+    
+    /**
+     * Removes a user from the cache. Nothing in this class removes users, but
+     * subclasses may, ex. once none of a user's members are cached.
+     *
+     * @param shardId The shard the user was cached on.
+     * @param id      The ID of the user to remove.
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected void uncacheUser(final int shardId, final long id) {
+        if(userCache(shardId).remove(id) != null) {
+            record(Operation.REMOVE, Kind.USER, shardId, 0, id, null);
+        }
+    }
+    
+    /**
+     * Members without a nickname are named after their user, so when a user
+     * is renamed, they have to be reindexed in every guild's indexed member
+     * view. Renames are rare enough that visiting every guild is fine.
+     */
+    @SuppressWarnings("unchecked")
+    private void reindexIfRenamed(@Nullable final User old, @Nonnull final User user) {
+        if(old == null || Objects.equals(old.username(), user.username())) {
+            return;
+        }
+        for(final MutableNamedCacheView<Member> members : memberCache.values()) {
+            if(members instanceof IndexedNamedCacheView) {
+                ((IndexedNamedCacheView<Member>) members).reindex(user.idAsLong());
+            }
+        }
+    }
+    
+    /**
+     * Caches a presence on the given shard. Every single presence that this
+     * cache stores goes through this method, except for
+     * {@link #bulkCachePresences(int, Map)}.
+     *
+     * @param shardId  The shard the presence was received on.
+     * @param userId   The id of the user the presence belongs to.
+     * @param presence The presence to cache.
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected void cachePresence(final int shardId, final long userId, @Nonnull final Presence presence) {
+        presenceCache(shardId).put(userId, presence);
+        record(Operation.PUT, Kind.PRESENCE, shardId, 0, userId, presence);
+    }
+    
+    private boolean presenceCached(final int shardId, final long userId, @Nonnull final Presence presence) {
+        final MutableCacheView<Presence> presences = presenceCache(shardId);
+        if(presences instanceof CompactPresenceStore.View) {
+            return ((CompactPresenceStore.View) presences).holds(userId, presence);
+        }
+        return presence.equals(presences.getById(userId));
+    }
+    
+    /**
+     * Caches a DM channel on the given shard.
+     *
+     * @param shardId The shard the channel was received on.
+     * @param channel The channel to cache.
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected void cacheDMChannel(final int shardId, @Nonnull final UserDMChannel channel) {
+        dmChannelCache(shardId).put(channel.idAsLong(), channel);
+        record(Operation.PUT, Kind.DM_CHANNEL, shardId, 0, channel.idAsLong(), channel);
+    }
+    
+    private void cacheSelfUser(final int shardId, @Nonnull final User user) {
+        selfUser.set(user);
+        record(Operation.PUT, Kind.SELF_USER, shardId, 0, user.idAsLong(), user);
+    }
+    
+    void cacheGuild(@Nonnull final Guild guild) {
+        writeGuild(guild.idAsLong(), false, () -> guildCache(shardId(guild.idAsLong())).put(guild.idAsLong(), guild));
+        recordInGuild(Operation.PUT, Kind.GUILD, guild.idAsLong(), guild.idAsLong(), guild);
+    }
+    
+    private void deleteGuild(final long guildId) {
+        writeGuild(guildId, true, () -> {
+            guildCache(shardId(guildId)).remove(guildId);
+            deleteMemberCache(guildId);
+            deleteRoleCache(guildId);
+            deleteChannelCache(guildId);
+            deleteEmojiCache(guildId);
+            deleteVoiceStateCache(guildId);
+            return null;
+        });
+        recordInGuild(Operation.CLEAR_GUILD, Kind.GUILD, guildId, guildId, null);
+    }
+    
     private void cacheRole(final Role role) {
-        roleCache(role.guildIdAsLong(), false).put(role.idAsLong(), role);
+        writeGuild(role.guildIdAsLong(), false, () -> roleCache(role.guildIdAsLong(), false).put(role.idAsLong(), role));
+        recordInGuild(Operation.PUT, Kind.ROLE, role.guildIdAsLong(), role.idAsLong(), role);
+    }
+    
+    private void removeRole(final long guildId, final long id) {
+        final MutableCacheView<Role> cache = roleCache(guildId, true);
+        if(cache != null) {
+            writeGuild(guildId, false, () -> cache.remove(id));
+            recordInGuild(Operation.REMOVE, Kind.ROLE, guildId, id, null);
+        }
     }
     
     private void cacheMember(final Member member) {
-        memberCache(member.guildIdAsLong(), false).put(member.idAsLong(), member);
+        cacheMember(Operation.PUT, member);
+    }
+    
+    private void cacheMember(final Operation operation, final Member member) {
+        final Member old = memberCache(member.guildIdAsLong(), false).put(member.idAsLong(), member);
+        index(membersByRole, member.guildIdAsLong(), MEMBER_ROLES).update(member.idAsLong(), old, member);
+        recordInGuild(operation, Kind.MEMBER, member.guildIdAsLong(), member.idAsLong(), member);
+    }
+    
+    private void removeMember(final long guildId, final long id) {
+        final MutableCacheView<Member> cache = memberCache(guildId, true);
+        if(cache != null) {
+            unindex(membersByRole, guildId, id, cache.remove(id));
+            recordInGuild(Operation.REMOVE, Kind.MEMBER, guildId, id, null);
+        }
+    }
+    
+    private void cacheChannel(final GuildChannel channel) {
+        writeGuild(channel.guildIdAsLong(), false, () -> {
+            final GuildChannel old = channelCache(channel.guildIdAsLong(), false).put(channel.idAsLong(), channel);
+            index(channelsByParent, channel.guildIdAsLong(), CHANNEL_PARENT).update(channel.idAsLong(), old, channel);
+            return old;
+        });
+        recordInGuild(Operation.PUT, Kind.CHANNEL, channel.guildIdAsLong(), channel.idAsLong(), channel);
+    }
+    
+    private void removeChannel(final long guildId, final long id) {
+        final MutableNamedCacheView<GuildChannel> channels = channelCache(guildId, true);
+        if(channels != null) {
+            writeGuild(guildId, false, () -> {
+                final GuildChannel old = channels.remove(id);
+                unindex(channelsByParent, guildId, id, old);
+                return old;
+            });
+            recordInGuild(Operation.REMOVE, Kind.CHANNEL, guildId, id, null);
+        }
+    }
+    
+    private void removeDMChannel(final int shardId, final long id) {
+        dmChannelCache(shardId).remove(id);
+        record(Operation.REMOVE, Kind.DM_CHANNEL, shardId, 0, id, null);
+    }
+    
+    private void record(final Operation operation, final Kind kind, final int shardId, final long guildId,
+                        final long id, @Nullable final Object entity) {
+        if(mutationLog.active()) {
+            mutationLog.append(operation, kind, shardId, guildId, id, entity);
+        }
+    }
+    
+    private void recordInGuild(final Operation operation, final Kind kind, final long guildId, final long id,
+                               @Nullable final Object entity) {
+        // Checked first, as working out the shard needs the shard manager
+        if(mutationLog.active()) {
+            mutationLog.append(operation, kind, shardId(guildId), guildId, id, entity);
+        }
+    }
+    
+    /**
+     * Runs a write to a guild, its roles or its channels as one new version
+     * of the guild, so that {@link #snapshot(long)} never sees it half-done.
+     *
+     * @param guildId The guild written to.
+     * @param delete  Whether the write deletes the guild. Its versions are
+     *                dropped, and the next write starts over.
+     * @param write   The write.
+     */
+    private <R> R writeGuild(final long guildId, final boolean delete, @Nonnull final Supplier<R> write) {
+        while(true) {
+            final GuildEpoch epoch = guildEpochs.computeIfAbsent(guildId, __ -> new GuildEpoch());
+            final long stamp = epoch.lock.writeLock();
+            try {
+                // Lost a race with a delete, so retry on the epoch that
+                // replaced it
+                if(epoch.deleted) {
+                    continue;
+                }
+                final R result = write.get();
+                epoch.version++;
+                if(delete) {
+                    epoch.deleted = true;
+                    guildEpochs.remove(guildId, epoch);
+                }
+                return result;
+            } finally {
+                epoch.lock.unlockWrite(stamp);
+            }
+        }
+    }
+    
+    @Nonnull
+    private GuildSnapshot.State copyGuild(final long guildId, final long version) {
+        return GuildSnapshot.State.copy(guildId, version, guild(guildId), roleCache(guildId, true),
+                channelCache(guildId, true));
+    }
+    
+    @Nonnull
+    private static <T> SecondaryIndex<T> index(@Nonnull final Map<Long, SecondaryIndex<T>> indexes, final long guildId,
+                                               @Nonnull final SecondaryIndex.Keys<T> keys) {
+        return indexes.computeIfAbsent(guildId, __ -> new SecondaryIndex<>(keys));
+    }
+    
+    private static <T> void unindex(@Nonnull final Map<Long, SecondaryIndex<T>> indexes, final long guildId,
+                                    final long id, @Nullable final T old) {
+        final SecondaryIndex<T> index = indexes.get(guildId);
+        if(index != null && old != null) {
+            index.update(id, old, null);
+        }
     }
     
     private void cacheEmoji(final CustomEmoji emoji) {
         emojiCache(emoji.guildIdAsLong(), false).put(emoji.idAsLong(), emoji);
+        recordInGuild(Operation.PUT, Kind.EMOJI, emoji.guildIdAsLong(), emoji.idAsLong(), emoji);
     }
     
     @Nonnull
     @Override
     public Future<Void> updateCache(@Nonnull final String eventType, @Nonnegative final int shardId, @Nonnull final JsonObject payload) {
+        if(eventType.equals(Raw.MESSAGE_CREATE) && !cacheMembersFromActivity()) {
+            return Future.succeededFuture();
+        }
+        final String guildId;
+        switch(eventType) {
+            case Raw.GUILD_CREATE:
+            case Raw.GUILD_UPDATE:
+            case Raw.GUILD_DELETE: {
+                guildId = payload.getString("id");
+                break;
+            }
+            default: {
+                guildId = payload.getString("guild_id", null);
+                break;
+            }
+        }
+        if(guildId == null) {
+            applyUpdate(eventType, shardId, payload);
+            return Future.succeededFuture();
+        }
+        // GUILD_CREATE/UPDATE never run on the event loop, as there could be
+        // cases of massive guilds that block for a significant amount of
+        // time while the guild is being cached.
+        final boolean heavy = eventType.equals(Raw.GUILD_CREATE) || eventType.equals(Raw.GUILD_UPDATE);
+        return cacheUpdateExecutor.execute(Long.parseUnsignedLong(guildId),
+                () -> applyUpdate(eventType, shardId, payload), heavy);
+    }
+    
+    private void applyUpdate(@Nonnull final String eventType, @Nonnegative final int shardId, @Nonnull final JsonObject payload) {
         switch(eventType) {
             // Lifecycle
             case Raw.READY: {
-                selfUser.set(entityBuilder.createUser(payload.getJsonObject("user")));
+                cacheSelfUser(shardId, entityBuilder.createUser(payload.getJsonObject("user")));
                 break;
             }
             // Channels
@@ -427,11 +849,10 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
             case Raw.CHANNEL_UPDATE: {
                 final Channel channel = entityBuilder.createChannel(payload);
                 if(channel.isGuild()) {
-                    final GuildChannel gc = (GuildChannel) channel;
-                    channelCache(gc.guildIdAsLong(), false).put(gc.idAsLong(), gc);
+                    cacheChannel((GuildChannel) channel);
                 } else if(channel.isUserDM()) {
                     final UserDMChannel dm = (UserDMChannel) channel;
-                    dmChannelCache(shardId).put(dm.idAsLong(), dm);
+                    cacheDMChannel(shardId, dm);
                 } else {
                     catnip.logAdapter().warn("I don't know how to cache channel {}: isCategory={}, isDM={}, isGroupDM={}," +
                                     "isGuild={}, isText={}, isUserDM={}, isVoice={}",
@@ -444,13 +865,10 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
                 final Channel channel = entityBuilder.createChannel(payload);
                 if(channel.isGuild()) {
                     final GuildChannel gc = (GuildChannel) channel;
-                    final MutableNamedCacheView<GuildChannel> channels = channelCache(gc.guildIdAsLong(), true);
-                    if(channels != null) {
-                        channels.remove(gc.idAsLong());
-                    }
+                    removeChannel(gc.guildIdAsLong(), gc.idAsLong());
                 } else if(channel.isUserDM()) {
                     final UserDMChannel dm = (UserDMChannel) channel;
-                    dmChannelCache(shardId).remove(dm.userIdAsLong());
+                    removeDMChannel(shardId, dm.userIdAsLong());
                 } else {
                     catnip.logAdapter().warn("I don't know how to delete non-guild channel {}!", channel.idAsLong());
                 }
@@ -458,34 +876,23 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
             }
             // Guilds
             case Raw.GUILD_CREATE: {
-                // This is wrapped in a blocking executor because there could
-                // be cases of massive guilds that end blocking for a
-                // significant amount of time while the guild is being cached.
-                final Future<Void> future = Future.future();
-                catnip().vertx().executeBlocking(f -> {
-                    final Guild guild = entityBuilder.createAndCacheGuild(shardId, payload);
-                    guildCache(shardId(guild.idAsLong())).put(guild.idAsLong(), guild);
-                    f.complete(null);
-                }, __ -> future.complete(null));
-                return future;
+                // Streamed payloads carry their collections as raw bytes,
+                // see CatnipOptions#streamingGuildCreateThreshold. They're
+                // removed so that the event doesn't hold on to them.
+                final RawGuildCollections collections = (RawGuildCollections) payload.remove(StreamingEntityBuilder.RAW_GUILD_COLLECTIONS_KEY);
+                if(collections != null) {
+                    streamingEntityBuilder.cacheGuildCollections(shardId, payload.getString("id"), collections,
+                            catnip().streamingGuildCreateBatchSize());
+                }
+                cacheGuild(entityBuilder.createAndCacheGuild(shardId, payload));
+                break;
             }
             case Raw.GUILD_UPDATE: {
-                final Future<Void> future = Future.future();
-                catnip().vertx().executeBlocking(f -> {
-                    final Guild guild = entityBuilder.createGuild(payload);
-                    guildCache(shardId(guild.idAsLong())).put(guild.idAsLong(), guild);
-                    f.complete(null);
-                }, __ -> future.complete(null));
-                return future;
+                cacheGuild(entityBuilder.createGuild(payload));
+                break;
             }
             case Raw.GUILD_DELETE: {
-                final long guildId = Long.parseUnsignedLong(payload.getString("id"));
-                guildCache(shardId(guildId)).remove(guildId);
-                deleteMemberCache(guildId);
-                deleteRoleCache(guildId);
-                deleteChannelCache(guildId);
-                deleteEmojiCache(guildId);
-                deleteVoiceStateCache(guildId);
+                deleteGuild(Long.parseUnsignedLong(payload.getString("id")));
                 break;
             }
             // Roles
@@ -506,52 +913,49 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
             case Raw.GUILD_ROLE_DELETE: {
                 final String guild = payload.getString("guild_id");
                 final String role = payload.getString("role_id");
-                final MutableCacheView<Role> cache = roleCache(Long.parseUnsignedLong(guild), true);
-                if(cache != null) {
-                    cache.remove(Long.parseUnsignedLong(role));
-                }
+                removeRole(Long.parseUnsignedLong(guild), Long.parseUnsignedLong(role));
                 break;
             }
             // Members
             case Raw.GUILD_MEMBER_ADD: {
                 final Member member = entityBuilder.createMember(payload.getString("guild_id"), payload);
                 final User user = entityBuilder.createUser(payload.getJsonObject("user"));
-                userCache(shardId).put(user.idAsLong(), user);
+                cacheUser(shardId, user);
                 cacheMember(member);
                 break;
             }
             case Raw.GUILD_MEMBER_UPDATE: {
-                // This doesn't send an object like all the other events, so we build a fake
-                // payload object and create an entity from that
-                final JsonObject user = payload.getJsonObject("user");
-                final String id = user.getString("id");
+                // This doesn't send an object like all the other events, so we
+                // patch the fields it carries onto the cached member instead
+                final String id = payload.getJsonObject("user").getString("id");
                 final String guild = payload.getString("guild_id");
-                final Member old = member(guild, id);
-                if(old != null) {
-                    @SuppressWarnings("ConstantConditions")
-                    final JsonObject data = new JsonObject()
-                            .put("user", user)
-                            .put("roles", payload.getJsonArray("roles"))
-                            .put("nick", payload.getString("nick"))
-                            .put("deaf", old.deaf())
-                            .put("mute", old.mute())
-                            .put("joined_at", old.joinedAt()
-                                    // If we have an old member cached, this shouldn't be an issue
-                                    .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
-                    final Member member = entityBuilder.createMember(guild, data);
-                    cacheMember(member);
-                } else {
-                    catnip.logAdapter().warn("Got GUILD_MEMBER_UPDATE for {} in {}, but we don't have them cached?!", id, guild);
+                final MutableCacheView<Member> cache = memberCache(Long.parseUnsignedLong(guild), true);
+                final String nick = payload.getString("nick");
+                final Set<String> roleIds = toStringSet(payload.getJsonArray("roles"));
+                final long memberId = Long.parseUnsignedLong(id);
+                // It also carries the whole user, which may have changed
+                cacheUserIfChanged(shardId, payload.getJsonObject("user"));
+                final boolean[] changed = new boolean[1];
+                final Member updated = cache == null ? null : cache.update(memberId, old -> {
+                    final Member patched = patchMember(catnip, old, nick, roleIds);
+                    if(patched != old) {
+                        index(membersByRole, Long.parseUnsignedLong(guild), MEMBER_ROLES).update(memberId, old, patched);
+                        changed[0] = true;
+                    }
+                    return patched;
+                });
+                if(updated == null) {
+                    uncachedMemberUpdated(Long.parseUnsignedLong(guild), memberId);
+                } else if(changed[0]) {
+                    // Updates that only touch the user leave the member as it was
+                    recordInGuild(Operation.PATCH, Kind.MEMBER, updated.guildIdAsLong(), memberId, updated);
                 }
                 break;
             }
             case Raw.GUILD_MEMBER_REMOVE: {
                 final String guild = payload.getString("guild_id");
                 final String user = payload.getJsonObject("user").getString("id");
-                final MutableCacheView<Member> cache = memberCache(Long.parseUnsignedLong(guild), true);
-                if(cache != null) {
-                    cache.remove(Long.parseUnsignedLong(user));
-                }
+                removeMember(Long.parseUnsignedLong(guild), Long.parseUnsignedLong(user));
                 break;
             }
             // Member chunking
@@ -574,7 +978,11 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
             case Raw.USER_UPDATE: {
                 // Inner payload is always a user object, according to the
                 // docs, so we can just outright replace it.
-                selfUser.set(entityBuilder.createUser(payload));
+                cacheSelfUser(shardId, entityBuilder.createUser(payload));
+                // Our members are named after our entry in the user cache
+                if(user(payload.getString("id")) != null) {
+                    cacheUserIfChanged(shardId, payload);
+                }
                 break;
             }
             // Users
@@ -590,17 +998,16 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
                     // - discriminator
                     // - avatar
                     // so we check the existing cache for a user, and update as needed
-                    final User updated = entityBuilder.createUser(new JsonObject()
-                            .put("id", id)
-                            .put("bot", old.bot())
-                            .put("username", user.getString("username", old.username()))
-                            .put("discriminator", user.getString("discriminator", old.discriminator()))
-                            .put("avatar", user.getString("avatar", old.avatar()))
-                    );
-                    userCache(shardId).put(updated.idAsLong(), updated);
+                    final User updated = patchUser(catnip, old, user);
+                    if(updated != old) {
+                        cacheUser(shardId, updated);
+                    }
                     if(!catnip.cacheFlags().contains(CacheFlag.DROP_GAME_STATUSES)) {
                         final Presence presence = entityBuilder.createPresence(payload);
-                        presenceCache(shardId).put(updated.idAsLong(), presence);
+                        // Most presence updates only repeat what we already have
+                        if(!presenceCached(shardId, updated.idAsLong(), presence)) {
+                            cachePresence(shardId, updated.idAsLong(), presence);
+                        }
                     }
                 } else if(catnip.chunkMembers()) {
                     catnip.logAdapter().warn("Received PRESENCE_UPDATE for unknown user {}!? (member chunking enabled)", id);
@@ -613,11 +1020,106 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
                     final VoiceState state = entityBuilder.createVoiceState(payload);
                     cacheVoiceState(state);
                 }
+                final JsonObject member = payload.getJsonObject("member");
+                if(member != null && cacheMembersFromActivity()) {
+                    final JsonObject data = member.copy();
+                    data.remove("user");
+                    cacheActiveMember(shardId, payload.getString("guild_id"), member.getJsonObject("user"), data);
+                }
+                break;
+            }
+            // Messages
+            case Raw.MESSAGE_CREATE: {
+                final String guild = payload.getString("guild_id", null);
+                final JsonObject member = payload.getJsonObject("member");
+                // Webhooks don't have a member
+                if(guild != null && member != null) {
+                    cacheActiveMember(shardId, guild, payload.getJsonObject("author"), member);
+                }
                 break;
             }
         }
-        // Default case; most events don't need to have special future cases
-        return Future.succeededFuture();
+    }
+    
+    /**
+     * Caches a member seen in an event, for {@link #cacheMembersFromActivity()}.
+     * Members and users that didn't change aren't written again, as most
+     * events come from members that are already cached; reading them is
+     * enough to keep them from expiring.
+     */
+    private void cacheActiveMember(final int shardId, @Nonnull final String guildId, @Nonnull final JsonObject user,
+                                   @Nonnull final JsonObject data) {
+        final long id = Long.parseUnsignedLong(user.getString("id"));
+        cacheUserIfChanged(shardId, user);
+        final Member member = entityBuilder.createMember(guildId, user.getString("id"), data);
+        final MutableCacheView<Member> cache = memberCache(member.guildIdAsLong(), true);
+        final Member old = cache == null ? null : cache.getById(id);
+        if(old == null || !Objects.equals(old.nick(), member.nick()) || !old.roleIds().equals(member.roleIds())) {
+            cacheMember(member);
+        }
+    }
+    
+    /**
+     * Caches a user from an event, unless the cached user already has the
+     * same username, discriminator and avatar.
+     */
+    private void cacheUserIfChanged(final int shardId, @Nonnull final JsonObject user) {
+        final User cachedUser = user(user.getString("id"));
+        if(cachedUser == null) {
+            // A partial user is no use without the rest of it
+            if(user.getString("username") != null) {
+                cacheUser(shardId, entityBuilder.createUser(user));
+            }
+        } else {
+            final User updated = patchUser(catnip, cachedUser, user);
+            if(updated != cachedUser) {
+                cacheUser(shardId, updated);
+            }
+        }
+    }
+    
+    /**
+     * Copies the nick and roles from a GUILD_MEMBER_UPDATE onto a cached
+     * member. Returns the cached member itself if neither changed.
+     */
+    @Nonnull
+    static Member patchMember(@Nonnull final Catnip catnip, @Nonnull final Member old, @Nullable final String nick,
+                              @Nonnull final Set<String> roleIds) {
+        if(Objects.equals(old.nick(), nick) && old.roleIds().equals(roleIds)) {
+            return old;
+        }
+        if(old instanceof MemberImpl) {
+            return ((MemberImpl) old).toBuilder().nick(nick).roleIds(roleIds).build();
+        }
+        return MemberImpl.builder()
+                .catnip(catnip)
+                .idAsLong(old.idAsLong())
+                .guildIdAsLong(old.guildIdAsLong())
+                .nick(nick)
+                .roleIds(roleIds)
+                .joinedAt(old.joinedAt().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
+                .deaf(old.deaf())
+                .mute(old.mute())
+                .build();
+    }
+    
+    /**
+     * Copies the fields of a partial user from a PRESENCE_UPDATE onto a
+     * cached user. Returns the cached user itself if none of them changed.
+     */
+    @Nonnull
+    static User patchUser(@Nonnull final Catnip catnip, @Nonnull final User old, @Nonnull final JsonObject user) {
+        final String username = user.getString("username", old.username());
+        final String discriminator = user.getString("discriminator", old.discriminator());
+        final String avatar = user.getString("avatar", old.avatar());
+        if(Objects.equals(old.username(), username) && Objects.equals(old.discriminator(), discriminator)
+                && Objects.equals(old.avatar(), avatar)) {
+            return old;
+        }
+        final UserImpl.UserImplBuilder builder = old instanceof UserImpl
+                ? ((UserImpl) old).toBuilder()
+                : UserImpl.builder().catnip(catnip).idAsLong(old.idAsLong()).bot(old.bot());
+        return builder.username(username).discriminator(discriminator).avatar(avatar).build();
     }
     
     private void cacheVoiceState(final VoiceState state) {
@@ -626,18 +1128,24 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
             catnip.logAdapter().warn("Not caching voice state for {} due to null guild", state.userIdAsLong());
             return;
         }
-        voiceStateCache(guild, false).put(state.userIdAsLong(), state);
+        final VoiceState old = voiceStateCache(guild, false).put(state.userIdAsLong(), state);
+        index(voiceStatesByChannel, guild, VOICE_STATE_CHANNEL).update(state.userIdAsLong(), old, state);
+        recordInGuild(Operation.PUT, Kind.VOICE_STATE, guild, state.userIdAsLong(), state);
     }
     
     @Override
     public void bulkCacheUsers(@Nonnegative final int shardId, @Nonnull final Collection<User> users) {
         final MutableCacheView<User> cache = userCache(shardId);
-        users.forEach(u -> cache.put(u.idAsLong(), u));
+        users.forEach(u -> {
+            final User old = cache.put(u.idAsLong(), u);
+            record(Operation.PUT, Kind.USER, shardId, 0, u.idAsLong(), u);
+            reindexIfRenamed(old, u);
+        });
     }
     
     @Override
     public void bulkCacheChannels(@Nonnegative final int shardId, @Nonnull final Collection<GuildChannel> channels) {
-        channels.forEach(gc -> channelCache(gc.guildIdAsLong(), false).put(gc.idAsLong(), gc));
+        channels.forEach(this::cacheChannel);
     }
     
     @Override
@@ -658,7 +1166,11 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
     @Override
     public void bulkCachePresences(@Nonnegative final int shardId, @Nonnull final Map<String, Presence> presences) {
         final MutableCacheView<Presence> cache = presenceCache(shardId);
-        presences.forEach((id, presence) -> cache.put(Long.parseUnsignedLong(id), presence));
+        presences.forEach((id, presence) -> {
+            final long userId = Long.parseUnsignedLong(id);
+            cache.put(userId, presence);
+            record(Operation.PUT, Kind.PRESENCE, shardId, 0, userId, presence);
+        });
     }
     
     @Override
@@ -666,15 +1178,192 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
         voiceStates.forEach(this::cacheVoiceState);
     }
     
+    /**
+     * Writes a snapshot of this cache to the given file.
+     *
+     * @param path The file to write to. Replaced if it already exists.
+     *
+     * @throws IOException If writing the snapshot fails.
+     * @see CacheSnapshot
+     */
+    public void writeSnapshot(@Nonnull final Path path) throws IOException {
+        CacheSnapshot.write(this, path);
+    }
+    
+    /**
+     * Restores a snapshot written by {@link #writeSnapshot(Path)} into this
+     * cache. Must be called after catnip's shard manager is set up, and
+     * before any shards connect.
+     *
+     * @param path The snapshot file.
+     *
+     * @throws IOException If reading the snapshot fails.
+     * @see CacheSnapshot
+     */
+    public void restoreSnapshot(@Nonnull final Path path) throws IOException {
+        CacheSnapshot.restore(this, path);
+    }
+    
     @Override
     public void invalidateShard(final int id) {
         final int shardCount = catnip().shardManager().shardCount();
+        // Updates already queued for the shard's guilds would bring them back
+        // if they were applied after the shard was cleared
+        cacheUpdateExecutor.executeAcrossGuilds(() -> invalidateShard(id, shardCount));
+    }
+    
+    @Override
+    public void shutdown() {
+        if(cacheUpdateExecutor != null) {
+            cacheUpdateExecutor.shutdown();
+        }
+    }
+    
+    /**
+     * Removes every guild-scoped entity of a shard, given the shard count
+     * to work out which guilds the shard has. Subclasses that keep per-shard
+     * caches should override this rather than {@link #invalidateShard(int)},
+     * so that {@link #applyMutation(Mutation)} clears them too.
+     *
+     * @param id         The shard to invalidate.
+     * @param shardCount The number of shards.
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected void invalidateShard(final int id, final int shardCount) {
         final LongPredicate predicate = entityId -> (entityId >> 22) % shardCount == id;
+        // Every guild of the shard changes at once, so hold all of their
+        // write locks, to keep snapshots from seeing some of them cleared
+        final List<GuildEpoch> epochs = new ArrayList<>();
+        final List<Long> stamps = new ArrayList<>();
+        guildEpochs.forEach((guildId, epoch) -> {
+            if(predicate.test(guildId)) {
+                epochs.add(epoch);
+                stamps.add(epoch.lock.writeLock());
+            }
+        });
+        try {
+            invalidateGuilds(predicate);
+        } finally {
+            for(int i = 0; i < epochs.size(); i++) {
+                final GuildEpoch epoch = epochs.get(i);
+                epoch.version++;
+                epoch.deleted = true;
+                guildEpochs.values().remove(epoch);
+                epoch.lock.unlockWrite(stamps.get(i));
+            }
+        }
+        record(Operation.CLEAR_SHARD, Kind.GUILD, id, 0, shardCount, null);
+    }
+    
+    private void invalidateGuilds(@Nonnull final LongPredicate predicate) {
         removeIf(memberCache, predicate);
         removeIf(roleCache, predicate);
         removeIf(guildChannelCache, predicate);
         removeIf(emojiCache, predicate);
         removeIf(voiceStateCache, predicate);
+        removeIf(membersByRole, predicate);
+        removeIf(channelsByParent, predicate);
+        removeIf(voiceStatesByChannel, predicate);
+    }
+    
+    /**
+     * Applies a mutation from another cache's {@link MutationLog} to this
+     * cache, through the same paths as gateway events. Applying every
+     * mutation of a log, in order, makes this cache a replica of the one
+     * that logged it. See {@link FollowerEntityCache}.
+     *
+     * @param mutation The mutation to apply.
+     */
+    public void applyMutation(@Nonnull final Mutation mutation) {
+        final int shardId = mutation.shardId();
+        final long guildId = mutation.guildId();
+        final long id = mutation.id();
+        final Object entity = mutation.entity();
+        switch(mutation.operation()) {
+            case PUT:
+            case PATCH: {
+                switch(mutation.kind()) {
+                    case GUILD: {
+                        cacheGuild((Guild) entity);
+                        break;
+                    }
+                    case ROLE: {
+                        cacheRole((Role) entity);
+                        break;
+                    }
+                    case CHANNEL: {
+                        cacheChannel((GuildChannel) entity);
+                        break;
+                    }
+                    case EMOJI: {
+                        cacheEmoji((CustomEmoji) entity);
+                        break;
+                    }
+                    case VOICE_STATE: {
+                        cacheVoiceState((VoiceState) entity);
+                        break;
+                    }
+                    case MEMBER: {
+                        cacheMember(mutation.operation(), (Member) entity);
+                        break;
+                    }
+                    case USER: {
+                        cacheUser(shardId, (User) entity);
+                        break;
+                    }
+                    case PRESENCE: {
+                        cachePresence(shardId, id, (Presence) entity);
+                        break;
+                    }
+                    case DM_CHANNEL: {
+                        cacheDMChannel(shardId, (UserDMChannel) entity);
+                        break;
+                    }
+                    case SELF_USER: {
+                        cacheSelfUser(shardId, (User) entity);
+                        break;
+                    }
+                }
+                break;
+            }
+            case REMOVE: {
+                switch(mutation.kind()) {
+                    case ROLE: {
+                        removeRole(guildId, id);
+                        break;
+                    }
+                    case CHANNEL: {
+                        removeChannel(guildId, id);
+                        break;
+                    }
+                    case MEMBER: {
+                        removeMember(guildId, id);
+                        break;
+                    }
+                    case DM_CHANNEL: {
+                        removeDMChannel(shardId, id);
+                        break;
+                    }
+                    case USER: {
+                        uncacheUser(shardId, id);
+                        break;
+                    }
+                    default: {
+                        catnip.logAdapter().warn("Don't know how to apply removal of {} {}", mutation.kind(), id);
+                        break;
+                    }
+                }
+                break;
+            }
+            case CLEAR_GUILD: {
+                deleteGuild(guildId);
+                break;
+            }
+            case CLEAR_SHARD: {
+                invalidateShard(shardId, (int) id);
+                break;
+            }
+        }
     }
     
     @Nullable
@@ -723,6 +1412,12 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
         return cache == null ? CacheView.noop() : cache;
     }
     
+    @Nonnull
+    @Override
+    public Collection<Member> membersWithRole(final long guildId, final long roleId) {
+        return lookup(memberCache(guildId, true), membersByRole.get(guildId), roleId);
+    }
+    
     @Nonnull
     @Override
     public NamedCacheView<Role> roles() {
@@ -749,6 +1444,12 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
         return new CompositeNamedCacheView<>(guildChannelCache.values(), GuildChannel::name);
     }
     
+    @Nonnull
+    @Override
+    public Collection<GuildChannel> channelsInCategory(final long guildId, final long categoryId) {
+        return lookup(channelCache(guildId, true), channelsByParent.get(guildId), categoryId);
+    }
+    
     @Nullable
     @Override
     public CustomEmoji emoji(final long guildId, final long id) {
@@ -789,6 +1490,84 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
         return new CompositeCacheView<>(voiceStateCache.values());
     }
     
+    @Nonnull
+    @Override
+    public Collection<VoiceState> voiceStatesInChannel(final long guildId, final long channelId) {
+        return lookup(voiceStateCache(guildId, true), voiceStatesByChannel.get(guildId), channelId);
+    }
+    
+    @Nonnull
+    private static <T> Collection<T> lookup(@Nullable final CacheView<T> view, @Nullable final SecondaryIndex<T> index,
+                                            final long key) {
+        if(view == null || index == null) {
+            return Collections.emptyList();
+        }
+        final long[] ids = index.ids(key);
+        final List<T> result = new ArrayList<>(ids.length);
+        for(final long id : ids) {
+            final T element = view.getById(id);
+            if(element != null && index.carries(element, key)) {
+                result.add(element);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Snapshots hold the guild, roles and channels of a single version of
+     * the guild. Writes to a guild are versioned per guild, and snapshots
+     * are copied optimistically, without blocking writes; one that raced
+     * with a write is copied again. The last copy of every guild is reused
+     * until the guild changes, so repeated snapshots of a quiet guild are
+     * cheap. Guilds that were never written to, or were deleted, have no
+     * versions, and are copied as they are, at version 0.
+     */
+    @Nonnull
+    @Override
+    public GuildSnapshot snapshot(final long guildId) {
+        GuildSnapshot.State state = null;
+        for(int attempt = 0; state == null; attempt++) {
+            // Snapshots are taken of guilds that don't exist (anymore), so
+            // they mustn't create epochs that nothing would remove
+            final GuildEpoch epoch = guildEpochs.get(guildId);
+            if(epoch == null) {
+                final GuildSnapshot.State copy = copyGuild(guildId, 0);
+                // A write started while copying, so its epoch is used instead
+                state = guildEpochs.containsKey(guildId) ? null : copy;
+            } else {
+                state = attempt < OPTIMISTIC_SNAPSHOT_ATTEMPTS ? epoch.copyOptimistic(guildId) : epoch.copyLocked(guildId);
+            }
+        }
+        return new GuildSnapshot(state, id -> member(guildId, id));
+    }
+    
+    /**
+     * Estimates how much memory this cache retains, by entity type and by
+     * guild. This measures a few hundred entities of each type and counts
+     * every view, but doesn't walk the whole cache, so it's cheap enough to
+     * poll every few minutes even for large bots. See {@link CacheFootprint}
+     * for how sizes are estimated.
+     *
+     * @return A footprint of this cache.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public CacheFootprint footprint() {
+        final CacheFootprint.Builder builder = new CacheFootprint.Builder(FOOTPRINT_SAMPLES);
+        guilds().forEach(guild -> builder.entity(guild.idAsLong(), EntityType.GUILD, guild));
+        roleCache.forEach((guildId, view) -> builder.view(guildId, EntityType.ROLE, view));
+        guildChannelCache.forEach((guildId, view) -> builder.view(guildId, EntityType.CHANNEL, view));
+        emojiCache.forEach((guildId, view) -> builder.view(guildId, EntityType.EMOJI, view));
+        voiceStateCache.forEach((guildId, view) -> builder.view(guildId, EntityType.VOICE_STATE, view));
+        memberCache.forEach((guildId, view) -> builder.view(guildId, EntityType.MEMBER, view));
+        builder.view(EntityType.USER, users());
+        builder.view(EntityType.PRESENCE, presences());
+        builder.view(EntityType.DM_CHANNEL, dmChannels());
+        return builder.build();
+    }
+    
     @Nullable
     @Override
     public User selfUser() {
@@ -800,6 +1579,64 @@ public abstract class MemoryEntityCache implements EntityCacheWorker {
     public EntityCache catnip(@Nonnull final Catnip catnip) {
         this.catnip = catnip;
         entityBuilder = new EntityBuilder(catnip);
+        streamingEntityBuilder = new StreamingEntityBuilder(catnip);
+        // The executor's lanes are threads, and its pending updates must not
+        // be lost, so it's only created the first time
+        if(cacheUpdateExecutor == null) {
+            cacheUpdateExecutor = new CacheUpdateExecutor(catnip, catnip.cacheUpdateThreads());
+        }
         return this;
     }
+    
+    private final class GuildEpoch {
+        private final StampedLock lock = new StampedLock();
+        // Only written under the write lock
+        private volatile long version;
+        private volatile boolean deleted;
+        // Reused by snapshots until the version changes
+        private volatile GuildSnapshot.State copy;
+        
+        /**
+         * @return A copy of the current version, or {@code null} if a write
+         * got in the way.
+         */
+        @Nullable
+        private GuildSnapshot.State copyOptimistic(final long guildId) {
+            final GuildSnapshot.State last = copy;
+            if(last != null && last.version() == version) {
+                // Writes in progress don't count until they're done
+                return last;
+            }
+            final long stamp = lock.tryOptimisticRead();
+            if(stamp == 0) {
+                return null;
+            }
+            final long current = version;
+            final GuildSnapshot.State state = deleted ? null : copyGuild(guildId, current);
+            if(state == null || !lock.validate(stamp)) {
+                return null;
+            }
+            copy = state;
+            return state;
+        }
+        
+        /**
+         * @return A copy of the current version, or {@code null} if the
+         * guild was deleted.
+         */
+        @Nullable
+        private GuildSnapshot.State copyLocked(final long guildId) {
+            final long stamp = lock.readLock();
+            try {
+                if(deleted) {
+                    return null;
+                }
+                final GuildSnapshot.State state = copyGuild(guildId, version);
+                copy = state;
+                return state;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
 }
@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.koloboke.collect.LongIterator;
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.view.LongEntityMap;
+import com.mewna.catnip.entity.message.Message;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Cache of recent messages, so that edits and deletes can be emitted along
+ * with the message as it was before them. Disabled unless set with
+ * {@link com.mewna.catnip.CatnipOptions#messageCache(MessageCache)}; see
+ * {@link com.mewna.catnip.shard.DiscordEvent#CACHED_MESSAGE_UPDATE} and
+ * {@link com.mewna.catnip.shard.DiscordEvent#CACHED_MESSAGE_DELETE}.
+ * <p>
+ * Every channel keeps its most recent messages in a ring buffer, and all
+ * channels share a budget on the total size of the stored messages. Once
+ * the budget is exceeded, the oldest messages across all channels are
+ * evicted first.
+ * <p>
+ * Messages are stored as compact binary records, not as entities. Only the
+ * ids, author, flags, timestamps, content and attachment metadata are kept;
+ * messages read back from this cache have no embeds, reactions, mentions or
+ * member. Long content can optionally be deflated, see
+ * {@link #compressionThreshold(int)}.
+ */
+@Accessors(fluent = true)
+@SuppressWarnings("WeakerAccess")
+public final class MessageCache {
+    /**
+     * Maximum total size, in bytes, of the stored records.
+     */
+    @Getter
+    private final long maximumBytes;
+    // Everything below is guarded by this
+    private final LongEntityMap<Ring> channels = LongEntityMap.create();
+    // (channel id, sequence) pairs of every stored record, oldest first.
+    // Records that left their ring some other way stay in here until they're
+    // popped, or compacted away.
+    private long[] queue = new long[64];
+    private int queueHead;
+    private int queueLength;
+    private long nextSequence;
+    private int channelCapacity = 100;
+    private int compressionThreshold;
+    private Catnip catnip;
+    private long usedBytes;
+    private int size;
+    private long evictionCount;
+    
+    /**
+     * @param maximumBytes Maximum total size, in bytes, of the stored records.
+     */
+    public MessageCache(@Nonnegative final long maximumBytes) {
+        if(maximumBytes < 0) {
+            throw new IllegalArgumentException("Maximum bytes may not be negative");
+        }
+        this.maximumBytes = maximumBytes;
+    }
+    
+    /**
+     * @param channelCapacity How many messages every channel keeps at most.
+     *                        Defaults to 100. Only applies to channels that
+     *                        don't have any messages cached yet.
+     *
+     * @return Itself.
+     */
+    @Nonnull
+    public synchronized MessageCache channelCapacity(@Nonnegative final int channelCapacity) {
+        if(channelCapacity < 1) {
+            throw new IllegalArgumentException("Channel capacity must be positive");
+        }
+        this.channelCapacity = channelCapacity;
+        return this;
+    }
+    
+    /**
+     * @param compressionThreshold Message content at least this many bytes
+     *                             long (as UTF-8) is deflated. {@code 0},
+     *                             the default, disables compression.
+     *
+     * @return Itself.
+     */
+    @Nonnull
+    public synchronized MessageCache compressionThreshold(@Nonnegative final int compressionThreshold) {
+        if(compressionThreshold < 0) {
+            throw new IllegalArgumentException("Compression threshold may not be negative");
+        }
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
+    
+    @Nonnull
+    public MessageCache catnip(@Nonnull final Catnip catnip) {
+        this.catnip = catnip;
+        return this;
+    }
+    
+    /**
+     * Stores a message, replacing the stored version if there is one.
+     *
+     * @param message The message to store.
+     *
+     * @return The previously stored version of the message, or {@code null}
+     * if there was none.
+     */
+    @Nullable
+    public Message put(@Nonnull final Message message) {
+        final int threshold;
+        synchronized(this) {
+            threshold = compressionThreshold;
+        }
+        final byte[] record = MessageCodec.encode(message, threshold);
+        final byte[] old;
+        synchronized(this) {
+            final long channelId = message.channelIdAsLong();
+            Ring ring = channels.get(channelId);
+            if(ring == null) {
+                ring = new Ring(message.guildIdAsLong(), channelCapacity);
+                channels.put(channelId, ring);
+            }
+            final int index = ring.indexOf(message.idAsLong());
+            if(index >= 0) {
+                old = ring.records[index];
+                ring.records[index] = record;
+                usedBytes += record.length - old.length;
+            } else {
+                old = null;
+                if(ring.full()) {
+                    drop(ring.removeFirst());
+                }
+                final long sequence = nextSequence++;
+                ring.add(message.idAsLong(), sequence, record);
+                enqueue(channelId, sequence);
+                usedBytes += record.length;
+                size++;
+            }
+            evict();
+        }
+        return old == null ? null : MessageCodec.decode(catnip, old);
+    }
+    
+    /**
+     * @param channelId The id of the channel the message is in.
+     * @param id        The id of the message.
+     *
+     * @return The stored message, or {@code null} if it isn't stored.
+     */
+    @Nullable
+    @CheckReturnValue
+    public Message get(final long channelId, final long id) {
+        final byte[] record;
+        synchronized(this) {
+            final Ring ring = channels.get(channelId);
+            final int index = ring == null ? -1 : ring.indexOf(id);
+            if(index < 0) {
+                return null;
+            }
+            record = ring.records[index];
+        }
+        return MessageCodec.decode(catnip, record);
+    }
+    
+    /**
+     * @param channelId The id of the channel the message is in.
+     * @param id        The id of the message.
+     *
+     * @return The removed message, or {@code null} if it wasn't stored.
+     */
+    @Nullable
+    public Message remove(final long channelId, final long id) {
+        final byte[] record;
+        synchronized(this) {
+            final Ring ring = channels.get(channelId);
+            final int index = ring == null ? -1 : ring.indexOf(id);
+            if(index < 0) {
+                return null;
+            }
+            record = ring.remove(index);
+            drop(record);
+            if(ring.size == 0) {
+                channels.remove(channelId);
+            }
+        }
+        return MessageCodec.decode(catnip, record);
+    }
+    
+    /**
+     * Removes all messages stored for a channel.
+     *
+     * @param channelId The id of the channel.
+     */
+    public synchronized void removeChannel(final long channelId) {
+        final Ring ring = channels.remove(channelId);
+        if(ring != null) {
+            dropAll(ring);
+        }
+    }
+    
+    /**
+     * Removes all messages stored for the channels of a guild.
+     *
+     * @param guildId The id of the guild.
+     */
+    public synchronized void removeGuild(final long guildId) {
+        final LongIterator iterator = channels.iterator();
+        while(iterator.hasNext()) {
+            final Ring ring = channels.get(iterator.nextLong());
+            if(ring != null && ring.guildId == guildId) {
+                dropAll(ring);
+                iterator.remove();
+            }
+        }
+    }
+    
+    /**
+     * @return Total size, in bytes, of the stored records.
+     */
+    @Nonnegative
+    @CheckReturnValue
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+    
+    /**
+     * @return How many messages are stored.
+     */
+    @Nonnegative
+    @CheckReturnValue
+    public synchronized int size() {
+        return size;
+    }
+    
+    /**
+     * @return How many messages were evicted to stay within the budget.
+     */
+    @Nonnegative
+    @CheckReturnValue
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+    
+    private void drop(@Nonnull final byte[] record) {
+        usedBytes -= record.length;
+        size--;
+    }
+    
+    private void dropAll(@Nonnull final Ring ring) {
+        while(ring.size > 0) {
+            drop(ring.removeFirst());
+        }
+    }
+    
+    private void evict() {
+        while(usedBytes > maximumBytes && queueLength > 0) {
+            final long channelId = queue[queueHead];
+            final long sequence = queue[(queueHead + 1) & queue.length - 1];
+            queueHead = (queueHead + 2) & queue.length - 1;
+            queueLength -= 2;
+            final Ring ring = channels.get(channelId);
+            // A ring's records are in sequence order, so if the record is
+            // still stored, it's the ring's first
+            if(ring != null && ring.size > 0 && ring.sequences[ring.start] == sequence) {
+                drop(ring.removeFirst());
+                evictionCount++;
+                if(ring.size == 0) {
+                    channels.remove(channelId);
+                }
+            }
+        }
+    }
+    
+    private void enqueue(final long channelId, final long sequence) {
+        if(queueLength == queue.length) {
+            // Mostly stale entries? Compact instead of growing
+            if(queueLength / 2 > size * 2) {
+                compactQueue();
+            } else {
+                final long[] grown = new long[queue.length * 2];
+                for(int i = 0; i < queueLength; i++) {
+                    grown[i] = queue[(queueHead + i) & queue.length - 1];
+                }
+                queue = grown;
+                queueHead = 0;
+            }
+        }
+        queue[(queueHead + queueLength) & queue.length - 1] = channelId;
+        queue[(queueHead + queueLength + 1) & queue.length - 1] = sequence;
+        queueLength += 2;
+    }
+    
+    private void compactQueue() {
+        final long[] compacted = new long[queue.length];
+        int length = 0;
+        for(int i = 0; i < queueLength; i += 2) {
+            final long channelId = queue[(queueHead + i) & queue.length - 1];
+            final long sequence = queue[(queueHead + i + 1) & queue.length - 1];
+            final Ring ring = channels.get(channelId);
+            if(ring != null && ring.containsSequence(sequence)) {
+                compacted[length++] = channelId;
+                compacted[length++] = sequence;
+            }
+        }
+        queue = compacted;
+        queueHead = 0;
+        queueLength = length;
+    }
+    
+    /**
+     * The messages of a channel, oldest first. Grows as needed up to its
+     * capacity, after which adding a message requires removing the oldest.
+     */
+    private static final class Ring {
+        private final long guildId;
+        private final int capacity;
+        private long[] ids;
+        private long[] sequences;
+        private byte[][] records;
+        private int start;
+        private int size;
+        
+        private Ring(final long guildId, final int capacity) {
+            this.guildId = guildId;
+            this.capacity = capacity;
+            final int initial = Math.min(capacity, 8);
+            ids = new long[initial];
+            sequences = new long[initial];
+            records = new byte[initial][];
+        }
+        
+        private int slot(final int i) {
+            return (start + i) % ids.length;
+        }
+        
+        private boolean full() {
+            return size == capacity;
+        }
+        
+        private int indexOf(final long id) {
+            // Edits and deletes are mostly for recent messages
+            for(int i = size - 1; i >= 0; i--) {
+                final int slot = slot(i);
+                if(ids[slot] == id) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+        
+        private boolean containsSequence(final long sequence) {
+            for(int i = 0; i < size; i++) {
+                if(sequences[slot(i)] == sequence) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        private void add(final long id, final long sequence, @Nonnull final byte[] record) {
+            if(size == ids.length) {
+                final int grown = Math.min(capacity, ids.length * 2);
+                final long[] newIds = new long[grown];
+                final long[] newSequences = new long[grown];
+                final byte[][] newRecords = new byte[grown][];
+                for(int i = 0; i < size; i++) {
+                    final int slot = slot(i);
+                    newIds[i] = ids[slot];
+                    newSequences[i] = sequences[slot];
+                    newRecords[i] = records[slot];
+                }
+                ids = newIds;
+                sequences = newSequences;
+                records = newRecords;
+                start = 0;
+            }
+            final int slot = slot(size);
+            ids[slot] = id;
+            sequences[slot] = sequence;
+            records[slot] = record;
+            size++;
+        }
+        
+        @Nonnull
+        private byte[] removeFirst() {
+            final byte[] record = records[start];
+            records[start] = null;
+            start = (start + 1) % ids.length;
+            size--;
+            return record;
+        }
+        
+        /**
+         * @param slot The slot to remove, as returned by {@link #indexOf(long)}.
+         *
+         * @return The removed record.
+         */
+        @Nonnull
+        private byte[] remove(final int slot) {
+            final byte[] record = records[slot];
+            // Shift everything after the slot back by one
+            int current = slot;
+            int next = (current + 1) % ids.length;
+            final int end = slot(size);
+            while(next != end) {
+                ids[current] = ids[next];
+                sequences[current] = sequences[next];
+                records[current] = records[next];
+                current = next;
+                next = (next + 1) % ids.length;
+            }
+            records[current] = null;
+            size--;
+            return record;
+        }
+    }
+}
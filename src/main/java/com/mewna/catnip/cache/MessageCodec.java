@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.entity.impl.MessageImpl;
+import com.mewna.catnip.entity.impl.MessageImpl.AttachmentImpl;
+import com.mewna.catnip.entity.impl.UserImpl;
+import com.mewna.catnip.entity.message.Message;
+import com.mewna.catnip.entity.message.Message.Attachment;
+import com.mewna.catnip.entity.message.MessageType;
+import com.mewna.catnip.entity.user.User;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary encoding of the messages stored by {@link MessageCache}. A record
+ * holds the ids, the author, the flags, the timestamps, the content (deflated
+ * if it's long enough) and the metadata of the attachments. Everything else
+ * is dropped.
+ */
+final class MessageCodec {
+    private static final int FLAG_TTS = 1;
+    private static final int FLAG_MENTIONS_EVERYONE = 1 << 1;
+    private static final int FLAG_PINNED = 1 << 2;
+    private static final int FLAG_AUTHOR_BOT = 1 << 3;
+    private static final int FLAG_COMPRESSED = 1 << 4;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    
+    private MessageCodec() {
+    }
+    
+    /**
+     * @param message              The message to encode.
+     * @param compressionThreshold Content at least this many bytes long is
+     *                             deflated. {@code 0} never deflates.
+     *
+     * @return The encoded record.
+     */
+    @Nonnull
+    static byte[] encode(@Nonnull final Message message, final int compressionThreshold) {
+        final byte[] raw = message.content().getBytes(StandardCharsets.UTF_8);
+        byte[] content = raw;
+        if(compressionThreshold > 0 && raw.length >= compressionThreshold) {
+            final byte[] deflated = deflate(raw);
+            if(deflated.length < raw.length) {
+                content = deflated;
+            }
+        }
+        final User author = message.author();
+        final List<Attachment> attachments = message.attachments();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(96 + content.length);
+        try(final DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(message.idAsLong());
+            out.writeLong(message.channelIdAsLong());
+            out.writeLong(message.guildIdAsLong());
+            out.writeLong(message.webhookIdAsLong());
+            out.writeLong(author.idAsLong());
+            out.writeUTF(author.username());
+            out.writeUTF(author.discriminator());
+            writeNullable(out, author.avatar());
+            out.writeByte(message.type().getId());
+            out.writeByte((message.tts() ? FLAG_TTS : 0)
+                    | (message.mentionsEveryone() ? FLAG_MENTIONS_EVERYONE : 0)
+                    | (message.pinned() ? FLAG_PINNED : 0)
+                    | (author.bot() ? FLAG_AUTHOR_BOT : 0)
+                    | (content != raw ? FLAG_COMPRESSED : 0));
+            out.writeLong(micros(message.timestamp()));
+            out.writeLong(micros(message.editedTimestamp()));
+            if(content != raw) {
+                out.writeInt(raw.length);
+            }
+            out.writeInt(content.length);
+            out.write(content);
+            out.writeShort(attachments.size());
+            for(final Attachment attachment : attachments) {
+                out.writeLong(attachment.idAsLong());
+                out.writeUTF(attachment.fileName());
+                out.writeInt(attachment.size());
+                out.writeUTF(attachment.url());
+                out.writeInt(attachment.height());
+                out.writeInt(attachment.width());
+            }
+        } catch(final IOException e) {
+            // ByteArrayOutputStream doesn't throw
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+    
+    @Nonnull
+    static Message decode(@Nonnull final Catnip catnip, @Nonnull final byte[] record) {
+        try(final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            final long id = in.readLong();
+            final long channelId = in.readLong();
+            final long guildId = in.readLong();
+            final long webhookId = in.readLong();
+            final UserImpl.UserImplBuilder author = UserImpl.builder()
+                    .catnip(catnip)
+                    .idAsLong(in.readLong())
+                    .username(in.readUTF())
+                    .discriminator(in.readUTF())
+                    .avatar(readNullable(in));
+            final MessageType type = MessageType.byId(in.readUnsignedByte());
+            final int flags = in.readUnsignedByte();
+            final long timestamp = in.readLong();
+            final long editedTimestamp = in.readLong();
+            final int rawLength = (flags & FLAG_COMPRESSED) != 0 ? in.readInt() : -1;
+            byte[] content = new byte[in.readInt()];
+            in.readFully(content);
+            if(rawLength >= 0) {
+                content = inflate(content, rawLength);
+            }
+            final int attachmentCount = in.readUnsignedShort();
+            final List<Attachment> attachments = new ArrayList<>(attachmentCount);
+            for(int i = 0; i < attachmentCount; i++) {
+                attachments.add(AttachmentImpl.builder()
+                        .catnip(catnip)
+                        .idAsLong(in.readLong())
+                        .fileName(in.readUTF())
+                        .size(in.readInt())
+                        .url(in.readUTF())
+                        .height(in.readInt())
+                        .width(in.readInt())
+                        .build());
+            }
+            return MessageImpl.builder()
+                    .catnip(catnip)
+                    .idAsLong(id)
+                    .channelIdAsLong(channelId)
+                    .guildIdAsLong(guildId)
+                    .webhookIdAsLong(webhookId)
+                    .author(author.bot((flags & FLAG_AUTHOR_BOT) != 0).build())
+                    .content(new String(content, StandardCharsets.UTF_8))
+                    .timestamp(timestamp(timestamp))
+                    .editedTimestamp(timestamp(editedTimestamp))
+                    .tts((flags & FLAG_TTS) != 0)
+                    .mentionsEveryone((flags & FLAG_MENTIONS_EVERYONE) != 0)
+                    .pinned((flags & FLAG_PINNED) != 0)
+                    .type(type)
+                    .mentionedUsers(Collections.emptyList())
+                    .mentionedMembers(Collections.emptyList())
+                    .mentionedRoles(Collections.emptyList())
+                    .attachments(attachments)
+                    .embeds(Collections.emptyList())
+                    .reactions(Collections.emptyList())
+                    .build();
+        } catch(final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private static void writeNullable(@Nonnull final DataOutput out, @Nullable final String value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null) {
+            out.writeUTF(value);
+        }
+    }
+    
+    @Nullable
+    private static String readNullable(@Nonnull final DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+    
+    private static long micros(@Nullable final OffsetDateTime time) {
+        return time == null ? NO_TIMESTAMP : TimeUnit.SECONDS.toMicros(time.toEpochSecond()) + time.getNano() / 1000;
+    }
+    
+    @Nullable
+    private static String timestamp(final long micros) {
+        return micros == NO_TIMESTAMP ? null : DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(
+                OffsetDateTime.ofInstant(Instant.EPOCH.plus(micros, ChronoUnit.MICROS), ZoneOffset.UTC));
+    }
+    
+    @Nonnull
+    private static byte[] deflate(@Nonnull final byte[] data) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+            final byte[] buffer = new byte[1024];
+            while(!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+    
+    @Nonnull
+    private static byte[] inflate(@Nonnull final byte[] data, final int length) {
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            final byte[] out = new byte[length];
+            int read = 0;
+            while(read < length) {
+                final int n = inflater.inflate(out, read, length - read);
+                if(n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Truncated message content");
+                }
+                read += n;
+            }
+            return out;
+        } catch(final DataFormatException e) {
+            throw new IllegalStateException("Corrupt message content", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
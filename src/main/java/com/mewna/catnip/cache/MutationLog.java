@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.entity.RequiresCatnip;
+import io.vertx.core.json.Json;
+import lombok.Value;
+import lombok.experimental.Accessors;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Ordered log of every change a {@link MemoryEntityCache} makes, for change
+ * data capture: keeping a replica of the cache in another process, or
+ * writing the changes somewhere for later. Listeners are
+ * {@link #subscribe(Listener) subscribed} in-process, and see every
+ * {@link Mutation} in the order it was applied. The {@link Appender}
+ * listener writes mutations to an append-only file, which can be
+ * {@link #replay(Path, Catnip, Listener) replayed} later.
+ * <p>
+ * Mutations carry a sequence number that counts up from 1 for each shard,
+ * without gaps, so a consumer can tell if it missed any. Mutations for the
+ * same shard are delivered one at a time, in sequence order. Everything
+ * that happens in one guild is in the order the cache applied it; users and
+ * presences are on the shard that received them, and only ordered relative
+ * to that shard's other mutations.
+ * <p>
+ * A mutation is either a put of a full entity, a patch (a put of an entity
+ * that was changed in place, ex. by GUILD_MEMBER_UPDATE), a remove of an
+ * entity by id, or the removal of a whole guild or shard. The binary form of
+ * a mutation is a fixed 31-byte header followed by the entity, if any, as
+ * length-prefixed JSON, the same way {@link CacheSnapshot} stores entities.
+ * <p>
+ * Nothing is built or delivered while there are no listeners, so an unused
+ * log costs one volatile read per cache write. Listeners are called on the
+ * thread applying the change, while other changes on the same shard wait;
+ * they should hand mutations off rather than do slow work.
+ */
+public final class MutationLog {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int NO_ENTITY = 0xFF;
+    
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<Integer, ShardLog> shards = new ConcurrentHashMap<>();
+    
+    /**
+     * Reads an append-only file written by an {@link Appender}, and passes
+     * every mutation in it to the given listener, in order. A record that
+     * was only partly written (ex. from a crash while appending) ends the
+     * replay without an error, as it was never fully logged.
+     *
+     * @param path     The file to read.
+     * @param catnip   The catnip instance to attach to read entities.
+     * @param listener The listener to pass mutations to.
+     *
+     * @return The number of mutations read.
+     *
+     * @throws IOException If reading the file fails.
+     */
+    public static long replay(@Nonnull final Path path, @Nonnull final Catnip catnip,
+                              @Nonnull final Listener listener) throws IOException {
+        long count = 0;
+        try(final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            while(true) {
+                final Mutation mutation;
+                try {
+                    mutation = Mutation.readFrom(in, catnip);
+                } catch(final EOFException e) {
+                    return count;
+                }
+                listener.onMutation(mutation);
+                count++;
+            }
+        }
+    }
+    
+    /**
+     * Adds a listener that is passed every mutation from now on.
+     *
+     * @param listener The listener to add.
+     */
+    public void subscribe(@Nonnull final Listener listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * Removes a listener added with {@link #subscribe(Listener)}.
+     *
+     * @param listener The listener to remove.
+     */
+    public void unsubscribe(@Nonnull final Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * @return Whether any listener is subscribed, ie. whether mutations
+     * need to be built at all.
+     */
+    @CheckReturnValue
+    public boolean active() {
+        return !listeners.isEmpty();
+    }
+    
+    /**
+     * @param shardId The shard to check.
+     *
+     * @return The sequence number of the last mutation logged for the shard,
+     * or 0 if none were.
+     */
+    @CheckReturnValue
+    public long sequence(@Nonnegative final int shardId) {
+        final ShardLog shard = shards.get(shardId);
+        if(shard == null) {
+            return 0;
+        }
+        synchronized(shard) {
+            return shard.sequence;
+        }
+    }
+    
+    void append(@Nonnull final Operation operation, @Nonnull final Kind kind, final int shardId, final long guildId,
+                final long id, @Nullable final Object entity) {
+        final ShardLog shard = shards.computeIfAbsent(shardId, __ -> new ShardLog());
+        synchronized(shard) {
+            final Mutation mutation = new Mutation(shardId, ++shard.sequence, operation, kind, guildId, id, entity);
+            for(final Listener listener : listeners) {
+                listener.onMutation(mutation);
+            }
+        }
+    }
+    
+    public enum Operation {
+        /**
+         * A new or replaced entity was cached.
+         */
+        PUT,
+        /**
+         * A cached entity was changed in place. The mutation carries the
+         * whole entity as it is after the change.
+         */
+        PATCH,
+        /**
+         * An entity was removed from the cache. The mutation carries no
+         * entity.
+         */
+        REMOVE,
+        /**
+         * A guild and everything cached for it was removed. The mutation's
+         * id and guild id are the guild's id.
+         */
+        CLEAR_GUILD,
+        /**
+         * Every guild-scoped entity of the mutation's shard was removed. The
+         * mutation's id is the shard count the cache was using at the time.
+         */
+        CLEAR_SHARD,
+        // Only ever append!
+    }
+    
+    public enum Kind {
+        GUILD,
+        ROLE,
+        CHANNEL,
+        EMOJI,
+        VOICE_STATE,
+        MEMBER,
+        USER,
+        PRESENCE,
+        DM_CHANNEL,
+        SELF_USER,
+        // Only ever append!
+    }
+    
+    /**
+     * Receives mutations from a {@link MutationLog}.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void onMutation(@Nonnull Mutation mutation);
+    }
+    
+    /**
+     * A single change to the cache.
+     */
+    @Value
+    @Accessors(fluent = true)
+    public static class Mutation {
+        /**
+         * The shard the change happened on.
+         */
+        private int shardId;
+        /**
+         * The position of the change in its shard's log, counting from 1.
+         */
+        private long sequence;
+        private Operation operation;
+        private Kind kind;
+        /**
+         * The guild the changed entity is in, or 0 if it isn't guild-scoped.
+         */
+        private long guildId;
+        /**
+         * The cache key of the changed entity.
+         */
+        private long id;
+        /**
+         * The new entity, for puts and patches.
+         */
+        @Nullable
+        private Object entity;
+        
+        /**
+         * Reads a mutation written by {@link #writeTo(DataOutput)}.
+         *
+         * @param in     The input to read from.
+         * @param catnip The catnip instance to attach to the read entity.
+         *
+         * @return The mutation.
+         *
+         * @throws EOFException If the input ends before the mutation does.
+         * @throws IOException  If reading fails, or the mutation is corrupt.
+         */
+        @Nonnull
+        public static Mutation readFrom(@Nonnull final DataInput in, @Nonnull final Catnip catnip) throws IOException {
+            final int operation = in.readUnsignedByte();
+            final int kind = in.readUnsignedByte();
+            if(operation >= Operation.values().length || kind >= Kind.values().length) {
+                throw new IOException("Unknown mutation " + operation + '/' + kind);
+            }
+            final int shardId = in.readInt();
+            final long sequence = in.readLong();
+            final long guildId = in.readLong();
+            final long id = in.readLong();
+            final int type = in.readUnsignedByte();
+            Object entity = null;
+            if(type != NO_ENTITY) {
+                if(type >= CacheSnapshot.CLASSES.size()) {
+                    throw new IOException("Unknown entity type " + type + " in mutation");
+                }
+                final byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                entity = Json.mapper.readValue(data, CacheSnapshot.CLASSES.get(type));
+                if(entity instanceof RequiresCatnip) {
+                    ((RequiresCatnip) entity).catnip(catnip);
+                }
+            }
+            return new Mutation(shardId, sequence, Operation.values()[operation], Kind.values()[kind],
+                    guildId, id, entity);
+        }
+        
+        /**
+         * Writes this mutation in its binary form.
+         *
+         * @param out The output to write to.
+         *
+         * @throws IOException If writing fails, or the entity's class can't
+         *                     be written.
+         */
+        public void writeTo(@Nonnull final DataOutput out) throws IOException {
+            final byte[] data;
+            final int type;
+            if(entity == null) {
+                data = null;
+                type = NO_ENTITY;
+            } else {
+                type = CacheSnapshot.CLASSES.indexOf(entity.getClass());
+                if(type < 0) {
+                    throw new IOException("Can't write " + entity.getClass().getName() + " to a mutation log");
+                }
+                data = Json.mapper.writeValueAsBytes(entity);
+            }
+            out.writeByte(operation.ordinal());
+            out.writeByte(kind.ordinal());
+            out.writeInt(shardId);
+            out.writeLong(sequence);
+            out.writeLong(guildId);
+            out.writeLong(id);
+            out.writeByte(type);
+            if(data != null) {
+                out.writeInt(data.length);
+                out.write(data);
+            }
+        }
+    }
+    
+    /**
+     * Listener that appends every mutation to a file, in the form read by
+     * {@link #replay(Path, Catnip, Listener)}. Writes are buffered; call
+     * {@link #flush()} to push them to the file.
+     * <p>
+     * A failed write doesn't fail the cache update that caused it. Instead,
+     * the appender stops writing, as the file would have a gap, and the
+     * failure is thrown from the next {@link #flush()} or {@link #close()}.
+     */
+    public static final class Appender implements Listener, Closeable {
+        private final DataOutputStream out;
+        // Guarded by this
+        private IOException failure;
+        
+        /**
+         * @param path The file to append to. Created if it doesn't exist.
+         *
+         * @throws IOException If the file can't be opened.
+         */
+        public Appender(@Nonnull final Path path) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND), BUFFER_SIZE));
+        }
+        
+        @Override
+        public synchronized void onMutation(@Nonnull final Mutation mutation) {
+            if(failure != null) {
+                return;
+            }
+            try {
+                mutation.writeTo(out);
+            } catch(final IOException e) {
+                failure = e;
+            }
+        }
+        
+        /**
+         * Flushes buffered mutations to the file.
+         *
+         * @throws IOException If flushing fails, or if appending a mutation
+         *                     failed before.
+         */
+        public synchronized void flush() throws IOException {
+            if(failure != null) {
+                throw failure;
+            }
+            out.flush();
+        }
+        
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+            if(failure != null) {
+                throw failure;
+            }
+        }
+    }
+    
+    private static final class ShardLog {
+        // Guarded by this
+        private long sequence;
+    }
+}
@@ -0,0 +1,525 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.koloboke.collect.LongIterator;
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.view.LongEntityMap;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.impl.MemberImpl;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Stores members in direct (off-heap) buffers, so that they don't cost the
+ * garbage collector anything while they sit in the cache. Members are kept
+ * in fixed-size rows, one column per field, with roles and nicknames stored
+ * in separate arenas that rows point into. {@link Member} objects are only
+ * created when they're read, and aren't kept around.
+ * <p>
+ * Removed rows are filled by moving the last row into their place, so the
+ * row buffer never has holes. The arenas are append-only, and are compacted
+ * once more than half of them is garbage.
+ * <p>
+ * All methods are synchronized; iteration works on a snapshot of the ids
+ * taken when the iterator is created, and skips members removed since.
+ */
+@SuppressWarnings("NullableProblems")
+final class OffHeapMemberStore extends AbstractMap<Long, Member> implements LongEntityMap<Member> {
+    private static final int ID = 0;
+    private static final int GUILD_ID = 8;
+    // Epoch microseconds, or NO_TIMESTAMP
+    private static final int JOINED_AT = 16;
+    // Offset into the role arena, in role ids
+    private static final int ROLES = 24;
+    private static final int ROLE_COUNT = 28;
+    // Offset into the nick arena, in bytes
+    private static final int NICK = 32;
+    // Length of the nick in bytes, or -1 if there's no nick
+    private static final int NICK_LENGTH = 36;
+    private static final int FLAGS = 40;
+    private static final int ROW_SIZE = 48;
+    
+    private static final byte FLAG_DEAF = 1;
+    private static final byte FLAG_MUTE = 2;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    // Don't bother compacting arenas smaller than this
+    private static final int MIN_COMPACTION_SIZE = 4096;
+    
+    private final Catnip catnip;
+    private ByteBuffer rows;
+    private int size;
+    private ByteBuffer roles;
+    private int rolesUsed;
+    private int rolesGarbage;
+    private ByteBuffer nicks;
+    private int nicksUsed;
+    private int nicksGarbage;
+    // id -> row + 1, 0 meaning empty. Linear probing, without tombstones.
+    private long[] indexKeys;
+    private int[] indexRows;
+    
+    OffHeapMemberStore(@Nonnull final Catnip catnip, final int expectedSize) {
+        this.catnip = catnip;
+        final int capacity = Math.max(expectedSize, 4);
+        rows = ByteBuffer.allocateDirect(capacity * ROW_SIZE);
+        roles = ByteBuffer.allocateDirect(capacity * 2 * Long.BYTES);
+        nicks = ByteBuffer.allocateDirect(capacity * 4);
+        final int slots = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        indexKeys = new long[slots];
+        indexRows = new int[slots];
+    }
+    
+    @Nonnull
+    private static ByteBuffer grow(@Nonnull final ByteBuffer buffer, final int used, final int needed) {
+        if(needed <= buffer.capacity()) {
+            return buffer;
+        }
+        final ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(needed, buffer.capacity() * 2));
+        final ByteBuffer old = buffer.duplicate();
+        old.position(0).limit(used);
+        grown.put(old);
+        return grown;
+    }
+    
+    private static int mix(final long id) {
+        final long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32);
+    }
+    
+    // Index
+    
+    private int slotOf(final long id) {
+        final int mask = indexKeys.length - 1;
+        for(int slot = mix(id) & mask; ; slot = slot + 1 & mask) {
+            if(indexRows[slot] == 0 || indexKeys[slot] == id) {
+                return slot;
+            }
+        }
+    }
+    
+    private int rowOf(final long id) {
+        return indexRows[slotOf(id)] - 1;
+    }
+    
+    private void indexPut(final long id, final int row) {
+        if((size + 1) * 2 > indexKeys.length) {
+            final long[] oldKeys = indexKeys;
+            final int[] oldRows = indexRows;
+            indexKeys = new long[oldKeys.length * 2];
+            indexRows = new int[oldRows.length * 2];
+            for(int i = 0; i < oldKeys.length; i++) {
+                if(oldRows[i] != 0) {
+                    final int slot = slotOf(oldKeys[i]);
+                    indexKeys[slot] = oldKeys[i];
+                    indexRows[slot] = oldRows[i];
+                }
+            }
+        }
+        final int slot = slotOf(id);
+        indexKeys[slot] = id;
+        indexRows[slot] = row + 1;
+    }
+    
+    private void indexRemove(final long id) {
+        final int mask = indexKeys.length - 1;
+        int hole = slotOf(id);
+        indexRows[hole] = 0;
+        // Shift back entries that probed past the hole
+        for(int slot = hole + 1 & mask; indexRows[slot] != 0; slot = slot + 1 & mask) {
+            final int home = mix(indexKeys[slot]) & mask;
+            if((slot - home & mask) >= (slot - hole & mask)) {
+                indexKeys[hole] = indexKeys[slot];
+                indexRows[hole] = indexRows[slot];
+                indexRows[slot] = 0;
+                hole = slot;
+            }
+        }
+    }
+    
+    // Arenas
+    
+    private int appendRoles(@Nonnull final Set<String> roleIds) {
+        rolesGarbageCheck(roleIds.size());
+        roles = grow(roles, rolesUsed * Long.BYTES, (rolesUsed + roleIds.size()) * Long.BYTES);
+        final int offset = rolesUsed;
+        for(final String role : roleIds) {
+            roles.putLong(rolesUsed++ * Long.BYTES, Long.parseUnsignedLong(role));
+        }
+        return offset;
+    }
+    
+    private void rolesGarbageCheck(final int adding) {
+        if(rolesGarbage * Long.BYTES < MIN_COMPACTION_SIZE || rolesGarbage * 2 < rolesUsed) {
+            return;
+        }
+        final ByteBuffer compacted = ByteBuffer.allocateDirect(Math.max(roles.capacity() / 2,
+                (rolesUsed - rolesGarbage + adding) * Long.BYTES));
+        int used = 0;
+        for(int row = 0; row < size; row++) {
+            final int base = row * ROW_SIZE;
+            final int offset = rows.getInt(base + ROLES);
+            final int count = rows.getInt(base + ROLE_COUNT);
+            rows.putInt(base + ROLES, used);
+            for(int i = 0; i < count; i++) {
+                compacted.putLong(used++ * Long.BYTES, roles.getLong((offset + i) * Long.BYTES));
+            }
+        }
+        roles = compacted;
+        rolesUsed = used;
+        rolesGarbage = 0;
+    }
+    
+    private int appendNick(@Nonnull final byte[] nick) {
+        nicksGarbageCheck(nick.length);
+        nicks = grow(nicks, nicksUsed, nicksUsed + nick.length);
+        final int offset = nicksUsed;
+        final ByteBuffer target = nicks.duplicate();
+        target.position(offset);
+        target.put(nick);
+        nicksUsed += nick.length;
+        return offset;
+    }
+    
+    private void nicksGarbageCheck(final int adding) {
+        if(nicksGarbage < MIN_COMPACTION_SIZE || nicksGarbage * 2 < nicksUsed) {
+            return;
+        }
+        final ByteBuffer compacted = ByteBuffer.allocateDirect(Math.max(nicks.capacity() / 2,
+                nicksUsed - nicksGarbage + adding));
+        int used = 0;
+        for(int row = 0; row < size; row++) {
+            final int base = row * ROW_SIZE;
+            final int length = rows.getInt(base + NICK_LENGTH);
+            if(length > 0) {
+                final ByteBuffer source = nicks.duplicate();
+                final int offset = rows.getInt(base + NICK);
+                source.position(offset).limit(offset + length);
+                compacted.position(used);
+                compacted.put(source);
+                rows.putInt(base + NICK, used);
+                used += length;
+            }
+        }
+        nicks = compacted;
+        nicksUsed = used;
+        nicksGarbage = 0;
+    }
+    
+    private void release(final int row) {
+        final int base = row * ROW_SIZE;
+        rolesGarbage += rows.getInt(base + ROLE_COUNT);
+        nicksGarbage += Math.max(0, rows.getInt(base + NICK_LENGTH));
+    }
+    
+    // Rows
+    
+    private void write(final int row, @Nonnull final Member member) {
+        final int base = row * ROW_SIZE;
+        final Set<String> roleIds = member.roleIds() == null ? Collections.emptySet() : member.roleIds();
+        final String nick = member.nick();
+        // Appending may compact the arenas, which walks every row, so make
+        // sure this row doesn't point at anything first
+        rows.putInt(base + ROLE_COUNT, 0);
+        rows.putInt(base + NICK_LENGTH, -1);
+        final int roleOffset = appendRoles(roleIds);
+        rows.putInt(base + ROLES, roleOffset);
+        rows.putInt(base + ROLE_COUNT, roleIds.size());
+        if(nick == null) {
+            rows.putInt(base + NICK, 0);
+            rows.putInt(base + NICK_LENGTH, -1);
+        } else {
+            final byte[] bytes = nick.getBytes(StandardCharsets.UTF_8);
+            final int nickOffset = appendNick(bytes);
+            rows.putInt(base + NICK, nickOffset);
+            rows.putInt(base + NICK_LENGTH, bytes.length);
+        }
+        rows.putLong(base + ID, member.idAsLong());
+        rows.putLong(base + GUILD_ID, member.guildIdAsLong());
+        final OffsetDateTime joinedAt = member.joinedAt();
+        //noinspection ConstantConditions
+        rows.putLong(base + JOINED_AT, joinedAt == null ? NO_TIMESTAMP
+                : TimeUnit.SECONDS.toMicros(joinedAt.toEpochSecond()) + joinedAt.getNano() / 1000);
+        rows.put(base + FLAGS, (byte) ((member.deaf() ? FLAG_DEAF : 0) | (member.mute() ? FLAG_MUTE : 0)));
+    }
+    
+    @Nonnull
+    private Member read(final int row) {
+        final int base = row * ROW_SIZE;
+        final int roleOffset = rows.getInt(base + ROLES);
+        final int roleCount = rows.getInt(base + ROLE_COUNT);
+        final Set<String> roleIds = new HashSet<>(roleCount * 4 / 3 + 1);
+        for(int i = 0; i < roleCount; i++) {
+            roleIds.add(Long.toUnsignedString(roles.getLong((roleOffset + i) * Long.BYTES)));
+        }
+        final int nickLength = rows.getInt(base + NICK_LENGTH);
+        String nick = null;
+        if(nickLength >= 0) {
+            final byte[] bytes = new byte[nickLength];
+            final ByteBuffer source = nicks.duplicate();
+            source.position(rows.getInt(base + NICK));
+            source.get(bytes);
+            nick = new String(bytes, StandardCharsets.UTF_8);
+        }
+        final long joinedAt = rows.getLong(base + JOINED_AT);
+        final byte flags = rows.get(base + FLAGS);
+        return MemberImpl.builder()
+                .catnip(catnip)
+                .idAsLong(rows.getLong(base + ID))
+                .guildIdAsLong(rows.getLong(base + GUILD_ID))
+                .nick(nick)
+                .roleIds(roleIds)
+                .joinedAt(joinedAt == NO_TIMESTAMP ? null : DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(
+                        OffsetDateTime.ofInstant(Instant.EPOCH.plus(joinedAt, ChronoUnit.MICROS), ZoneOffset.UTC)))
+                .deaf((flags & FLAG_DEAF) != 0)
+                .mute((flags & FLAG_MUTE) != 0)
+                .build();
+    }
+    
+    // LongEntityMap
+    
+    @Nullable
+    @Override
+    public synchronized Member get(final long key) {
+        final int row = rowOf(key);
+        return row < 0 ? null : read(row);
+    }
+    
+    @Nullable
+    @Override
+    public synchronized Member put(final long key, @Nonnull final Member value) {
+        if(key != value.idAsLong()) {
+            throw new IllegalArgumentException("Members must be stored under their own id");
+        }
+        int row = rowOf(key);
+        final Member old;
+        if(row < 0) {
+            old = null;
+            rows = grow(rows, size * ROW_SIZE, (size + 1) * ROW_SIZE);
+            row = size;
+            indexPut(key, row);
+            size++;
+        } else {
+            old = read(row);
+            release(row);
+        }
+        write(row, value);
+        return old;
+    }
+    
+    @Nullable
+    @Override
+    public synchronized Member remove(final long key) {
+        final int row = rowOf(key);
+        if(row < 0) {
+            return null;
+        }
+        final Member old = read(row);
+        release(row);
+        indexRemove(key);
+        final int last = size - 1;
+        if(row != last) {
+            final ByteBuffer source = rows.duplicate();
+            source.position(last * ROW_SIZE).limit(size * ROW_SIZE);
+            final ByteBuffer target = rows.duplicate();
+            target.position(row * ROW_SIZE);
+            target.put(source);
+            final long moved = rows.getLong(row * ROW_SIZE + ID);
+            indexRows[slotOf(moved)] = row + 1;
+        }
+        size--;
+        return old;
+    }
+    
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+    
+    @Override
+    public synchronized long encodedBytes() {
+        // Everything we've allocated, including the on-heap index, since
+        // that's what it actually costs to keep these members around
+        return (long) rows.capacity() + roles.capacity() + nicks.capacity()
+                + (long) indexKeys.length * Long.BYTES + (long) indexRows.length * Integer.BYTES;
+    }
+    
+    @Override
+    public synchronized boolean containsKey(final Object key) {
+        return key instanceof Long && rowOf((Long) key) >= 0;
+    }
+    
+    @Override
+    public Member get(final Object key) {
+        return key instanceof Long ? get((long) (Long) key) : null;
+    }
+    
+    @Override
+    public Member put(final Long key, final Member value) {
+        return put((long) key, value);
+    }
+    
+    @Override
+    public Member remove(final Object key) {
+        return key instanceof Long ? remove((long) (Long) key) : null;
+    }
+    
+    @Override
+    public synchronized void clear() {
+        Arrays.fill(indexRows, 0);
+        size = 0;
+        rolesUsed = 0;
+        rolesGarbage = 0;
+        nicksUsed = 0;
+        nicksGarbage = 0;
+    }
+    
+    @Nonnull
+    private synchronized long[] ids() {
+        final long[] ids = new long[size];
+        for(int row = 0; row < size; row++) {
+            ids[row] = rows.getLong(row * ROW_SIZE + ID);
+        }
+        return ids;
+    }
+    
+    @Nonnull
+    @Override
+    public LongIterator iterator() {
+        return new KeyIterator(ids());
+    }
+    
+    @Nonnull
+    @Override
+    public Set<Entry<Long, Member>> entrySet() {
+        return new AbstractSet<Entry<Long, Member>>() {
+            @Override
+            public Iterator<Entry<Long, Member>> iterator() {
+                final long[] ids = ids();
+                return new Iterator<Entry<Long, Member>>() {
+                    private int index;
+                    private Member next;
+                    private long current;
+                    
+                    @Override
+                    public boolean hasNext() {
+                        while(next == null && index < ids.length) {
+                            next = get(ids[index++]);
+                        }
+                        return next != null;
+                    }
+                    
+                    @Override
+                    public Entry<Long, Member> next() {
+                        if(!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        final Member member = next;
+                        next = null;
+                        current = member.idAsLong();
+                        return new SimpleImmutableEntry<>(current, member);
+                    }
+                    
+                    @Override
+                    public void remove() {
+                        OffHeapMemberStore.this.remove(current);
+                    }
+                };
+            }
+            
+            @Override
+            public int size() {
+                return OffHeapMemberStore.this.size();
+            }
+        };
+    }
+    
+    private final class KeyIterator implements LongIterator {
+        private final long[] ids;
+        private int index;
+        
+        private KeyIterator(final long[] ids) {
+            this.ids = ids;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return index < ids.length;
+        }
+        
+        @Override
+        public long nextLong() {
+            if(index >= ids.length) {
+                throw new NoSuchElementException();
+            }
+            return ids[index++];
+        }
+        
+        @Override
+        public Long next() {
+            return nextLong();
+        }
+        
+        @Override
+        public void forEachRemaining(@Nonnull final LongConsumer action) {
+            while(index < ids.length) {
+                action.accept(ids[index++]);
+            }
+        }
+        
+        // Abstract in LongIterator, so it has to be implemented even though
+        // it's deprecated in favour of the LongConsumer overload
+        @Deprecated
+        @Override
+        public void forEachRemaining(@Nonnull final Consumer<? super Long> action) {
+            while(index < ids.length) {
+                action.accept(ids[index++]);
+            }
+        }
+        
+        @Override
+        public void remove() {
+            if(index == 0) {
+                throw new IllegalStateException();
+            }
+            OffHeapMemberStore.this.remove(ids[index - 1]);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.cache.view.ConcurrentNamedCacheView;
+import com.mewna.catnip.cache.view.MutableNamedCacheView;
+import com.mewna.catnip.entity.guild.Member;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+
+/**
+ * {@link UnifiedMemoryEntityCache UnifiedMemoryEntityCache} that keeps
+ * members off-heap, in direct buffers, rather than as {@link Member}
+ * objects. This takes tens of millions of long-lived objects off the heap
+ * for large bots, at the cost of decoding a new {@link Member} every time
+ * one is read. Members returned by this cache are copies; holding on to them
+ * doesn't keep anything else alive, and they don't see later updates.
+ * <p>
+ * All other entities are cached the same way as in
+ * {@link UnifiedMemoryEntityCache UnifiedMemoryEntityCache}.
+ */
+public class OffHeapMemoryEntityCache extends UnifiedMemoryEntityCache {
+    @Nonnull
+    @Override
+    @CheckReturnValue
+    protected MutableNamedCacheView<Member> createMemberCacheView() {
+        return new ConcurrentNamedCacheView<>(new OffHeapMemberStore(catnip(), 16), memberNameFunction());
+    }
+}
@@ -0,0 +1,873 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.KeyValueTransport.Write;
+import com.mewna.catnip.cache.MutationLog.Kind;
+import com.mewna.catnip.entity.RequiresCatnip;
+import com.mewna.catnip.entity.channel.Channel;
+import com.mewna.catnip.entity.channel.GuildChannel;
+import com.mewna.catnip.entity.channel.UserDMChannel;
+import com.mewna.catnip.entity.guild.Guild;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.guild.Role;
+import com.mewna.catnip.entity.impl.EntityBuilder;
+import com.mewna.catnip.entity.impl.StreamingEntityBuilder;
+import com.mewna.catnip.entity.impl.StreamingEntityBuilder.RawGuildCollections;
+import com.mewna.catnip.entity.misc.Emoji.CustomEmoji;
+import com.mewna.catnip.entity.user.Presence;
+import com.mewna.catnip.entity.user.User;
+import com.mewna.catnip.entity.user.VoiceState;
+import com.mewna.catnip.util.SafeVertxCompletableFuture;
+import io.vertx.core.Future;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static com.mewna.catnip.shard.DiscordEvent.Raw;
+import static com.mewna.catnip.util.JsonUtil.toStringSet;
+
+/**
+ * A cache that keeps its entities in a remote key-value store, such as
+ * Redis, through a {@link KeyValueTransport}, so that they can be shared
+ * between processes and don't take up heap.
+ * <p>
+ * Writes are coalesced per shard: while a shard has a batch of writes in
+ * flight, everything the shard writes in the meantime is queued, and sent
+ * as the next batch once the store acknowledges the first. A shard with
+ * nothing in flight sends its writes as soon as the event that caused them
+ * is applied, so an idle shard pays one round-trip per event, and a busy
+ * one far less. Repeated writes of the same key in a queued batch only
+ * send the last one, and an event's writes aren't sent until the whole
+ * event is applied.
+ * <p>
+ * Batches are capped at {@code maxBatchSize} writes, so an event that
+ * writes more than that (ex. a large {@code GUILD_CREATE} or member chunk)
+ * is split across several round-trips, sent one after the other. Batches
+ * aren't atomic: if one fails, the store is left with only part of the
+ * event, and the failure is logged. The near-cache drops what the failed
+ * batch wrote, so this process reads what the store has from then on.
+ * <p>
+ * Reads go through a bounded near-cache of recently written and read
+ * entities, which is updated by this cache's own writes, so it never holds
+ * anything older than what this process last wrote. Writes that haven't
+ * been acknowledged yet are visible to reads right away. Another process
+ * writing the same keys is not seen until the near-cache entry is evicted;
+ * only one cache should write a given shard at a time.
+ * <p>
+ * A few events patch entities that are already cached, ex.
+ * {@code GUILD_MEMBER_UPDATE}, which requires reading them first if they
+ * aren't in the near-cache. Events after such a read wait for it, so that
+ * writes always reach the store in the order their events were received.
+ * <p>
+ * Since the store can't be listed, the cache views returned by this cache
+ * (ex. {@link #members(long)}) are empty; use the {@code *Async} methods,
+ * or {@link #membersAsync(long, Collection)} to look up many members in one
+ * round-trip.
+ * <p>
+ * Keys look like {@code g:<guild id>:member:<user id>} for entities in a
+ * guild, and {@code user:<user id>} for the rest. The value of a key is
+ * the entity's JSON, prefixed with a byte identifying its class.
+ */
+public class RemoteEntityCache extends CustomizableEntityCache {
+    /**
+     * The default maximum number of entities in the near-cache.
+     */
+    public static final int DEFAULT_NEAR_CACHE_SIZE = 100_000;
+    /**
+     * The default maximum number of writes sent in one round-trip.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1_000;
+    private static final String SELF_USER_KEY = "self";
+    
+    private final KeyValueTransport transport;
+    private final int maxBatchSize;
+    private final Cache<String, Object> nearCache;
+    // Writes that were queued but not acknowledged yet, so that reads see
+    // them before the store does
+    private final Map<String, Pending> unacknowledged = new ConcurrentHashMap<>();
+    private final Map<String, Pending> unacknowledgedPrefixes = new ConcurrentHashMap<>();
+    private final Map<Integer, ShardQueue> shards = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<Long>> guildsByShard = new ConcurrentHashMap<>();
+    // Bumped by every write, so reads that raced with one don't put what
+    // they read in the near-cache
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder writeCount = new LongAdder();
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder readCount = new LongAdder();
+    private final LongAdder nearCacheHitCount = new LongAdder();
+    private EntityBuilder entityBuilder;
+    private StreamingEntityBuilder streamingEntityBuilder;
+    
+    /**
+     * @param transport The connection to the store.
+     */
+    public RemoteEntityCache(@Nonnull final KeyValueTransport transport) {
+        this(transport, DEFAULT_NEAR_CACHE_SIZE, DEFAULT_MAX_BATCH_SIZE);
+    }
+    
+    /**
+     * @param transport     The connection to the store.
+     * @param nearCacheSize The maximum number of entities to keep locally.
+     *                      0 disables the near-cache.
+     * @param maxBatchSize  The maximum number of writes to send in one
+     *                      round-trip. Events writing more than this are
+     *                      split across several round-trips.
+     */
+    public RemoteEntityCache(@Nonnull final KeyValueTransport transport, @Nonnegative final long nearCacheSize,
+                             @Nonnegative final int maxBatchSize) {
+        if(maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batches must hold at least one write");
+        }
+        this.transport = transport;
+        this.maxBatchSize = maxBatchSize;
+        nearCache = CacheBuilder.newBuilder().maximumSize(nearCacheSize).build();
+    }
+    
+    @Nonnull
+    static String key(@Nonnull final Kind kind, final long guildId, final long id) {
+        final String key = kind.name().toLowerCase(Locale.ROOT) + ':' + Long.toUnsignedString(id);
+        return guildId == 0 ? key : guildPrefix(guildId) + key;
+    }
+    
+    @Nonnull
+    static String guildPrefix(final long guildId) {
+        return "g:" + Long.toUnsignedString(guildId) + ':';
+    }
+    
+    @Nonnull
+    static byte[] encode(@Nonnull final Object entity) {
+        final int type = CacheSnapshot.CLASSES.indexOf(entity.getClass());
+        if(type < 0) {
+            throw new IllegalArgumentException("Can't write " + entity.getClass().getName() + " to a remote cache");
+        }
+        try {
+            final byte[] json = Json.mapper.writeValueAsBytes(entity);
+            final byte[] value = new byte[json.length + 1];
+            value[0] = (byte) type;
+            System.arraycopy(json, 0, value, 1, json.length);
+            return value;
+        } catch(final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    @Nonnull
+    private Object decode(@Nonnull final byte[] value) {
+        final int type = value[0] & 0xFF;
+        if(type >= CacheSnapshot.CLASSES.size()) {
+            throw new IllegalStateException("Unknown entity type " + type + " in remote cache");
+        }
+        final Object entity;
+        try {
+            entity = Json.mapper.readValue(value, 1, value.length - 1, CacheSnapshot.CLASSES.get(type));
+        } catch(final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if(entity instanceof RequiresCatnip) {
+            ((RequiresCatnip) entity).catnip(catnip);
+        }
+        return entity;
+    }
+    
+    /**
+     * @return The number of writes sent to the store.
+     */
+    @CheckReturnValue
+    public long writeCount() {
+        return writeCount.sum();
+    }
+    
+    /**
+     * @return The number of batches of writes sent to the store, ie. the
+     * number of round-trips spent writing.
+     */
+    @CheckReturnValue
+    public long batchCount() {
+        return batchCount.sum();
+    }
+    
+    /**
+     * @return The number of reads sent to the store, ie. the number of
+     * round-trips spent reading.
+     */
+    @CheckReturnValue
+    public long readCount() {
+        return readCount.sum();
+    }
+    
+    /**
+     * @return The number of lookups answered locally, by the near-cache or
+     * by a write that wasn't acknowledged yet.
+     */
+    @CheckReturnValue
+    public long nearCacheHitCount() {
+        return nearCacheHitCount.sum();
+    }
+    
+    @Nonnull
+    @Override
+    public Future<Void> updateCache(@Nonnull final String eventType, @Nonnegative final int shardId, @Nonnull final JsonObject payload) {
+        final ShardQueue shard = shard(shardId);
+        final CompletableFuture<Void> applied;
+        synchronized(shard) {
+            if(shard.tail.isDone()) {
+                applied = applyUpdate(shard, eventType, shardId, payload);
+            } else {
+                applied = shard.tail.thenCompose(__ -> applyUpdate(shard, eventType, shardId, payload));
+            }
+            if(!applied.isDone()) {
+                shard.tail = applied.exceptionally(__ -> null);
+            }
+        }
+        final Future<Void> future = Future.future();
+        applied.whenComplete((__, e) -> {
+            if(e == null) {
+                future.complete();
+            } else {
+                future.fail(e);
+            }
+        });
+        return future;
+    }
+    
+    @Nonnull
+    private CompletableFuture<Void> applyUpdate(@Nonnull final ShardQueue shard, @Nonnull final String eventType,
+                                                @Nonnegative final int shardId, @Nonnull final JsonObject payload) {
+        synchronized(shard) {
+            shard.applying = true;
+            try {
+                return apply(shard, eventType, shardId, payload);
+            } finally {
+                shard.applying = false;
+                flush(shard);
+            }
+        }
+    }
+    
+    @Nonnull
+    private CompletableFuture<Void> apply(@Nonnull final ShardQueue shard, @Nonnull final String eventType,
+                                          @Nonnegative final int shardId, @Nonnull final JsonObject payload) {
+        switch(eventType) {
+            // Lifecycle
+            case Raw.READY: {
+                set(shard, SELF_USER_KEY, entityBuilder.createUser(payload.getJsonObject("user")));
+                break;
+            }
+            // Channels
+            case Raw.CHANNEL_CREATE:
+            case Raw.CHANNEL_UPDATE: {
+                final Channel channel = entityBuilder.createChannel(payload);
+                if(channel.isGuild()) {
+                    final GuildChannel gc = (GuildChannel) channel;
+                    set(shard, key(Kind.CHANNEL, gc.guildIdAsLong(), gc.idAsLong()), gc);
+                } else if(channel.isUserDM()) {
+                    set(shard, key(Kind.DM_CHANNEL, 0, channel.idAsLong()), channel);
+                }
+                break;
+            }
+            case Raw.CHANNEL_DELETE: {
+                final Channel channel = entityBuilder.createChannel(payload);
+                if(channel.isGuild()) {
+                    delete(shard, key(Kind.CHANNEL, ((GuildChannel) channel).guildIdAsLong(), channel.idAsLong()));
+                } else if(channel.isUserDM()) {
+                    delete(shard, key(Kind.DM_CHANNEL, 0, channel.idAsLong()));
+                }
+                break;
+            }
+            // Guilds
+            case Raw.GUILD_CREATE: {
+                final String id = payload.getString("id");
+                guildsByShard.computeIfAbsent(shardId, __ -> ConcurrentHashMap.newKeySet()).add(Long.parseUnsignedLong(id));
+                // Streamed payloads carry their collections as raw bytes,
+                // see CatnipOptions#streamingGuildCreateThreshold. They're
+                // removed so that the event doesn't hold on to them.
+                final RawGuildCollections collections = (RawGuildCollections) payload.remove(StreamingEntityBuilder.RAW_GUILD_COLLECTIONS_KEY);
+                if(collections != null) {
+                    streamingEntityBuilder.cacheGuildCollections(shardId, id, collections,
+                            catnip.streamingGuildCreateBatchSize());
+                }
+                final Guild guild = entityBuilder.createAndCacheGuild(shardId, payload);
+                set(shard, key(Kind.GUILD, guild.idAsLong(), guild.idAsLong()), guild);
+                break;
+            }
+            case Raw.GUILD_UPDATE: {
+                final Guild guild = entityBuilder.createGuild(payload);
+                set(shard, key(Kind.GUILD, guild.idAsLong(), guild.idAsLong()), guild);
+                break;
+            }
+            case Raw.GUILD_DELETE: {
+                final long id = Long.parseUnsignedLong(payload.getString("id"));
+                final Set<Long> guilds = guildsByShard.get(shardId);
+                if(guilds != null) {
+                    guilds.remove(id);
+                }
+                deletePrefix(shard, guildPrefix(id));
+                break;
+            }
+            // Roles
+            case Raw.GUILD_ROLE_CREATE:
+            case Raw.GUILD_ROLE_UPDATE: {
+                final Role role = entityBuilder.createRole(payload.getString("guild_id"), payload.getJsonObject("role"));
+                set(shard, key(Kind.ROLE, role.guildIdAsLong(), role.idAsLong()), role);
+                break;
+            }
+            case Raw.GUILD_ROLE_DELETE: {
+                final long guild = Long.parseUnsignedLong(payload.getString("guild_id"));
+                delete(shard, key(Kind.ROLE, guild, Long.parseUnsignedLong(payload.getString("role_id"))));
+                break;
+            }
+            // Members
+            case Raw.GUILD_MEMBER_ADD: {
+                // Creating the member caches its user
+                final Member member = entityBuilder.createMember(payload.getString("guild_id"), payload);
+                set(shard, key(Kind.MEMBER, member.guildIdAsLong(), member.idAsLong()), member);
+                break;
+            }
+            case Raw.GUILD_MEMBER_UPDATE: {
+                // Only carries some of the member's fields, so the cached
+                // member has to be read and patched
+                final long guild = Long.parseUnsignedLong(payload.getString("guild_id"));
+                final long id = Long.parseUnsignedLong(payload.getJsonObject("user").getString("id"));
+                final String nick = payload.getString("nick");
+                final Set<String> roleIds = toStringSet(payload.getJsonArray("roles"));
+                final String key = key(Kind.MEMBER, guild, id);
+                // It also carries the whole user, which may have changed
+                cacheUserIfChanged(shard, payload.getJsonObject("user"));
+                return lookup(key).thenAccept(old -> {
+                    if(old instanceof Member) {
+                        final Member patched = MemoryEntityCache.patchMember(catnip, (Member) old, nick, roleIds);
+                        if(patched != old) {
+                            synchronized(shard) {
+                                set(shard, key, patched);
+                            }
+                        }
+                    }
+                });
+            }
+            case Raw.GUILD_MEMBER_REMOVE: {
+                final long guild = Long.parseUnsignedLong(payload.getString("guild_id"));
+                delete(shard, key(Kind.MEMBER, guild, Long.parseUnsignedLong(payload.getJsonObject("user").getString("id"))));
+                break;
+            }
+            // Member chunking
+            case Raw.GUILD_MEMBERS_CHUNK: {
+                final String guild = payload.getString("guild_id");
+                final JsonArray members = payload.getJsonArray("members");
+                members.stream().map(e -> entityBuilder.createMember(guild, (JsonObject) e))
+                        .forEach(m -> set(shard, key(Kind.MEMBER, m.guildIdAsLong(), m.idAsLong()), m));
+                break;
+            }
+            // Emojis
+            case Raw.GUILD_EMOJIS_UPDATE: {
+                if(!catnip.cacheFlags().contains(CacheFlag.DROP_EMOJI)) {
+                    final String guild = payload.getString("guild_id");
+                    final JsonArray emojis = payload.getJsonArray("emojis");
+                    emojis.stream().map(e -> entityBuilder.createCustomEmoji(guild, (JsonObject) e))
+                            .forEach(e -> set(shard, key(Kind.EMOJI, e.guildIdAsLong(), e.idAsLong()), e));
+                }
+                break;
+            }
+            // Currently-logged-in user
+            case Raw.USER_UPDATE: {
+                set(shard, SELF_USER_KEY, entityBuilder.createUser(payload));
+                break;
+            }
+            // Users
+            case Raw.PRESENCE_UPDATE: {
+                final JsonObject json = payload.getJsonObject("user");
+                final long id = Long.parseUnsignedLong(json.getString("id"));
+                cacheUserIfChanged(shard, json);
+                if(!catnip.cacheFlags().contains(CacheFlag.DROP_GAME_STATUSES)) {
+                    final String presenceKey = key(Kind.PRESENCE, 0, id);
+                    final Presence presence = entityBuilder.createPresence(payload);
+                    // Most presence updates only repeat what we already have
+                    if(!presence.equals(local(presenceKey))) {
+                        set(shard, presenceKey, presence);
+                    }
+                }
+                break;
+            }
+            // Voice
+            case Raw.VOICE_STATE_UPDATE: {
+                if(!catnip.cacheFlags().contains(CacheFlag.DROP_VOICE_STATES)) {
+                    final VoiceState state = entityBuilder.createVoiceState(payload);
+                    if(state.guildIdAsLong() != 0) {
+                        set(shard, key(Kind.VOICE_STATE, state.guildIdAsLong(), state.userIdAsLong()), state);
+                    }
+                }
+                break;
+            }
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+    
+    /**
+     * Caches a user from an event, unless it's known locally and has the
+     * same username, discriminator and avatar. Users that aren't known
+     * locally aren't read from the store, as that would cost a round-trip
+     * for every presence update.
+     */
+    private void cacheUserIfChanged(@Nonnull final ShardQueue shard, @Nonnull final JsonObject user) {
+        final String key = key(Kind.USER, 0, Long.parseUnsignedLong(user.getString("id")));
+        final Object old = local(key);
+        if(old instanceof User) {
+            final User updated = MemoryEntityCache.patchUser(catnip, (User) old, user);
+            if(updated != old) {
+                set(shard, key, updated);
+            }
+        } else if(user.getString("username") != null) {
+            set(shard, key, entityBuilder.createUser(user));
+        }
+    }
+    
+    @Override
+    public void bulkCacheUsers(@Nonnegative final int shardId, @Nonnull final Collection<User> users) {
+        bulkCache(shardId, users, u -> key(Kind.USER, 0, u.idAsLong()));
+    }
+    
+    @Override
+    public void bulkCacheChannels(@Nonnegative final int shardId, @Nonnull final Collection<GuildChannel> channels) {
+        bulkCache(shardId, channels, c -> key(Kind.CHANNEL, c.guildIdAsLong(), c.idAsLong()));
+    }
+    
+    @Override
+    public void bulkCacheRoles(@Nonnegative final int shardId, @Nonnull final Collection<Role> roles) {
+        bulkCache(shardId, roles, r -> key(Kind.ROLE, r.guildIdAsLong(), r.idAsLong()));
+    }
+    
+    @Override
+    public void bulkCacheMembers(@Nonnegative final int shardId, @Nonnull final Collection<Member> members) {
+        bulkCache(shardId, members, m -> key(Kind.MEMBER, m.guildIdAsLong(), m.idAsLong()));
+    }
+    
+    @Override
+    public void bulkCacheEmoji(@Nonnegative final int shardId, @Nonnull final Collection<CustomEmoji> emoji) {
+        bulkCache(shardId, emoji, e -> key(Kind.EMOJI, e.guildIdAsLong(), e.idAsLong()));
+    }
+    
+    @Override
+    public void bulkCachePresences(@Nonnegative final int shardId, @Nonnull final Map<String, Presence> presences) {
+        final ShardQueue shard = shard(shardId);
+        synchronized(shard) {
+            presences.forEach((id, presence) -> set(shard, key(Kind.PRESENCE, 0, Long.parseUnsignedLong(id)), presence));
+            if(!shard.applying) {
+                flush(shard);
+            }
+        }
+    }
+    
+    @Override
+    public void bulkCacheVoiceStates(@Nonnegative final int shardId, @Nonnull final Collection<VoiceState> voiceStates) {
+        bulkCache(shardId, voiceStates, v -> key(Kind.VOICE_STATE, v.guildIdAsLong(), v.userIdAsLong()));
+    }
+    
+    private <T> void bulkCache(final int shardId, @Nonnull final Collection<T> entities,
+                               @Nonnull final Function<T, String> key) {
+        final ShardQueue shard = shard(shardId);
+        synchronized(shard) {
+            entities.forEach(e -> set(shard, key.apply(e), e));
+            if(!shard.applying) {
+                flush(shard);
+            }
+        }
+    }
+    
+    @Override
+    public void invalidateShard(@Nonnegative final int id) {
+        final Set<Long> guilds = guildsByShard.remove(id);
+        if(guilds == null) {
+            return;
+        }
+        final ShardQueue shard = shard(id);
+        synchronized(shard) {
+            guilds.forEach(guild -> deletePrefix(shard, guildPrefix(guild)));
+            if(!shard.applying) {
+                flush(shard);
+            }
+        }
+    }
+    
+    @Nonnull
+    private ShardQueue shard(final int shardId) {
+        return shards.computeIfAbsent(shardId, __ -> new ShardQueue());
+    }
+    
+    private void set(@Nonnull final ShardQueue shard, @Nonnull final String key, @Nonnull final Object entity) {
+        final Pending pending = new Pending(Write.set(key, encode(entity)), entity);
+        unacknowledged.put(key, pending);
+        nearCache.put(key, entity);
+        enqueue(shard, pending);
+    }
+    
+    private void delete(@Nonnull final ShardQueue shard, @Nonnull final String key) {
+        final Pending pending = new Pending(Write.delete(key), null);
+        unacknowledged.put(key, pending);
+        nearCache.invalidate(key);
+        enqueue(shard, pending);
+    }
+    
+    private void deletePrefix(@Nonnull final ShardQueue shard, @Nonnull final String prefix) {
+        final Pending pending = new Pending(Write.deletePrefix(prefix), null);
+        // Earlier writes under the prefix are deleted anyway
+        unacknowledged.keySet().removeIf(key -> key.startsWith(prefix));
+        unacknowledgedPrefixes.put(prefix, pending);
+        nearCache.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+        shard.queued.keySet().removeIf(key -> key.startsWith(prefix));
+        enqueue(shard, pending);
+    }
+    
+    private void enqueue(@Nonnull final ShardQueue shard, @Nonnull final Pending pending) {
+        generation.incrementAndGet();
+        synchronized(shard) {
+            // Move rewritten keys to the end, so writes stay in order
+            shard.queued.remove(pending.write.key());
+            shard.queued.put(pending.write.key(), pending);
+            if(!shard.applying) {
+                flush(shard);
+            }
+        }
+    }
+    
+    private void flush(@Nonnull final ShardQueue shard) {
+        final List<Pending> batch;
+        synchronized(shard) {
+            if(shard.inFlight || shard.queued.isEmpty()) {
+                return;
+            }
+            shard.inFlight = true;
+            batch = shard.drain(maxBatchSize);
+        }
+        send(shard, batch);
+    }
+    
+    private void send(@Nonnull final ShardQueue shard, @Nonnull final List<Pending> batch) {
+        final List<Write> writes = new ArrayList<>(batch.size());
+        for(final Pending pending : batch) {
+            writes.add(pending.write);
+        }
+        writeCount.add(writes.size());
+        batchCount.increment();
+        CompletableFuture<Void> future;
+        try {
+            future = transport.write(writes);
+        } catch(final RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((__, e) -> {
+            if(e != null) {
+                catnip.logAdapter().error("Failed writing {} entities to the remote cache", writes.size(), e);
+                // What we have locally is now ahead of the store
+                generation.incrementAndGet();
+                for(final Pending pending : batch) {
+                    final String key = pending.write.key();
+                    if(pending.write.operation() == KeyValueTransport.Operation.DELETE_PREFIX) {
+                        nearCache.asMap().keySet().removeIf(k -> k.startsWith(key));
+                    } else {
+                        nearCache.invalidate(key);
+                    }
+                }
+            }
+            for(final Pending pending : batch) {
+                if(pending.write.operation() == KeyValueTransport.Operation.DELETE_PREFIX) {
+                    unacknowledgedPrefixes.remove(pending.write.key(), pending);
+                } else {
+                    unacknowledged.remove(pending.write.key(), pending);
+                }
+            }
+            final List<Pending> next;
+            synchronized(shard) {
+                next = shard.drain(maxBatchSize);
+                if(next.isEmpty()) {
+                    shard.inFlight = false;
+                }
+            }
+            if(!next.isEmpty()) {
+                send(shard, next);
+            }
+        });
+    }
+    
+    /**
+     * Looks up a key without going to the store.
+     *
+     * @return The entity, or {@code null} if it isn't known locally.
+     */
+    @Nullable
+    private Object local(@Nonnull final String key) {
+        final Pending pending = unacknowledged.get(key);
+        if(pending != null) {
+            return pending.entity;
+        }
+        if(deletedByPrefix(key)) {
+            return null;
+        }
+        return nearCache.getIfPresent(key);
+    }
+    
+    private boolean deletedByPrefix(@Nonnull final String key) {
+        if(unacknowledgedPrefixes.isEmpty()) {
+            return false;
+        }
+        for(final String prefix : unacknowledgedPrefixes.keySet()) {
+            if(key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    @Nonnull
+    private CompletableFuture<Object> lookup(@Nonnull final String key) {
+        return lookupAll(Collections.singletonList(key)).thenApply(entities -> entities.get(0));
+    }
+    
+    /**
+     * Looks up the given keys, answering what it can locally, and reading
+     * the rest from the store in one round-trip.
+     */
+    @Nonnull
+    private CompletableFuture<List<Object>> lookupAll(@Nonnull final List<String> keys) {
+        final Object[] entities = new Object[keys.size()];
+        final List<String> missing = new ArrayList<>();
+        final List<Integer> missingIndexes = new ArrayList<>();
+        for(int i = 0; i < entities.length; i++) {
+            final String key = keys.get(i);
+            final Pending pending = unacknowledged.get(key);
+            if(pending != null || deletedByPrefix(key)) {
+                entities[i] = pending == null ? null : pending.entity;
+                nearCacheHitCount.increment();
+                continue;
+            }
+            final Object cached = nearCache.getIfPresent(key);
+            if(cached != null) {
+                entities[i] = cached;
+                nearCacheHitCount.increment();
+            } else {
+                missing.add(key);
+                missingIndexes.add(i);
+            }
+        }
+        if(missing.isEmpty()) {
+            return CompletableFuture.completedFuture(Arrays.asList(entities));
+        }
+        final long expected = generation.get();
+        readCount.increment();
+        return transport.read(missing).thenApply(values -> {
+            final boolean raced = generation.get() != expected;
+            for(int i = 0; i < missing.size(); i++) {
+                final String key = missing.get(i);
+                final byte[] value = values.get(i);
+                Object entity = value == null ? null : decode(value);
+                if(raced) {
+                    // Anything written while we were reading is newer
+                    final Pending pending = unacknowledged.get(key);
+                    if(pending != null) {
+                        entity = pending.entity;
+                    } else if(deletedByPrefix(key)) {
+                        entity = null;
+                    }
+                } else if(entity != null) {
+                    nearCache.put(key, entity);
+                }
+                entities[missingIndexes.get(i)] = entity;
+            }
+            return Arrays.asList(entities);
+        });
+    }
+    
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> get(@Nonnull final String key) {
+        return SafeVertxCompletableFuture.from(catnip, lookup(key).thenApply(entity -> (T) entity));
+    }
+    
+    /**
+     * Looks up many members of a guild at once. Members that aren't known
+     * locally are read from the store in a single round-trip.
+     *
+     * @param guildId The ID of the guild the members are in.
+     * @param ids     The IDs of the members.
+     *
+     * @return A future completed with the members that are cached, in the
+     * order of the given IDs.
+     */
+    @Nonnull
+    public CompletableFuture<List<Member>> membersAsync(final long guildId, @Nonnull final Collection<Long> ids) {
+        final List<String> keys = new ArrayList<>(ids.size());
+        for(final long id : ids) {
+            keys.add(key(Kind.MEMBER, guildId, id));
+        }
+        return SafeVertxCompletableFuture.from(catnip, lookupAll(keys).thenApply(entities -> {
+            final List<Member> members = new ArrayList<>(entities.size());
+            for(final Object entity : entities) {
+                if(entity != null) {
+                    members.add((Member) entity);
+                }
+            }
+            return members;
+        }));
+    }
+    
+    @Nonnull
+    @Override
+    public CompletableFuture<Guild> guildAsync(final long id) {
+        return get(key(Kind.GUILD, id, id));
+    }
+    
+    @Nonnull
+    @Override
+    public CompletableFuture<User> userAsync(final long id) {
+        return get(key(Kind.USER, 0, id));
+    }
+    
+    @Nonnull
+    @Override
+    public CompletableFuture<Presence> presenceAsync(final long id) {
+        return get(key(Kind.PRESENCE, 0, id));
+    }
+    
+    @Nonnull
+    @Override
+    public CompletableFuture<Member> memberAsync(final long guildId, final long id) {
+        return get(key(Kind.MEMBER, guildId, id));
+    }
+    
+    @Nonnull
+    @Override
+    public CompletableFuture<Role> roleAsync(final long guildId, final long id) {
+        return get(key(Kind.ROLE, guildId, id));
+    }
+    
+    @Nonnull
+    @Override
+    public CompletableFuture<GuildChannel> channelAsync(final long guildId, final long id) {
+        return get(key(Kind.CHANNEL, guildId, id));
+    }
+    
+    @Nonnull
+    @Override
+    public CompletableFuture<UserDMChannel> dmChannelAsync(final long id) {
+        return get(key(Kind.DM_CHANNEL, 0, id));
+    }
+    
+    @Nonnull
+    @Override
+    public CompletableFuture<CustomEmoji> emojiAsync(final long guildId, final long id) {
+        return get(key(Kind.EMOJI, guildId, id));
+    }
+    
+    @Nonnull
+    @Override
+    public CompletableFuture<VoiceState> voiceStateAsync(final long guildId, final long id) {
+        return get(key(Kind.VOICE_STATE, guildId, id));
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The guild and its public role, which every permission check needs,
+     * are read in a single round-trip. Anything else is looked up as it's
+     * asked for, going through the near-cache like any other read.
+     */
+    @Nonnull
+    @Override
+    public GuildSnapshot snapshot(final long guildId) {
+        final List<Object> entities = lookupAll(Arrays.asList(key(Kind.GUILD, guildId, guildId),
+                key(Kind.ROLE, guildId, guildId))).join();
+        return GuildSnapshot.lookingUp(this, guildId, (Guild) entities.get(0),
+                Collections.singletonMap(guildId, (Role) entities.get(1)));
+    }
+    
+    @Nonnull
+    @Override
+    public CompletableFuture<User> selfUserAsync() {
+        return get(SELF_USER_KEY);
+    }
+    
+    @Nonnull
+    @Override
+    public EntityCache catnip(@Nonnull final Catnip catnip) {
+        super.catnip(catnip);
+        entityBuilder = new EntityBuilder(catnip);
+        streamingEntityBuilder = new StreamingEntityBuilder(catnip);
+        return this;
+    }
+    
+    private static final class Pending {
+        private final Write write;
+        // The entity written, so reads don't need to decode it. null for deletes
+        private final Object entity;
+        
+        private Pending(@Nonnull final Write write, @Nullable final Object entity) {
+            this.write = write;
+            this.entity = entity;
+        }
+    }
+    
+    private static final class ShardQueue {
+        // Writes waiting to be sent, by key, in order. Guarded by this.
+        private final LinkedHashMap<String, Pending> queued = new LinkedHashMap<>();
+        // Guarded by this
+        private boolean inFlight;
+        // Whether an event is being applied, so its writes are sent together
+        // once it's done. Guarded by this.
+        private boolean applying;
+        // The last event that had to read from the store; later events wait
+        // for it. Guarded by this.
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        
+        @Nonnull
+        private List<Pending> drain(final int max) {
+            final List<Pending> batch = new ArrayList<>(Math.min(max, queued.size()));
+            final Iterator<Pending> iterator = queued.values().iterator();
+            while(iterator.hasNext() && batch.size() < max) {
+                batch.add(iterator.next());
+                iterator.remove();
+            }
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.cache.view.LongEntityMap;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Reverse index from a key (ex. a role id) to the ids of the entities that
+ * carry it (ex. the members with that role). Which keys an entity carries is
+ * declared by a {@link Keys} function; the index itself only has to be told
+ * about every put and remove, through {@link #update(long, Object, Object)}.
+ * <p>
+ * Views that drop entries on their own (ex. bounded views) don't tell the
+ * index, so lookups should resolve ids against the view and check the entity
+ * still {@link #carries(Object, long) carries} the key. A stale index can then
+ * hold ids it no longer needs, but never makes lookups return wrong entities.
+ *
+ * @param <T> Type of the indexed entity.
+ */
+public final class SecondaryIndex<T> {
+    private static final long[] EMPTY = new long[0];
+    
+    private final Keys<T> keys;
+    // Guarded by this
+    private final LongEntityMap<IdSet> index = LongEntityMap.create();
+    
+    public SecondaryIndex(@Nonnull final Keys<T> keys) {
+        this.keys = keys;
+    }
+    
+    /**
+     * Moves an entity from the keys of its old version to the keys of its
+     * new one.
+     *
+     * @param id      The id of the entity.
+     * @param old     The entity that was replaced, or {@code null} if it's new.
+     * @param updated The entity that replaced it, or {@code null} if it was
+     *                removed.
+     */
+    public synchronized void update(final long id, @Nullable final T old, @Nullable final T updated) {
+        if(old != null) {
+            keys.keys(old, key -> {
+                final IdSet ids = index.get(key);
+                if(ids != null && ids.remove(id) && ids.size == 0) {
+                    index.remove(key);
+                }
+            });
+        }
+        if(updated != null) {
+            keys.keys(updated, key -> {
+                IdSet ids = index.get(key);
+                if(ids == null) {
+                    ids = new IdSet();
+                    index.put(key, ids);
+                }
+                ids.add(id);
+            });
+        }
+    }
+    
+    /**
+     * @param key The key to look up.
+     *
+     * @return The ids of the entities indexed under the key, in ascending
+     * order. Never {@code null}.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public synchronized long[] ids(final long key) {
+        final IdSet ids = index.get(key);
+        return ids == null ? EMPTY : Arrays.copyOf(ids.ids, ids.size);
+    }
+    
+    /**
+     * @return How many distinct keys currently have entities indexed under
+     * them.
+     */
+    @Nonnegative
+    @CheckReturnValue
+    public synchronized int keyCount() {
+        return index.size();
+    }
+    
+    /**
+     * @param entity The entity to check.
+     * @param key    The key to check for.
+     *
+     * @return Whether the entity, as it is now, carries the given key.
+     */
+    @CheckReturnValue
+    public boolean carries(@Nonnull final T entity, final long key) {
+        final boolean[] found = {false};
+        keys.keys(entity, k -> found[0] |= k == key);
+        return found[0];
+    }
+    
+    /**
+     * Declares the keys an entity is indexed under.
+     *
+     * @param <T> Type of the indexed entity.
+     */
+    @FunctionalInterface
+    public interface Keys<T> {
+        /**
+         * @param entity The entity.
+         * @param sink   Receives every key the entity carries.
+         */
+        void keys(@Nonnull T entity, @Nonnull LongConsumer sink);
+    }
+    
+    /**
+     * Sorted set of ids. Members of a role can number in the thousands, so
+     * this keeps them in a flat array instead of boxing them into a set.
+     */
+    private static final class IdSet {
+        private long[] ids = new long[2];
+        private int size;
+        
+        private void add(final long id) {
+            int i = Arrays.binarySearch(ids, 0, size, id);
+            if(i >= 0) {
+                return;
+            }
+            i = -i - 1;
+            if(size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, i, ids, i + 1, size - i);
+            ids[i] = id;
+            size++;
+        }
+        
+        private boolean remove(final long id) {
+            final int i = Arrays.binarySearch(ids, 0, size, id);
+            if(i < 0) {
+                return false;
+            }
+            System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+            size--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.cache.view.LongEntityMap;
+
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps entity ids to the shards they're cached on, so that per-shard caches
+ * can be searched without looking at every shard. An entity (ex. a user that
+ * shares guilds on several shards) can be on more than one shard.
+ * <p>
+ * The shard arrays are never modified once stored, so readers never lock.
+ * Entities that are only on one shard, which is almost all of them, share a
+ * single array per shard.
+ */
+final class ShardIndex {
+    private final LongEntityMap<int[]> shards = LongEntityMap.createConcurrent();
+    private final ConcurrentHashMap<Integer, int[]> singletons = new ConcurrentHashMap<>();
+    
+    private static boolean contains(final int[] shards, final int shardId) {
+        for(final int shard : shards) {
+            if(shard == shardId) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @param id The id of the entity.
+     *
+     * @return The shards the entity may be cached on, or {@code null} if it
+     * isn't cached on any of them.
+     */
+    @Nullable
+    int[] shards(final long id) {
+        return shards.get(id);
+    }
+    
+    void add(final long id, final int shardId) {
+        final int[] current = shards.get(id);
+        if(current != null && contains(current, shardId)) {
+            return;
+        }
+        synchronized(shards) {
+            final int[] locked = shards.get(id);
+            if(locked == null) {
+                shards.put(id, singletons.computeIfAbsent(shardId, s -> new int[]{s}));
+            } else if(!contains(locked, shardId)) {
+                final int[] updated = new int[locked.length + 1];
+                System.arraycopy(locked, 0, updated, 0, locked.length);
+                updated[locked.length] = shardId;
+                shards.put(id, updated);
+            }
+        }
+    }
+    
+    void removeShard(final int shardId) {
+        synchronized(shards) {
+            final Iterator<Entry<Long, int[]>> iterator = shards.entrySet().iterator();
+            while(iterator.hasNext()) {
+                final Entry<Long, int[]> entry = iterator.next();
+                final int[] current = entry.getValue();
+                if(!contains(current, shardId)) {
+                    continue;
+                }
+                if(current.length == 1) {
+                    iterator.remove();
+                } else {
+                    final int[] updated = new int[current.length - 1];
+                    int i = 0;
+                    for(final int shard : current) {
+                        if(shard != shardId) {
+                            updated[i++] = shard;
+                        }
+                    }
+                    shards.put(entry.getKey(), updated.length == 1
+                            ? singletons.computeIfAbsent(updated[0], s -> new int[]{s})
+                            : updated);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Rough estimates of how much heap an object graph retains, for
+ * {@link CacheFootprint}. Sizes assume a 64-bit JVM with compressed
+ * references, and objects are walked reflectively.
+ * <p>
+ * Static and transient fields aren't followed, so the catnip instance that
+ * every entity holds isn't counted against it, and neither are enums or
+ * classes. Objects reachable more than once from the same root are counted
+ * once, but objects shared between roots (ex. interned strings) are counted
+ * for each of them.
+ */
+final class SizeEstimator {
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    // Entities are small; anything bigger than this is probably reaching
+    // into something shared, so stop counting there
+    private static final int MAX_OBJECTS = 4096;
+    private static final ClassValue<Layout> LAYOUTS = new ClassValue<Layout>() {
+        @Override
+        protected Layout computeValue(final Class<?> type) {
+            return new Layout(type);
+        }
+    };
+    
+    private SizeEstimator() {
+    }
+    
+    /**
+     * @param root The object to measure.
+     *
+     * @return An estimate of the number of bytes retained by the object, or
+     * 0 if it's {@code null}.
+     */
+    static long estimate(@Nullable final Object root) {
+        if(root == null) {
+            return 0;
+        }
+        final Map<Object, Boolean> seen = new IdentityHashMap<>();
+        final Deque<Object> pending = new ArrayDeque<>();
+        seen.put(root, Boolean.TRUE);
+        pending.add(root);
+        long bytes = 0;
+        while(!pending.isEmpty()) {
+            final Object object = pending.poll();
+            final Class<?> type = object.getClass();
+            if(object instanceof String) {
+                // Measured directly, as its layout differs between versions
+                bytes += align(OBJECT_HEADER + REFERENCE + Integer.BYTES)
+                        + align(ARRAY_HEADER + (long) ((String) object).length() * Character.BYTES);
+            } else if(type.isArray()) {
+                final Class<?> component = type.getComponentType();
+                final int length = Array.getLength(object);
+                bytes += align(ARRAY_HEADER + (long) length * sizeOf(component));
+                if(!component.isPrimitive()) {
+                    for(final Object element : (Object[]) object) {
+                        visit(element, seen, pending);
+                    }
+                }
+            } else {
+                final Layout layout = LAYOUTS.get(type);
+                bytes += layout.shallowSize;
+                for(final Field field : layout.references) {
+                    try {
+                        visit(field.get(object), seen, pending);
+                    } catch(final IllegalAccessException ignored) {
+                        // Can't happen, the field was made accessible
+                    }
+                }
+            }
+        }
+        return bytes;
+    }
+    
+    private static void visit(@Nullable final Object object, @Nonnull final Map<Object, Boolean> seen,
+                              @Nonnull final Deque<Object> pending) {
+        if(object == null || object instanceof Enum || object instanceof Class || seen.size() >= MAX_OBJECTS) {
+            return;
+        }
+        if(seen.put(object, Boolean.TRUE) == null) {
+            pending.add(object);
+        }
+    }
+    
+    private static long align(final long size) {
+        return size + 7 & ~7L;
+    }
+    
+    private static int sizeOf(@Nonnull final Class<?> type) {
+        if(type == long.class || type == double.class) {
+            return 8;
+        } else if(type == int.class || type == float.class) {
+            return 4;
+        } else if(type == short.class || type == char.class) {
+            return 2;
+        } else if(type == byte.class || type == boolean.class) {
+            return 1;
+        } else {
+            return REFERENCE;
+        }
+    }
+    
+    private static final class Layout {
+        private final long shallowSize;
+        private final List<Field> references = new ArrayList<>();
+        
+        private Layout(@Nonnull final Class<?> type) {
+            long fields = 0;
+            for(Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for(final Field field : c.getDeclaredFields()) {
+                    final int modifiers = field.getModifiers();
+                    if(Modifier.isStatic(modifiers)) {
+                        continue;
+                    }
+                    fields += sizeOf(field.getType());
+                    if(field.getType().isPrimitive() || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    try {
+                        field.setAccessible(true);
+                        references.add(field);
+                    } catch(final RuntimeException ignored) {
+                        // Closed off by the module system, so it's only
+                        // counted shallowly
+                    }
+                }
+            }
+            shallowSize = align(OBJECT_HEADER + fields);
+        }
+    }
+}
@@ -32,11 +32,25 @@ import com.mewna.catnip.entity.channel.UserDMChannel;
 import com.mewna.catnip.entity.user.Presence;
 import com.mewna.catnip.entity.user.User;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * A {@link MemoryEntityCache} that keeps users, presences, and DM channels in
+ * a separate view per shard, so that invalidating a shard only drops what
+ * that shard received.
+ * <p>
+ * Single-entity lookups ({@link #user(long)}, {@link #presence(long)},
+ * {@link #dmChannel(long)}) consult an index of which shards an entity was
+ * cached on, rather than searching every shard's view. The index is kept up
+ * to date by this class's caching methods, so entities put directly into the
+ * views returned by {@link #userCache(int)} and friends will not be found by
+ * those lookups; they will still show up in {@link #users()} and friends.
+ */
 public class SplitMemoryEntityCache extends MemoryEntityCache {
     @SuppressWarnings("WeakerAccess")
     protected final Map<Integer, MutableNamedCacheView<User>> userCache = new ConcurrentHashMap<>();
@@ -44,13 +58,66 @@ public class SplitMemoryEntityCache extends MemoryEntityCache {
     protected final Map<Integer, MutableCacheView<Presence>> presenceCache = new ConcurrentHashMap<>();
     @SuppressWarnings("WeakerAccess")
     protected final Map<Integer, MutableCacheView<UserDMChannel>> dmChannelCache = new ConcurrentHashMap<>();
+    // Users and presences share ids, so they share an index
+    private final ShardIndex userShards = new ShardIndex();
+    private final ShardIndex dmChannelShards = new ShardIndex();
+    
+    @Nullable
+    private static <T> T find(@Nullable final int[] shards, @Nonnull final Map<Integer, ? extends CacheView<T>> caches,
+                              final long id) {
+        if(shards == null) {
+            return null;
+        }
+        for(final int shard : shards) {
+            final CacheView<T> cache = caches.get(shard);
+            if(cache != null) {
+                final T entity = cache.getById(id);
+                if(entity != null) {
+                    return entity;
+                }
+            }
+        }
+        return null;
+    }
     
     @Override
-    public void invalidateShard(final int id) {
-        super.invalidateShard(id);
+    protected void invalidateShard(final int id, final int shardCount) {
+        super.invalidateShard(id, shardCount);
         userCache.remove(id);
         dmChannelCache.remove(id);
         presenceCache.remove(id);
+        userShards.removeShard(id);
+        dmChannelShards.removeShard(id);
+    }
+    
+    @Override
+    protected void cacheUser(final int shardId, @Nonnull final User user) {
+        super.cacheUser(shardId, user);
+        userShards.add(user.idAsLong(), shardId);
+    }
+    
+    @Override
+    protected void cachePresence(final int shardId, final long userId, @Nonnull final Presence presence) {
+        super.cachePresence(shardId, userId, presence);
+        userShards.add(userId, shardId);
+    }
+    
+    @Override
+    protected void cacheDMChannel(final int shardId, @Nonnull final UserDMChannel channel) {
+        super.cacheDMChannel(shardId, channel);
+        dmChannelShards.add(channel.idAsLong(), shardId);
+    }
+    
+    @Override
+    public void bulkCacheUsers(@Nonnegative final int shardId, @Nonnull final Collection<User> users) {
+        super.bulkCacheUsers(shardId, users);
+        users.forEach(u -> userShards.add(u.idAsLong(), shardId));
+    }
+    
+    @Override
+    public void bulkCachePresences(@Nonnegative final int shardId, @Nonnull final Map<String, Presence> presences) {
+        super.bulkCachePresences(shardId, presences);
+        presences.keySet().forEach(id -> userShards.add(Long.parseUnsignedLong(id), shardId));
     }
     
     @Override
@@ -71,13 +138,7 @@ public class SplitMemoryEntityCache extends MemoryEntityCache {
     @Nullable
     @Override
     public User user(final long id) {
-        for(final CacheView<User> cache : userCache.values()) {
-            final User user = cache.getById(id);
-            if(user != null) {
-                return user;
-            }
-        }
-        return null;
+        return find(userShards.shards(id), userCache, id);
     }
     
     @Nonnull
@@ -89,13 +150,7 @@ public class SplitMemoryEntityCache extends MemoryEntityCache {
     @Nullable
     @Override
     public Presence presence(final long id) {
-        for(final CacheView<Presence> cache : presenceCache.values()) {
-            final Presence presence = cache.getById(id);
-            if(presence != null) {
-                return presence;
-            }
-        }
-        return null;
+        return find(userShards.shards(id), presenceCache, id);
     }
     
     @Nonnull
@@ -107,13 +162,7 @@ public class SplitMemoryEntityCache extends MemoryEntityCache {
     @Nullable
     @Override
     public UserDMChannel dmChannel(final long id) {
-        for(final CacheView<UserDMChannel> cache : dmChannelCache.values()) {
-            final UserDMChannel channel = cache.getById(id);
-            if(channel != null) {
-                return channel;
-            }
-        }
-        return null;
+        return find(dmChannelShards.shards(id), dmChannelCache, id);
     }
     
     @Nonnull
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache.view;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Lossy buffer of the entries read from a {@link CacheBudget}, so that
+ * lookups don't need the budget's write lock to update its LRU list. Readers
+ * add what they read without blocking, and whoever holds the write lock
+ * drains the buffer, replaying the reads in the order they were added.
+ * <p>
+ * The buffer is striped by thread to keep readers from contending on a
+ * single counter. When a stripe is full, or another reader is adding to it
+ * at the same time, reads are dropped: that only makes the eviction order
+ * slightly less accurate for entries that are being read a lot anyway.
+ *
+ * @param <E> Type of the buffered entries.
+ */
+final class AccessBuffer<E> {
+    private static final int STRIPES = Integer.highestOneBit(Math.min(16, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+    private static final int STRIPE_CAPACITY = 128;
+    private static final int STRIPE_MASK = STRIPE_CAPACITY - 1;
+    private final Stripe<E>[] stripes;
+    
+    @SuppressWarnings("unchecked")
+    AccessBuffer() {
+        stripes = new Stripe[STRIPES];
+        for(int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe<>();
+        }
+    }
+    
+    /**
+     * @param entry The entry that was read.
+     *
+     * @return {@code false} if the reader's stripe is full, and the buffer
+     * should be drained.
+     */
+    boolean offer(@Nonnull final E entry) {
+        final long thread = Thread.currentThread().getId();
+        return stripes[(int) (thread ^ thread >>> 16) & (STRIPES - 1)].offer(entry);
+    }
+    
+    /**
+     * Hands every buffered entry to the consumer. Must only be called by one
+     * thread at a time.
+     */
+    void drain(@Nonnull final Consumer<E> consumer) {
+        for(final Stripe<E> stripe : stripes) {
+            stripe.drain(consumer);
+        }
+    }
+    
+    private static final class Stripe<E> {
+        private final AtomicReferenceArray<E> slots = new AtomicReferenceArray<>(STRIPE_CAPACITY);
+        private final AtomicLong writes = new AtomicLong();
+        // Only written by the thread draining the buffer
+        private volatile long reads;
+        
+        private boolean offer(final E entry) {
+            final long tail = writes.get();
+            if(tail - reads >= STRIPE_CAPACITY) {
+                return false;
+            }
+            // Losing the race drops the read, rather than retrying
+            if(writes.compareAndSet(tail, tail + 1)) {
+                slots.lazySet((int) (tail & STRIPE_MASK), entry);
+            }
+            return true;
+        }
+        
+        private void drain(final Consumer<E> consumer) {
+            long head = reads;
+            final long tail = writes.get();
+            while(head < tail) {
+                final int index = (int) (head & STRIPE_MASK);
+                final E entry = slots.get(index);
+                if(entry == null) {
+                    // Claimed, but not written yet; picked up next time
+                    break;
+                }
+                slots.lazySet(index, null);
+                consumer.accept(entry);
+                head++;
+            }
+            reads = head;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache.view;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Objects;
+import java.util.function.LongPredicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * {@link DefaultCacheView DefaultCacheView} whose entries count towards a
+ * {@link CacheBudget CacheBudget}, and may be evicted when the budget is
+ * full or when they expire. Create instances with {@link CacheBudget#createView()}.
+ * <p>
+ * Only {@link #getById(long)} counts as an access to an entry; iterating
+ * the view doesn't affect which entries get evicted. Lookups only take the
+ * read lock shared by every view in the budget, and are applied to the
+ * budget's LRU list later, see {@link CacheBudget}. Reads don't drop
+ * expired entries, see {@link CacheBudget#cleanUp()}.
+ *
+ * @param <T> Type of the entity held by this cache.
+ */
+public class BoundedCacheView<T> extends DefaultCacheView<T> {
+    private final CacheBudget<T> budget;
+    private final LongEntityMap<CacheBudget.Node<T>> nodes = LongEntityMap.create();
+    
+    protected BoundedCacheView(@Nonnull final CacheBudget<T> budget) {
+        super(budget.lock);
+        this.budget = budget;
+    }
+    
+    /**
+     * @return The budget this view belongs to.
+     */
+    @Nonnull
+    public CacheBudget<T> budget() {
+        return budget;
+    }
+    
+    @Override
+    public void removeIf(@Nonnull final LongPredicate predicate) {
+        lock.writeLock().lock();
+        try {
+            budget.removeIf(map, nodes, predicate);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Nullable
+    @Override
+    public T put(final long key, @Nonnull final T value) {
+        lock.writeLock().lock();
+        try {
+            return budget.put(map, nodes, key, value);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Nullable
+    @Override
+    public T remove(final long key) {
+        lock.writeLock().lock();
+        try {
+            return budget.remove(map, nodes, key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Nullable
+    @Override
+    public T update(final long key, @Nonnull final UnaryOperator<T> patch) {
+        lock.writeLock().lock();
+        try {
+            final T old = budget.get(map, nodes, key);
+            if(old == null) {
+                return null;
+            }
+            final T updated = Objects.requireNonNull(patch.apply(old), "Patched entity may not be null");
+            if(updated != old) {
+                budget.put(map, nodes, key, updated);
+            }
+            return updated;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public T getById(final long id) {
+        // The budget's LRU list is only updated under the write lock, so
+        // the access is buffered until then
+        final T entity;
+        lock.readLock().lock();
+        try {
+            entity = budget.read(map, nodes, id);
+        } finally {
+            lock.readLock().unlock();
+        }
+        budget.afterRead();
+        return entity;
+    }
+}
@@ -0,0 +1,455 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache.view;
+
+import com.koloboke.collect.LongIterator;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * A memory budget shared by any number of {@link BoundedCacheView bounded
+ * cache views}. Every entry in every view created by a budget is tracked in
+ * a single least-recently-used list, so a budget bounds, for example, the
+ * total number of members cached across all guilds, evicting the members
+ * that haven't been seen for the longest, regardless of guild.
+ * <p>
+ * Entries can be weighed (ex. by an estimate of their size in bytes) to
+ * make the budget a byte budget instead of an entry count, and can expire
+ * if they haven't been accessed for a while. Expired entries are dropped
+ * when any view in the budget is written to, and by {@link #cleanUp()}.
+ * Until then, they're still seen by everything other than lookups by id,
+ * ex. {@link CacheView#size()} and iteration, so a budget with expiry
+ * should have {@link #cleanUp()} called periodically.
+ * <p>
+ * Views that are thrown away (ex. when a guild is deleted) don't need to be
+ * cleared; their entries are never accessed again, so they'll be the first
+ * to go once the budget fills up.
+ * <p>
+ * Every view in a budget shares the budget's read-write lock. Writes take
+ * the write lock, and every read only takes the read lock. Lookups by id
+ * don't update the LRU list themselves; they're recorded in a lossy buffer,
+ * which is replayed onto the list under the write lock on the next write or
+ * {@link #cleanUp()}, or once the buffer fills up and the lock is free.
+ * Some lookups may be dropped under heavy contention, which only makes the
+ * eviction order slightly less accurate. The budget should be configured
+ * before any views are created.
+ * <p>
+ * To bound the member cache of a {@link com.mewna.catnip.cache.MemoryEntityCache MemoryEntityCache}:
+ * <pre>{@code
+ * class BoundedCache extends UnifiedMemoryEntityCache {
+ *     private final CacheBudget<Member> members = new CacheBudget<Member>(1_000_000)
+ *             .policy(EvictionPolicy.tinyLfu(1_000_000))
+ *             .expireAfterAccess(1, TimeUnit.HOURS);
+ *
+ *     protected MutableNamedCacheView<Member> createMemberCacheView() {
+ *         return members.createNamedView(memberNameFunction());
+ *     }
+ * }
+ * }</pre>
+ *
+ * @param <T> Type of the entity held by this budget's views.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CacheBudget<T> {
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final long maximumWeight;
+    private ToLongFunction<? super T> weigher = __ -> 1;
+    private EvictionPolicy policy = EvictionPolicy.lru();
+    private EvictionListener<? super T> listener;
+    private long expireAfterAccessNanos;
+    private LongSupplier ticker = System::nanoTime;
+    // Reads not applied to the LRU list yet. Drained under the write lock.
+    private final AccessBuffer<Node<T>> reads = new AccessBuffer<>();
+    private volatile boolean drainRequested;
+    // Eldest first. Guarded by lock.
+    private Node<T> head;
+    private Node<T> tail;
+    private volatile long weightedSize;
+    private volatile long evictionCount;
+    private volatile long expirationCount;
+    
+    /**
+     * @param maximumWeight The maximum total weight of all entries in this
+     *                      budget's views. With the default weigher, this is
+     *                      the maximum number of entries.
+     */
+    public CacheBudget(@Nonnegative final long maximumWeight) {
+        if(maximumWeight < 0) {
+            throw new IllegalArgumentException("Maximum weight may not be negative");
+        }
+        this.maximumWeight = maximumWeight;
+    }
+    
+    /**
+     * @param weigher Function returning the weight of an entry, ex. an
+     *                estimate of its size in bytes. Must not be negative,
+     *                and should not change while the entry is cached.
+     *                Defaults to 1 for every entry.
+     *
+     * @return This budget.
+     */
+    @Nonnull
+    public CacheBudget<T> weigher(@Nonnull final ToLongFunction<? super T> weigher) {
+        this.weigher = Objects.requireNonNull(weigher, "Weigher may not be null");
+        return this;
+    }
+    
+    /**
+     * @param policy The admission policy to use. Defaults to {@link EvictionPolicy#lru()}.
+     *
+     * @return This budget.
+     */
+    @Nonnull
+    public CacheBudget<T> policy(@Nonnull final EvictionPolicy policy) {
+        this.policy = Objects.requireNonNull(policy, "Policy may not be null");
+        return this;
+    }
+    
+    /**
+     * @param listener Listener to notify of evictions, ex. to report them to
+     *                 metrics.
+     *
+     * @return This budget.
+     */
+    @Nonnull
+    public CacheBudget<T> listener(@Nullable final EvictionListener<? super T> listener) {
+        this.listener = listener;
+        return this;
+    }
+    
+    /**
+     * @param duration How long entries are kept after they were last read or
+     *                 written. 0 disables expiry, which is the default.
+     * @param unit     Unit of the duration.
+     *
+     * @return This budget.
+     */
+    @Nonnull
+    public CacheBudget<T> expireAfterAccess(@Nonnegative final long duration, @Nonnull final TimeUnit unit) {
+        if(duration < 0) {
+            throw new IllegalArgumentException("Duration may not be negative");
+        }
+        expireAfterAccessNanos = unit.toNanos(duration);
+        return this;
+    }
+    
+    /**
+     * @param ticker Source of {@link System#nanoTime()}-like timestamps used
+     *               for expiry. Mainly useful for tests.
+     *
+     * @return This budget.
+     */
+    @Nonnull
+    public CacheBudget<T> ticker(@Nonnull final LongSupplier ticker) {
+        this.ticker = Objects.requireNonNull(ticker, "Ticker may not be null");
+        return this;
+    }
+    
+    /**
+     * @return A new, empty view in this budget.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public BoundedCacheView<T> createView() {
+        return new BoundedCacheView<>(this);
+    }
+    
+    /**
+     * @param nameFunction Function used to map entities to their name.
+     *
+     * @return A new, empty named view in this budget.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public BoundedNamedCacheView<T> createNamedView(@Nonnull final Function<T, String> nameFunction) {
+        return new BoundedNamedCacheView<>(this, nameFunction);
+    }
+    
+    /**
+     * @return The maximum total weight of this budget's entries.
+     */
+    @Nonnegative
+    public long maximumWeight() {
+        return maximumWeight;
+    }
+    
+    /**
+     * @return The current total weight of this budget's entries.
+     */
+    @Nonnegative
+    public long weightedSize() {
+        return weightedSize;
+    }
+    
+    /**
+     * @return How many entries were evicted because the budget was full.
+     */
+    @Nonnegative
+    public long evictionCount() {
+        return evictionCount;
+    }
+    
+    /**
+     * @return How many entries were evicted because they expired.
+     */
+    @Nonnegative
+    public long expirationCount() {
+        return expirationCount;
+    }
+    
+    /**
+     * Applies buffered lookups to the LRU list, and drops every expired
+     * entry from this budget's views.
+     */
+    public void cleanUp() {
+        lock.writeLock().lock();
+        try {
+            drainReads();
+            expire(ticker.getAsLong());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Looks up an entry, recording the access in the read buffer. Must be
+     * called with the read lock held; call {@link #afterRead()} once it's
+     * released.
+     */
+    T read(final LongEntityMap<T> map, final LongEntityMap<Node<T>> nodes, final long id) {
+        final Node<T> node = nodes.get(id);
+        if(node == null) {
+            return null;
+        }
+        final long now = ticker.getAsLong();
+        if(isExpired(node, now)) {
+            // Dropped by the next write or clean-up
+            return null;
+        }
+        node.accessed = now;
+        if(!reads.offer(node)) {
+            drainRequested = true;
+        }
+        return map.get(id);
+    }
+    
+    /**
+     * Drains the read buffer if it filled up, unless another thread holds
+     * the lock. Must be called without holding the read lock, as it can't be
+     * upgraded.
+     */
+    void afterRead() {
+        if(drainRequested && lock.writeLock().tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+    
+    // Everything below must be called with the write lock held
+    
+    T get(final LongEntityMap<T> map, final LongEntityMap<Node<T>> nodes, final long id) {
+        drainReads();
+        final Node<T> node = nodes.get(id);
+        if(node == null) {
+            return null;
+        }
+        final long now = ticker.getAsLong();
+        if(isExpired(node, now)) {
+            evict(node, EvictionListener.Cause.EXPIRED);
+            return null;
+        }
+        node.accessed = now;
+        moveToTail(node);
+        policy.recordAccess(id);
+        return map.get(id);
+    }
+    
+    T put(final LongEntityMap<T> map, final LongEntityMap<Node<T>> nodes, final long id, final T value) {
+        drainReads();
+        final long now = ticker.getAsLong();
+        expire(now);
+        final long weight = weigher.applyAsLong(value);
+        final T old = map.put(id, value);
+        Node<T> node = nodes.get(id);
+        final boolean inserted = node == null;
+        if(inserted) {
+            node = new Node<>(map, nodes, id);
+            nodes.put(id, node);
+            link(node);
+        } else {
+            weightedSize -= node.weight;
+            moveToTail(node);
+        }
+        node.weight = weight;
+        node.accessed = now;
+        weightedSize += weight;
+        policy.recordAccess(id);
+        evictOverBudget(inserted ? node : null);
+        return old;
+    }
+    
+    T remove(final LongEntityMap<T> map, final LongEntityMap<Node<T>> nodes, final long id) {
+        final Node<T> node = nodes.remove(id);
+        if(node != null) {
+            unlink(node);
+            weightedSize -= node.weight;
+        }
+        return map.remove(id);
+    }
+    
+    void removeIf(final LongEntityMap<T> map, final LongEntityMap<Node<T>> nodes, final LongPredicate predicate) {
+        final LongIterator iterator = map.iterator();
+        while(iterator.hasNext()) {
+            final long id = iterator.nextLong();
+            if(predicate.test(id)) {
+                iterator.remove();
+                final Node<T> node = nodes.remove(id);
+                if(node != null) {
+                    unlink(node);
+                    weightedSize -= node.weight;
+                }
+            }
+        }
+    }
+    
+    private void drainReads() {
+        drainRequested = false;
+        reads.drain(node -> {
+            // Skip entries that were removed since they were read
+            if(node.nodes.get(node.id) == node) {
+                moveToTail(node);
+                policy.recordAccess(node.id);
+            }
+        });
+    }
+    
+    private boolean isExpired(final Node<T> node, final long now) {
+        return expireAfterAccessNanos > 0 && now - node.accessed >= expireAfterAccessNanos;
+    }
+    
+    private void expire(final long now) {
+        while(head != null && isExpired(head, now)) {
+            evict(head, EvictionListener.Cause.EXPIRED);
+        }
+    }
+    
+    /**
+     * @param candidate The entry that was just inserted, if any. Updates to
+     *                  existing entries are always admitted.
+     */
+    private void evictOverBudget(@Nullable Node<T> candidate) {
+        while(weightedSize > maximumWeight && head != null) {
+            Node<T> victim = head;
+            if(candidate != null && victim != candidate && !policy.admit(candidate.id, victim.id)) {
+                victim = candidate;
+            }
+            if(victim == candidate) {
+                candidate = null;
+            }
+            evict(victim, EvictionListener.Cause.SIZE);
+        }
+    }
+    
+    private void evict(final Node<T> node, final EvictionListener.Cause cause) {
+        unlink(node);
+        node.nodes.remove(node.id);
+        weightedSize -= node.weight;
+        final T value = node.map.remove(node.id);
+        if(cause == EvictionListener.Cause.SIZE) {
+            evictionCount++;
+        } else {
+            expirationCount++;
+        }
+        if(listener != null && value != null) {
+            listener.onEviction(node.id, value, cause);
+        }
+    }
+    
+    private void link(final Node<T> node) {
+        node.prev = tail;
+        node.next = null;
+        if(tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+        }
+        tail = node;
+    }
+    
+    private void unlink(final Node<T> node) {
+        if(node.prev == null) {
+            head = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if(node.next == null) {
+            tail = node.prev;
+        } else {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+    }
+    
+    private void moveToTail(final Node<T> node) {
+        if(node != tail) {
+            unlink(node);
+            link(node);
+        }
+    }
+    
+    static final class Node<T> {
+        private final LongEntityMap<T> map;
+        private final LongEntityMap<Node<T>> nodes;
+        private final long id;
+        private long weight;
+        // Written by readers without the write lock
+        private volatile long accessed;
+        private Node<T> prev;
+        private Node<T> next;
+        
+        private Node(final LongEntityMap<T> map, final LongEntityMap<Node<T>> nodes, final long id) {
+            this.map = map;
+            this.nodes = nodes;
+            this.id = id;
+        }
+    }
+}
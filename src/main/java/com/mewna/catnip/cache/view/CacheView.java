@@ -27,12 +27,15 @@
 
 package com.mewna.catnip.cache.view;
 
+import com.koloboke.collect.set.LongSet;
+
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import java.util.*;
 import java.util.function.*;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -88,6 +91,19 @@ public interface CacheView<T> extends Iterable<T> {
      */
     boolean isEmpty();
     
+    /**
+     * The exact number of bytes this view's entities take up, for views that
+     * keep them encoded (ex. off-heap) rather than as objects. Used for
+     * {@link com.mewna.catnip.cache.CacheFootprint memory accounting}, which
+     * estimates the size of views that return -1 by sampling their entities.
+     *
+     * @return The number of bytes this view's entities take up, or -1 if
+     * they're kept as plain objects.
+     */
+    default long encodedBytes() {
+        return -1;
+    }
+    
     /**
      * @param id ID of the entity to fetch.
      *
@@ -366,6 +382,43 @@ public interface CacheView<T> extends Iterable<T> {
     @Nonnull
     Set<Long> keys();
     
+    /**
+     * Runs the given action for every key in this cache, without boxing
+     * them like iterating over {@link #keys()} does. Views that lock hold
+     * their read lock while doing so, like {@link #forEach(Consumer)}.
+     *
+     * @param action Action to run for every key.
+     */
+    default void forEachKey(@Nonnull final LongConsumer action) {
+        for(final Long key : keys()) {
+            action.accept(key);
+        }
+    }
+    
+    /**
+     * @return A copy of all the keys in this cache, as a primitive set.
+     * <b>Not</b> updated if this cache is modified, and may be modified
+     * without affecting this cache.
+     *
+     * @see #keys()
+     */
+    @Nonnull
+    default LongSet keysAsLongSet() {
+        final KolobokeLongEntityMap<Boolean> copy = new KolobokeLongEntityMap<>((int) size());
+        forEachKey(key -> copy.put(key, Boolean.TRUE));
+        return copy.keySet();
+    }
+    
+    /**
+     * @return A stream of all the keys in this cache, in no specific order.
+     * The keys are copied when this method is called, as by
+     * {@link #keysAsLongSet()}.
+     */
+    @Nonnull
+    default LongStream keyStream() {
+        return Arrays.stream(keysAsLongSet().toLongArray());
+    }
+    
     /**
      * @return A view of all the values in this cache. Updated if this cache is modified.
      *
@@ -400,14 +453,43 @@ public interface CacheView<T> extends Iterable<T> {
      * @return A stream with the elements cached, in no specific order.
      *
      * @see Collection#stream()
+     * @see #spliterator()
      */
     @Nonnull
     default Stream<T> stream() {
         return StreamSupport.stream(spliterator(), false);
     }
     
+    /**
+     * Returns a parallel stream with the elements cached, in no specific
+     * order. Prefer this over the sequential bulk operations (ex.
+     * {@link #collect(Collector)} or {@link #count(Predicate)}) for
+     * expensive operations over large views, as those run on the calling
+     * thread, while holding the view's lock if it has one.
+     *
+     * @return A parallel stream with the elements cached.
+     *
+     * @see Collection#parallelStream()
+     * @see #spliterator()
+     */
+    @Nonnull
+    default Stream<T> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+    
     /**
      * {@inheritDoc}
+     * <p>
+     * The built-in views return {@link Spliterator#SIZED SIZED} and
+     * {@link Spliterator#SUBSIZED SUBSIZED} spliterators over an array of
+     * the elements, copied from the backing map when this method is called,
+     * so they split evenly for parallel streams. Views that lock copy the
+     * elements under their read lock, and the stream then sees the view as
+     * it was at that point, without holding the lock while it runs. Views
+     * that don't lock copy the elements the same way their iterators see
+     * them: copy-on-write views are copied exactly as they were, and
+     * concurrent views are copied weakly consistently, possibly along with
+     * writes made while copying.
      */
     @Override
     @Nonnull
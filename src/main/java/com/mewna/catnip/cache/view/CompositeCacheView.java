@@ -279,6 +279,13 @@ public class CompositeCacheView<T> implements CacheView<T> {
         });
     }
     
+    @Override
+    public void forEachKey(@Nonnull final LongConsumer action) {
+        for(final CacheView<T> c : sources) {
+            c.forEachKey(action);
+        }
+    }
+    
     @Nonnull
     @Override
     public Collection<T> values() {
@@ -318,6 +325,25 @@ public class CompositeCacheView<T> implements CacheView<T> {
         return iterator(CacheView::iterator);
     }
     
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned spliterator takes a spliterator from every source when
+     * it's created, and splits by source first, so parallel streams work
+     * on several sources at once. It's {@link Spliterator#SIZED SIZED} if
+     * all the sources' spliterators are. Elements are distinct within a
+     * source, but may not be across sources.
+     */
+    @Nonnull
+    @Override
+    public Spliterator<T> spliterator() {
+        final List<Spliterator<T>> spliterators = new ArrayList<>(sources.size());
+        for(final CacheView<T> c : sources) {
+            spliterators.add(c.spliterator());
+        }
+        return new JoiningSpliterator<>(spliterators);
+    }
+    
     private <U> Iterator<U> iterator(@Nonnull final Function<CacheView<T>, Iterator<U>> mapper) {
         final Queue<Iterator<U>> queue = new LinkedList<>();
         for(final CacheView<T> c : sources) {
@@ -355,4 +381,71 @@ public class CompositeCacheView<T> implements CacheView<T> {
             current.remove();
         }
     }
+    
+    private static final class JoiningSpliterator<T> implements Spliterator<T> {
+        private final List<Spliterator<T>> spliterators;
+        private int index;
+        private final int fence;
+        
+        private JoiningSpliterator(final List<Spliterator<T>> spliterators) {
+            this(spliterators, 0, spliterators.size());
+        }
+        
+        private JoiningSpliterator(final List<Spliterator<T>> spliterators, final int index, final int fence) {
+            this.spliterators = spliterators;
+            this.index = index;
+            this.fence = fence;
+        }
+        
+        @Override
+        public boolean tryAdvance(final Consumer<? super T> action) {
+            while(index < fence) {
+                if(spliterators.get(index).tryAdvance(action)) {
+                    return true;
+                }
+                index++;
+            }
+            return false;
+        }
+        
+        @Override
+        public void forEachRemaining(final Consumer<? super T> action) {
+            while(index < fence) {
+                spliterators.get(index++).forEachRemaining(action);
+            }
+        }
+        
+        @Override
+        public Spliterator<T> trySplit() {
+            final int remaining = fence - index;
+            if(remaining > 1) {
+                final int mid = index + remaining / 2;
+                final Spliterator<T> prefix = new JoiningSpliterator<>(spliterators, index, mid);
+                index = mid;
+                return prefix;
+            }
+            return remaining == 1 ? spliterators.get(index).trySplit() : null;
+        }
+        
+        @Override
+        public long estimateSize() {
+            long size = 0;
+            for(int i = index; i < fence; i++) {
+                size += spliterators.get(i).estimateSize();
+                if(size < 0) {
+                    return Long.MAX_VALUE;
+                }
+            }
+            return size;
+        }
+        
+        @Override
+        public int characteristics() {
+            int characteristics = Spliterator.NONNULL | Spliterator.IMMUTABLE | Spliterator.SIZED | Spliterator.SUBSIZED;
+            for(int i = index; i < fence; i++) {
+                characteristics &= spliterators.get(i).characteristics();
+            }
+            return characteristics;
+        }
+    }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache.view;
+
+import com.koloboke.collect.LongIterator;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.function.LongPredicate;
+
+/**
+ * {@link CacheView CacheView} backed by a
+ * {@link LongEntityMap#createConcurrent() concurrent map}, so neither reads
+ * nor writes take a view-wide lock. Iteration is weakly consistent: it never
+ * fails because of concurrent writes, but may or may not see them.
+ *
+ * @param <T> Type of the entity held by this cache.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ConcurrentCacheView<T> extends LockFreeCacheView<T> {
+    protected final LongEntityMap<T> map;
+    
+    public ConcurrentCacheView() {
+        this(LongEntityMap.createConcurrent());
+    }
+    
+    /**
+     * @param map Map to store entities in. Must be safe to read and write
+     *            from multiple threads without external locking.
+     */
+    public ConcurrentCacheView(@Nonnull final LongEntityMap<T> map) {
+        this.map = map;
+    }
+    
+    @Nonnull
+    @Override
+    protected LongEntityMap<T> map() {
+        return map;
+    }
+    
+    @Override
+    public void removeIf(@Nonnull final LongPredicate predicate) {
+        final LongIterator iterator = map.iterator();
+        while(iterator.hasNext()) {
+            if(predicate.test(iterator.nextLong())) {
+                iterator.remove();
+            }
+        }
+    }
+    
+    @Nullable
+    @Override
+    public T put(final long key, @Nonnull final T value) {
+        return map.put(key, value);
+    }
+    
+    @Nullable
+    @Override
+    public T remove(final long key) {
+        return map.remove(key);
+    }
+}
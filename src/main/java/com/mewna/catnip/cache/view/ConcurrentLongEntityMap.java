@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache.view;
+
+import com.koloboke.collect.LongIterator;
+import com.koloboke.collect.set.LongSet;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * {@link LongEntityMap} that is safe to use from multiple threads without any
+ * external locking.
+ * <p>
+ * This is an open-addressing, linear-probing table. Reads never lock: a slot's
+ * key is always written before its value is published through an
+ * {@link AtomicReferenceArray}, and the key of a used slot never changes
+ * until the table is rebuilt, so a reader that sees a value also sees the
+ * right key. Removed entries are marked with a tombstone instead of being
+ * shifted back, so that concurrent readers never miss an entry that was
+ * moved. Writes are serialized on the map itself, and when the table fills
+ * up, a new table is built and published, leaving the old one untouched for
+ * readers still using it.
+ * <p>
+ * Iterators are weakly consistent: they never throw
+ * {@link ConcurrentModificationException}, and reflect the table as it was
+ * when they were created, possibly along with some later writes.
+ *
+ * @param <T> Type of the values.
+ */
+@SuppressWarnings("unchecked")
+final class ConcurrentLongEntityMap<T> extends AbstractMap<Long, T> implements LongEntityMap<T> {
+    private static final Object REMOVED = new Object();
+    private static final int MIN_CAPACITY = 8;
+    
+    private volatile Table table;
+    private volatile int size;
+    // Live entries + tombstones, guarded by this
+    private int used;
+    
+    ConcurrentLongEntityMap(@Nonnegative final int expectedSize) {
+        table = new Table(capacityFor(expectedSize));
+    }
+    
+    private static int capacityFor(final int size) {
+        int capacity = MIN_CAPACITY;
+        // Keep the load at most 1/3 after (re)building, so that the table has
+        // room to grow before it has to be rebuilt again
+        while(capacity / 3 <= size && capacity < 1 << 30) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+    
+    private static int mix(final long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32);
+    }
+    
+    @Nullable
+    @Override
+    public T get(final long key) {
+        final Table t = table;
+        final int mask = t.mask;
+        int index = mix(key) & mask;
+        for(int probes = 0; probes <= mask; probes++) {
+            final Object value = t.values.get(index);
+            if(value == null) {
+                return null;
+            }
+            if(t.keys[index] == key) {
+                return value == REMOVED ? null : (T) value;
+            }
+            index = index + 1 & mask;
+        }
+        return null;
+    }
+    
+    @Nullable
+    @Override
+    public synchronized T put(final long key, @Nonnull final T value) {
+        Objects.requireNonNull(value, "value");
+        final Table t = table;
+        final int mask = t.mask;
+        int index = mix(key) & mask;
+        while(true) {
+            final Object old = t.values.get(index);
+            if(old == null) {
+                t.keys[index] = key;
+                t.values.set(index, value);
+                size++;
+                if(++used > t.threshold) {
+                    rebuild();
+                }
+                return null;
+            }
+            if(t.keys[index] == key) {
+                t.values.set(index, value);
+                if(old == REMOVED) {
+                    size++;
+                    return null;
+                }
+                return (T) old;
+            }
+            index = index + 1 & mask;
+        }
+    }
+    
+    @Nullable
+    @Override
+    public synchronized T remove(final long key) {
+        final Table t = table;
+        final int mask = t.mask;
+        int index = mix(key) & mask;
+        while(true) {
+            final Object old = t.values.get(index);
+            if(old == null) {
+                return null;
+            }
+            if(t.keys[index] == key) {
+                if(old == REMOVED) {
+                    return null;
+                }
+                t.values.set(index, REMOVED);
+                size--;
+                return (T) old;
+            }
+            index = index + 1 & mask;
+        }
+    }
+    
+    // Guarded by this
+    private void rebuild() {
+        final Table old = table;
+        final Table t = new Table(capacityFor(size));
+        final int mask = t.mask;
+        for(int i = 0; i < old.keys.length; i++) {
+            final Object value = old.values.get(i);
+            if(value != null && value != REMOVED) {
+                final long key = old.keys[i];
+                int index = mix(key) & mask;
+                while(t.values.get(index) != null) {
+                    index = index + 1 & mask;
+                }
+                t.keys[index] = key;
+                t.values.lazySet(index, value);
+            }
+        }
+        used = size;
+        // Volatile write, publishes every slot written above
+        table = t;
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    @Override
+    public boolean containsKey(final Object key) {
+        return key instanceof Long && get((long) (Long) key) != null;
+    }
+    
+    @Override
+    public T get(final Object key) {
+        return key instanceof Long ? get((long) (Long) key) : null;
+    }
+    
+    @Override
+    public T put(final Long key, final T value) {
+        return put((long) key, value);
+    }
+    
+    @Override
+    public T remove(final Object key) {
+        return key instanceof Long ? remove((long) (Long) key) : null;
+    }
+    
+    @Override
+    public synchronized void clear() {
+        table = new Table(MIN_CAPACITY);
+        size = 0;
+        used = 0;
+    }
+    
+    @Nonnull
+    @Override
+    public LongIterator iterator() {
+        return new KeyIterator();
+    }
+    
+    @Nonnull
+    @Override
+    public LongSet copyKeys() {
+        final KolobokeLongEntityMap<Boolean> copy = new KolobokeLongEntityMap<>(size);
+        iterator().forEachRemaining((LongConsumer) key -> copy.put(key, Boolean.TRUE));
+        return copy.keySet();
+    }
+    
+    @Nonnull
+    @Override
+    public Set<Long> keySet() {
+        return new AbstractSet<Long>() {
+            @Nonnull
+            @Override
+            public Iterator<Long> iterator() {
+                return new KeyIterator();
+            }
+            
+            @Override
+            public int size() {
+                return size;
+            }
+            
+            @Override
+            public boolean contains(final Object o) {
+                return containsKey(o);
+            }
+            
+            @Override
+            public boolean remove(final Object o) {
+                return ConcurrentLongEntityMap.this.remove(o) != null;
+            }
+        };
+    }
+    
+    @Nonnull
+    @Override
+    public Collection<T> values() {
+        return new AbstractCollection<T>() {
+            @Nonnull
+            @Override
+            public Iterator<T> iterator() {
+                return new TableIterator<T>() {
+                    @Override
+                    public T next() {
+                        return advance();
+                    }
+                };
+            }
+            
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+    
+    @Nonnull
+    @Override
+    public Set<Entry<Long, T>> entrySet() {
+        return new AbstractSet<Entry<Long, T>>() {
+            @Nonnull
+            @Override
+            public Iterator<Entry<Long, T>> iterator() {
+                return new TableIterator<Entry<Long, T>>() {
+                    @Override
+                    public Entry<Long, T> next() {
+                        final T value = advance();
+                        return new SimpleImmutableEntry<>(lastKey, value);
+                    }
+                };
+            }
+            
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+    
+    private static final class Table {
+        private final long[] keys;
+        private final AtomicReferenceArray<Object> values;
+        private final int mask;
+        private final int threshold;
+        
+        private Table(final int capacity) {
+            keys = new long[capacity];
+            values = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+            threshold = capacity * 2 / 3;
+        }
+    }
+    
+    private abstract class TableIterator<E> implements Iterator<E> {
+        private final Table table = ConcurrentLongEntityMap.this.table;
+        private int index = -1;
+        private T nextValue;
+        private long nextKey;
+        long lastKey;
+        private boolean canRemove;
+        
+        private TableIterator() {
+            findNext();
+        }
+        
+        private void findNext() {
+            nextValue = null;
+            while(++index < table.keys.length) {
+                final Object value = table.values.get(index);
+                if(value != null && value != REMOVED) {
+                    nextKey = table.keys[index];
+                    nextValue = (T) value;
+                    return;
+                }
+            }
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return nextValue != null;
+        }
+        
+        final T advance() {
+            if(nextValue == null) {
+                throw new NoSuchElementException();
+            }
+            final T value = nextValue;
+            lastKey = nextKey;
+            canRemove = true;
+            findNext();
+            return value;
+        }
+        
+        @Override
+        public void remove() {
+            if(!canRemove) {
+                throw new IllegalStateException();
+            }
+            canRemove = false;
+            ConcurrentLongEntityMap.this.remove(lastKey);
+        }
+    }
+    
+    private final class KeyIterator extends TableIterator<Long> implements LongIterator {
+        @Override
+        public long nextLong() {
+            advance();
+            return lastKey;
+        }
+        
+        @Override
+        public Long next() {
+            return nextLong();
+        }
+        
+        @Override
+        public void forEachRemaining(@Nonnull final LongConsumer action) {
+            while(hasNext()) {
+                action.accept(nextLong());
+            }
+        }
+        
+        // Abstract in LongIterator, so it has to be implemented even though
+        // it's deprecated in favour of the LongConsumer overload
+        @Deprecated
+        @Override
+        public void forEachRemaining(@Nonnull final Consumer<? super Long> action) {
+            while(hasNext()) {
+                action.accept(nextLong());
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache.view;
+
+import com.koloboke.collect.LongIterator;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.function.LongPredicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Copy-on-write {@link CacheView CacheView} implementation. Every write
+ * copies the backing map and publishes the copy, so reads never lock, and
+ * iterating always sees a consistent snapshot of the view.
+ * <p>
+ * Writes are O(n), so this should only be used for small views that are
+ * read far more often than they're written to. It hasn't been benchmarked
+ * against the default views, so measure before switching to it.
+ *
+ * @param <T> Type of the entity held by this cache.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CopyOnWriteCacheView<T> extends LockFreeCacheView<T> {
+    protected volatile LongEntityMap<T> map = LongEntityMap.create();
+    
+    @Nonnull
+    @Override
+    protected LongEntityMap<T> map() {
+        return map;
+    }
+    
+    @Nonnull
+    private LongEntityMap<T> copy(final int extra) {
+        final LongEntityMap<T> current = map;
+        final LongEntityMap<T> copy = LongEntityMap.create(current.size() + extra);
+        copy.putAll(current);
+        return copy;
+    }
+    
+    @Override
+    public synchronized void removeIf(@Nonnull final LongPredicate predicate) {
+        final LongEntityMap<T> copy = copy(0);
+        boolean changed = false;
+        final LongIterator iterator = copy.iterator();
+        while(iterator.hasNext()) {
+            if(predicate.test(iterator.nextLong())) {
+                iterator.remove();
+                changed = true;
+            }
+        }
+        if(changed) {
+            map = copy;
+        }
+    }
+    
+    @Nullable
+    @Override
+    public synchronized T put(final long key, @Nonnull final T value) {
+        final LongEntityMap<T> copy = copy(1);
+        final T old = copy.put(key, value);
+        map = copy;
+        return old;
+    }
+    
+    @Nullable
+    @Override
+    public synchronized T remove(final long key) {
+        if(map.get(key) == null) {
+            return null;
+        }
+        final LongEntityMap<T> copy = copy(0);
+        final T old = copy.remove(key);
+        map = copy;
+        return old;
+    }
+    
+    @Nullable
+    @Override
+    public synchronized T update(final long key, @Nonnull final UnaryOperator<T> patch) {
+        final T old = map.get(key);
+        if(old == null) {
+            return null;
+        }
+        final T updated = Objects.requireNonNull(patch.apply(old), "Patched entity may not be null");
+        if(updated != old) {
+            put(key, updated);
+        }
+        return updated;
+    }
+    
+    @Nonnull
+    @Override
+    public Collection<T> snapshot() {
+        // The current map is never modified, so this is already a snapshot
+        return values();
+    }
+}
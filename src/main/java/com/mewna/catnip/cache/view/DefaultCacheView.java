@@ -28,6 +28,7 @@
 package com.mewna.catnip.cache.view;
 
 import com.koloboke.collect.LongIterator;
+import com.koloboke.collect.set.LongSet;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -49,7 +50,19 @@ import java.util.stream.Collector;
 @SuppressWarnings("WeakerAccess")
 public class DefaultCacheView<T> implements MutableCacheView<T> {
     protected final LongEntityMap<T> map = LongEntityMap.create();
-    protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+    protected final ReadWriteLock lock;
+    
+    public DefaultCacheView() {
+        this(new ReentrantReadWriteLock());
+    }
+    
+    /**
+     * @param lock Lock guarding the backing map. Writes always take the write
+     *             lock, and every read takes the read lock unless overridden.
+     */
+    protected DefaultCacheView(@Nonnull final ReadWriteLock lock) {
+        this.lock = lock;
+    }
     
     @Override
     public void removeIf(@Nonnull final LongPredicate predicate) {
@@ -88,6 +101,25 @@ public class DefaultCacheView<T> implements MutableCacheView<T> {
         }
     }
     
+    @Nullable
+    @Override
+    public T update(final long key, @Nonnull final UnaryOperator<T> patch) {
+        lock.writeLock().lock();
+        try {
+            final T old = map.get(key);
+            if(old == null) {
+                return null;
+            }
+            final T updated = Objects.requireNonNull(patch.apply(old), "Patched entity may not be null");
+            if(updated != old) {
+                map.put(key, updated);
+            }
+            return updated;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
     @Override
     public void forEach(final Consumer<? super T> action) {
         lock.readLock().lock();
@@ -351,6 +383,28 @@ public class DefaultCacheView<T> implements MutableCacheView<T> {
         return Collections.unmodifiableSet(map.keySet());
     }
     
+    @Override
+    public void forEachKey(@Nonnull final LongConsumer action) {
+        lock.readLock().lock();
+        try {
+            map.iterator().forEachRemaining(action);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Nonnull
+    @Override
+    public LongSet keysAsLongSet() {
+        lock.readLock().lock();
+        try {
+            // Only copies the key table, without rehashing
+            return map.copyKeys();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
     @Nonnull
     @Override
     public Collection<T> values() {
@@ -395,4 +449,17 @@ public class DefaultCacheView<T> implements MutableCacheView<T> {
     public Iterator<T> iterator() {
         return Collections.unmodifiableCollection(map.values()).iterator();
     }
+    
+    @Nonnull
+    @Override
+    public Spliterator<T> spliterator() {
+        final Object[] values;
+        lock.readLock().lock();
+        try {
+            values = map.values().toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+        return Spliterators.spliterator(values, Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
 }
@@ -32,6 +32,7 @@ import com.mewna.catnip.util.Utils;
 import javax.annotation.Nonnull;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -50,6 +51,11 @@ public class DefaultNamedCacheView<T> extends DefaultCacheView<T> implements Mut
         this.nameFunction = nameFunction;
     }
     
+    protected DefaultNamedCacheView(@Nonnull final ReadWriteLock lock, final Function<T, String> nameFunction) {
+        super(lock);
+        this.nameFunction = nameFunction;
+    }
+    
     @Nonnull
     @Override
     public Collection<T> findByName(@Nonnull final String name, final boolean ignoreCase) {
@@ -98,7 +104,8 @@ public class DefaultNamedCacheView<T> extends DefaultCacheView<T> implements Mut
         return find(e -> ignoreCase ? Utils.endsWithIgnoreCase(name(e), name) : name(e).endsWith(name), supplier);
     }
     
-    private String name(@Nonnull final T element) {
+    @Nonnull
+    protected String name(@Nonnull final T element) {
         final String name = nameFunction.apply(element);
         return name == null ? "" : name;
     }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache.view;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Decides which entries a {@link CacheBudget CacheBudget} keeps once it's
+ * over budget. The budget always evicts in least-recently-used order; the
+ * policy gets to veto that by rejecting the entry that was just added
+ * instead, if it thinks that entry is less likely to be used again than the
+ * one that would be evicted.
+ * <p>
+ * Policies are only ever called while the budget's lock is held, so they
+ * don't need to be thread-safe.
+ */
+public interface EvictionPolicy {
+    /**
+     * Plain least-recently-used eviction. Every new entry is admitted.
+     *
+     * @return The LRU policy.
+     */
+    @Nonnull
+    @CheckReturnValue
+    static EvictionPolicy lru() {
+        return new EvictionPolicy() {
+            @Override
+            public void recordAccess(final long id) {
+            }
+            
+            @Override
+            public boolean admit(final long candidate, final long victim) {
+                return true;
+            }
+        };
+    }
+    
+    /**
+     * TinyLFU admission on top of LRU eviction: a new entry only replaces
+     * the least-recently-used one if it has been seen more often recently,
+     * according to a small frequency sketch. This keeps a burst of one-off
+     * entities (ex. a raid joining a large guild) from flushing out the
+     * working set.
+     *
+     * @param expectedSize Roughly how many entries the budget will hold.
+     *                     Used to size the sketch.
+     *
+     * @return A new TinyLFU policy.
+     */
+    @Nonnull
+    @CheckReturnValue
+    static EvictionPolicy tinyLfu(@Nonnegative final int expectedSize) {
+        return new TinyLfuPolicy(expectedSize);
+    }
+    
+    /**
+     * Called whenever an entry is read or written.
+     *
+     * @param id The id of the entry.
+     */
+    void recordAccess(long id);
+    
+    /**
+     * @param candidate The id of the entry that was just added.
+     * @param victim    The id of the least-recently-used entry.
+     *
+     * @return {@code true} to evict the victim, {@code false} to evict the
+     * candidate instead.
+     */
+    boolean admit(long candidate, long victim);
+}
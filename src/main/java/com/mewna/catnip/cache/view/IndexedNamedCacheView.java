@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache.view;
+
+import com.koloboke.collect.LongIterator;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * {@link DefaultNamedCacheView DefaultNamedCacheView} that keeps a sorted
+ * index of case-folded names, so that {@link #findByName(String, boolean)}
+ * and {@link #findByNameStartsWith(String, boolean)} only have to look at
+ * the entities whose names can actually match, instead of scanning the whole
+ * view. The other name lookups still scan.
+ * <p>
+ * The index is updated on every {@link #put(long, Object)} and
+ * {@link #remove(long)}. If an entity's name can change without the entity
+ * itself being put again (ex. a member without a nickname, whose name comes
+ * from the cached user), {@link #reindex(long)} has to be called when it does.
+ * Lookups always check candidates against their current name, so a stale
+ * index can make them miss entities, but never return wrong ones.
+ *
+ * @param <T> Type of the entity held by this cache.
+ */
+@SuppressWarnings("WeakerAccess")
+public class IndexedNamedCacheView<T> extends DefaultNamedCacheView<T> {
+    // Folded name -> ids, and id -> the folded name it's indexed under.
+    // Both are guarded by the view's lock.
+    private final NavigableMap<String, IdList> index = new TreeMap<>();
+    private final LongEntityMap<String> indexedNames = LongEntityMap.create();
+    
+    public IndexedNamedCacheView(final Function<T, String> nameFunction) {
+        super(nameFunction);
+    }
+    
+    /**
+     * Folds a string such that two strings fold to the same value if, and
+     * only if, {@link String#equalsIgnoreCase(String)} considers them equal.
+     * This is also what {@link String#regionMatches(boolean, int, String, int, int)}
+     * does, so folded prefixes match case-insensitive prefixes.
+     *
+     * @param name The string to fold.
+     *
+     * @return The folded string.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public static String fold(@Nonnull final String name) {
+        final char[] chars = name.toCharArray();
+        for(int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+    
+    @Nullable
+    @Override
+    public T put(final long key, @Nonnull final T value) {
+        lock.writeLock().lock();
+        try {
+            final T old = map.put(key, value);
+            index(key, value);
+            return old;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Nullable
+    @Override
+    public T remove(final long key) {
+        lock.writeLock().lock();
+        try {
+            final T old = map.remove(key);
+            unindex(key);
+            return old;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Nullable
+    @Override
+    public T update(final long key, @Nonnull final UnaryOperator<T> patch) {
+        lock.writeLock().lock();
+        try {
+            final T old = map.get(key);
+            if(old == null) {
+                return null;
+            }
+            final T updated = Objects.requireNonNull(patch.apply(old), "Patched entity may not be null");
+            if(updated != old) {
+                map.put(key, updated);
+                index(key, updated);
+            }
+            return updated;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public void removeIf(@Nonnull final LongPredicate predicate) {
+        lock.writeLock().lock();
+        try {
+            final LongIterator iterator = map.iterator();
+            while(iterator.hasNext()) {
+                final long key = iterator.nextLong();
+                if(predicate.test(key)) {
+                    iterator.remove();
+                    unindex(key);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Updates the index for the entity with the given id, after its name
+     * changed without the entity being put into this view again.
+     *
+     * @param id The id of the entity.
+     */
+    public void reindex(final long id) {
+        lock.writeLock().lock();
+        try {
+            final T element = map.get(id);
+            if(element != null) {
+                index(id, element);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Nonnull
+    @Override
+    public <C extends Collection<T>> C findByName(@Nonnull final String name, final boolean ignoreCase, @Nonnull final Supplier<C> supplier) {
+        final C collection = Objects.requireNonNull(supplier.get(), "Provided collection may not be null");
+        final Predicate<String> matcher = ignoreCase ? name::equalsIgnoreCase : name::equals;
+        lock.readLock().lock();
+        try {
+            final IdList ids = index.get(fold(name));
+            if(ids != null) {
+                ids.collect(matcher, collection);
+            }
+            return collection;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Nonnull
+    @Override
+    public <C extends Collection<T>> C findByNameStartsWith(@Nonnull final String name, final boolean ignoreCase, @Nonnull final Supplier<C> supplier) {
+        final C collection = Objects.requireNonNull(supplier.get(), "Provided collection may not be null");
+        final Predicate<String> matcher = ignoreCase
+                ? e -> e.regionMatches(true, 0, name, 0, name.length())
+                : e -> e.startsWith(name);
+        final String prefix = fold(name);
+        lock.readLock().lock();
+        try {
+            for(final Map.Entry<String, IdList> entry : index.tailMap(prefix, true).entrySet()) {
+                if(!entry.getKey().startsWith(prefix)) {
+                    break;
+                }
+                entry.getValue().collect(matcher, collection);
+            }
+            return collection;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    // Must hold the write lock
+    private void index(final long id, @Nonnull final T element) {
+        final String folded = fold(name(element));
+        final String old = indexedNames.put(id, folded);
+        if(folded.equals(old)) {
+            return;
+        }
+        if(old != null) {
+            removeId(old, id);
+        }
+        index.computeIfAbsent(folded, __ -> new IdList()).add(id);
+    }
+    
+    // Must hold the write lock
+    private void unindex(final long id) {
+        final String old = indexedNames.remove(id);
+        if(old != null) {
+            removeId(old, id);
+        }
+    }
+    
+    private void removeId(@Nonnull final String folded, final long id) {
+        final IdList ids = index.get(folded);
+        if(ids != null && ids.remove(id) && ids.size == 0) {
+            index.remove(folded);
+        }
+    }
+    
+    /**
+     * Ids indexed under the same name. Almost always just one, so this is
+     * just a small array instead of a set.
+     */
+    private final class IdList {
+        private long[] ids = new long[1];
+        private int size;
+        
+        private void add(final long id) {
+            if(size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+        
+        private boolean remove(final long id) {
+            for(int i = 0; i < size; i++) {
+                if(ids[i] == id) {
+                    ids[i] = ids[--size];
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        private void collect(@Nonnull final Predicate<String> matcher, @Nonnull final Collection<T> collection) {
+            for(int i = 0; i < size; i++) {
+                final T element = map.get(ids[i]);
+                if(element != null && matcher.test(name(element))) {
+                    collection.add(element);
+                }
+            }
+        }
+    }
+}
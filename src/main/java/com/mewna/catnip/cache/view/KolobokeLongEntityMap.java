@@ -46,9 +46,11 @@ import com.koloboke.function.LongObjPredicate;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Array;
 import java.util.*;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Consumer;
 import java.util.function.LongConsumer;
 import java.util.function.LongPredicate;
@@ -60,6 +62,45 @@ final class KolobokeLongEntityMap<T>  implements LongEntityMap<T> {
         this.init(DEFAULT_CONFIG_WRAPPER, expectedSize);
     }
     
+    // Null-filled value tables shared by key copies, by log2 of capacity
+    private static final AtomicReferenceArray<SoftReference<Object[]>> NULL_VALUES = new AtomicReferenceArray<>(32);
+    
+    /**
+     * Copies the key table of the given map, without rehashing. Values are
+     * not copied, so the copy must only be used through its key set.
+     */
+    private KolobokeLongEntityMap(final KolobokeLongEntityMap<T> source) {
+        configWrapper = source.configWrapper;
+        freeValue = source.freeValue;
+        size = source.size;
+        maxSize = source.maxSize;
+        set = source.set.clone();
+        values = (T[]) nullValues(set.length);
+    }
+    
+    /**
+     * Key sets can't add entries, and removing keys only moves values
+     * around, so the values of a key copy stay null, and copies with the
+     * same capacity can share them instead of allocating their own. Growing
+     * the table allocates a new one as usual.
+     */
+    private static Object[] nullValues(final int capacity) {
+        final int slot = Integer.numberOfTrailingZeros(capacity);
+        final SoftReference<Object[]> cached = NULL_VALUES.get(slot);
+        Object[] values = cached == null ? null : cached.get();
+        if(values == null) {
+            values = new Object[capacity];
+            NULL_VALUES.set(slot, new SoftReference<>(values));
+        }
+        return values;
+    }
+    
+    @Nonnull
+    @Override
+    public HashLongSet copyKeys() {
+        return new KolobokeLongEntityMap<>(this).keySet();
+    }
+    
     static void verifyConfig(HashConfig config) {
         if ((config.getGrowthFactor()) != 2.0) {
             throw new IllegalArgumentException(((((((config + " passed, HashConfig for a hashtable\n") + "implementation with linear probing must have growthFactor of 2.0.\n") + "A Koloboke Compile-generated hashtable implementation could have\n") + "a different growth factor, if the implemented type is annotated with\n") + "@com.koloboke.compile.hash.algo.openaddressing.QuadraticProbing or\n") + "@com.koloboke.compile.hash.algo.openaddressing.DoubleHashing"));
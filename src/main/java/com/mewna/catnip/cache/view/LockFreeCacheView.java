@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache.view;
+
+import com.koloboke.collect.set.LongSet;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.Collector;
+
+/**
+ * Base for {@link CacheView CacheView} implementations whose backing map can
+ * be read without locking. Every read goes through {@link #map()} exactly
+ * once, so implementations only have to make sure that the map it returns
+ * is safe to read concurrently with writes.
+ *
+ * @param <T> Type of the entity held by this cache.
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class LockFreeCacheView<T> implements MutableCacheView<T> {
+    /**
+     * @return The map to read from.
+     */
+    @Nonnull
+    protected abstract LongEntityMap<T> map();
+    
+    @Override
+    public void forEach(final Consumer<? super T> action) {
+        for(final T element : map().values()) {
+            action.accept(element);
+        }
+    }
+    
+    @Nonnegative
+    @Override
+    public long size() {
+        return map().size();
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return map().isEmpty();
+    }
+    
+    @Override
+    public long encodedBytes() {
+        return map().encodedBytes();
+    }
+    
+    @Override
+    public T getById(final long id) {
+        return map().get(id);
+    }
+    
+    @Override
+    public T findAny(@Nonnull final Predicate<? super T> filter) {
+        for(final T element : map().values()) {
+            if(filter.test(element)) {
+                return element;
+            }
+        }
+        return null;
+    }
+    
+    @Nonnull
+    @Override
+    public Collection<T> find(@Nonnull final Predicate<? super T> filter) {
+        return find(filter, ArrayList::new);
+    }
+    
+    @Nonnull
+    @Override
+    public <C extends Collection<T>> C find(@Nonnull final Predicate<? super T> filter, @Nonnull final Supplier<C> supplier) {
+        final C collection = Objects.requireNonNull(supplier.get(), "Provided collection may not be null");
+        for(final T element : map().values()) {
+            if(filter.test(element)) {
+                collection.add(element);
+            }
+        }
+        return collection;
+    }
+    
+    @Nonnull
+    @Override
+    public <A, R> R collect(@Nonnull final Collector<? super T, A, R> collector) {
+        final A a = collector.supplier().get();
+        final BiConsumer<A, ? super T> accumulator = collector.accumulator();
+        for(final T element : map().values()) {
+            accumulator.accept(a, element);
+        }
+        return collector.finisher().apply(a);
+    }
+    
+    @Nonnull
+    @Override
+    public <R> R collect(@Nonnull final Supplier<R> supplier, @Nonnull final BiConsumer<R, ? super T> accumulator, @Nonnull final BiConsumer<R, R> combiner) {
+        final R result = supplier.get();
+        for(final T element : map().values()) {
+            accumulator.accept(result, element);
+        }
+        return result;
+    }
+    
+    @Nonnull
+    @Override
+    public <U> U reduce(@Nonnull final U identity, @Nonnull final BiFunction<U, ? super T, U> accumulator, @Nonnull final BinaryOperator<U> combiner) {
+        U result = identity;
+        for(final T element : map().values()) {
+            result = accumulator.apply(result, element);
+        }
+        return result;
+    }
+    
+    @Nonnull
+    @Override
+    public Optional<T> reduce(@Nonnull final BinaryOperator<T> accumulator) {
+        final Iterator<T> it = map().values().iterator();
+        if(!it.hasNext()) {
+            return Optional.empty();
+        }
+        T result = it.next();
+        while(it.hasNext()) {
+            result = accumulator.apply(result, it.next());
+        }
+        return Optional.of(result);
+    }
+    
+    @Nonnull
+    @Override
+    public T reduce(@Nonnull final T identity, @Nonnull final BinaryOperator<T> accumulator) {
+        T result = identity;
+        for(final T element : map().values()) {
+            result = accumulator.apply(result, element);
+        }
+        return result;
+    }
+    
+    @Override
+    public boolean anyMatch(@Nonnull final Predicate<? super T> predicate) {
+        for(final T element : map().values()) {
+            if(predicate.test(element)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    @Override
+    public boolean allMatch(@Nonnull final Predicate<? super T> predicate) {
+        for(final T element : map().values()) {
+            if(!predicate.test(element)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public boolean noneMatch(@Nonnull final Predicate<? super T> predicate) {
+        return !anyMatch(predicate);
+    }
+    
+    @Nonnull
+    @Override
+    public Optional<T> min(@Nonnull final Comparator<? super T> comparator) {
+        final Iterator<T> it = map().values().iterator();
+        if(!it.hasNext()) {
+            return Optional.empty();
+        }
+        T min = it.next();
+        while(it.hasNext()) {
+            final T element = it.next();
+            if(comparator.compare(min, element) > 0) {
+                min = element;
+            }
+        }
+        return Optional.of(min);
+    }
+    
+    @Nonnull
+    @Override
+    public Optional<T> max(@Nonnull final Comparator<? super T> comparator) {
+        final Iterator<T> it = map().values().iterator();
+        if(!it.hasNext()) {
+            return Optional.empty();
+        }
+        T max = it.next();
+        while(it.hasNext()) {
+            final T element = it.next();
+            if(comparator.compare(max, element) < 0) {
+                max = element;
+            }
+        }
+        return Optional.of(max);
+    }
+    
+    @Override
+    public long count(@Nonnull final Predicate<? super T> filter) {
+        long count = 0;
+        for(final T element : map().values()) {
+            if(filter.test(element)) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    @Nonnull
+    @Override
+    public Set<Long> keys() {
+        return Collections.unmodifiableSet(map().keySet());
+    }
+    
+    @Override
+    public void forEachKey(@Nonnull final LongConsumer action) {
+        map().iterator().forEachRemaining(action);
+    }
+    
+    @Nonnull
+    @Override
+    public LongSet keysAsLongSet() {
+        return map().copyKeys();
+    }
+    
+    @Nonnull
+    @Override
+    public Collection<T> values() {
+        return Collections.unmodifiableCollection(map().values());
+    }
+    
+    @Nonnull
+    @Override
+    public Collection<T> snapshot() {
+        final Collection<T> values = map().values();
+        final Collection<T> r = new ArrayList<>(values.size());
+        //noinspection UseBulkOperation
+        values.forEach(r::add);
+        return r;
+    }
+    
+    @Nonnull
+    @Override
+    public <C extends Collection<T>> C snapshot(@Nonnull final Supplier<C> supplier) {
+        final C r = Objects.requireNonNull(supplier.get(), "Provided collection may not be null");
+        r.addAll(map().values());
+        return r;
+    }
+    
+    @Nonnull
+    @Override
+    public Iterator<T> iterator() {
+        return Collections.unmodifiableCollection(map().values()).iterator();
+    }
+    
+    @Nonnull
+    @Override
+    public Spliterator<T> spliterator() {
+        return Spliterators.spliterator(map().values().toArray(),
+                Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+}
@@ -28,12 +28,14 @@
 package com.mewna.catnip.cache.view;
 
 import com.koloboke.collect.LongIterator;
+import com.koloboke.collect.set.LongSet;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Map;
+import java.util.function.LongConsumer;
 
 @SuppressWarnings("NullableProblems")
 public interface LongEntityMap<T> extends Map<Long, T> {
@@ -49,9 +51,54 @@ public interface LongEntityMap<T> extends Map<Long, T> {
         return create(10);
     }
     
+    /**
+     * Creates a map that can be used from multiple threads without external
+     * locking. Reads never block, and iteration is weakly consistent.
+     *
+     * @param expectedSize How many entries the map is expected to hold.
+     * @param <T>          Type of the values.
+     *
+     * @return A new concurrent map.
+     */
+    @Nonnull
+    @CheckReturnValue
+    static <T> LongEntityMap<T> createConcurrent(@Nonnegative final int expectedSize) {
+        return new ConcurrentLongEntityMap<>(expectedSize);
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    static <T> LongEntityMap<T> createConcurrent() {
+        return createConcurrent(10);
+    }
+    
     @Nonnull
     LongIterator iterator();
     
+    /**
+     * Copies the keys of this map into a new set. The copy doesn't change
+     * when this map does, and may be modified without affecting this map.
+     *
+     * @return A copy of the keys of this map.
+     */
+    @Nonnull
+    @CheckReturnValue
+    default LongSet copyKeys() {
+        final KolobokeLongEntityMap<Boolean> copy = new KolobokeLongEntityMap<>(size());
+        iterator().forEachRemaining((LongConsumer) key -> copy.put(key, Boolean.TRUE));
+        return copy.keySet();
+    }
+    
+    /**
+     * @return The number of bytes this map's values take up, if it keeps
+     * them encoded rather than as objects, or -1 otherwise.
+     *
+     * @see CacheView#encodedBytes()
+     */
+    default long encodedBytes() {
+        return -1;
+    }
+    
     @Nullable
     T put(long key, @Nonnull T value);
     
@@ -29,7 +29,9 @@ package com.mewna.catnip.cache.view;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Objects;
 import java.util.function.LongPredicate;
+import java.util.function.UnaryOperator;
 
 /**
  * Mutable {@link CacheView cache view}, which allows modifications to the storage. Used by
@@ -61,4 +63,33 @@ public interface MutableCacheView<T> extends CacheView<T> {
     default T remove(@Nonnull final String key) {
         return remove(Long.parseUnsignedLong(key));
     }
+    
+    /**
+     * Patches the entity with the given id, if present. The patch function
+     * receives the current entity and returns its replacement; returning the
+     * same instance means nothing changed, and nothing is written.
+     * <p>
+     * The default implementation is a plain get followed by a put. Views
+     * that guard writes with a lock override this to apply the patch
+     * atomically.
+     *
+     * @param key   The id of the entity to patch.
+     * @param patch Function returning the patched entity. Must not return
+     *              {@code null}.
+     *
+     * @return The entity now stored under the given id, or {@code null} if
+     * there was none.
+     */
+    @Nullable
+    default T update(final long key, @Nonnull final UnaryOperator<T> patch) {
+        final T old = getById(key);
+        if(old == null) {
+            return null;
+        }
+        final T updated = Objects.requireNonNull(patch.apply(old), "Patched entity may not be null");
+        if(updated != old) {
+            put(key, updated);
+        }
+        return updated;
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache.view;
+
+import javax.annotation.Nonnegative;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * {@link DefaultCacheView DefaultCacheView} guarded by a {@link StampedLock}.
+ * Point lookups ({@link #getById(long)}, {@link #size()} and
+ * {@link #isEmpty()}) use optimistic reads, which don't write to the lock at
+ * all, so many threads looking up entities in the same view don't contend
+ * on the lock's cache line. They only fall back to taking the read lock if
+ * a write happened while they were running. Iterating operations still take
+ * the read lock.
+ * <p>
+ * Best suited for large, read-heavy views, such as members.
+ *
+ * @param <T> Type of the entity held by this cache.
+ */
+@SuppressWarnings("WeakerAccess")
+public class StampedCacheView<T> extends DefaultCacheView<T> {
+    protected final StampedLock stampedLock;
+    
+    public StampedCacheView() {
+        this(new StampedLock());
+    }
+    
+    private StampedCacheView(final StampedLock stampedLock) {
+        super(stampedLock.asReadWriteLock());
+        this.stampedLock = stampedLock;
+    }
+    
+    @Override
+    public T getById(final long id) {
+        final long stamp = stampedLock.tryOptimisticRead();
+        if(stamp != 0L) {
+            try {
+                // The map may be in the middle of a rehash here, which can
+                // make this return garbage or throw; validate() catches both.
+                // Probing always terminates, as the table is never full.
+                final T value = map.get(id);
+                if(stampedLock.validate(stamp)) {
+                    return value;
+                }
+            } catch(final RuntimeException ignored) {
+                // Fall back to the read lock
+            }
+        }
+        final long readStamp = stampedLock.readLock();
+        try {
+            return map.get(id);
+        } finally {
+            stampedLock.unlockRead(readStamp);
+        }
+    }
+    
+    @Nonnegative
+    @Override
+    public long size() {
+        final long stamp = stampedLock.tryOptimisticRead();
+        final long size = map.size();
+        if(stamp != 0L && stampedLock.validate(stamp)) {
+            return size;
+        }
+        final long readStamp = stampedLock.readLock();
+        try {
+            return map.size();
+        } finally {
+            stampedLock.unlockRead(readStamp);
+        }
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+}
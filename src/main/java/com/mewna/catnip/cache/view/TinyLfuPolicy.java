@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache.view;
+
+/**
+ * {@link EvictionPolicy#tinyLfu(int)} implementation. Frequencies are kept
+ * in a count-min sketch of 4-bit counters, four counters to a row, sixteen
+ * to a long. Every {@code 10 * size} accesses all counters are halved, so
+ * that old popularity fades.
+ */
+final class TinyLfuPolicy implements EvictionPolicy {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L,
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+    
+    TinyLfuPolicy(final int expectedSize) {
+        final int size = Math.max(1, Math.min(expectedSize, 1 << 30));
+        // One long holds sixteen counters, so this gives ~16 counters per entry
+        table = new long[Integer.highestOneBit(size - 1 | 1) << 1];
+        tableMask = table.length - 1;
+        sampleSize = size > Integer.MAX_VALUE / 10 ? Integer.MAX_VALUE : size * 10;
+    }
+    
+    private static int hash(final long id, final int row) {
+        long h = (id + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h;
+    }
+    
+    @Override
+    public void recordAccess(final long id) {
+        boolean added = false;
+        for(int row = 0; row < 4; row++) {
+            final int hash = hash(id, row);
+            final int index = hash & tableMask;
+            // Each row uses a different quarter of the long
+            final int shift = ((hash >>> 28 & 3) << 2 | row) << 2;
+            if((table[index] >>> shift & 0xFL) != 0xFL) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if(added && ++additions == sampleSize) {
+            for(int i = 0; i < table.length; i++) {
+                table[i] = table[i] >>> 1 & RESET_MASK;
+            }
+            additions /= 2;
+        }
+    }
+    
+    int frequency(final long id) {
+        int frequency = Integer.MAX_VALUE;
+        for(int row = 0; row < 4; row++) {
+            final int hash = hash(id, row);
+            final int shift = ((hash >>> 28 & 3) << 2 | row) << 2;
+            frequency = Math.min(frequency, (int) (table[hash & tableMask] >>> shift & 0xFL));
+        }
+        return frequency;
+    }
+    
+    @Override
+    public boolean admit(final long candidate, final long victim) {
+        return frequency(candidate) > frequency(victim);
+    }
+}
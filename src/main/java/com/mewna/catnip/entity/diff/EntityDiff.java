@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.entity.diff;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The set of fields that changed in an update event, stored as a bitmask
+ * over the ordinals of a {@link DiffField} enum. Diffs are computed once,
+ * before the event is dispatched, so that handlers can cheaply ignore
+ * updates that don't touch anything they care about:
+ * <pre>{@code
+ * catnip.on(DiscordEvent.PRESENCE_UPDATE, pair -> {
+ *     if(!DiffPair.diff(pair, PresenceField.class).changed(PresenceField.STATUS)) {
+ *         return;
+ *     }
+ *     // ...
+ * });
+ * }</pre>
+ * If the old entity wasn't cached, every field is considered changed, and
+ * {@link #oldCached()} returns {@code false}.
+ *
+ * @param <F> The field enum this diff is over.
+ */
+public final class EntityDiff<F extends Enum<F>> {
+    private final Class<F> fieldType;
+    private final long mask;
+    private final boolean oldCached;
+    
+    private EntityDiff(@Nonnull final Class<F> fieldType, final long mask, final boolean oldCached) {
+        this.fieldType = fieldType;
+        this.mask = mask;
+        this.oldCached = oldCached;
+    }
+    
+    /**
+     * Compares every field of {@code fieldType} between the two entities.
+     *
+     * @param fieldType The field enum to compare over.
+     * @param old       The old entity, or {@code null} if it wasn't cached.
+     * @param updated   The new entity.
+     * @param <L>       The type of the old entity.
+     * @param <R>       The type of the new entity.
+     * @param <F>       The field enum type.
+     *
+     * @return The diff between the two entities.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public static <L, R, F extends Enum<F> & DiffField<? super L, ? super R>> EntityDiff<F> compute(@Nonnull final Class<F> fieldType,
+                                                                                                  @Nullable final L old,
+                                                                                                  @Nonnull final R updated) {
+        final F[] fields = fieldType.getEnumConstants();
+        if(fields.length > Long.SIZE) {
+            throw new IllegalArgumentException(fieldType.getName() + " has more than " + Long.SIZE + " fields");
+        }
+        if(old == null) {
+            return new EntityDiff<>(fieldType, fields.length == Long.SIZE ? -1L : (1L << fields.length) - 1, false);
+        }
+        long mask = 0L;
+        for(final F field : fields) {
+            if(field.changed(old, updated)) {
+                mask |= 1L << field.ordinal();
+            }
+        }
+        return new EntityDiff<>(fieldType, mask, true);
+    }
+    
+    /**
+     * @return The field enum this diff is over.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public Class<F> fieldType() {
+        return fieldType;
+    }
+    
+    /**
+     * @return The raw bitmask of changed fields, indexed by ordinal.
+     */
+    @CheckReturnValue
+    public long mask() {
+        return mask;
+    }
+    
+    /**
+     * @return Whether or not the old entity was cached. If it wasn't, every
+     * field is reported as changed.
+     */
+    @CheckReturnValue
+    public boolean oldCached() {
+        return oldCached;
+    }
+    
+    /**
+     * @return Whether or not nothing changed at all.
+     */
+    @CheckReturnValue
+    public boolean isEmpty() {
+        return mask == 0L;
+    }
+    
+    /**
+     * @param field The field to check.
+     *
+     * @return Whether or not the field changed.
+     */
+    @CheckReturnValue
+    public boolean changed(@Nonnull final F field) {
+        return (mask & 1L << field.ordinal()) != 0L;
+    }
+    
+    /**
+     * @param fields The fields to check.
+     *
+     * @return Whether or not any of the fields changed.
+     */
+    @SafeVarargs
+    @CheckReturnValue
+    public final boolean changedAny(@Nonnull final F... fields) {
+        for(final F field : fields) {
+            if(changed(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @return A new set containing every field that changed.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public Set<F> changedFields() {
+        final Set<F> set = EnumSet.noneOf(fieldType);
+        for(final F field : fieldType.getEnumConstants()) {
+            if(changed(field)) {
+                set.add(field);
+            }
+        }
+        return set;
+    }
+    
+    @Override
+    public String toString() {
+        return "EntityDiff(" + fieldType.getSimpleName() + ", changed=" + changedFields() + ", oldCached=" + oldCached + ')';
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.entity.diff;
+
+import com.mewna.catnip.entity.guild.Guild;
+
+import javax.annotation.Nonnull;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Fields compared for {@code GUILD_UPDATE}.
+ */
+public enum GuildField implements DiffField<Guild, Guild> {
+    NAME(Guild::name),
+    ICON(Guild::icon),
+    SPLASH(Guild::splash),
+    OWNER(Guild::ownerIdAsLong),
+    REGION(Guild::region),
+    AFK_CHANNEL(Guild::afkChannelIdAsLong),
+    AFK_TIMEOUT(Guild::afkTimeout),
+    EMBED_ENABLED(Guild::embedEnabled),
+    EMBED_CHANNEL(Guild::embedChannelIdAsLong),
+    VERIFICATION_LEVEL(Guild::verificationLevel),
+    DEFAULT_MESSAGE_NOTIFICATIONS(Guild::defaultMessageNotifications),
+    EXPLICIT_CONTENT_FILTER(Guild::explicitContentFilter),
+    FEATURES(Guild::features),
+    MFA_LEVEL(Guild::mfaLevel),
+    APPLICATION(Guild::applicationIdAsLong),
+    WIDGET_ENABLED(Guild::widgetEnabled),
+    WIDGET_CHANNEL(Guild::widgetChannelIdAsLong),
+    SYSTEM_CHANNEL(Guild::systemChannelIdAsLong),
+    MAX_PRESENCES(Guild::maxPresences),
+    MAX_MEMBERS(Guild::maxMembers),
+    VANITY_URL_CODE(Guild::vanityUrlCode),
+    DESCRIPTION(Guild::description),
+    BANNER(Guild::banner),
+    ;
+    
+    private final Function<Guild, Object> getter;
+    
+    GuildField(final Function<Guild, Object> getter) {
+        this.getter = getter;
+    }
+    
+    @Override
+    public boolean changed(@Nonnull final Guild old, @Nonnull final Guild updated) {
+        return !Objects.equals(getter.apply(old), getter.apply(updated));
+    }
+}
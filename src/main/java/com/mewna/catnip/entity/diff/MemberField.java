@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.entity.diff;
+
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.guild.PartialMember;
+
+import javax.annotation.Nonnull;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Fields compared for {@code GUILD_MEMBER_UPDATE}. The old member comes from
+ * the cache, while the new one is the partial member sent by Discord.
+ */
+public enum MemberField implements DiffField<Member, PartialMember> {
+    NICK(Member::nick, PartialMember::nick),
+    ROLES(Member::roleIds, PartialMember::roleIds),
+    ;
+    
+    private final Function<Member, Object> oldGetter;
+    private final Function<PartialMember, Object> newGetter;
+    
+    MemberField(final Function<Member, Object> oldGetter, final Function<PartialMember, Object> newGetter) {
+        this.oldGetter = oldGetter;
+        this.newGetter = newGetter;
+    }
+    
+    @Override
+    public boolean changed(@Nonnull final Member old, @Nonnull final PartialMember updated) {
+        return !Objects.equals(oldGetter.apply(old), newGetter.apply(updated));
+    }
+}
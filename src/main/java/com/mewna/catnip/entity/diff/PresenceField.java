@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.entity.diff;
+
+import com.mewna.catnip.entity.user.Presence;
+import com.mewna.catnip.entity.user.Presence.*;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Fields compared for {@code PRESENCE_UPDATE}. The roles and nickname sent
+ * along with presence updates aren't part of the cached presence, and so
+ * aren't compared here.
+ */
+public enum PresenceField implements DiffField<Presence, Presence> {
+    STATUS(Presence::status),
+    MOBILE_STATUS(Presence::mobileStatus),
+    WEB_STATUS(Presence::webStatus),
+    DESKTOP_STATUS(Presence::desktopStatus),
+    ACTIVITY(null) {
+        @Override
+        public boolean changed(@Nonnull final Presence old, @Nonnull final Presence updated) {
+            return !activityEquals(old.activity(), updated.activity());
+        }
+    },
+    ;
+    
+    private final Function<Presence, Object> getter;
+    
+    PresenceField(final Function<Presence, Object> getter) {
+        this.getter = getter;
+    }
+    
+    @Override
+    public boolean changed(@Nonnull final Presence old, @Nonnull final Presence updated) {
+        return !Objects.equals(getter.apply(old), getter.apply(updated));
+    }
+    
+    // Activity impls don't implement equals, so compare them field by field
+    @CheckReturnValue
+    private static boolean activityEquals(@Nullable final Activity a, @Nullable final Activity b) {
+        if(a == b) {
+            return true;
+        }
+        if(a == null || b == null) {
+            return false;
+        }
+        return Objects.equals(a.name(), b.name())
+                && a.type() == b.type()
+                && Objects.equals(a.url(), b.url())
+                && a.applicationIdAsLong() == b.applicationIdAsLong()
+                && Objects.equals(a.details(), b.details())
+                && Objects.equals(a.state(), b.state())
+                && a.instance() == b.instance()
+                && Objects.equals(a.flags(), b.flags())
+                && timestampsEqual(a.timestamps(), b.timestamps())
+                && partyEquals(a.party(), b.party())
+                && assetsEqual(a.assets(), b.assets())
+                && secretsEqual(a.secrets(), b.secrets());
+    }
+    
+    @CheckReturnValue
+    private static boolean timestampsEqual(@Nullable final ActivityTimestamps a, @Nullable final ActivityTimestamps b) {
+        if(a == null || b == null) {
+            return a == b;
+        }
+        return a.start() == b.start() && a.end() == b.end();
+    }
+    
+    @CheckReturnValue
+    private static boolean partyEquals(@Nullable final ActivityParty a, @Nullable final ActivityParty b) {
+        if(a == null || b == null) {
+            return a == b;
+        }
+        return Objects.equals(a.id(), b.id()) && a.currentSize() == b.currentSize() && a.maxSize() == b.maxSize();
+    }
+    
+    @CheckReturnValue
+    private static boolean assetsEqual(@Nullable final ActivityAssets a, @Nullable final ActivityAssets b) {
+        if(a == null || b == null) {
+            return a == b;
+        }
+        return Objects.equals(a.largeImage(), b.largeImage())
+                && Objects.equals(a.largeText(), b.largeText())
+                && Objects.equals(a.smallImage(), b.smallImage())
+                && Objects.equals(a.smallText(), b.smallText());
+    }
+    
+    @CheckReturnValue
+    private static boolean secretsEqual(@Nullable final ActivitySecrets a, @Nullable final ActivitySecrets b) {
+        if(a == null || b == null) {
+            return a == b;
+        }
+        return Objects.equals(a.join(), b.join())
+                && Objects.equals(a.spectate(), b.spectate())
+                && Objects.equals(a.match(), b.match());
+    }
+}
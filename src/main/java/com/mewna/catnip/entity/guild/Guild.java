@@ -41,6 +41,7 @@ import com.mewna.catnip.entity.user.VoiceState;
 import com.mewna.catnip.entity.util.ImageOptions;
 import com.mewna.catnip.entity.util.Permission;
 import com.mewna.catnip.util.PermissionUtil;
+import com.mewna.catnip.util.SafeVertxCompletableFuture;
 import com.mewna.catnip.util.Utils;
 import io.vertx.core.json.JsonObject;
 import lombok.Getter;
@@ -175,13 +176,22 @@ public interface Guild extends Snowflake {
     @CheckReturnValue
     long ownerIdAsLong();
     
+    /**
+     * @return Total permissions for the user in the guild, as a bitfield. Does
+     * NOT include channel overrides.
+     */
+    @CheckReturnValue
+    long permissionsRaw();
+    
     /**
      * @return Total permissions for the user in the guild. Does NOT include
      * channel overrides.
      */
     @Nonnull
     @CheckReturnValue
-    Set<Permission> permissions();
+    default Set<Permission> permissions() {
+        return Permission.toSet(permissionsRaw());
+    }
     
     /**
      * @return The region that the guild's voice servers are located in.
@@ -483,6 +493,28 @@ public interface Guild extends Snowflake {
         return catnip().cache().member(idAsLong(), id);
     }
     
+    /**
+     * Gets a member from the cache, or fetches them from the API if they
+     * aren't cached, ex. because they were never chunked or were evicted
+     * from a {@link com.mewna.catnip.cache.view.CacheBudget bounded cache}.
+     * Fetched members are not added to the cache.
+     *
+     * @param id The id of the member to get.
+     *
+     * @return A CompletionStage that completes with the member. Fails if
+     * the user is not a member of the guild.
+     */
+    @Nonnull
+    @JsonIgnore
+    @CheckReturnValue
+    default CompletionStage<Member> fetchMember(final long id) {
+        final Member cached = member(id);
+        if(cached != null) {
+            return SafeVertxCompletableFuture.completedFuture(catnip(), cached);
+        }
+        return catnip().rest().guild().getGuildMember(id(), Long.toUnsignedString(id));
+    }
+    
     /**
      * @param id The id of the role to get.
      *
@@ -38,6 +38,7 @@ import com.mewna.catnip.entity.impl.MemberImpl;
 import com.mewna.catnip.entity.user.User;
 import com.mewna.catnip.entity.util.Permission;
 import com.mewna.catnip.util.PermissionUtil;
+import com.mewna.catnip.util.SafeVertxCompletableFuture;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
@@ -64,7 +65,26 @@ public interface Member extends Mentionable, PermissionHolder {
     @Nonnull
     @CheckReturnValue
     default User user() {
-        return Objects.requireNonNull(catnip().cache().user(idAsLong()), "User not found. It may have been removed from the cache.");
+        return Objects.requireNonNull(catnip().cache().user(idAsLong()), "User not found. It may have been removed from the cache; use fetchUser() instead.");
+    }
+    
+    /**
+     * Gets the user equivalent to this member from the cache, or fetches it
+     * from the API if it isn't cached, ex. because it was evicted from a
+     * {@link com.mewna.catnip.cache.view.CacheBudget bounded cache}. Fetched
+     * users are not added to the cache.
+     *
+     * @return A CompletionStage that completes with the user.
+     */
+    @Nonnull
+    @JsonIgnore
+    @CheckReturnValue
+    default CompletionStage<User> fetchUser() {
+        final User cached = catnip().cache().user(idAsLong());
+        if(cached != null) {
+            return SafeVertxCompletableFuture.completedFuture(catnip(), cached);
+        }
+        return catnip().rest().user().getUser(id());
     }
     
     /**
@@ -199,25 +219,35 @@ public interface Member extends Mentionable, PermissionHolder {
     }
     
     default Set<Permission> permissions() {
-        return Permission.toSet(PermissionUtil.effectivePermissions(this));
+        return Permission.toSet(permissionsRaw());
     }
     
     default Set<Permission> permissions(@Nonnull final GuildChannel channel) {
-        return Permission.toSet(PermissionUtil.effectivePermissions(this, channel));
+        return Permission.toSet(permissionsRaw(channel));
+    }
+    
+    @Override
+    default long permissionsRaw() {
+        return PermissionUtil.effectivePermissions(this);
+    }
+    
+    default long permissionsRaw(@Nonnull final GuildChannel channel) {
+        return PermissionUtil.effectivePermissions(this, channel);
     }
     
     @Override
     default boolean hasPermissions(@Nonnull final Collection<Permission> permissions) {
-        final long needed = Permission.from(permissions);
-        final long actual = PermissionUtil.effectivePermissions(this);
-        return (actual & needed) == needed;
+        return hasPermissions(Permission.from(permissions));
     }
     
     @Override
     default boolean hasPermissions(@Nonnull final GuildChannel channel, @Nonnull final Collection<Permission> permissions) {
-        final long needed = Permission.from(permissions);
-        final long actual = PermissionUtil.effectivePermissions(this, channel);
-        return (actual & needed) == needed;
+        return hasPermissions(channel, Permission.from(permissions));
+    }
+    
+    @Override
+    default boolean hasPermissions(@Nonnull final GuildChannel channel, final long mask) {
+        return Permission.has(permissionsRaw(channel), mask);
     }
     
     @Override
@@ -68,7 +68,12 @@ public interface PartialGuild extends Snowflake {
     @CheckReturnValue
     boolean owned();
     
+    @CheckReturnValue
+    long permissionsRaw();
+    
     @Nonnull
     @CheckReturnValue
-    Set<Permission> permissions();
+    default Set<Permission> permissions() {
+        return Permission.toSet(permissionsRaw());
+    }
 }
@@ -3,9 +3,9 @@ package com.mewna.catnip.entity.guild;
 import com.mewna.catnip.entity.Snowflake;
 import com.mewna.catnip.entity.channel.GuildChannel;
 import com.mewna.catnip.entity.util.Permission;
+import com.mewna.catnip.util.PermissionUtil;
 
 import javax.annotation.Nonnull;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Set;
 
@@ -44,7 +44,16 @@ public interface PermissionHolder extends GuildEntity, Snowflake {
      * @return Whether the entity has the permissions or not
      */
     default boolean hasPermissions(@Nonnull final Permission... permissions) {
-        return hasPermissions(Arrays.asList(permissions));
+        return hasPermissions(Permission.from(permissions));
+    }
+    
+    /**
+     * Checks whether the entity has the permissions or not.
+     * @param mask The permissions to check, as a bitfield.
+     * @return Whether the entity has the permissions or not
+     */
+    default boolean hasPermissions(final long mask) {
+        return Permission.has(permissionsRaw(), mask);
     }
     
     /**
@@ -62,7 +71,17 @@ public interface PermissionHolder extends GuildEntity, Snowflake {
      * @return Whether the entity has the permissions or not
      */
     default boolean hasPermissions(@Nonnull final GuildChannel channel, @Nonnull final Permission... permissions) {
-        return hasPermissions(channel, Arrays.asList(permissions));
+        return hasPermissions(channel, Permission.from(permissions));
+    }
+    
+    /**
+     * Checks whether the entity has the permissions or not in a specific {@link GuildChannel}.
+     * @param channel The channel in which the entity should have the permission.
+     * @param mask The permissions to check, as a bitfield.
+     * @return Whether the entity has the permissions or not
+     */
+    default boolean hasPermissions(@Nonnull final GuildChannel channel, final long mask) {
+        return PermissionUtil.hasPermissions(this, channel, mask);
     }
     
     /**
@@ -136,9 +136,7 @@ public interface Role extends Mentionable, Comparable<Role>, PermissionHolder {
     
     @Override
     default boolean hasPermissions(@Nonnull final Collection<Permission> permissions) {
-        final long needed = Permission.from(permissions);
-        final long actual = Permission.from(permissions());
-        return (actual & needed) == needed;
+        return hasPermissions(Permission.from(permissions));
     }
     
     @Override
@@ -146,6 +144,11 @@ public interface Role extends Mentionable, Comparable<Role>, PermissionHolder {
         throw new UnsupportedOperationException("Roles does not support this method");
     }
     
+    @Override
+    default boolean hasPermissions(@Nonnull final GuildChannel channel, final long mask) {
+        throw new UnsupportedOperationException("Roles does not support this method");
+    }
+    
     @Override
     default boolean canInteract(@Nonnull final Role role) {
         return PermissionUtil.canInteract(this, role);
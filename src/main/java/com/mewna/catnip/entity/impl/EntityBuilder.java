@@ -59,7 +59,6 @@ import com.mewna.catnip.entity.misc.Emoji.CustomEmoji;
 import com.mewna.catnip.entity.misc.Emoji.UnicodeEmoji;
 import com.mewna.catnip.entity.user.*;
 import com.mewna.catnip.entity.user.Presence.*;
-import com.mewna.catnip.entity.util.Permission;
 import com.mewna.catnip.entity.voice.VoiceServerUpdate;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -252,14 +251,13 @@ public final class EntityBuilder {
     @Nonnull
     @CheckReturnValue
     public TextChannel createTextChannel(@Nonnull final String guildId, @Nonnull final JsonObject data) {
-        final String parentId = data.getString("parent_id");
         return TextChannelImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .name(data.getString("name"))
-                .guildIdAsLong(Long.parseUnsignedLong(guildId))
+                .guildIdAsLong(parseSnowflake(guildId))
                 .position(data.getInteger("position", -1))
-                .parentIdAsLong(parentId == null ? 0 : Long.parseUnsignedLong(parentId))
+                .parentIdAsLong(snowflake(data, "parent_id"))
                 .overrides(toList(data.getJsonArray("permission_overwrites"), this::createPermissionOverride))
                 .topic(data.getString("topic"))
                 .nsfw(data.getBoolean("nsfw", false))
@@ -270,14 +268,13 @@ public final class EntityBuilder {
     @Nonnull
     @CheckReturnValue
     public NewsChannel createNewsChannel(@Nonnull final String guildId, @Nonnull final JsonObject data) {
-        final String parentId = data.getString("parent_id");
         return NewsChannelImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .name(data.getString("name"))
-                .guildIdAsLong(Long.parseUnsignedLong(guildId))
+                .guildIdAsLong(parseSnowflake(guildId))
                 .position(data.getInteger("position", -1))
-                .parentIdAsLong(parentId == null ? 0 : Long.parseUnsignedLong(parentId))
+                .parentIdAsLong(snowflake(data, "parent_id"))
                 .overrides(toList(data.getJsonArray("permission_overwrites"), this::createPermissionOverride))
                 .topic(data.getString("topic"))
                 .nsfw(data.getBoolean("nsfw", false))
@@ -287,14 +284,13 @@ public final class EntityBuilder {
     @Nonnull
     @CheckReturnValue
     public StoreChannel createStoreChannel(@Nonnull final String guildId, @Nonnull final JsonObject data) {
-        final String parentId = data.getString("parent_id");
         return StoreChannelImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .name(data.getString("name"))
-                .guildIdAsLong(Long.parseUnsignedLong(guildId))
+                .guildIdAsLong(parseSnowflake(guildId))
                 .position(data.getInteger("position", -1))
-                .parentIdAsLong(parentId == null ? 0 : Long.parseUnsignedLong(parentId))
+                .parentIdAsLong(snowflake(data, "parent_id"))
                 .overrides(toList(data.getJsonArray("permission_overwrites"), this::createPermissionOverride))
                 .nsfw(data.getBoolean("nsfw", false))
                 .build();
@@ -303,14 +299,13 @@ public final class EntityBuilder {
     @Nonnull
     @CheckReturnValue
     public VoiceChannel createVoiceChannel(@Nonnull final String guildId, @Nonnull final JsonObject data) {
-        final String parentId = data.getString("parent_id");
         return VoiceChannelImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .name(data.getString("name"))
-                .guildIdAsLong(Long.parseUnsignedLong(guildId))
+                .guildIdAsLong(parseSnowflake(guildId))
                 .position(data.getInteger("position", -1))
-                .parentIdAsLong(parentId == null ? 0 : Long.parseUnsignedLong(parentId))
+                .parentIdAsLong(snowflake(data, "parent_id"))
                 .overrides(toList(data.getJsonArray("permission_overwrites"), this::createPermissionOverride))
                 .bitrate(data.getInteger("bitrate", 0))
                 .userLimit(data.getInteger("user_limit", 0))
@@ -322,9 +317,9 @@ public final class EntityBuilder {
     public Category createCategory(@Nonnull final String guildId, @Nonnull final JsonObject data) {
         return CategoryImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .name(data.getString("name"))
-                .guildIdAsLong(Long.parseUnsignedLong(guildId))
+                .guildIdAsLong(parseSnowflake(guildId))
                 .position(data.getInteger("position", -1))
                 .overrides(toList(data.getJsonArray("permission_overwrites"), this::createPermissionOverride))
                 .build();
@@ -335,8 +330,8 @@ public final class EntityBuilder {
     public UserDMChannel createUserDM(@Nonnull final JsonObject data) {
         return UserDMChannelImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
-                .userIdAsLong(Long.parseUnsignedLong(data.getJsonArray("recipients").getJsonObject(0).getString("id")))
+                .idAsLong(snowflake(data, "id"))
+                .userIdAsLong(snowflake(data.getJsonArray("recipients").getJsonObject(0), "id"))
                 .build();
     }
     
@@ -345,11 +340,11 @@ public final class EntityBuilder {
     public GroupDMChannel createGroupDM(@Nonnull final JsonObject data) {
         return GroupDMChannelImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .recipients(toList(data.getJsonArray("recipients"), this::createUser))
                 .icon(data.getString("icon"))
-                .ownerIdAsLong(Long.parseUnsignedLong(data.getString("owner_id")))
-                .applicationIdAsLong(Long.parseUnsignedLong(data.getString("application_id")))
+                .ownerIdAsLong(snowflake(data, "owner_id"))
+                .applicationIdAsLong(snowflake(data, "application_id"))
                 .build();
     }
     
@@ -415,7 +410,7 @@ public final class EntityBuilder {
     public ChannelPinsUpdate createChannelPinsUpdate(@Nonnull final JsonObject data) {
         return ChannelPinsUpdateImpl.builder()
                 .catnip(catnip)
-                .channelIdAsLong(Long.parseUnsignedLong(data.getString("channel_id")))
+                .channelIdAsLong(snowflake(data, "channel_id"))
                 .lastPinTimestamp(data.getString("last_pin_timestamp"))
                 .build();
     }
@@ -425,7 +420,7 @@ public final class EntityBuilder {
     public PermissionOverride createPermissionOverride(@Nonnull final JsonObject data) {
         return PermissionOverrideImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .type(OverrideType.byKey(data.getString("type")))
                 .allowRaw(data.getLong("allow", 0L))
                 .denyRaw(data.getLong("deny", 0L))
@@ -437,8 +432,8 @@ public final class EntityBuilder {
     public Role createRole(@Nonnull final String guildId, @Nonnull final JsonObject data) {
         return RoleImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
-                .guildIdAsLong(Long.parseUnsignedLong(guildId))
+                .idAsLong(snowflake(data, "id"))
+                .guildIdAsLong(parseSnowflake(guildId))
                 .name(data.getString("name"))
                 .color(data.getInteger("color"))
                 .hoist(data.getBoolean("hoist"))
@@ -454,8 +449,8 @@ public final class EntityBuilder {
     public PartialRole createPartialRole(@Nonnull final String guildId, @Nonnull final String roleId) {
         return PartialRoleImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(roleId))
-                .guildIdAsLong(Long.parseUnsignedLong(guildId))
+                .idAsLong(parseSnowflake(roleId))
+                .guildIdAsLong(parseSnowflake(guildId))
                 .build();
     }
     
@@ -465,7 +460,7 @@ public final class EntityBuilder {
         return UserImpl.builder()
                 .catnip(catnip)
                 .username(data.getString("username"))
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .discriminator(data.getString("discriminator"))
                 .avatar(data.getString("avatar", null))
                 .bot(data.getBoolean("bot", false))
@@ -500,8 +495,8 @@ public final class EntityBuilder {
                 .catnip(catnip)
                 .status(OnlineStatus.fromString(data.getString("status")))
                 .activity(createActivity(data.getJsonObject("game", null)))
-                .idAsLong(Long.parseUnsignedLong(data.getJsonObject("user").getString("id")))
-                .guildIdAsLong(Long.parseUnsignedLong(data.getString("guild_id")))
+                .idAsLong(snowflake(data.getJsonObject("user"), "id"))
+                .guildIdAsLong(snowflake(data, "guild_id"))
                 .roles(toStringSet(data.getJsonArray("roles")))
                 .nick(data.getString("nick"))
                 .mobileStatus(mobileStatusString != null ? OnlineStatus.fromString(mobileStatusString) : null)
@@ -516,13 +511,12 @@ public final class EntityBuilder {
         if(data == null) {
             return null;
         } else {
-            final String applicationId = data.getString("application_id");
             return ActivityImpl.builder()
                     .name(data.getString("name"))
                     .type(ActivityType.byId(data.getInteger("type")))
                     .url(data.getString("url"))
                     .timestamps(createTimestamps(data.getJsonObject("timestamps", null)))
-                    .applicationIdAsLong(applicationId == null ? 0 : Long.parseUnsignedLong(applicationId))
+                    .applicationIdAsLong(snowflake(data, "application_id"))
                     .details(data.getString("details"))
                     .state(data.getString("state"))
                     .party(createParty(data.getJsonObject("party", null)))
@@ -615,12 +609,11 @@ public final class EntityBuilder {
     @Nonnull
     @CheckReturnValue
     public TypingUser createTypingUser(@Nonnull final JsonObject data) {
-        final String guildId = data.getString("guild_id");
         return TypingUserImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("user_id")))
-                .channelIdAsLong(Long.parseUnsignedLong(data.getString("channel_id")))
-                .guildIdAsLong(guildId == null ? 0 : Long.parseUnsignedLong(guildId))
+                .idAsLong(snowflake(data, "user_id"))
+                .channelIdAsLong(snowflake(data, "channel_id"))
+                .guildIdAsLong(snowflake(data, "guild_id"))
                 .timestamp(data.getLong("timestamp"))
                 .build();
     }
@@ -629,7 +622,7 @@ public final class EntityBuilder {
     @CheckReturnValue
     public Member createMember(@Nonnull final String guildId, @Nonnull final String id, @Nonnull final JsonObject data) {
         final JsonObject userData = data.getJsonObject("user");
-        final long guild = Long.parseUnsignedLong(guildId);
+        final long guild = parseSnowflake(guildId);
         if(userData != null) {
             catnip.cacheWorker().bulkCacheUsers(
                     (int) ((guild >> 22) % catnip.shardManager().shardCount()),
@@ -652,7 +645,7 @@ public final class EntityBuilder {
         
         return MemberImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(id))
+                .idAsLong(parseSnowflake(id))
                 .guildIdAsLong(guild)
                 .nick(data.getString("nick"))
                 .roleIds(toStringSet(data.getJsonArray("roles")))
@@ -681,7 +674,7 @@ public final class EntityBuilder {
     public PartialMember createPartialMember(@Nonnull final String guild, @Nonnull final JsonObject data) {
         return PartialMemberImpl.builder()
                 .catnip(catnip)
-                .guildIdAsLong(Long.parseUnsignedLong(guild))
+                .guildIdAsLong(parseSnowflake(guild))
                 .user(createUser(data.getJsonObject("user")))
                 .roleIds(toStringSet(data.getJsonArray("roles")))
                 .nick(data.getString("nick"))
@@ -691,12 +684,11 @@ public final class EntityBuilder {
     @Nonnull
     @CheckReturnValue
     public VoiceState createVoiceState(@Nullable final String guildId, @Nonnull final JsonObject data) {
-        final String channelId = data.getString("channel_id");
         return VoiceStateImpl.builder()
                 .catnip(catnip)
-                .guildIdAsLong(guildId == null ? 0 : Long.parseUnsignedLong(guildId))
-                .channelIdAsLong(channelId == null ? 0 : Long.parseUnsignedLong(channelId))
-                .userIdAsLong(Long.parseUnsignedLong(data.getString("user_id")))
+                .guildIdAsLong(guildId == null ? 0 : parseSnowflake(guildId))
+                .channelIdAsLong(snowflake(data, "channel_id"))
+                .userIdAsLong(snowflake(data, "user_id"))
                 .sessionId(data.getString("session_id"))
                 .deaf(data.getBoolean("deaf"))
                 .mute(data.getBoolean("mute"))
@@ -718,7 +710,7 @@ public final class EntityBuilder {
         return VoiceServerUpdateImpl.builder()
                 .catnip(catnip)
                 .token(data.getString("token"))
-                .guildIdAsLong(Long.parseUnsignedLong(data.getString("guild_id")))
+                .guildIdAsLong(snowflake(data, "guild_id"))
                 .endpoint(data.getString("endpoint"))
                 .build();
     }
@@ -740,8 +732,8 @@ public final class EntityBuilder {
         
         return CustomEmojiImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
-                .guildIdAsLong(guildId == null ? 0 : Long.parseUnsignedLong(guildId))
+                .idAsLong(snowflake(data, "id"))
+                .guildIdAsLong(guildId == null ? 0 : parseSnowflake(guildId))
                 .name(data.getString("name"))
                 .roles(toStringList(data.getJsonArray("roles")))
                 .user(userRaw == null ? null : createUser(userRaw))
@@ -763,7 +755,7 @@ public final class EntityBuilder {
         final String guildId = data.getString("guild_id");
         return EmojiUpdateImpl.builder()
                 .catnip(catnip)
-                .guildIdAsLong(Long.parseUnsignedLong(guildId))
+                .guildIdAsLong(parseSnowflake(guildId))
                 .emojis(toList(data.getJsonArray("emojis"),
                         e -> createCustomEmoji(guildId, e)))
                 .build();
@@ -774,7 +766,7 @@ public final class EntityBuilder {
     public Attachment createAttachment(@Nonnull final JsonObject data) {
         return AttachmentImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .fileName(data.getString("filename"))
                 .size(data.getInteger("size"))
                 .url(data.getString("url"))
@@ -828,7 +820,6 @@ public final class EntityBuilder {
         final Member member = memberRaw == null ? null : createMember(data.getString("guild_id"), author, memberRaw);
         
         final String guildId = data.getString("guild_id");
-        final String webhookId = data.getString("webhook_id");
         
         final List<Member> mentionedMembers = new ArrayList<>();
         if(guildId != null) {
@@ -838,8 +829,8 @@ public final class EntityBuilder {
         //noinspection ConstantConditions
         return MessageImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
-                .channelIdAsLong(Long.parseUnsignedLong(data.getString("channel_id")))
+                .idAsLong(snowflake(data, "id"))
+                .channelIdAsLong(snowflake(data, "channel_id"))
                 .author(author)
                 .content(data.getString("content"))
                 .timestamp(data.getString("timestamp"))
@@ -856,8 +847,8 @@ public final class EntityBuilder {
                 .pinned(data.getBoolean("pinned", false))
                 .type(MessageType.byId(data.getInteger("type", MessageType.DEFAULT.getId())))
                 .member(member)
-                .guildIdAsLong(guildId == null ? 0 : Long.parseUnsignedLong(guildId))
-                .webhookIdAsLong(webhookId == null ? 0 : Long.parseUnsignedLong(webhookId))
+                .guildIdAsLong(snowflake(data, "guild_id"))
+                .webhookIdAsLong(snowflake(data, "webhook_id"))
                 .build();
     }
     
@@ -874,12 +865,11 @@ public final class EntityBuilder {
     @Nonnull
     @CheckReturnValue
     public MessageEmbedUpdate createMessageEmbedUpdate(final JsonObject data) {
-        final String guildId = data.getString("guild_id");
         return MessageEmbedUpdateImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
-                .guildIdAsLong(guildId == null ? 0 : Long.parseUnsignedLong(guildId))
-                .channelIdAsLong(Long.parseUnsignedLong(data.getString("channel_id")))
+                .idAsLong(snowflake(data, "id"))
+                .guildIdAsLong(snowflake(data, "guild_id"))
+                .channelIdAsLong(snowflake(data, "channel_id"))
                 .embeds(toList(data.getJsonArray("embeds"), this::createEmbed))
                 .build();
     }
@@ -887,10 +877,9 @@ public final class EntityBuilder {
     @Nonnull
     @CheckReturnValue
     public GuildEmbed createGuildEmbed(@Nonnull final JsonObject data) {
-        final String channelId = data.getString("channel_id");
         return GuildEmbedImpl.builder()
                 .catnip(catnip)
-                .channelIdAsLong(channelId == null ? 0 : Long.parseUnsignedLong(channelId))
+                .channelIdAsLong(snowflake(data, "channel_id"))
                 .enabled(data.getBoolean("enabled"))
                 .build();
     }
@@ -931,35 +920,30 @@ public final class EntityBuilder {
     @Nonnull
     @CheckReturnValue
     public Guild createGuild(@Nonnull final JsonObject data) {
-        final String afkChannelId = data.getString("afk_channel_id");
-        final String embedChannelId = data.getString("embed_channel_id");
-        final String applicationId = data.getString("application_id");
-        final String widgetChannelId = data.getString("widget_channel_id");
-        final String systemChannelId = data.getString("system_channel_id");
         final Integer maxPresences = data.getInteger("max_presences", 5000);
         return GuildImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .name(data.getString("name"))
                 .icon(data.getString("icon"))
                 .splash(data.getString("splash"))
                 .owned(data.getBoolean("owner", false))
-                .ownerIdAsLong(Long.parseUnsignedLong(data.getString("owner_id")))
-                .permissions(Permission.toSet(data.getLong("permissions", 0L)))
+                .ownerIdAsLong(snowflake(data, "owner_id"))
+                .permissionsRaw(data.getLong("permissions", 0L))
                 .region(data.getString("region"))
-                .afkChannelIdAsLong(afkChannelId == null ? 0 : Long.parseUnsignedLong(afkChannelId))
+                .afkChannelIdAsLong(snowflake(data, "afk_channel_id"))
                 .afkTimeout(data.getInteger("afk_timeout", 0))
                 .embedEnabled(data.getBoolean("embed_enabled", false))
-                .embedChannelIdAsLong(embedChannelId == null ? 0 : Long.parseUnsignedLong(embedChannelId))
+                .embedChannelIdAsLong(snowflake(data, "embed_channel_id"))
                 .verificationLevel(VerificationLevel.byKey(data.getInteger("verification_level", 0)))
                 .defaultMessageNotifications(NotificationLevel.byKey(data.getInteger("default_message_notifications", 0)))
                 .explicitContentFilter(ContentFilterLevel.byKey(data.getInteger("explicit_content_filter", 0)))
                 .features(toStringList(data.getJsonArray("features")))
                 .mfaLevel(MFALevel.byKey(data.getInteger("mfa_level", 0)))
-                .applicationIdAsLong(applicationId == null ? 0 : Long.parseUnsignedLong(applicationId))
+                .applicationIdAsLong(snowflake(data, "application_id"))
                 .widgetEnabled(data.getBoolean("widget_enabled", false))
-                .widgetChannelIdAsLong(widgetChannelId == null ? 0 : Long.parseUnsignedLong(widgetChannelId))
-                .systemChannelIdAsLong(systemChannelId == null ? 0 : Long.parseUnsignedLong(systemChannelId))
+                .widgetChannelIdAsLong(snowflake(data, "widget_channel_id"))
+                .systemChannelIdAsLong(snowflake(data, "system_channel_id"))
                 .joinedAt(data.getString("joined_at"))
                 .large(data.getBoolean("large", false))
                 .unavailable(data.getBoolean("unavailable", false))
@@ -976,7 +960,7 @@ public final class EntityBuilder {
     public UnavailableGuild createUnavailableGuild(@Nonnull final JsonObject data) {
         return UnavailableGuildImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .unavailable(data.getBoolean("unavailable"))
                 .build();
     }
@@ -986,11 +970,11 @@ public final class EntityBuilder {
     public PartialGuild createPartialGuild(@Nonnull final JsonObject data) {
         return PartialGuildImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .name(data.getString("name"))
                 .icon(data.getString("icon"))
                 .owned(data.getBoolean("owner", false))
-                .permissions(Permission.toSet(data.getLong("permissions", 0L)))
+                .permissionsRaw(data.getLong("permissions", 0L))
                 .build();
     }
     
@@ -999,7 +983,7 @@ public final class EntityBuilder {
     public GatewayGuildBan createGatewayGuildBan(@Nonnull final JsonObject data) {
         return GatewayGuildBanImpl.builder()
                 .catnip(catnip)
-                .guildIdAsLong(Long.parseUnsignedLong(data.getString("guild_id")))
+                .guildIdAsLong(snowflake(data, "guild_id"))
                 .user(createUser(data.getJsonObject("user")))
                 .build();
     }
@@ -1056,7 +1040,7 @@ public final class EntityBuilder {
     public InviteChannel createInviteChannel(@Nonnull final JsonObject data) {
         return InviteChannelImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .name(data.getString("name"))
                 .type(ChannelType.byKey(data.getInteger("type")))
                 .build();
@@ -1067,7 +1051,7 @@ public final class EntityBuilder {
     public InviteGuild createInviteGuild(@Nonnull final JsonObject data) {
         return InviteGuildImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .name(data.getString("name"))
                 .icon(data.getString("icon"))
                 .splash(data.getString("splash"))
@@ -1081,7 +1065,7 @@ public final class EntityBuilder {
     public Inviter createInviter(@Nonnull final JsonObject data) {
         return InviterImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .username(data.getString("username"))
                 .discriminator(data.getString("discriminator"))
                 .avatar(data.getString("avatar"))
@@ -1107,9 +1091,9 @@ public final class EntityBuilder {
     public Webhook createWebhook(@Nonnull final JsonObject data) {
         return WebhookImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
-                .guildIdAsLong(Long.parseUnsignedLong(data.getString("guild_id")))
-                .channelIdAsLong(Long.parseUnsignedLong(data.getString("channel_id")))
+                .idAsLong(snowflake(data, "id"))
+                .guildIdAsLong(snowflake(data, "guild_id"))
+                .channelIdAsLong(snowflake(data, "channel_id"))
                 .user(createUser(data.getJsonObject("user")))
                 .name(data.getString("name"))
                 .avatar(data.getString("avatar"))
@@ -1120,35 +1104,32 @@ public final class EntityBuilder {
     @Nonnull
     @CheckReturnValue
     public WebhooksUpdate createWebhooksUpdate(@Nonnull final JsonObject data) {
-        final String channelId = data.getString("channel_id");
         return WebhooksUpdateImpl.builder()
                 .catnip(catnip)
-                .guildIdAsLong(Long.parseUnsignedLong(data.getString("guild_id")))
-                .channelIdAsLong(channelId == null ? 0 : Long.parseUnsignedLong(channelId))
+                .guildIdAsLong(snowflake(data, "guild_id"))
+                .channelIdAsLong(snowflake(data, "channel_id"))
                 .build();
     }
     
     @Nonnull
     @CheckReturnValue
     public DeletedMessage createDeletedMessage(@Nonnull final JsonObject data) {
-        final String guildId = data.getString("guild_id");
         return DeletedMessageImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
-                .channelIdAsLong(Long.parseUnsignedLong(data.getString("channel_id")))
-                .guildIdAsLong(guildId == null ? 0 : Long.parseUnsignedLong(guildId))
+                .idAsLong(snowflake(data, "id"))
+                .channelIdAsLong(snowflake(data, "channel_id"))
+                .guildIdAsLong(snowflake(data, "guild_id"))
                 .build();
     }
     
     @Nonnull
     @CheckReturnValue
     public BulkDeletedMessages createBulkDeletedMessages(@Nonnull final JsonObject data) {
-        final String guildId = data.getString("guild_id");
         return BulkDeletedMessagesImpl.builder()
                 .catnip(catnip)
                 .ids(toStringList(data.getJsonArray("ids")))
-                .channelIdAsLong(Long.parseUnsignedLong(data.getString("channel_id")))
-                .guildIdAsLong(guildId == null ? 0 : Long.parseUnsignedLong(guildId))
+                .channelIdAsLong(snowflake(data, "channel_id"))
+                .guildIdAsLong(snowflake(data, "guild_id"))
                 .build();
     }
     
@@ -1201,7 +1182,7 @@ public final class EntityBuilder {
             case MESSAGE_DELETE:
                 return MessageDeleteInfoImpl.builder()
                         .catnip(catnip)
-                        .channelIdAsLong(Long.parseUnsignedLong(data.getString("channel_id")))
+                        .channelIdAsLong(snowflake(data, "channel_id"))
                         .deletedMessagesCount(Integer.parseUnsignedInt(data.getString("count")))
                         .build();
             case CHANNEL_OVERWRITE_CREATE:
@@ -1209,7 +1190,7 @@ public final class EntityBuilder {
             case CHANNEL_OVERWRITE_DELETE:
                 return OverrideUpdateInfoImpl.builder()
                         .catnip(catnip)
-                        .overriddenEntityIdAsLong(Long.parseUnsignedLong(data.getString("id")))
+                        .overriddenEntityIdAsLong(snowflake(data, "id"))
                         .overrideType(OverrideType.byKey(data.getString("type")))
                         .roleName(data.getString("role_name"))
                         .build();
@@ -1223,12 +1204,11 @@ public final class EntityBuilder {
     public AuditLogEntry createAuditLogEntry(@Nonnull final JsonObject data, @Nonnull final Map<String, Webhook> webhooks,
                                              @Nonnull final Map<String, User> users) {
         final ActionType type = ActionType.byKey(data.getInteger("action_type"));
-        final String targetId = data.getString("target_id");
         return AuditLogEntryImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .user(users.get(data.getString("user_id")))
-                .targetIdAsLong(targetId == null ? 0 : Long.parseUnsignedLong(targetId))
+                .targetIdAsLong(snowflake(data, "target_id"))
                 .webhook(webhooks.get(data.getString("target_id")))
                 .type(type)
                 .reason(data.getString("reason"))
@@ -1253,7 +1233,7 @@ public final class EntityBuilder {
     public ApplicationInfo createApplicationInfo(@Nonnull final JsonObject data) {
         return ApplicationInfoImpl.builder()
                 .catnip(catnip)
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .name(data.getString("name"))
                 .icon(data.getString("icon"))
                 .description(data.getString("description"))
@@ -1270,7 +1250,7 @@ public final class EntityBuilder {
         return ApplicationOwnerImpl.builder()
                 .catnip(catnip)
                 .username(data.getString("username"))
-                .idAsLong(Long.parseUnsignedLong(data.getString("id")))
+                .idAsLong(snowflake(data, "id"))
                 .discriminator(data.getString("discriminator"))
                 .avatar(data.getString("avatar", null))
                 .bot(data.getBoolean("bot", false))
@@ -34,7 +34,6 @@ import com.mewna.catnip.entity.RequiresCatnip;
 import com.mewna.catnip.entity.Timestamped;
 import com.mewna.catnip.entity.guild.Guild;
 import com.mewna.catnip.entity.util.ImageOptions;
-import com.mewna.catnip.entity.util.Permission;
 import com.mewna.catnip.util.CDNFormat;
 import lombok.*;
 import lombok.experimental.Accessors;
@@ -44,7 +43,6 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.time.OffsetDateTime;
 import java.util.List;
-import java.util.Set;
 
 /**
  * @author natanbc
@@ -66,7 +64,7 @@ public class GuildImpl implements Guild, RequiresCatnip, Timestamped {
     private String splash;
     private boolean owned;
     private long ownerIdAsLong;
-    private Set<Permission> permissions;
+    private long permissionsRaw;
     private String region;
     private long afkChannelIdAsLong;
     private int afkTimeout;
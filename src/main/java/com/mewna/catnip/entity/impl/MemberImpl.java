@@ -46,7 +46,7 @@ import java.util.Set;
  */
 @Getter(onMethod_ = @JsonProperty)
 @Setter(onMethod_ = @JsonProperty)
-@Builder
+@Builder(toBuilder = true)
 @Accessors(fluent = true)
 @NoArgsConstructor
 @AllArgsConstructor
@@ -33,7 +33,6 @@ import com.mewna.catnip.Catnip;
 import com.mewna.catnip.entity.RequiresCatnip;
 import com.mewna.catnip.entity.guild.PartialGuild;
 import com.mewna.catnip.entity.util.ImageOptions;
-import com.mewna.catnip.entity.util.Permission;
 import com.mewna.catnip.util.CDNFormat;
 import lombok.*;
 import lombok.experimental.Accessors;
@@ -41,7 +40,6 @@ import lombok.experimental.Accessors;
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.util.Set;
 
 /**
  * @author natanbc
@@ -61,7 +59,7 @@ public class PartialGuildImpl implements PartialGuild, RequiresCatnip {
     private String name;
     private String icon;
     private boolean owned;
-    private Set<Permission> permissions;
+    private long permissionsRaw;
     
     @Override
     public void catnip(@Nonnull final Catnip catnip) {
@@ -50,6 +50,7 @@ import java.util.Set;
 @Accessors(fluent = true)
 @NoArgsConstructor
 @AllArgsConstructor
+@EqualsAndHashCode
 @SuppressWarnings("WeakerAccess")
 public class PresenceImpl implements Presence, RequiresCatnip {
     @JsonIgnore
@@ -99,6 +100,7 @@ public class PresenceImpl implements Presence, RequiresCatnip {
     @Accessors(fluent = true)
     @NoArgsConstructor
     @AllArgsConstructor
+    @EqualsAndHashCode
     public static class ActivityTimestampsImpl implements ActivityTimestamps {
         private long start;
         private long end;
@@ -110,6 +112,7 @@ public class PresenceImpl implements Presence, RequiresCatnip {
     @Accessors(fluent = true)
     @NoArgsConstructor
     @AllArgsConstructor
+    @EqualsAndHashCode
     public static class ActivityPartyImpl implements ActivityParty {
         private String id;
         private int currentSize;
@@ -122,6 +125,7 @@ public class PresenceImpl implements Presence, RequiresCatnip {
     @Accessors(fluent = true)
     @NoArgsConstructor
     @AllArgsConstructor
+    @EqualsAndHashCode
     public static class ActivityAssetsImpl implements ActivityAssets {
         private String largeImage;
         private String largeText;
@@ -135,6 +139,7 @@ public class PresenceImpl implements Presence, RequiresCatnip {
     @Accessors(fluent = true)
     @NoArgsConstructor
     @AllArgsConstructor
+    @EqualsAndHashCode
     public static class ActivitySecretsImpl implements ActivitySecrets {
         private String join;
         private String spectate;
@@ -147,6 +152,7 @@ public class PresenceImpl implements Presence, RequiresCatnip {
     @Accessors(fluent = true)
     @NoArgsConstructor
     @AllArgsConstructor
+    @EqualsAndHashCode
     public static class ActivityImpl implements Activity {
         private String name;
         private ActivityType type;
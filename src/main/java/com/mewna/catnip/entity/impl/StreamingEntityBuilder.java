@@ -0,0 +1,1804 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.entity.impl;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.EntityCacheWorker;
+import com.mewna.catnip.entity.guild.Guild;
+import com.mewna.catnip.entity.guild.Guild.ContentFilterLevel;
+import com.mewna.catnip.entity.guild.Guild.MFALevel;
+import com.mewna.catnip.entity.guild.Guild.NotificationLevel;
+import com.mewna.catnip.entity.guild.Guild.VerificationLevel;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.guild.Role;
+import com.mewna.catnip.entity.impl.EmbedImpl.*;
+import com.mewna.catnip.entity.impl.MessageImpl.AttachmentImpl;
+import com.mewna.catnip.entity.impl.MessageImpl.ReactionImpl;
+import com.mewna.catnip.entity.impl.PresenceImpl.*;
+import com.mewna.catnip.entity.message.Embed;
+import com.mewna.catnip.entity.message.Embed.*;
+import com.mewna.catnip.entity.message.Message;
+import com.mewna.catnip.entity.message.Message.Attachment;
+import com.mewna.catnip.entity.message.Message.Reaction;
+import com.mewna.catnip.entity.message.MessageType;
+import com.mewna.catnip.entity.misc.Emoji.CustomEmoji;
+import com.mewna.catnip.entity.misc.Emoji;
+import com.mewna.catnip.entity.user.Presence;
+import com.mewna.catnip.entity.user.Presence.*;
+import com.mewna.catnip.entity.user.User;
+import com.mewna.catnip.entity.user.VoiceState;
+import com.mewna.catnip.util.JsonUtil;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static com.mewna.catnip.util.JsonUtil.readSnowflake;
+
+/**
+ * Builds entities straight from a {@link JsonParser}, without decoding the
+ * payload into a {@link io.vertx.core.json.JsonObject} tree first. Every
+ * method here produces the same entity that the matching
+ * {@link EntityBuilder} method would produce for the same JSON, including
+ * the cache side effects (caching member users, falling back to the cached
+ * join date, resolving mentioned roles).
+ * <p/>
+ * Methods taking a parser expect it to be positioned on the
+ * {@code START_OBJECT} token of the entity (or before it), and leave it on
+ * the matching {@code END_OBJECT}. Since Discord doesn't guarantee any field
+ * order, anything that depends on another field (ex. the guild id of a
+ * message's member) is only resolved once the whole object has been read.
+ */
+@SuppressWarnings({"WeakerAccess", "unused", "OverlyCoupledClass"})
+public final class StreamingEntityBuilder {
+    /**
+     * Key that {@link #sliceGuildCreate(Buffer)} stores a guild's
+     * {@link RawGuildCollections raw collections} under, inside of the
+     * slimmed-down {@code d} object. The value isn't a JSON type, so the
+     * payload can't be copied or encoded while it's there. The cache worker
+     * removes it from the payload once it has cached them, so it's never
+     * seen by event handlers.
+     */
+    public static final String RAW_GUILD_COLLECTIONS_KEY = "_catnip_raw_collections";
+    private static final Set<String> GUILD_COLLECTIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "roles", "channels", "members", "emojis", "presences", "voice_states")));
+    
+    private final Catnip catnip;
+    private final EntityBuilder entityBuilder;
+    
+    public StreamingEntityBuilder(final Catnip catnip) {
+        this.catnip = catnip;
+        entityBuilder = new EntityBuilder(catnip);
+    }
+    
+    /**
+     * Slims down a {@code GUILD_CREATE} gateway payload without decoding it
+     * into a tree. The returned payload is a normal gateway payload, except
+     * that the guild's roles, channels, members, emojis, presences, and voice
+     * states are cut out of {@code d}, and stored as slices of the payload
+     * under {@link #RAW_GUILD_COLLECTIONS_KEY} instead. Those can then be
+     * cached in bounded batches with
+     * {@link #cacheGuildCollections(int, String, RawGuildCollections, int)}.
+     *
+     * @param payload The full gateway payload.
+     *
+     * @return The slimmed-down payload, or {@code null} if the payload isn't
+     * a {@code GUILD_CREATE} whose {@code t} comes before its {@code d}.
+     */
+    @Nullable
+    @CheckReturnValue
+    public static JsonObject sliceGuildCreate(@Nonnull final Buffer payload) {
+        try(final JsonParser parser = JsonUtil.createParser(payload)) {
+            startObject(parser);
+            final JsonObject event = new JsonObject();
+            boolean guildCreate = false;
+            boolean hasData = false;
+            while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                parser.nextToken();
+                switch(field) {
+                    case "t": {
+                        if(!"GUILD_CREATE".equals(readString(parser))) {
+                            return null;
+                        }
+                        guildCreate = true;
+                        event.put("t", "GUILD_CREATE");
+                        break;
+                    }
+                    case "d": {
+                        // Without knowing the type we'd have to buffer the
+                        // whole thing anyway, so just let the caller decode it
+                        if(!guildCreate || parser.currentToken() != JsonToken.START_OBJECT) {
+                            return null;
+                        }
+                        event.put("d", sliceGuild(payload, parser));
+                        hasData = true;
+                        break;
+                    }
+                    default: {
+                        event.put(field, parser.readValueAs(Object.class));
+                        break;
+                    }
+                }
+            }
+            return hasData ? event : null;
+        } catch(final IOException e) {
+            throw new DecodeException("Failed to decode: " + e.getMessage());
+        }
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    private static JsonObject sliceGuild(@Nonnull final Buffer payload, @Nonnull final JsonParser parser) throws IOException {
+        final JsonObject guild = new JsonObject();
+        // Field name -> byte range of its array in the payload
+        final Map<String, int[]> ranges = new LinkedHashMap<>();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            if(GUILD_COLLECTIONS.contains(field) && parser.currentToken() == JsonToken.START_ARRAY) {
+                final int start = (int) parser.getTokenLocation().getByteOffset();
+                parser.skipChildren();
+                final int end = (int) parser.getCurrentLocation().getByteOffset();
+                ranges.put(field, new int[] {start, end});
+            } else {
+                guild.put(field, parser.readValueAs(Object.class));
+            }
+        }
+        final RawGuildCollections collections = new RawGuildCollections();
+        if(!ranges.isEmpty()) {
+            // Shards decompress into a buffer that's reused for the next
+            // payload, while the collections are cached off of the event
+            // loop. So the span holding them is copied once, and every
+            // collection is a slice of that copy.
+            int first = Integer.MAX_VALUE;
+            int last = 0;
+            for(final int[] range : ranges.values()) {
+                first = Math.min(first, range[0]);
+                last = Math.max(last, range[1]);
+            }
+            final Buffer span = payload.getBuffer(first, last);
+            for(final Map.Entry<String, int[]> range : ranges.entrySet()) {
+                final int[] bounds = range.getValue();
+                collections.arrays.put(range.getKey(), span.slice(bounds[0] - first, bounds[1] - first));
+            }
+        }
+        // Not a JSON type, so it has to bypass JsonObject#put's checks
+        guild.getMap().put(RAW_GUILD_COLLECTIONS_KEY, collections);
+        return guild;
+    }
+    
+    /**
+     * Caches the raw collections cut out of a guild by
+     * {@link #sliceGuildCreate(Buffer)}, handing them to the cache worker
+     * {@code batchSize} entities at a time. This produces the same cache
+     * state as {@link EntityBuilder#createAndCacheGuild(int, JsonObject)},
+     * but at most one batch of each type is in memory at any given time.
+     *
+     * @param shardId     The shard the guild is on.
+     * @param guildId     The id of the guild.
+     * @param collections The raw collections.
+     * @param batchSize   How many entities to cache at once.
+     */
+    public void cacheGuildCollections(@Nonnegative final int shardId, @Nonnull final String guildId,
+                                      @Nonnull final RawGuildCollections collections, @Nonnegative final int batchSize) {
+        final int size = Math.max(1, batchSize);
+        for(final Map.Entry<String, Buffer> array : collections.arrays.entrySet()) {
+            try(final JsonParser parser = JsonUtil.createParser(array.getValue())) {
+                parser.nextToken();
+                cacheGuildCollection(shardId, guildId, array.getKey(), parser, size);
+            } catch(final IOException e) {
+                throw new DecodeException("Failed to decode: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Streams the {@code roles}, {@code channels}, {@code members},
+     * {@code emojis}, {@code presences}, and {@code voice_states} arrays of
+     * the object the parser is positioned on into the cache worker, in
+     * batches of {@code batchSize}. Any other field is skipped.
+     *
+     * @param shardId   The shard the guild is on.
+     * @param guildId   The id of the guild.
+     * @param parser    The parser to read from.
+     * @param batchSize How many entities to cache at once.
+     *
+     * @throws IOException If the JSON can't be parsed.
+     */
+    public void cacheGuildCollections(@Nonnegative final int shardId, @Nonnull final String guildId,
+                                      @Nonnull final JsonParser parser, @Nonnegative final int batchSize) throws IOException {
+        startObject(parser);
+        final int size = Math.max(1, batchSize);
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            if(parser.nextToken() != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+            cacheGuildCollection(shardId, guildId, field, parser, size);
+        }
+    }
+    
+    /**
+     * Streams a single collection of a guild into the cache worker. Unknown
+     * collections are skipped.
+     *
+     * @param parser A parser positioned on the {@code START_ARRAY} token of
+     *               the collection.
+     */
+    private void cacheGuildCollection(@Nonnegative final int shardId, @Nonnull final String guildId,
+                                      @Nonnull final String field, @Nonnull final JsonParser parser,
+                                      @Nonnegative final int size) throws IOException {
+        final long id = JsonUtil.parseSnowflake(guildId);
+        final EntityCacheWorker worker = catnip.cacheWorker();
+        switch(field) {
+            case "roles": {
+                streamArray(parser, size, p -> entityBuilder.createRole(guildId, readObject(p)),
+                        batch -> worker.bulkCacheRoles(shardId, batch));
+                break;
+            }
+            case "channels": {
+                streamArray(parser, size, p -> entityBuilder.createGuildChannel(guildId, readObject(p)),
+                        batch -> worker.bulkCacheChannels(shardId, batch));
+                break;
+            }
+            case "members": {
+                final List<User> users = new ArrayList<>(size);
+                streamArray(parser, size, p -> {
+                    final PendingMember member = readMember(p);
+                    if(member == null || member.user == null) {
+                        throw new JsonParseException(p, "Member is missing its user");
+                    }
+                    users.add(member.user);
+                    return member.build(id, member.user.idAsLong());
+                }, batch -> {
+                    worker.bulkCacheUsers(shardId, new ArrayList<>(users));
+                    users.clear();
+                    worker.bulkCacheMembers(shardId, batch);
+                });
+                break;
+            }
+            case "emojis": {
+                streamArray(parser, size, p -> {
+                    final Emoji emoji = createEmoji(p);
+                    if(!(emoji instanceof CustomEmojiImpl)) {
+                        throw new JsonParseException(p, "Guild emoji is missing its id");
+                    }
+                    return (CustomEmoji) ((CustomEmojiImpl) emoji).guildIdAsLong(id);
+                }, batch -> worker.bulkCacheEmoji(shardId, batch));
+                break;
+            }
+            case "presences": {
+                Map<String, Presence> batch = new HashMap<>();
+                final long[] userId = new long[1];
+                while(parser.nextToken() != JsonToken.END_ARRAY) {
+                    final Presence presence = readPresence(parser, userId);
+                    batch.put(Long.toUnsignedString(userId[0]), presence);
+                    if(batch.size() >= size) {
+                        worker.bulkCachePresences(shardId, batch);
+                        batch = new HashMap<>();
+                    }
+                }
+                if(!batch.isEmpty()) {
+                    worker.bulkCachePresences(shardId, batch);
+                }
+                break;
+            }
+            case "voice_states": {
+                streamArray(parser, size, p -> (VoiceState) ((VoiceStateImpl) createVoiceState(p)).guildIdAsLong(id),
+                        batch -> worker.bulkCacheVoiceStates(shardId, batch));
+                break;
+            }
+            default: {
+                parser.skipChildren();
+                break;
+            }
+        }
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public Message createMessage(@Nonnull final Buffer buffer) {
+        return parse(buffer, this::createMessage);
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public Member createMember(@Nonnull final String guildId, @Nonnull final Buffer buffer) {
+        return parse(buffer, p -> createMember(guildId, p));
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public Guild createGuild(@Nonnull final Buffer buffer) {
+        return parse(buffer, this::createGuild);
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public Presence createPresence(@Nonnull final Buffer buffer) {
+        return parse(buffer, this::createPresence);
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public VoiceState createVoiceState(@Nonnull final Buffer buffer) {
+        return parse(buffer, this::createVoiceState);
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public User createUser(@Nonnull final JsonParser parser) throws IOException {
+        startObject(parser);
+        final UserImpl user = UserImpl.builder().catnip(catnip).build();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "id": {
+                    user.idAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "username": {
+                    user.username(readString(parser));
+                    break;
+                }
+                case "discriminator": {
+                    user.discriminator(readString(parser));
+                    break;
+                }
+                case "avatar": {
+                    user.avatar(readString(parser));
+                    break;
+                }
+                case "bot": {
+                    user.bot(readBoolean(parser, false));
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return user;
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public Member createMember(@Nonnull final String guildId, @Nonnull final JsonParser parser) throws IOException {
+        final PendingMember member = readMember(parser);
+        if(member == null || member.user == null) {
+            throw new JsonParseException(parser, "Member is missing its user");
+        }
+        return member.finish(JsonUtil.parseSnowflake(guildId), member.user.idAsLong());
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public VoiceState createVoiceState(@Nonnull final JsonParser parser) throws IOException {
+        startObject(parser);
+        final VoiceStateImpl state = VoiceStateImpl.builder().catnip(catnip).build();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "guild_id": {
+                    state.guildIdAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "channel_id": {
+                    state.channelIdAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "user_id": {
+                    state.userIdAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "session_id": {
+                    state.sessionId(readString(parser));
+                    break;
+                }
+                case "deaf": {
+                    state.deaf(readBoolean(parser, false));
+                    break;
+                }
+                case "mute": {
+                    state.mute(readBoolean(parser, false));
+                    break;
+                }
+                case "self_deaf": {
+                    state.selfDeaf(readBoolean(parser, false));
+                    break;
+                }
+                case "self_mute": {
+                    state.selfMute(readBoolean(parser, false));
+                    break;
+                }
+                case "suppress": {
+                    state.suppress(readBoolean(parser, false));
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return state;
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public Presence createPresence(@Nonnull final JsonParser parser) throws IOException {
+        return readPresence(parser, null);
+    }
+    
+    /**
+     * Reads a presence, storing the id of its user in {@code userId[0]} if
+     * {@code userId} isn't {@code null}.
+     */
+    @Nonnull
+    @CheckReturnValue
+    private Presence readPresence(@Nonnull final JsonParser parser, @Nullable final long[] userId) throws IOException {
+        startObject(parser);
+        String status = null;
+        final PresenceImpl presence = PresenceImpl.builder().catnip(catnip).build();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "status": {
+                    status = readString(parser);
+                    break;
+                }
+                case "game": {
+                    presence.activity(createActivity(parser));
+                    break;
+                }
+                case "client_status": {
+                    readClientStatus(parser, presence);
+                    break;
+                }
+                case "user": {
+                    if(userId != null && parser.currentToken() == JsonToken.START_OBJECT) {
+                        userId[0] = readUserId(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        //noinspection ConstantConditions
+        return presence.status(OnlineStatus.fromString(status));
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    public Activity createActivity(@Nonnull final JsonParser parser) throws IOException {
+        if(parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        startObject(parser);
+        int type = 0;
+        int flags = 0;
+        final ActivityImpl activity = new ActivityImpl();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "name": {
+                    activity.name(readString(parser));
+                    break;
+                }
+                case "type": {
+                    type = readInt(parser, 0);
+                    break;
+                }
+                case "url": {
+                    activity.url(readString(parser));
+                    break;
+                }
+                case "timestamps": {
+                    activity.timestamps(readTimestamps(parser));
+                    break;
+                }
+                case "application_id": {
+                    activity.applicationIdAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "details": {
+                    activity.details(readString(parser));
+                    break;
+                }
+                case "state": {
+                    activity.state(readString(parser));
+                    break;
+                }
+                case "party": {
+                    activity.party(readParty(parser));
+                    break;
+                }
+                case "assets": {
+                    activity.assets(readAssets(parser));
+                    break;
+                }
+                case "secrets": {
+                    activity.secrets(readSecrets(parser));
+                    break;
+                }
+                case "instance": {
+                    activity.instance(readBoolean(parser, false));
+                    break;
+                }
+                case "flags": {
+                    flags = readInt(parser, 0);
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return activity.type(ActivityType.byId(type)).flags(ActivityFlag.fromInt(flags));
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    @SuppressWarnings("OverlyLongMethod")
+    public Guild createGuild(@Nonnull final JsonParser parser) throws IOException {
+        startObject(parser);
+        final GuildImpl guild = GuildImpl.builder()
+                .catnip(catnip)
+                .verificationLevel(VerificationLevel.byKey(0))
+                .defaultMessageNotifications(NotificationLevel.byKey(0))
+                .explicitContentFilter(ContentFilterLevel.byKey(0))
+                .features(Collections.emptyList())
+                .mfaLevel(MFALevel.byKey(0))
+                .maxPresences(5000)
+                .build();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "id": {
+                    guild.idAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "name": {
+                    guild.name(readString(parser));
+                    break;
+                }
+                case "icon": {
+                    guild.icon(readString(parser));
+                    break;
+                }
+                case "splash": {
+                    guild.splash(readString(parser));
+                    break;
+                }
+                case "owner": {
+                    guild.owned(readBoolean(parser, false));
+                    break;
+                }
+                case "owner_id": {
+                    guild.ownerIdAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "permissions": {
+                    guild.permissionsRaw(readLong(parser, 0L));
+                    break;
+                }
+                case "region": {
+                    guild.region(readString(parser));
+                    break;
+                }
+                case "afk_channel_id": {
+                    guild.afkChannelIdAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "afk_timeout": {
+                    guild.afkTimeout(readInt(parser, 0));
+                    break;
+                }
+                case "embed_enabled": {
+                    guild.embedEnabled(readBoolean(parser, false));
+                    break;
+                }
+                case "embed_channel_id": {
+                    guild.embedChannelIdAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "verification_level": {
+                    guild.verificationLevel(VerificationLevel.byKey(readInt(parser, 0)));
+                    break;
+                }
+                case "default_message_notifications": {
+                    guild.defaultMessageNotifications(NotificationLevel.byKey(readInt(parser, 0)));
+                    break;
+                }
+                case "explicit_content_filter": {
+                    guild.explicitContentFilter(ContentFilterLevel.byKey(readInt(parser, 0)));
+                    break;
+                }
+                case "features": {
+                    guild.features(readStringList(parser));
+                    break;
+                }
+                case "mfa_level": {
+                    guild.mfaLevel(MFALevel.byKey(readInt(parser, 0)));
+                    break;
+                }
+                case "application_id": {
+                    guild.applicationIdAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "widget_enabled": {
+                    guild.widgetEnabled(readBoolean(parser, false));
+                    break;
+                }
+                case "widget_channel_id": {
+                    guild.widgetChannelIdAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "system_channel_id": {
+                    guild.systemChannelIdAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "joined_at": {
+                    guild.joinedAt(readString(parser));
+                    break;
+                }
+                case "large": {
+                    guild.large(readBoolean(parser, false));
+                    break;
+                }
+                case "unavailable": {
+                    guild.unavailable(readBoolean(parser, false));
+                    break;
+                }
+                case "max_presences": {
+                    // An explicit null means "unlimited", which EntityBuilder maps to 0
+                    guild.maxPresences(readInt(parser, 0));
+                    break;
+                }
+                case "max_members": {
+                    guild.maxMembers(readInt(parser, 0));
+                    break;
+                }
+                case "vanity_url_code": {
+                    guild.vanityUrlCode(readString(parser));
+                    break;
+                }
+                case "description": {
+                    guild.description(readString(parser));
+                    break;
+                }
+                case "banner": {
+                    guild.banner(readString(parser));
+                    break;
+                }
+                default: {
+                    // roles, channels, members, etc. aren't stored on the guild itself
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return guild;
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    @SuppressWarnings("OverlyLongMethod")
+    public Message createMessage(@Nonnull final JsonParser parser) throws IOException {
+        startObject(parser);
+        final MessageImpl message = MessageImpl.builder()
+                .catnip(catnip)
+                .mentionedUsers(Collections.emptyList())
+                .mentionedRoles(Collections.emptyList())
+                .attachments(Collections.emptyList())
+                .embeds(Collections.emptyList())
+                .reactions(Collections.emptyList())
+                .nonce("null")
+                .type(MessageType.DEFAULT)
+                .build();
+        PendingMember member = null;
+        List<Mention> mentions = null;
+        List<Long> mentionedRoles = null;
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "id": {
+                    message.idAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "channel_id": {
+                    message.channelIdAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "guild_id": {
+                    message.guildIdAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "webhook_id": {
+                    message.webhookIdAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "author": {
+                    message.author(createUser(parser));
+                    break;
+                }
+                case "member": {
+                    member = readMember(parser);
+                    break;
+                }
+                case "content": {
+                    message.content(readString(parser));
+                    break;
+                }
+                case "timestamp": {
+                    message.timestamp(readString(parser));
+                    break;
+                }
+                case "edited_timestamp": {
+                    message.editedTimestamp(readString(parser));
+                    break;
+                }
+                case "tts": {
+                    message.tts(readBoolean(parser, false));
+                    break;
+                }
+                case "mention_everyone": {
+                    message.mentionsEveryone(readBoolean(parser, false));
+                    break;
+                }
+                case "mentions": {
+                    mentions = readList(parser, this::readMention);
+                    final List<User> users = new ArrayList<>(mentions.size());
+                    for(final Mention mention : mentions) {
+                        users.add(mention.user);
+                    }
+                    message.mentionedUsers(Collections.unmodifiableList(users));
+                    break;
+                }
+                case "mention_roles": {
+                    mentionedRoles = readList(parser, JsonUtil::readSnowflake);
+                    break;
+                }
+                case "attachments": {
+                    message.attachments(readList(parser, this::createAttachment));
+                    break;
+                }
+                case "embeds": {
+                    message.embeds(readList(parser, StreamingEntityBuilder::createEmbed));
+                    break;
+                }
+                case "reactions": {
+                    message.reactions(readList(parser, this::createReaction));
+                    break;
+                }
+                case "nonce": {
+                    message.nonce(parser.currentToken() == JsonToken.VALUE_NULL ? "null" : parser.getText());
+                    break;
+                }
+                case "pinned": {
+                    message.pinned(readBoolean(parser, false));
+                    break;
+                }
+                case "type": {
+                    message.type(MessageType.byId(readInt(parser, MessageType.DEFAULT.getId())));
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        
+        // Everything below needs the guild id, which may come after the fields that use it
+        final long guildId = message.guildIdAsLong();
+        if(member != null) {
+            message.member(member.finish(guildId, message.author().idAsLong()));
+        }
+        final List<Member> members = new ArrayList<>();
+        if(guildId != 0 && mentions != null) {
+            for(final Mention mention : mentions) {
+                members.add(mention.member == null ? null : mention.member.finish(guildId, mention.user.idAsLong()));
+            }
+        }
+        message.mentionedMembers(members);
+        if(mentionedRoles != null) {
+            final List<Role> roles = new ArrayList<>(mentionedRoles.size());
+            for(final long role : mentionedRoles) {
+                roles.add(catnip.cache().role(guildId, role));
+            }
+            message.mentionedRoles(Collections.unmodifiableList(roles));
+        }
+        for(final Reaction reaction : message.reactions()) {
+            if(reaction.emoji() instanceof CustomEmojiImpl) {
+                ((CustomEmojiImpl) reaction.emoji()).guildIdAsLong(guildId);
+            }
+        }
+        return message;
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public Attachment createAttachment(@Nonnull final JsonParser parser) throws IOException {
+        startObject(parser);
+        final AttachmentImpl attachment = AttachmentImpl.builder()
+                .catnip(catnip)
+                .height(-1)
+                .width(-1)
+                .build();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "id": {
+                    attachment.idAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "filename": {
+                    attachment.fileName(readString(parser));
+                    break;
+                }
+                case "size": {
+                    attachment.size(readInt(parser, 0));
+                    break;
+                }
+                case "url": {
+                    attachment.url(readString(parser));
+                    break;
+                }
+                case "proxy_url": {
+                    attachment.proxyUrl(readString(parser));
+                    break;
+                }
+                case "height": {
+                    attachment.height(readInt(parser, -1));
+                    break;
+                }
+                case "width": {
+                    attachment.width(readInt(parser, -1));
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return attachment;
+    }
+    
+    /**
+     * Reads a reaction. Custom emojis are returned with a guild id of 0, as
+     * the guild id isn't part of the reaction object itself.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public Reaction createReaction(@Nonnull final JsonParser parser) throws IOException {
+        startObject(parser);
+        final ReactionImpl reaction = new ReactionImpl();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "count": {
+                    reaction.count(readInt(parser, 0));
+                    break;
+                }
+                case "self": {
+                    reaction.self(readBoolean(parser, false));
+                    break;
+                }
+                case "emoji": {
+                    reaction.emoji(createEmoji(parser));
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return reaction;
+    }
+    
+    /**
+     * Reads an emoji. Custom emojis are returned with a guild id of 0.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public Emoji createEmoji(@Nonnull final JsonParser parser) throws IOException {
+        startObject(parser);
+        final CustomEmojiImpl emoji = CustomEmojiImpl.builder()
+                .catnip(catnip)
+                .roles(Collections.emptyList())
+                .requiresColons(true)
+                .build();
+        boolean custom = false;
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "id": {
+                    custom = parser.currentToken() != JsonToken.VALUE_NULL;
+                    emoji.idAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "name": {
+                    emoji.name(readString(parser));
+                    break;
+                }
+                case "roles": {
+                    emoji.roles(readStringList(parser));
+                    break;
+                }
+                case "user": {
+                    emoji.user(parser.currentToken() == JsonToken.VALUE_NULL ? null : createUser(parser));
+                    break;
+                }
+                case "require_colons": {
+                    emoji.requiresColons(readBoolean(parser, true));
+                    break;
+                }
+                case "managed": {
+                    emoji.managed(readBoolean(parser, false));
+                    break;
+                }
+                case "animated": {
+                    emoji.animated(readBoolean(parser, false));
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        if(custom) {
+            return emoji;
+        }
+        return UnicodeEmojiImpl.builder()
+                .catnip(catnip)
+                .name(emoji.name())
+                .requiresColons(emoji.requiresColons())
+                .build();
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    @SuppressWarnings("OverlyLongMethod")
+    public static Embed createEmbed(@Nonnull final JsonParser parser) throws IOException {
+        startObject(parser);
+        String type = null;
+        final EmbedImpl embed = EmbedImpl.builder()
+                .fields(Collections.emptyList())
+                .build();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "title": {
+                    embed.title(readString(parser));
+                    break;
+                }
+                case "type": {
+                    type = readString(parser);
+                    break;
+                }
+                case "description": {
+                    embed.description(readString(parser));
+                    break;
+                }
+                case "url": {
+                    embed.url(readString(parser));
+                    break;
+                }
+                case "timestamp": {
+                    embed.timestamp(readString(parser));
+                    break;
+                }
+                case "color": {
+                    embed.color(parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.getIntValue());
+                    break;
+                }
+                case "footer": {
+                    embed.footer(readFooter(parser));
+                    break;
+                }
+                case "image": {
+                    embed.image(readImage(parser));
+                    break;
+                }
+                case "thumbnail": {
+                    embed.thumbnail(readThumbnail(parser));
+                    break;
+                }
+                case "video": {
+                    embed.video(readVideo(parser));
+                    break;
+                }
+                case "provider": {
+                    embed.provider(readProvider(parser));
+                    break;
+                }
+                case "author": {
+                    embed.author(readAuthor(parser));
+                    break;
+                }
+                case "fields": {
+                    embed.fields(readList(parser, StreamingEntityBuilder::readField));
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        //noinspection ConstantConditions
+        return embed.type(EmbedType.byKey(type));
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    private PendingMember readMember(@Nonnull final JsonParser parser) throws IOException {
+        if(parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        startObject(parser);
+        final PendingMember member = new PendingMember();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "user": {
+                    member.user = parser.currentToken() == JsonToken.VALUE_NULL ? null : (UserImpl) createUser(parser);
+                    break;
+                }
+                case "nick": {
+                    member.nick = readString(parser);
+                    break;
+                }
+                case "roles": {
+                    member.roleIds = readStringSet(parser);
+                    break;
+                }
+                case "joined_at": {
+                    member.joinedAt = readString(parser);
+                    break;
+                }
+                case "deaf": {
+                    member.deaf = readBoolean(parser, false);
+                    break;
+                }
+                case "mute": {
+                    member.mute = readBoolean(parser, false);
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return member;
+    }
+    
+    /**
+     * Reads an entry of a message's mentions, which is a user object with an
+     * optional partial member attached.
+     */
+    @Nonnull
+    @CheckReturnValue
+    private Mention readMention(@Nonnull final JsonParser parser) throws IOException {
+        startObject(parser);
+        final Mention mention = new Mention();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "id": {
+                    mention.user.idAsLong(readSnowflake(parser));
+                    break;
+                }
+                case "username": {
+                    mention.user.username(readString(parser));
+                    break;
+                }
+                case "discriminator": {
+                    mention.user.discriminator(readString(parser));
+                    break;
+                }
+                case "avatar": {
+                    mention.user.avatar(readString(parser));
+                    break;
+                }
+                case "bot": {
+                    mention.user.bot(readBoolean(parser, false));
+                    break;
+                }
+                case "member": {
+                    mention.member = readMember(parser);
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return mention;
+    }
+    
+    private void readClientStatus(@Nonnull final JsonParser parser, @Nonnull final PresenceImpl presence) throws IOException {
+        if(parser.currentToken() == JsonToken.VALUE_NULL) {
+            return;
+        }
+        startObject(parser);
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            final String value = readString(parser);
+            final OnlineStatus status = value == null ? null : OnlineStatus.fromString(value);
+            switch(field) {
+                case "mobile": {
+                    presence.mobileStatus(status);
+                    break;
+                }
+                case "web": {
+                    presence.webStatus(status);
+                    break;
+                }
+                case "desktop": {
+                    presence.desktopStatus(status);
+                    break;
+                }
+                default: {
+                    break;
+                }
+            }
+        }
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    private static ActivityTimestamps readTimestamps(@Nonnull final JsonParser parser) throws IOException {
+        if(parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        startObject(parser);
+        final ActivityTimestampsImpl timestamps = new ActivityTimestampsImpl(-1L, -1L);
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "start": {
+                    timestamps.start(readTimestamp(parser));
+                    break;
+                }
+                case "end": {
+                    timestamps.end(readTimestamp(parser));
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return timestamps;
+    }
+    
+    /**
+     * Activity timestamps are user-provided, and integers over 53 bits get
+     * serialized as strings, so both forms have to be accepted here. See
+     * {@link EntityBuilder#createTimestamps(io.vertx.core.json.JsonObject)}.
+     */
+    @CheckReturnValue
+    private static long readTimestamp(@Nonnull final JsonParser parser) throws IOException {
+        final JsonToken token = parser.currentToken();
+        if(token == JsonToken.VALUE_STRING) {
+            return Long.parseLong(parser.getText());
+        }
+        return readLong(parser, -1L);
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    private static ActivityParty readParty(@Nonnull final JsonParser parser) throws IOException {
+        if(parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        startObject(parser);
+        // Initialized to -1 if doesn't exist
+        final ActivityPartyImpl party = new ActivityPartyImpl(null, -1, -1);
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "id": {
+                    party.id(readString(parser));
+                    break;
+                }
+                case "size": {
+                    // [current, max]
+                    if(parser.currentToken() == JsonToken.START_ARRAY) {
+                        int index = 0;
+                        while(parser.nextToken() != JsonToken.END_ARRAY) {
+                            if(index == 0) {
+                                party.currentSize(parser.getIntValue());
+                            } else if(index == 1) {
+                                party.maxSize(parser.getIntValue());
+                            }
+                            parser.skipChildren();
+                            index++;
+                        }
+                    }
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return party;
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    private static ActivityAssets readAssets(@Nonnull final JsonParser parser) throws IOException {
+        if(parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        startObject(parser);
+        final ActivityAssetsImpl assets = new ActivityAssetsImpl();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "large_image": {
+                    assets.largeImage(readString(parser));
+                    break;
+                }
+                case "large_text": {
+                    assets.largeText(readString(parser));
+                    break;
+                }
+                case "small_image": {
+                    assets.smallImage(readString(parser));
+                    break;
+                }
+                case "small_text": {
+                    assets.smallText(readString(parser));
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return assets;
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    private static ActivitySecrets readSecrets(@Nonnull final JsonParser parser) throws IOException {
+        if(parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        startObject(parser);
+        final ActivitySecretsImpl secrets = new ActivitySecretsImpl();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "join": {
+                    secrets.join(readString(parser));
+                    break;
+                }
+                case "spectate": {
+                    secrets.spectate(readString(parser));
+                    break;
+                }
+                case "match": {
+                    secrets.match(readString(parser));
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return secrets;
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    private static Footer readFooter(@Nonnull final JsonParser parser) throws IOException {
+        if(parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        startObject(parser);
+        boolean valid = false;
+        final FooterImpl footer = new FooterImpl();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "text": {
+                    valid = true;
+                    footer.text(readString(parser));
+                    break;
+                }
+                case "icon_url": {
+                    footer.iconUrl(readString(parser));
+                    break;
+                }
+                case "proxy_icon_url": {
+                    footer.proxyIconUrl(readString(parser));
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return valid ? footer : null;
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    private static Image readImage(@Nonnull final JsonParser parser) throws IOException {
+        if(parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        startObject(parser);
+        boolean valid = false;
+        final ImageImpl image = new ImageImpl(null, null, -1, -1);
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "url": {
+                    valid = true;
+                    image.url(readString(parser));
+                    break;
+                }
+                case "proxy_url": {
+                    image.proxyUrl(readString(parser));
+                    break;
+                }
+                case "height": {
+                    image.height(readInt(parser, -1));
+                    break;
+                }
+                case "width": {
+                    image.width(readInt(parser, -1));
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return valid ? image : null;
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    private static Thumbnail readThumbnail(@Nonnull final JsonParser parser) throws IOException {
+        if(parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        startObject(parser);
+        boolean valid = false;
+        final ThumbnailImpl thumbnail = new ThumbnailImpl(null, null, -1, -1);
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "url": {
+                    valid = true;
+                    thumbnail.url(readString(parser));
+                    break;
+                }
+                case "proxy_url": {
+                    thumbnail.proxyUrl(readString(parser));
+                    break;
+                }
+                case "height": {
+                    thumbnail.height(readInt(parser, -1));
+                    break;
+                }
+                case "width": {
+                    thumbnail.width(readInt(parser, -1));
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return valid ? thumbnail : null;
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    private static Video readVideo(@Nonnull final JsonParser parser) throws IOException {
+        if(parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        startObject(parser);
+        boolean valid = false;
+        final VideoImpl video = new VideoImpl(null, -1, -1);
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "url": {
+                    valid = true;
+                    video.url(readString(parser));
+                    break;
+                }
+                case "height": {
+                    video.height(readInt(parser, -1));
+                    break;
+                }
+                case "width": {
+                    video.width(readInt(parser, -1));
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return valid ? video : null;
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    private static Provider readProvider(@Nonnull final JsonParser parser) throws IOException {
+        if(parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        startObject(parser);
+        boolean valid = false;
+        final ProviderImpl provider = new ProviderImpl();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "name": {
+                    provider.name(readString(parser));
+                    break;
+                }
+                case "url": {
+                    valid = true;
+                    provider.url(readString(parser));
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return valid ? provider : null;
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    private static Author readAuthor(@Nonnull final JsonParser parser) throws IOException {
+        if(parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        startObject(parser);
+        boolean valid = false;
+        final AuthorImpl author = new AuthorImpl();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "name": {
+                    valid = true;
+                    author.name(readString(parser));
+                    break;
+                }
+                case "url": {
+                    author.url(readString(parser));
+                    break;
+                }
+                case "icon_url": {
+                    author.iconUrl(readString(parser));
+                    break;
+                }
+                case "proxy_icon_url": {
+                    author.proxyIconUrl(readString(parser));
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return valid ? author : null;
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    private static FieldImpl readField(@Nonnull final JsonParser parser) throws IOException {
+        startObject(parser);
+        final FieldImpl embedField = new FieldImpl();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch(field) {
+                case "name": {
+                    embedField.name(readString(parser));
+                    break;
+                }
+                case "value": {
+                    embedField.value(readString(parser));
+                    break;
+                }
+                case "inline": {
+                    embedField.inline(readBoolean(parser, false));
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+        return embedField;
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    private static <T> T parse(@Nonnull final Buffer buffer, @Nonnull final ParserFunction<T> function) {
+        try(final JsonParser parser = JsonUtil.createParser(buffer)) {
+            return function.apply(parser);
+        } catch(final IOException e) {
+            throw new DecodeException("Failed to decode: " + e.getMessage());
+        }
+    }
+    
+    private static <T> void streamArray(@Nonnull final JsonParser parser, final int batchSize,
+                                        @Nonnull final ParserFunction<T> function,
+                                        @Nonnull final Consumer<List<T>> sink) throws IOException {
+        List<T> batch = new ArrayList<>(batchSize);
+        while(parser.nextToken() != JsonToken.END_ARRAY) {
+            batch.add(function.apply(parser));
+            if(batch.size() >= batchSize) {
+                sink.accept(batch);
+                // The cache worker may hang onto the batch, so don't reuse it
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if(!batch.isEmpty()) {
+            sink.accept(batch);
+        }
+    }
+    
+    @CheckReturnValue
+    private static long readUserId(@Nonnull final JsonParser parser) throws IOException {
+        long id = 0;
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            if("id".equals(field)) {
+                id = readSnowflake(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return id;
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    @SuppressWarnings("unchecked")
+    private static JsonObject readObject(@Nonnull final JsonParser parser) throws IOException {
+        startObject(parser);
+        return new JsonObject((Map<String, Object>) parser.readValueAs(Map.class));
+    }
+    
+    private static void startObject(@Nonnull final JsonParser parser) throws IOException {
+        final JsonToken token = parser.currentToken() == null ? parser.nextToken() : parser.currentToken();
+        if(token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected an object, but found " + token);
+        }
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    private static String readString(@Nonnull final JsonParser parser) throws IOException {
+        return parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.getText();
+    }
+    
+    @CheckReturnValue
+    private static int readInt(@Nonnull final JsonParser parser, final int defaultValue) throws IOException {
+        return parser.currentToken() == JsonToken.VALUE_NULL ? defaultValue : parser.getIntValue();
+    }
+    
+    @CheckReturnValue
+    private static long readLong(@Nonnull final JsonParser parser, final long defaultValue) throws IOException {
+        return parser.currentToken() == JsonToken.VALUE_NULL ? defaultValue : parser.getLongValue();
+    }
+    
+    @CheckReturnValue
+    private static boolean readBoolean(@Nonnull final JsonParser parser, final boolean defaultValue) throws IOException {
+        return parser.currentToken() == JsonToken.VALUE_NULL ? defaultValue : parser.getBooleanValue();
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    private static <T> List<T> readList(@Nonnull final JsonParser parser, @Nonnull final ParserFunction<T> function) throws IOException {
+        if(parser.currentToken() == JsonToken.VALUE_NULL) {
+            return Collections.emptyList();
+        }
+        if(parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "Expected an array, but found " + parser.currentToken());
+        }
+        final List<T> ret = new ArrayList<>();
+        while(parser.nextToken() != JsonToken.END_ARRAY) {
+            ret.add(function.apply(parser));
+        }
+        return Collections.unmodifiableList(ret);
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    private static List<String> readStringList(@Nonnull final JsonParser parser) throws IOException {
+        return readList(parser, JsonParser::getText);
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    private static Set<String> readStringSet(@Nonnull final JsonParser parser) throws IOException {
+        if(parser.currentToken() == JsonToken.VALUE_NULL) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(new HashSet<>(readStringList(parser)));
+    }
+    
+    /**
+     * The collections cut out of a {@code GUILD_CREATE} by
+     * {@link #sliceGuildCreate(Buffer)}. They're kept as the raw bytes of
+     * each array, and only parsed once they're actually cached.
+     */
+    public static final class RawGuildCollections {
+        private final Map<String, Buffer> arrays = new LinkedHashMap<>();
+        
+        private RawGuildCollections() {
+        }
+        
+        /**
+         * @return The names of the collections that were cut out.
+         */
+        @Nonnull
+        @CheckReturnValue
+        public Set<String> names() {
+            return Collections.unmodifiableSet(arrays.keySet());
+        }
+    }
+    
+    @FunctionalInterface
+    private interface ParserFunction<T> {
+        T apply(JsonParser parser) throws IOException;
+    }
+    
+    private final class Mention {
+        private final UserImpl user = UserImpl.builder().catnip(catnip).build();
+        private PendingMember member;
+    }
+    
+    /**
+     * A member whose guild (and possibly id) isn't known until the enclosing
+     * object has been fully read.
+     */
+    private final class PendingMember {
+        private UserImpl user;
+        private String nick;
+        private Set<String> roleIds = Collections.emptySet();
+        private String joinedAt;
+        private boolean deaf;
+        private boolean mute;
+        
+        @Nonnull
+        private Member finish(final long guildId, final long id) {
+            if(user != null) {
+                catnip.cacheWorker().bulkCacheUsers(
+                        (int) ((guildId >> 22) % catnip.shardManager().shardCount()),
+                        Collections.singletonList(user));
+            }
+            return build(guildId, id);
+        }
+        
+        /**
+         * Builds the member without caching its user.
+         */
+        @Nonnull
+        private Member build(final long guildId, final long id) {
+            String joined = joinedAt;
+            if(joined == null) {
+                // This will only happen during GUILD_MEMBER_REMOVE afaik, but is this the right solution?
+                final Member cachedMember = catnip.cache().member(guildId, id);
+                if(cachedMember != null && cachedMember.joinedAt() != null) {
+                    //noinspection ConstantConditions
+                    joined = cachedMember.joinedAt().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+                }
+            }
+            return MemberImpl.builder()
+                    .catnip(catnip)
+                    .idAsLong(id)
+                    .guildIdAsLong(guildId)
+                    .nick(nick)
+                    .roleIds(roleIds)
+                    .joinedAt(joined)
+                    .deaf(deaf)
+                    .mute(mute)
+                    .build();
+        }
+    }
+}
@@ -49,7 +49,7 @@ import java.util.Objects;
  */
 @Getter(onMethod_ = @JsonProperty)
 @Setter(onMethod_ = @JsonProperty)
-@Builder
+@Builder(toBuilder = true)
 @Accessors(fluent = true)
 @NoArgsConstructor
 @AllArgsConstructor
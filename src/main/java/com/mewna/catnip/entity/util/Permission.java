@@ -115,7 +115,17 @@ public enum Permission {
         return result;
     }
     
+    /**
+     * @param permissions The permission bitfield to check.
+     * @param mask        The permissions that are needed, as a bitfield.
+     *
+     * @return Whether or not every permission in {@code mask} is present.
+     */
+    public static boolean has(final long permissions, final long mask) {
+        return (permissions & mask) == mask;
+    }
+    
     public boolean isPresent(final long permissions) {
-        return (permissions & value) == value;
+        return has(permissions, value);
     }
 }
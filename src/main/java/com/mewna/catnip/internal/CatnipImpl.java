@@ -32,6 +32,7 @@ import com.mewna.catnip.Catnip;
 import com.mewna.catnip.CatnipOptions;
 import com.mewna.catnip.cache.CacheFlag;
 import com.mewna.catnip.cache.EntityCacheWorker;
+import com.mewna.catnip.cache.MessageCache;
 import com.mewna.catnip.entity.Entity;
 import com.mewna.catnip.entity.impl.*;
 import com.mewna.catnip.entity.impl.PresenceImpl.ActivityImpl;
@@ -49,6 +50,7 @@ import com.mewna.catnip.rest.Rest;
 import com.mewna.catnip.rest.requester.Requester;
 import com.mewna.catnip.shard.*;
 import com.mewna.catnip.shard.buffer.EventBuffer;
+import com.mewna.catnip.shard.event.DiffPair;
 import com.mewna.catnip.shard.event.DispatchManager;
 import com.mewna.catnip.shard.manager.ShardManager;
 import com.mewna.catnip.shard.ratelimit.Ratelimiter;
@@ -61,6 +63,7 @@ import com.mewna.catnip.util.logging.LogAdapter;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import lombok.Getter;
 import lombok.experimental.Accessors;
@@ -116,6 +119,11 @@ public class CatnipImpl implements Catnip {
     private boolean logUncachedPresenceWhenNotChunking;
     private boolean warnOnEntityVersionMismatch;
     private long memberChunkTimeout;
+    private int streamingGuildCreateThreshold;
+    private int streamingGuildCreateBatchSize;
+    private int cacheUpdateThreads;
+    private boolean awaitCacheUpdates;
+    private MessageCache messageCache;
     private Presence initialPresence;
     private Set<String> disabledEvents;
     private CatnipOptions options;
@@ -148,6 +156,11 @@ public class CatnipImpl implements Catnip {
         captureRestStacktraces = options.captureRestStacktraces();
         initialPresence = options.presence();
         memberChunkTimeout = options.memberChunkTimeout();
+        streamingGuildCreateThreshold = options.streamingGuildCreateThreshold();
+        streamingGuildCreateBatchSize = options.streamingGuildCreateBatchSize();
+        cacheUpdateThreads = options.cacheUpdateThreads();
+        awaitCacheUpdates = options.awaitCacheUpdates();
+        messageCache = options.messageCache();
         disabledEvents = ImmutableSet.copyOf(options.disabledEvents());
         logUncachedPresenceWhenNotChunking = options.logUncachedPresenceWhenNotChunking();
         warnOnEntityVersionMismatch = options.warnOnEntityVersionMismatch();
@@ -232,6 +245,7 @@ public class CatnipImpl implements Catnip {
     @Override
     public void shutdown(final boolean vertx) {
         shardManager.shutdown();
+        cache.shutdown();
         if(vertx) {
             this.vertx.close();
         }
@@ -293,6 +307,15 @@ public class CatnipImpl implements Catnip {
                                 .put("limit", limit)));
     }
     
+    @Override
+    public void chunkMembers(@Nonnull final String guildId, @Nonnull final Collection<String> userIds) {
+        eventBus().send(computeAddress(WEBSOCKET_QUEUE, shardIdFor(guildId)),
+                CatnipShard.basePayload(GatewayOp.REQUEST_GUILD_MEMBERS,
+                        new JsonObject()
+                                .put("guild_id", guildId)
+                                .put("user_ids", new JsonArray(new ArrayList<>(userIds)))));
+    }
+    
     @Override
     public CompletionStage<Presence> presence(@Nonnegative final int shardId) {
         final Future<Presence> future = Future.future();
@@ -385,6 +408,9 @@ public class CatnipImpl implements Catnip {
         shardManager.catnip(this);
         eventBuffer.catnip(this);
         cache.catnip(this);
+        if(messageCache != null) {
+            messageCache.catnip(this);
+        }
         requester.catnip(this);
     }
     
@@ -405,8 +431,9 @@ public class CatnipImpl implements Catnip {
             entityCodec(ResumedImpl.class);
             eventCodec(LifecycleState.class);
             
-            // DoubleEvents use ImmutablePair
+            // DoubleEvents use ImmutablePair, update events use DiffPair
             eventCodec(ImmutablePair.class);
+            eventCodec(DiffPair.class);
             
             // Messages
             entityCodec(MessageImpl.class);
@@ -28,7 +28,9 @@
 package com.mewna.catnip.shard;
 
 import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.MemoryEntityCache;
 import com.mewna.catnip.entity.impl.PresenceImpl;
+import com.mewna.catnip.entity.impl.StreamingEntityBuilder;
 import com.mewna.catnip.entity.misc.GatewayInfo;
 import com.mewna.catnip.entity.user.Presence;
 import com.mewna.catnip.extension.Extension;
@@ -330,7 +332,7 @@ public class CatnipShard extends AbstractVerticle {
                         r += read;
                     }
                 }
-                handleSocketData(decompressed.toJsonObject());
+                handleSocketData(decodePayload(decompressed));
             } catch(final IOException e) {
                 catnip.logAdapter().error("Shard {}/{}: Error decompressing payload", id, limit, e);
                 stateReply(ShardConnectState.FAILED);
@@ -340,6 +342,19 @@ public class CatnipShard extends AbstractVerticle {
         }
     }
     
+    private JsonObject decodePayload(final Buffer decompressed) {
+        final int threshold = catnip.streamingGuildCreateThreshold();
+        if(threshold > 0 && decompressed.length() >= threshold && catnip.cacheWorker() instanceof MemoryEntityCache) {
+            // Huge guilds can be hundreds of MBs once turned into a tree, so
+            // we cut their collections out and let the cache stream them in
+            final JsonObject payload = StreamingEntityBuilder.sliceGuildCreate(decompressed);
+            if(payload != null) {
+                return payload;
+            }
+        }
+        return decompressed.toJsonObject();
+    }
+    
     private void handleSocketFrame(final WebSocketFrame frame) {
         try {
             if(frame.isText()) {
@@ -75,6 +75,8 @@ public interface DiscordEvent {
     EventType<MessageEmbedUpdate>             MESSAGE_EMBEDS_UPDATE       = event(Raw.MESSAGE_EMBEDS_UPDATE, MessageEmbedUpdate.class);
     EventType<DeletedMessage>                 MESSAGE_DELETE              = event(Raw.MESSAGE_DELETE, DeletedMessage.class);
     EventType<BulkDeletedMessages>            MESSAGE_DELETE_BULK         = event(Raw.MESSAGE_DELETE_BULK, BulkDeletedMessages.class);
+    DoubleEventType<Message, Message>         CACHED_MESSAGE_UPDATE       = doubleEvent(Raw.CACHED_MESSAGE_UPDATE, Message.class, Message.class);
+    DoubleEventType<Message, DeletedMessage>  CACHED_MESSAGE_DELETE       = doubleEvent(Raw.CACHED_MESSAGE_DELETE, Message.class, DeletedMessage.class);
     EventType<String>                         GUILD_INTEGRATIONS_UPDATE   = event(Raw.GUILD_INTEGRATIONS_UPDATE, String.class);
     EventType<GatewayGuildBan>                GUILD_BAN_ADD               = event(Raw.GUILD_BAN_ADD, GatewayGuildBan.class);
     EventType<GatewayGuildBan>                GUILD_BAN_REMOVE            = event(Raw.GUILD_BAN_REMOVE, GatewayGuildBan.class);
@@ -129,6 +131,20 @@ public interface DiscordEvent {
          * when it almost-always won't be null.
          */
         String MESSAGE_EMBEDS_UPDATE        = "MESSAGE_EMBEDS_UPDATE";
+        /**
+         * Emitted after MESSAGE_UPDATE when a
+         * {@link com.mewna.catnip.cache.MessageCache message cache} is set,
+         * with the cached version of the message from before the edit. Only
+         * emitted if the message was cached.
+         */
+        String CACHED_MESSAGE_UPDATE        = "CACHED_MESSAGE_UPDATE";
+        /**
+         * Emitted after MESSAGE_DELETE when a
+         * {@link com.mewna.catnip.cache.MessageCache message cache} is set,
+         * with the cached version of the deleted message. Only emitted if the
+         * message was cached.
+         */
+        String CACHED_MESSAGE_DELETE        = "CACHED_MESSAGE_DELETE";
         String GUILD_BAN_ADD                = "GUILD_BAN_ADD";
         String GUILD_BAN_REMOVE             = "GUILD_BAN_REMOVE";
         String MESSAGE_REACTION_ADD         = "MESSAGE_REACTION_ADD";
@@ -28,22 +28,30 @@
 package com.mewna.catnip.shard;
 
 import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.MessageCache;
 import com.mewna.catnip.entity.Snowflake;
+import com.mewna.catnip.entity.channel.Channel;
+import com.mewna.catnip.entity.diff.*;
 import com.mewna.catnip.entity.guild.Guild;
 import com.mewna.catnip.entity.guild.PartialMember;
 import com.mewna.catnip.entity.guild.Role;
 import com.mewna.catnip.entity.impl.EntityBuilder;
+import com.mewna.catnip.entity.message.BulkDeletedMessages;
+import com.mewna.catnip.entity.message.DeletedMessage;
+import com.mewna.catnip.entity.message.Message;
 import com.mewna.catnip.entity.misc.Ready;
 import com.mewna.catnip.entity.misc.Resumed;
 import com.mewna.catnip.entity.user.Presence.OnlineStatus;
 import com.mewna.catnip.entity.user.PresenceUpdate;
 import com.mewna.catnip.entity.user.User;
 import com.mewna.catnip.internal.CatnipImpl;
+import com.mewna.catnip.shard.event.DiffPair;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import static com.mewna.catnip.shard.DiscordEvent.Raw;
 
@@ -102,7 +110,12 @@ public final class DispatchEmitter {
             
             // Messages
             case Raw.MESSAGE_CREATE: {
-                catnip.dispatchManager().dispatchEvent(type, entityBuilder.createMessage(data));
+                final Message message = entityBuilder.createMessage(data);
+                final MessageCache messages = catnip.messageCache();
+                if(messages != null) {
+                    messages.put(message);
+                }
+                catnip.dispatchManager().dispatchEvent(type, message);
                 break;
             }
             case Raw.MESSAGE_UPDATE: {
@@ -111,16 +124,35 @@ public final class DispatchEmitter {
                     catnip.dispatchManager().dispatchEvent(Raw.MESSAGE_EMBEDS_UPDATE,
                             entityBuilder.createMessageEmbedUpdate(data));
                 } else {
-                    catnip.dispatchManager().dispatchEvent(type, entityBuilder.createMessage(data));
+                    final Message message = entityBuilder.createMessage(data);
+                    catnip.dispatchManager().dispatchEvent(type, message);
+                    final MessageCache messages = catnip.messageCache();
+                    final Message old = messages == null ? null : messages.put(message);
+                    if(old != null) {
+                        dispatchCached(Raw.CACHED_MESSAGE_UPDATE, ImmutablePair.of(old, message));
+                    }
                 }
                 break;
             }
             case Raw.MESSAGE_DELETE: {
-                catnip.dispatchManager().dispatchEvent(type, entityBuilder.createDeletedMessage(data));
+                final DeletedMessage deleted = entityBuilder.createDeletedMessage(data);
+                catnip.dispatchManager().dispatchEvent(type, deleted);
+                final MessageCache messages = catnip.messageCache();
+                final Message old = messages == null ? null : messages.remove(deleted.channelIdAsLong(), deleted.idAsLong());
+                if(old != null) {
+                    dispatchCached(Raw.CACHED_MESSAGE_DELETE, ImmutablePair.of(old, deleted));
+                }
                 break;
             }
             case Raw.MESSAGE_DELETE_BULK: {
-                catnip.dispatchManager().dispatchEvent(type, entityBuilder.createBulkDeletedMessages(data));
+                final BulkDeletedMessages deleted = entityBuilder.createBulkDeletedMessages(data);
+                final MessageCache messages = catnip.messageCache();
+                if(messages != null) {
+                    for(final String id : deleted.ids()) {
+                        messages.remove(deleted.channelIdAsLong(), Long.parseUnsignedLong(id));
+                    }
+                }
+                catnip.dispatchManager().dispatchEvent(type, deleted);
                 break;
             }
             case Raw.TYPING_START: {
@@ -150,7 +182,12 @@ public final class DispatchEmitter {
                 break;
             }
             case Raw.CHANNEL_DELETE: {
-                catnip.dispatchManager().dispatchEvent(type, entityBuilder.createChannel(data));
+                final Channel channel = entityBuilder.createChannel(data);
+                final MessageCache messages = catnip.messageCache();
+                if(messages != null) {
+                    messages.removeChannel(channel.idAsLong());
+                }
+                catnip.dispatchManager().dispatchEvent(type, channel);
                 break;
             }
             case Raw.CHANNEL_PINS_UPDATE: {
@@ -176,13 +213,16 @@ public final class DispatchEmitter {
             }
             case Raw.GUILD_UPDATE: {
                 final Guild guild = entityBuilder.createGuild(data);
-                catnip.cache().guildAsync(guild.idAsLong())
-                        .thenAccept(old -> catnip.dispatchManager()
-                        .dispatchEvent(type, ImmutablePair.of(old, guild)))
-                        .exceptionally(e -> {
-                            cacheErrorLog(type, e);
-                            return null;
-                        });
+                if(catnip.cache().synchronous()) {
+                    dispatchDiff(type, catnip.cache().guild(guild.idAsLong()), guild, GuildField.class);
+                } else {
+                    catnip.cache().guildAsync(guild.idAsLong())
+                            .thenAccept(old -> dispatchDiff(type, old, guild, GuildField.class))
+                            .exceptionally(e -> {
+                                cacheErrorLog(type, e);
+                                return null;
+                            });
+                }
                 break;
             }
             case Raw.GUILD_DELETE: {
@@ -191,7 +231,12 @@ public final class DispatchEmitter {
                     ((CatnipImpl) catnip).markUnavailable(id);
                     catnip.dispatchManager().dispatchEvent(Raw.GUILD_UNAVAILABLE, entityBuilder.createUnavailableGuild(data));
                 } else {
-                    catnip.dispatchManager().dispatchEvent(type, entityBuilder.createGuild(data));
+                    final Guild guild = entityBuilder.createGuild(data);
+                    final MessageCache messages = catnip.messageCache();
+                    if(messages != null) {
+                        messages.removeGuild(guild.idAsLong());
+                    }
+                    catnip.dispatchManager().dispatchEvent(type, guild);
                 }
                 break;
             }
@@ -216,13 +261,16 @@ public final class DispatchEmitter {
             }
             case Raw.GUILD_ROLE_UPDATE: {
                 final Role role = entityBuilder.createRole(data.getString("guild_id"), data.getJsonObject("role"));
-                catnip.cache().roleAsync(role.guildIdAsLong(), role.idAsLong())
-                        .thenAccept(old -> catnip.dispatchManager()
-                        .dispatchEvent(type, ImmutablePair.of(old, role)))
-                        .exceptionally(e -> {
-                            cacheErrorLog(type, e);
-                            return null;
-                        });
+                if(catnip.cache().synchronous()) {
+                    dispatchDiff(type, catnip.cache().role(role.guildIdAsLong(), role.idAsLong()), role, RoleField.class);
+                } else {
+                    catnip.cache().roleAsync(role.guildIdAsLong(), role.idAsLong())
+                            .thenAccept(old -> dispatchDiff(type, old, role, RoleField.class))
+                            .exceptionally(e -> {
+                                cacheErrorLog(type, e);
+                                return null;
+                            });
+                }
                 break;
             }
             case Raw.GUILD_ROLE_DELETE: {
@@ -249,26 +297,33 @@ public final class DispatchEmitter {
             case Raw.GUILD_MEMBER_UPDATE: {
                 final String guild = data.getString("guild_id");
                 final PartialMember partialMember = entityBuilder.createPartialMember(guild, data);
-                catnip.cache().memberAsync(partialMember.guildIdAsLong(), partialMember.idAsLong())
-                        .thenAccept(old -> catnip.dispatchManager()
-                                .dispatchEvent(type, ImmutablePair.of(old, partialMember)))
-                        .exceptionally(e -> {
-                            cacheErrorLog(type, e);
-                            return null;
-                        });
+                if(catnip.cache().synchronous()) {
+                    dispatchDiff(type, catnip.cache().member(partialMember.guildIdAsLong(), partialMember.idAsLong()),
+                            partialMember, MemberField.class);
+                } else {
+                    catnip.cache().memberAsync(partialMember.guildIdAsLong(), partialMember.idAsLong())
+                            .thenAccept(old -> dispatchDiff(type, old, partialMember, MemberField.class))
+                            .exceptionally(e -> {
+                                cacheErrorLog(type, e);
+                                return null;
+                            });
+                }
                 break;
             }
             
             // Users
             case Raw.USER_UPDATE: {
                 final User user = entityBuilder.createUser(data);
-                catnip.cache().selfUserAsync()
-                        .thenAccept(old -> catnip.dispatchManager()
-                                .dispatchEvent(type, ImmutablePair.of(old, user)))
-                        .exceptionally(e -> {
-                            cacheErrorLog(type, e);
-                            return null;
-                        });
+                if(catnip.cache().synchronous()) {
+                    dispatchDiff(type, catnip.cache().selfUser(), user, UserField.class);
+                } else {
+                    catnip.cache().selfUserAsync()
+                            .thenAccept(old -> dispatchDiff(type, old, user, UserField.class))
+                            .exceptionally(e -> {
+                                cacheErrorLog(type, e);
+                                return null;
+                            });
+                }
                 break;
             }
             case Raw.PRESENCE_UPDATE: {
@@ -280,13 +335,16 @@ public final class DispatchEmitter {
                             "but we should never get this. If you report this to Discord, include the following " +
                             "JSON in your report:\n{}", clone.encodePrettily());
                 }
-                catnip.cache().presenceAsync(presence.idAsLong())
-                        .thenAccept(old -> catnip.dispatchManager()
-                        .dispatchEvent(type, ImmutablePair.of(old, presence)))
-                        .exceptionally(e -> {
-                            cacheErrorLog(type, e);
-                            return null;
-                        });
+                if(catnip.cache().synchronous()) {
+                    dispatchDiff(type, catnip.cache().presence(presence.idAsLong()), presence, PresenceField.class);
+                } else {
+                    catnip.cache().presenceAsync(presence.idAsLong())
+                            .thenAccept(old -> dispatchDiff(type, old, presence, PresenceField.class))
+                            .exceptionally(e -> {
+                                cacheErrorLog(type, e);
+                                return null;
+                            });
+                }
                 break;
             }
             
@@ -320,6 +378,24 @@ public final class DispatchEmitter {
         }
     }
     
+    private void dispatchCached(@Nonnull final String type, @Nonnull final Object payload) {
+        // These aren't gateway events, so emit() never checked them
+        if(!catnip.disabledEvents().contains(type)) {
+            catnip.dispatchManager().dispatchEvent(type, payload);
+        }
+    }
+    
+    /**
+     * Dispatches an update event, as a pair of the cached entity it replaces
+     * and the updated one, along with the differences between them.
+     */
+    private <L, R, F extends Enum<F> & DiffField<? super L, ? super R>> void dispatchDiff(final String type,
+                                                                                           @Nullable final L old,
+                                                                                           @Nonnull final R updated,
+                                                                                           @Nonnull final Class<F> fields) {
+        catnip.dispatchManager().dispatchEvent(type, DiffPair.of(old, updated, EntityDiff.compute(fields, old, updated)));
+    }
+    
     private void cacheErrorLog(final String eventType, final Throwable e) {
         catnip.logAdapter().error("Couldn't fetch previous entity from cache for update event {}:", eventType, e);
     }
@@ -28,6 +28,7 @@
 package com.mewna.catnip.shard.buffer;
 
 import com.google.common.collect.ImmutableSet;
+import com.mewna.catnip.entity.impl.StreamingEntityBuilder;
 import com.mewna.catnip.util.JsonUtil;
 import io.vertx.core.Future;
 import io.vertx.core.json.JsonObject;
@@ -73,7 +74,9 @@ public class CachingBuffer extends AbstractBuffer {
             // Users
             Raw.USER_UPDATE, Raw.PRESENCE_UPDATE,
             // Voice
-            Raw.VOICE_STATE_UPDATE
+            Raw.VOICE_STATE_UPDATE,
+            // Messages, for caches that cache the members that send them
+            Raw.MESSAGE_CREATE
     );
     
     private static final Set<String> DELETE_EVENTS = ImmutableSet.of(
@@ -87,6 +90,19 @@ public class CachingBuffer extends AbstractBuffer {
             Raw.GUILD_MEMBER_REMOVE
     );
     
+    // Dispatched with the cached entity they replace, so they have to be
+    // emitted before they're cached
+    private static final Set<String> DIFFED_EVENTS = ImmutableSet.of(
+            // Guilds
+            Raw.GUILD_UPDATE,
+            // Roles
+            Raw.GUILD_ROLE_UPDATE,
+            // Members
+            Raw.GUILD_MEMBER_UPDATE,
+            // Users
+            Raw.USER_UPDATE, Raw.PRESENCE_UPDATE
+    );
+    
     private final Map<Integer, BufferState> buffers = new ConcurrentHashMap<>();
     
     @Override
@@ -140,6 +156,9 @@ public class CachingBuffer extends AbstractBuffer {
         // Make sure to cache guild
         // This will always succeed unless something goes horribly wrong
         maybeCache(Raw.GUILD_CREATE, shardId, payloadData).setHandler(_res -> {
+            // The cache worker consumes a streamed guild's raw collections,
+            // but if caching failed they'd otherwise be buffered and emitted
+            payloadData.remove(StreamingEntityBuilder.RAW_GUILD_COLLECTIONS_KEY);
             // Add the guild to be awaited so that we can buffer members
             bufferState.awaitGuild(guild);
             
@@ -210,9 +229,11 @@ public class CachingBuffer extends AbstractBuffer {
         final JsonObject payloadData = event.getJsonObject("d");
         final String eventType = event.getString("t");
         
-        if(catnip().chunkMembers()) {
-            final String guild = payloadData.getString("guild_id");
-            cacheAndDispatch(eventType, bufferState.id(), event);
+        final String guild = payloadData.getString("guild_id");
+        cacheAndDispatch(eventType, bufferState.id(), event);
+        // Chunks can also be requested once the guild is ready, ex. by a
+        // MemberChunker, in which case nothing is waiting for them
+        if(catnip().chunkMembers() && bufferState.guildChunkCount().containsKey(guild)) {
             bufferState.acceptChunk(guild);
             if(bufferState.doneChunking(guild)) {
                 emitter().emit(bufferState.guildCreate(guild));
@@ -248,11 +269,19 @@ public class CachingBuffer extends AbstractBuffer {
     }
     
     private void cacheAndDispatch(final String type, final int id, final JsonObject event) {
-        // TODO: Cache updates are async - this is likely a race condition
-        //  Is there any reasonable way to fix this?
         final JsonObject d = event.getJsonObject("d");
-        emitter().emit(event);
-        maybeCache(type, id, d);
+        // Cache updates may be applied asynchronously, so unless we're told
+        // to wait for them, handlers may see the cache without this event.
+        // Updates for a guild are applied in order, so waiting for this one
+        // also waits for everything before it in the same guild. Deletes are
+        // still emitted first, so that handlers can look up what was deleted,
+        // as are updates, so that they're diffed against the old entity.
+        if(catnip().awaitCacheUpdates() && !DELETE_EVENTS.contains(type) && !DIFFED_EVENTS.contains(type)) {
+            maybeCache(type, id, d).setHandler(_res -> emitter().emit(event));
+        } else {
+            emitter().emit(event);
+            maybeCache(type, id, d);
+        }
     }
     
     private Future<Void> maybeCache(final String eventType, final int shardId, final JsonObject data) {
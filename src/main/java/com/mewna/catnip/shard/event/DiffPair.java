@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.shard.event;
+
+import com.mewna.catnip.entity.diff.EntityDiff;
+import org.apache.commons.lang3.tuple.Pair;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The payload of update {@link DoubleEventType}s. Behaves exactly like the
+ * {@code (old, new)} pair those events have always sent, but also carries
+ * the {@link EntityDiff} between the two, computed once before dispatch.
+ *
+ * @param <L> The type of the old entity.
+ * @param <R> The type of the new entity.
+ */
+public final class DiffPair<L, R> extends Pair<L, R> {
+    private static final long serialVersionUID = 1L;
+    
+    private final L left;
+    private final R right;
+    private final transient EntityDiff<?> diff;
+    
+    private DiffPair(@Nullable final L left, @Nonnull final R right, @Nonnull final EntityDiff<?> diff) {
+        this.left = left;
+        this.right = right;
+        this.diff = diff;
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public static <L, R> DiffPair<L, R> of(@Nullable final L left, @Nonnull final R right, @Nonnull final EntityDiff<?> diff) {
+        return new DiffPair<>(left, right, diff);
+    }
+    
+    /**
+     * Gets the diff of an update event's payload.
+     *
+     * @param pair      The payload of the event.
+     * @param fieldType The field enum of the event, ex.
+     *                  {@link com.mewna.catnip.entity.diff.PresenceField}
+     *                  for presence updates.
+     * @param <F>       The field enum type.
+     *
+     * @return The diff between the two sides of the pair.
+     *
+     * @throws IllegalArgumentException If the pair doesn't carry a diff, or
+     *                                  the diff is over a different field
+     *                                  enum.
+     */
+    @Nonnull
+    @CheckReturnValue
+    @SuppressWarnings("unchecked")
+    public static <F extends Enum<F>> EntityDiff<F> diff(@Nonnull final Pair<?, ?> pair, @Nonnull final Class<F> fieldType) {
+        if(!(pair instanceof DiffPair)) {
+            throw new IllegalArgumentException("Pair doesn't carry a diff: " + pair);
+        }
+        final EntityDiff<?> diff = ((DiffPair<?, ?>) pair).diff;
+        if(diff.fieldType() != fieldType) {
+            throw new IllegalArgumentException("Expected a diff over " + fieldType.getName() + ", but found "
+                    + diff.fieldType().getName());
+        }
+        return (EntityDiff<F>) diff;
+    }
+    
+    @Override
+    public L getLeft() {
+        return left;
+    }
+    
+    @Override
+    public R getRight() {
+        return right;
+    }
+    
+    /**
+     * @return The diff between the two sides of the pair.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public EntityDiff<?> diff() {
+        return diff;
+    }
+    
+    @Override
+    public R setValue(final R value) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -27,21 +27,198 @@
 
 package com.mewna.catnip.util;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.IOException;
 import java.util.*;
 import java.util.function.Function;
 
 public final class JsonUtil {
     public static final long MAX_SAFE_INTEGER = 9007199254740991L;
     
+    /**
+     * Any unsigned decimal with at most this many digits is guaranteed to fit
+     * in 64 bits, so we can skip overflow checks entirely for them. Every
+     * snowflake Discord has ever handed out falls into this range.
+     */
+    private static final int SAFE_SNOWFLAKE_DIGITS = 19;
+    private static final int MAX_SNOWFLAKE_DIGITS = 20;
+    
     private JsonUtil() {
     }
     
+    /**
+     * Parses a snowflake from its decimal representation. Behaves like
+     * {@link Long#parseUnsignedLong(String)}, but doesn't allocate
+     * intermediate strings for 19/20-digit values like the JDK does.
+     *
+     * @param value The snowflake to parse.
+     *
+     * @return The snowflake as an (unsigned) long.
+     *
+     * @throws NumberFormatException If the value isn't a valid snowflake.
+     */
+    @CheckReturnValue
+    public static long parseSnowflake(@Nonnull final CharSequence value) {
+        final int length = value.length();
+        checkSnowflakeLength(value, length);
+        long result = 0;
+        for(int i = 0; i < length; i++) {
+            result = accumulateSnowflake(value, result, i, length, value.charAt(i));
+        }
+        return result;
+    }
+    
+    /**
+     * Parses a snowflake from a range of characters, without creating a
+     * string for it first.
+     *
+     * @param chars  Characters to read from.
+     * @param offset Index of the first digit.
+     * @param length Number of digits.
+     *
+     * @return The snowflake as an (unsigned) long.
+     *
+     * @throws NumberFormatException If the value isn't a valid snowflake.
+     * @see #parseSnowflake(CharSequence)
+     */
+    @CheckReturnValue
+    public static long parseSnowflake(@Nonnull final char[] chars, @Nonnegative final int offset, @Nonnegative final int length) {
+        checkSnowflakeLength(null, length);
+        long result = 0;
+        for(int i = 0; i < length; i++) {
+            result = accumulateSnowflake(null, result, i, length, chars[offset + i]);
+        }
+        return result;
+    }
+    
+    /**
+     * Parses a snowflake straight from the (ASCII) bytes of a buffer, without
+     * decoding them into a string first.
+     *
+     * @param buffer Buffer to read from.
+     * @param start  Index of the first digit, inclusive.
+     * @param end    Index of the last digit, exclusive.
+     *
+     * @return The snowflake as an (unsigned) long.
+     *
+     * @throws NumberFormatException If the value isn't a valid snowflake.
+     * @see #parseSnowflake(CharSequence)
+     */
+    @CheckReturnValue
+    public static long parseSnowflake(@Nonnull final Buffer buffer, @Nonnegative final int start, @Nonnegative final int end) {
+        final int length = end - start;
+        checkSnowflakeLength(null, length);
+        long result = 0;
+        for(int i = 0; i < length; i++) {
+            result = accumulateSnowflake(null, result, i, length, (char) buffer.getByte(start + i));
+        }
+        return result;
+    }
+    
+    private static void checkSnowflakeLength(@Nullable final CharSequence value, final int length) {
+        if(length == 0 || length > MAX_SNOWFLAKE_DIGITS) {
+            throw new NumberFormatException("Malformed snowflake" + (value == null ? "" : " '" + value + '\''));
+        }
+    }
+    
+    private static long accumulateSnowflake(@Nullable final CharSequence value, final long current, final int index,
+                                            final int length, final char c) {
+        final int digit = c - '0';
+        if(digit < 0 || digit > 9) {
+            throw new NumberFormatException("Malformed snowflake" + (value == null ? "" : " '" + value + '\''));
+        }
+        if(index < SAFE_SNOWFLAKE_DIGITS) {
+            return current * 10 + digit;
+        }
+        // 20th digit, may overflow an unsigned long
+        final long next = current * 10 + digit;
+        if(Long.compareUnsigned(current, Long.divideUnsigned(-1L, 10)) > 0 || Long.compareUnsigned(next, current * 10) < 0) {
+            throw new NumberFormatException("Snowflake out of range" + (value == null ? "" : " '" + value + '\''));
+        }
+        return next;
+    }
+    
+    /**
+     * Reads a snowflake from a JSON object. Snowflakes are normally sent as
+     * strings, but numbers are accepted as well.
+     *
+     * @param object The object to read from.
+     * @param key    The key of the snowflake.
+     *
+     * @return The snowflake, or {@code 0} if the key is absent or {@code null}.
+     */
+    @CheckReturnValue
+    public static long snowflake(@Nonnull final JsonObject object, @Nonnull final String key) {
+        final Object value = object.getValue(key);
+        if(value == null) {
+            return 0;
+        }
+        if(value instanceof CharSequence) {
+            return parseSnowflake((CharSequence) value);
+        }
+        if(value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        throw new IllegalArgumentException("Expected '" + key + "' to be a snowflake, but found " + value.getClass());
+    }
+    
+    /**
+     * Reads the snowflake the parser is currently positioned at. Quoted
+     * snowflakes are parsed straight out of the parser's character buffer, so
+     * no string is ever created for them.
+     *
+     * @param parser Parser positioned at a string, number or null token.
+     *
+     * @return The snowflake, or {@code 0} if the token is {@code null}.
+     *
+     * @throws IOException If the parser fails to read the token.
+     */
+    @CheckReturnValue
+    public static long readSnowflake(@Nonnull final JsonParser parser) throws IOException {
+        final JsonToken token = parser.currentToken();
+        if(token == JsonToken.VALUE_STRING) {
+            return parseSnowflake(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        }
+        if(token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        if(token == JsonToken.VALUE_NULL) {
+            return 0;
+        }
+        throw new IllegalArgumentException("Expected a snowflake, but found " + token);
+    }
+    
+    /**
+     * Creates a streaming parser over the contents of a buffer, reusing its
+     * backing array when possible.
+     *
+     * @param buffer The buffer containing JSON data.
+     *
+     * @return A new parser. Must be closed by the caller.
+     *
+     * @throws IOException If the parser can't be created.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public static JsonParser createParser(@Nonnull final Buffer buffer) throws IOException {
+        final ByteBuf buf = buffer.getByteBuf();
+        if(buf.hasArray()) {
+            return Json.mapper.getFactory().createParser(buf.array(), buf.arrayOffset() + buf.readerIndex(), buf.readableBytes());
+        }
+        return Json.mapper.getFactory().createParser(buffer.getBytes());
+    }
+    
     /**
      * Converts all snowflakes in the passed-in {@link JsonObject} to strings.
      * This method will recursively traverse a {@code JsonObject}, looking for
@@ -30,6 +30,7 @@
 package com.mewna.catnip.util;
 
 import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.GuildSnapshot;
 import com.mewna.catnip.entity.channel.GuildChannel;
 import com.mewna.catnip.entity.guild.*;
 import com.mewna.catnip.entity.user.User;
@@ -44,16 +45,22 @@ public final class PermissionUtil {
     }
     
     private static long basePermissions(final PermissionHolder holder) {
-        final Catnip catnip = holder.catnip();
-        final Guild guild = catnip.cache().guild(holder.guildId());
-        final Role publicRole = catnip.cache().role(holder.guildId(), holder.guildId()); //Could be simplified to just Guild.role($.idAsLong()), but custom caches are a thing with nullable guilds.
+        // Read everything from one snapshot, so that a concurrent cache
+        // update can't give us a guild and roles that don't match. Caches
+        // that don't version guilds only look up the roles we ask for.
+        final GuildSnapshot snapshot = holder.catnip().cache().snapshot(holder.guildIdAsLong());
+        final Guild guild = snapshot.guild();
+        final Role publicRole = snapshot.role(holder.guildIdAsLong()); //Could be simplified to just Guild.role($.idAsLong()), but custom caches are a thing with nullable guilds.
         if(guild == null || publicRole == null || guild.ownerId().equals(holder.id())) {
             return Permission.ALL;
         }
         long permissions = publicRole.permissionsRaw();
         if(holder instanceof Member) {
-            for(final Role role : ((Member) holder).orderedRoles()) {
-                permissions |= role.permissionsRaw();
+            for(final String id : ((Member) holder).roleIds()) {
+                final Role role = snapshot.role(id);
+                if(role != null) {
+                    permissions |= role.permissionsRaw();
+                }
             }
         }
         if(Permission.ADMINISTRATOR.isPresent(permissions)) {
@@ -128,6 +135,15 @@ public final class PermissionUtil {
         return overridePermissions(basePermissions(member), member, channel);
     }
     
+    public static boolean hasPermissions(@Nonnull final PermissionHolder member, final long mask) {
+        return Permission.has(basePermissions(member), mask);
+    }
+    
+    public static boolean hasPermissions(@Nonnull final PermissionHolder member, @Nonnull final GuildChannel channel,
+                                         final long mask) {
+        return Permission.has(overridePermissions(basePermissions(member), member, channel), mask);
+    }
+    
     public static void checkPermissions(@Nonnull final Catnip catnip, @Nullable final String guildId,
                                         @Nonnull final Permission... permissions) {
         if(!catnip.enforcePermissions() || guildId == null) {
@@ -143,7 +159,7 @@ public final class PermissionUtil {
         }
         final long needed = Permission.from(permissions);
         final long actual = effectivePermissions(self);
-        if((actual & needed) != needed) {
+        if(!Permission.has(actual, needed)) {
             final long missing = needed & ~actual;
             throw new MissingPermissionException(Permission.toSet(missing));
         }
@@ -165,7 +181,7 @@ public final class PermissionUtil {
         }
         final long needed = Permission.from(permissions);
         final long actual = effectivePermissions(self, channel);
-        if((actual & needed) != needed) {
+        if(!Permission.has(actual, needed)) {
             final long missing = needed & ~actual;
             throw new MissingPermissionException(Permission.toSet(missing));
         }
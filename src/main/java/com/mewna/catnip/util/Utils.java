@@ -152,9 +152,12 @@ public final class Utils {
     @CheckReturnValue
     public static boolean startsWithIgnoreCase(@Nonnull final String str, @Nonnull final String search) {
         final int length = search.length();
-        if(length == 0 || length > str.length()) {
+        if(length == 0) {
             return true;
         }
+        if(length > str.length()) {
+            return false;
+        }
         return str.regionMatches(true, 0, search, 0, length);
     }
     
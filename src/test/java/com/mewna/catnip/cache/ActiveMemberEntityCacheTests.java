@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.entity.impl.MemberImpl;
+import com.mewna.catnip.entity.impl.RoleImpl;
+import com.mewna.catnip.shard.DiscordEvent.Raw;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+public class ActiveMemberEntityCacheTests {
+    // Guild 1 << 22 is on shard 1
+    private static final long GUILD = 1L << 22;
+    private static final long SELF = 99;
+    
+    private static JsonObject user(final long id) {
+        return new JsonObject().put("id", Long.toUnsignedString(id)).put("username", "user " + id)
+                .put("discriminator", "0001");
+    }
+    
+    private static JsonObject message(final long author, final String nick) {
+        return new JsonObject()
+                .put("id", "1234")
+                .put("guild_id", Long.toUnsignedString(GUILD))
+                .put("author", user(author))
+                .put("member", new JsonObject().put("nick", nick).put("roles", new JsonArray().add("5"))
+                        .put("joined_at", "2019-10-19T00:00:00Z").put("deaf", false).put("mute", false));
+    }
+    
+    @Test
+    public void membersAreCachedFromMessages() {
+        final ActiveMemberEntityCache cache = new ActiveMemberEntityCache();
+        CacheTestSupport.withCatnip(cache);
+        cache.updateCache(Raw.MESSAGE_CREATE, 1, message(10, "ten"));
+        
+        Assertions.assertEquals("ten", cache.member(GUILD, 10).nick());
+        Assertions.assertEquals("user 10", cache.user(10).username());
+        Assertions.assertEquals(1, cache.membersWithRole(GUILD, 5).size());
+        cache.updateCache(Raw.MESSAGE_CREATE, 1, message(10, "still ten"));
+        Assertions.assertEquals("still ten", cache.member(GUILD, 10).nick());
+    }
+    
+    @Test
+    public void otherCachesIgnoreMessages() {
+        final UnifiedMemoryEntityCache cache = new UnifiedMemoryEntityCache();
+        CacheTestSupport.withCatnip(cache);
+        cache.updateCache(Raw.MESSAGE_CREATE, 1, message(10, "ten"));
+        
+        Assertions.assertNull(cache.member(GUILD, 10));
+    }
+    
+    @Test
+    public void inactiveMembersExpire() {
+        final AtomicLong now = new AtomicLong();
+        final ActiveMemberEntityCache cache = new ActiveMemberEntityCache(10, TimeUnit.NANOSECONDS);
+        cache.memberBudget().ticker(now::get);
+        CacheTestSupport.withCatnip(cache);
+        cache.updateCache(Raw.READY, 1, new JsonObject().put("user", user(SELF)));
+        cache.bulkCacheRoles(1, Collections.singletonList(RoleImpl.builder().idAsLong(5).guildIdAsLong(GUILD)
+                .name("role").build()));
+        cache.bulkCacheMembers(1, Arrays.asList(MemberImpl.builder().idAsLong(SELF).guildIdAsLong(GUILD)
+                .roleIds(Collections.emptySet()).joinedAt("2019-10-19T00:00:00Z").build()));
+        cache.updateCache(Raw.MESSAGE_CREATE, 1, message(10, "ten"));
+        now.addAndGet(20);
+        cache.updateCache(Raw.MESSAGE_CREATE, 1, message(11, "eleven"));
+        
+        Assertions.assertNull(cache.member(GUILD, 10));
+        Assertions.assertEquals("eleven", cache.member(GUILD, 11).nick());
+        Assertions.assertEquals(Collections.singletonList(11L), cache.membersWithRole(GUILD, 5).stream()
+                .map(MemberImpl.class::cast).map(MemberImpl::idAsLong).collect(Collectors.toList()));
+        // Our own member is kept even once it expires
+        Assertions.assertNotNull(cache.member(GUILD, SELF));
+        Assertions.assertEquals(2, cache.memberBudget().expirationCount());
+    }
+    
+    @Test
+    public void usersAreDroppedWithTheirLastMember() {
+        final AtomicLong now = new AtomicLong();
+        final ActiveMemberEntityCache cache = new ActiveMemberEntityCache(10, TimeUnit.NANOSECONDS);
+        cache.memberBudget().ticker(now::get);
+        CacheTestSupport.withCatnip(cache);
+        cache.updateCache(Raw.READY, 1, new JsonObject().put("user", user(SELF)));
+        cache.updateCache(Raw.MESSAGE_CREATE, 1, message(10, "ten"));
+        cache.updateCache(Raw.MESSAGE_CREATE, 1, message(SELF, "me"));
+        now.addAndGet(5);
+        cache.updateCache(Raw.GUILD_MEMBER_ADD, 1, new JsonObject()
+                .put("guild_id", Long.toUnsignedString(GUILD + 2))
+                .put("user", user(10))
+                .put("roles", new JsonArray())
+                .put("joined_at", "2019-10-19T00:00:00Z")
+                .put("deaf", false)
+                .put("mute", false));
+        now.addAndGet(7);
+        cache.updateCache(Raw.MESSAGE_CREATE, 1, message(11, "eleven"));
+        
+        // Still a member of the second guild
+        Assertions.assertNull(cache.member(GUILD, 10));
+        Assertions.assertNotNull(cache.user(10));
+        
+        now.addAndGet(20);
+        cache.updateCache(Raw.MESSAGE_CREATE, 1, message(12, "twelve"));
+        Assertions.assertNull(cache.user(10));
+        Assertions.assertNull(cache.user(11));
+        Assertions.assertNotNull(cache.user(12));
+        // We're never dropped
+        Assertions.assertNotNull(cache.user(SELF));
+    }
+    
+    @Test
+    public void uncachedUpdatesRequestMembers() {
+        final ActiveMemberEntityCache cache = new ActiveMemberEntityCache();
+        CacheTestSupport.withCatnip(cache);
+        cache.updateCache(Raw.GUILD_MEMBER_UPDATE, 1, new JsonObject()
+                .put("guild_id", Long.toUnsignedString(GUILD))
+                .put("user", user(10))
+                .put("roles", new JsonArray()));
+        
+        Assertions.assertEquals(1, cache.chunker().pending());
+    }
+    
+    @Test
+    public void chunkerBatchesPerShard() {
+        final Catnip catnip = CacheTestSupport.catnip();
+        final MemberChunker chunker = new MemberChunker(catnip, 100);
+        chunker.request(GUILD, 10);
+        chunker.request(GUILD, Arrays.asList(10L, 11L));
+        chunker.request(3L << 22, 12);
+        Mockito.verify(catnip.vertx(), Mockito.times(1)).setTimer(Mockito.eq(100L), Mockito.any());
+        Mockito.verify(catnip, Mockito.never()).chunkMembers(Mockito.anyLong(), Mockito.anyCollection());
+        
+        chunker.flush(1);
+        Mockito.verify(catnip).chunkMembers(GUILD, new HashSet<>(Arrays.asList(10L, 11L)));
+        Mockito.verify(catnip).chunkMembers(3L << 22, Collections.singleton(12L));
+        Assertions.assertEquals(0, chunker.pending());
+    }
+    
+    @Test
+    public void chunkerSendsFullBatchesRightAway() {
+        final Catnip catnip = CacheTestSupport.catnip();
+        final MemberChunker chunker = new MemberChunker(catnip, 100);
+        final List<Long> ids = LongStream.range(0, MemberChunker.MAX_USER_IDS + 1).boxed().collect(Collectors.toList());
+        chunker.request(GUILD, ids);
+        
+        Mockito.verify(catnip).chunkMembers(Mockito.eq(GUILD), Mockito.argThat((Collection<Long> c) -> c.size() == MemberChunker.MAX_USER_IDS));
+        Assertions.assertEquals(1, chunker.pending());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.CacheFootprint.EntityType;
+import com.mewna.catnip.cache.CacheFootprint.GuildFootprint;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.impl.GuildImpl;
+import com.mewna.catnip.entity.impl.MemberImpl;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class CacheFootprintTests {
+    private static final long SMALL = 1L << 22;
+    private static final long LARGE = 3L << 22;
+    
+    private static <T extends MemoryEntityCache> T cache(final T cache) {
+        CacheTestSupport.withCatnip(cache);
+        cache.guildCache(1).put(SMALL, GuildImpl.builder().idAsLong(SMALL).name("small").build());
+        cache.guildCache(1).put(LARGE, GuildImpl.builder().idAsLong(LARGE).name("large").build());
+        cache.bulkCacheMembers(1, members(SMALL, 2));
+        cache.bulkCacheMembers(1, members(LARGE, 50));
+        return cache;
+    }
+    
+    private static List<Member> members(final long guildId, final int count) {
+        final List<Member> members = new ArrayList<>();
+        for(int i = 1; i <= count; i++) {
+            members.add(MemberImpl.builder().idAsLong(i).guildIdAsLong(guildId).nick("member " + i)
+                    .roleIds(Collections.singleton("1234")).joinedAt("2019-10-19T00:00:00Z").build());
+        }
+        return members;
+    }
+    
+    @Test
+    public void guildsAreRankedByFootprint() {
+        final CacheFootprint footprint = cache(new SplitMemoryEntityCache()).footprint();
+        
+        Assertions.assertEquals(52, footprint.count(EntityType.MEMBER));
+        Assertions.assertEquals(2, footprint.count(EntityType.GUILD));
+        Assertions.assertEquals(2, footprint.guilds().size());
+        final GuildFootprint large = footprint.topGuilds(1).get(0);
+        Assertions.assertEquals(LARGE, large.guildIdAsLong());
+        Assertions.assertEquals(50, large.count(EntityType.MEMBER));
+        Assertions.assertEquals(1, large.count(EntityType.GUILD));
+        Assertions.assertTrue(large.bytes(EntityType.MEMBER) > footprint.guild(SMALL).bytes(EntityType.MEMBER));
+        Assertions.assertEquals(footprint.bytes(EntityType.MEMBER),
+                large.bytes(EntityType.MEMBER) + footprint.guild(SMALL).bytes(EntityType.MEMBER));
+        Assertions.assertEquals(footprint.totalBytes(),
+                footprint.guilds().stream().mapToLong(GuildFootprint::totalBytes).sum());
+        Assertions.assertEquals(2, footprint.topGuilds(10).size());
+        Assertions.assertNull(footprint.guild(5L << 22));
+    }
+    
+    @Test
+    public void offHeapMembersAreExact() {
+        final OffHeapMemoryEntityCache cache = cache(new OffHeapMemoryEntityCache());
+        final CacheFootprint footprint = cache.footprint();
+        
+        Assertions.assertEquals(cache.members(LARGE).encodedBytes(),
+                footprint.guild(LARGE).bytes(EntityType.MEMBER));
+        Assertions.assertTrue(footprint.guild(LARGE).bytes(EntityType.MEMBER) > 0);
+    }
+    
+    @Test
+    public void estimatesSkipTransientFields() {
+        final Member member = members(SMALL, 1).get(0);
+        final long bare = SizeEstimator.estimate(member);
+        ((MemberImpl) member).catnip(Mockito.mock(Catnip.class));
+        
+        Assertions.assertEquals(bare, SizeEstimator.estimate(member));
+        Assertions.assertTrue(bare > SizeEstimator.estimate("member 1"));
+        Assertions.assertEquals(0, SizeEstimator.estimate(null));
+    }
+}
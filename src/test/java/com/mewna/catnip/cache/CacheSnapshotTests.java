@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.entity.guild.Guild.VerificationLevel;
+import com.mewna.catnip.entity.impl.*;
+import com.mewna.catnip.entity.user.Presence;
+import com.mewna.catnip.entity.user.Presence.OnlineStatus;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class CacheSnapshotTests {
+    // Guild 0 is on shard 0, guild 1 << 22 is on shard 1
+    private static final long FIRST_GUILD = 0;
+    private static final long SECOND_GUILD = 1L << 22;
+    
+    private static SplitMemoryEntityCache cache(final Catnip catnip) {
+        final SplitMemoryEntityCache cache = new SplitMemoryEntityCache();
+        cache.catnip(catnip);
+        return cache;
+    }
+    
+    private static MemberImpl member(final long id, final long guild) {
+        return MemberImpl.builder().idAsLong(id).guildIdAsLong(guild).nick("nick " + id)
+                .roleIds(Collections.singleton("5")).joinedAt("2019-10-19T00:00:00Z").build();
+    }
+    
+    @Test
+    public void roundTrip(@TempDir final Path dir) throws IOException {
+        final Catnip catnip = CacheTestSupport.catnip();
+        final SplitMemoryEntityCache original = cache(catnip);
+        original.guildCache(0).put(SECOND_GUILD, GuildImpl.builder().idAsLong(SECOND_GUILD).name("guild")
+                .verificationLevel(VerificationLevel.HIGH).build());
+        original.bulkCacheRoles(1, Collections.singletonList(RoleImpl.builder().idAsLong(5).guildIdAsLong(SECOND_GUILD)
+                .name("role").permissionsRaw(8).build()));
+        original.bulkCacheChannels(1, Collections.singletonList(TextChannelImpl.builder().idAsLong(6)
+                .guildIdAsLong(SECOND_GUILD).name("general").overrides(Collections.emptyList()).build()));
+        original.bulkCacheMembers(0, Collections.singletonList(member(10, FIRST_GUILD)));
+        original.bulkCacheMembers(1, Collections.singletonList(member(10, SECOND_GUILD)));
+        original.bulkCacheMembers(1, Collections.singletonList(member(11, SECOND_GUILD)));
+        original.bulkCacheUsers(0, Collections.singletonList(UserImpl.builder().idAsLong(10).username("both").build()));
+        original.bulkCacheUsers(1, Collections.singletonList(UserImpl.builder().idAsLong(11).username("second").build()));
+        final Map<String, Presence> presences = new HashMap<>();
+        presences.put("11", PresenceImpl.builder().status(OnlineStatus.DND).build());
+        original.bulkCachePresences(1, presences);
+        original.selfUser.set(UserImpl.builder().idAsLong(1).username("me").build());
+        
+        final Path path = dir.resolve("cache.bin");
+        original.writeSnapshot(path);
+        final SplitMemoryEntityCache restored = cache(catnip);
+        restored.restoreSnapshot(path);
+        
+        Assertions.assertEquals("guild", restored.guild(SECOND_GUILD).name());
+        Assertions.assertEquals(VerificationLevel.HIGH, restored.guild(SECOND_GUILD).verificationLevel());
+        Assertions.assertSame(catnip, restored.guild(SECOND_GUILD).catnip());
+        Assertions.assertEquals(8, restored.role(SECOND_GUILD, 5).permissionsRaw());
+        Assertions.assertEquals("general", restored.channel(SECOND_GUILD, 6).name());
+        Assertions.assertEquals("nick 10", restored.member(FIRST_GUILD, 10).nick());
+        Assertions.assertEquals(Collections.singleton("5"), restored.member(SECOND_GUILD, 11).roleIds());
+        // Users end up on every shard they have a member on
+        Assertions.assertNotNull(restored.userCache(0).getById(10));
+        Assertions.assertNotNull(restored.userCache(1).getById(10));
+        Assertions.assertNull(restored.userCache(0).getById(11));
+        Assertions.assertEquals("second", restored.user(11).username());
+        Assertions.assertEquals(OnlineStatus.DND, restored.presence(11).status());
+        Assertions.assertEquals("me", restored.selfUser().username());
+    }
+    
+    @Test
+    public void restoringIsRecorded(@TempDir final Path dir) throws IOException {
+        final Catnip catnip = CacheTestSupport.catnip();
+        final SplitMemoryEntityCache original = cache(catnip);
+        original.guildCache(1).put(SECOND_GUILD, GuildImpl.builder().idAsLong(SECOND_GUILD).name("guild").build());
+        original.bulkCacheMembers(1, Collections.singletonList(member(10, SECOND_GUILD)));
+        final Path path = dir.resolve("cache.bin");
+        original.writeSnapshot(path);
+        
+        final SplitMemoryEntityCache restored = cache(catnip);
+        final FollowerEntityCache follower = new FollowerEntityCache();
+        follower.catnip(catnip);
+        restored.mutationLog().subscribe(follower);
+        restored.restoreSnapshot(path);
+        
+        Assertions.assertEquals("guild", follower.guild(SECOND_GUILD).name());
+        Assertions.assertEquals("nick 10", follower.member(SECOND_GUILD, 10).nick());
+    }
+    
+    @Test
+    public void rejectsTruncatedSnapshots(@TempDir final Path dir) throws IOException {
+        final Catnip catnip = CacheTestSupport.catnip();
+        final SplitMemoryEntityCache original = cache(catnip);
+        original.bulkCacheMembers(0, Collections.singletonList(member(10, FIRST_GUILD)));
+        final Path path = dir.resolve("cache.bin");
+        original.writeSnapshot(path);
+        final byte[] data = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(data, data.length - 1));
+        Assertions.assertThrows(IOException.class, () -> cache(catnip).restoreSnapshot(path));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.shard.manager.ShardManager;
+import io.vertx.core.Vertx;
+import org.mockito.Mockito;
+
+import javax.annotation.Nonnull;
+import java.util.EnumSet;
+
+/**
+ * Mocks shared by the cache tests.
+ */
+final class CacheTestSupport {
+    private CacheTestSupport() {
+    }
+    
+    /**
+     * @return A mocked catnip with 2 shards, a mocked vert.x instance, and no
+     * cache flags. Guild {@code 1 << 22} is on shard 1.
+     */
+    @Nonnull
+    static Catnip catnip() {
+        final Catnip catnip = Mockito.mock(Catnip.class);
+        final ShardManager shardManager = Mockito.mock(ShardManager.class);
+        Mockito.when(shardManager.shardCount()).thenReturn(2);
+        Mockito.when(catnip.shardManager()).thenReturn(shardManager);
+        Mockito.when(catnip.vertx()).thenReturn(Mockito.mock(Vertx.class));
+        Mockito.when(catnip.cacheFlags()).thenReturn(EnumSet.noneOf(CacheFlag.class));
+        return catnip;
+    }
+    
+    /**
+     * @return A mocked catnip like {@link #catnip()}, using the given cache.
+     * The cache isn't given the catnip instance.
+     */
+    @Nonnull
+    static Catnip catnip(@Nonnull final EntityCacheWorker cache) {
+        final Catnip catnip = catnip();
+        Mockito.when(catnip.cacheWorker()).thenReturn(cache);
+        Mockito.when(catnip.cache()).thenReturn(cache);
+        return catnip;
+    }
+    
+    /**
+     * Gives the cache a mocked catnip that uses it, see {@link #catnip(EntityCacheWorker)}.
+     *
+     * @return The cache.
+     */
+    @Nonnull
+    static <T extends EntityCacheWorker> T withCatnip(@Nonnull final T cache) {
+        cache.catnip(catnip(cache));
+        return cache;
+    }
+}
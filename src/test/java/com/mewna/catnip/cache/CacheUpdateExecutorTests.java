@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class CacheUpdateExecutorTests {
+    @Test
+    public void ordersUpdatesPerGuild() throws InterruptedException {
+        final CacheUpdateExecutor executor = new CacheUpdateExecutor(Mockito.mock(Catnip.class), 4);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        executor.execute(1, () -> {
+            try {
+                release.await();
+            } catch(final InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            order.add(1);
+        }, true);
+        // Not heavy, but must still wait for the pending update
+        executor.execute(1, () -> order.add(2), false).setHandler(__ -> done.countDown());
+        // Nothing pending for this guild, so this runs right away
+        Assertions.assertTrue(executor.execute(2, () -> order.add(3), false).succeeded());
+        Assertions.assertEquals(Collections.singletonList(3), order);
+        release.countDown();
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(Arrays.asList(3, 1, 2), order);
+    }
+    
+    @Test
+    public void updatesAcrossGuildsWaitForEveryLane() throws InterruptedException {
+        final CacheUpdateExecutor executor = new CacheUpdateExecutor(Mockito.mock(Catnip.class), 4);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        executor.execute(1, () -> {
+            try {
+                release.await();
+            } catch(final InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            order.add(1);
+        }, true);
+        executor.executeAcrossGuilds(() -> order.add(2));
+        // Nothing is pending for this guild, but it must still wait
+        executor.execute(2, () -> order.add(3), false).setHandler(__ -> done.countDown());
+        Assertions.assertTrue(order.isEmpty());
+        release.countDown();
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(Arrays.asList(1, 2, 3), order);
+        executor.shutdown();
+    }
+}
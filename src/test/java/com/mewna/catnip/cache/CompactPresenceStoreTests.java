@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.entity.impl.PresenceImpl;
+import com.mewna.catnip.entity.impl.PresenceImpl.ActivityAssetsImpl;
+import com.mewna.catnip.entity.impl.PresenceImpl.ActivityImpl;
+import com.mewna.catnip.entity.user.Presence;
+import com.mewna.catnip.entity.user.Presence.ActivityType;
+import com.mewna.catnip.entity.user.Presence.OnlineStatus;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.LongConsumer;
+
+public class CompactPresenceStoreTests {
+    private static CompactPresenceStore store() {
+        final Catnip catnip = Mockito.mock(Catnip.class);
+        return new CompactPresenceStore(() -> catnip, 1);
+    }
+    
+    private static ActivityImpl song(final String user) {
+        return ActivityImpl.builder()
+                .name(new String("Spotify"))
+                .type(ActivityType.LISTENING)
+                .details(new String("Some Song"))
+                .state(new String("Some Artist"))
+                .party(PresenceImpl.ActivityPartyImpl.builder().id("spotify:" + user).build())
+                .assets(ActivityAssetsImpl.builder().largeImage(new String("spotify:album")).build())
+                .build();
+    }
+    
+    private static Presence presence(final OnlineStatus status, final Presence.Activity activity) {
+        return PresenceImpl.builder()
+                .status(status)
+                .desktopStatus(status)
+                .mobileStatus(OnlineStatus.IDLE)
+                .activity(activity)
+                .build();
+    }
+    
+    @Test
+    public void roundTrip() {
+        final CompactPresenceStore store = store();
+        final Presence presence = presence(OnlineStatus.DND, song("1"));
+        Assertions.assertNull(store.put(1, presence));
+        Assertions.assertEquals(presence, store.get(1));
+        Assertions.assertNull(store.get(1).webStatus());
+        Assertions.assertEquals(OnlineStatus.IDLE, store.get(1).mobileStatus());
+        Assertions.assertEquals(presence, store.put(1, presence(OnlineStatus.ONLINE, null)));
+        Assertions.assertNull(store.get(1).activity());
+        Assertions.assertEquals(1, store.size());
+    }
+    
+    @Test
+    public void activitiesAreShared() {
+        final CompactPresenceStore store = store();
+        final ActivityImpl game = ActivityImpl.builder().name("Game").type(ActivityType.PLAYING).build();
+        store.put(1, presence(OnlineStatus.ONLINE, game));
+        store.put(2, presence(OnlineStatus.IDLE, ActivityImpl.builder().name("Game").type(ActivityType.PLAYING).build()));
+        Assertions.assertSame(store.get(1).activity(), store.get(2).activity());
+        
+        // Different parties, but the same song
+        store.put(3, presence(OnlineStatus.ONLINE, song("3")));
+        store.put(4, presence(OnlineStatus.ONLINE, song("4")));
+        Assertions.assertNotSame(store.get(3).activity(), store.get(4).activity());
+        Assertions.assertSame(store.get(3).activity().details(), store.get(4).activity().details());
+        Assertions.assertSame(store.get(3).activity().assets(), store.get(4).activity().assets());
+    }
+    
+    @Test
+    public void unchangedActivitiesAreKept() {
+        final CompactPresenceStore store = store();
+        store.put(1, presence(OnlineStatus.ONLINE, song("1")));
+        final Presence.Activity stored = store.get(1).activity();
+        store.put(1, presence(OnlineStatus.IDLE, song("1")));
+        Assertions.assertSame(stored, store.get(1).activity());
+        Assertions.assertEquals(OnlineStatus.IDLE, store.get(1).status());
+    }
+    
+    @Test
+    public void holdsComparesWithoutDecoding() {
+        final CompactPresenceStore store = store();
+        Assertions.assertFalse(store.holds(1, presence(OnlineStatus.ONLINE, null)));
+        store.put(1, presence(OnlineStatus.ONLINE, song("1")));
+        Assertions.assertTrue(store.holds(1, presence(OnlineStatus.ONLINE, song("1"))));
+        Assertions.assertFalse(store.holds(1, presence(OnlineStatus.IDLE, song("1"))));
+        Assertions.assertFalse(store.holds(1, presence(OnlineStatus.ONLINE, song("2"))));
+        Assertions.assertFalse(store.holds(1, presence(OnlineStatus.ONLINE, null)));
+    }
+    
+    @Test
+    public void removeKeepsProbing() {
+        final CompactPresenceStore store = store();
+        for(long id = 1; id <= 500; id++) {
+            store.put(id << 22, presence(OnlineStatus.values()[(int) (id % 4)], null));
+        }
+        for(long id = 1; id <= 500; id += 2) {
+            Assertions.assertNotNull(store.remove(id << 22));
+        }
+        Assertions.assertEquals(250, store.size());
+        final Set<Long> keys = new HashSet<>();
+        store.iterator().forEachRemaining((LongConsumer) keys::add);
+        Assertions.assertEquals(250, keys.size());
+        for(long id = 1; id <= 500; id++) {
+            final Presence presence = store.get(id << 22);
+            if(id % 2 == 0) {
+                Assertions.assertEquals(OnlineStatus.values()[(int) (id % 4)], presence.status());
+            } else {
+                Assertions.assertNull(presence);
+            }
+        }
+        Assertions.assertEquals(250, store.values().size());
+    }
+    
+    @Test
+    public void statusesPack() {
+        for(final OnlineStatus status : OnlineStatus.values()) {
+            final short packed = CompactPresenceStore.pack(PresenceImpl.builder().status(status).webStatus(status).build());
+            Assertions.assertEquals(status, CompactPresenceStore.unpack(packed, 0));
+            Assertions.assertNull(CompactPresenceStore.unpack(packed, 1));
+            Assertions.assertEquals(status, CompactPresenceStore.unpack(packed, 2));
+            Assertions.assertNull(CompactPresenceStore.unpack(packed, 3));
+        }
+    }
+}
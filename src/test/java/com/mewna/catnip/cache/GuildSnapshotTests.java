@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.view.CacheView;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.impl.GuildImpl;
+import com.mewna.catnip.entity.impl.MemberImpl;
+import com.mewna.catnip.entity.impl.RoleImpl;
+import com.mewna.catnip.entity.util.Permission;
+import com.mewna.catnip.shard.DiscordEvent.Raw;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.Collections;
+
+public class GuildSnapshotTests {
+    private static final long GUILD = 1L << 22;
+    
+    private static SplitMemoryEntityCache cache() {
+        final SplitMemoryEntityCache cache = CacheTestSupport.withCatnip(new SplitMemoryEntityCache());
+        cache.guildCache(1).put(GUILD, GuildImpl.builder().idAsLong(GUILD).name("guild").build());
+        return cache;
+    }
+    
+    private static RoleImpl role(final long id, final long permissions) {
+        return RoleImpl.builder().idAsLong(id).guildIdAsLong(GUILD).name("role " + id).permissionsRaw(permissions).build();
+    }
+    
+    @Test
+    public void snapshotsDontChange() {
+        final SplitMemoryEntityCache cache = cache();
+        cache.bulkCacheRoles(1, Collections.singletonList(role(5, 8)));
+        final GuildSnapshot before = cache.snapshot(GUILD);
+        cache.bulkCacheRoles(1, Collections.singletonList(role(5, 0)));
+        cache.bulkCacheRoles(1, Collections.singletonList(role(6, 0)));
+        final GuildSnapshot after = cache.snapshot(GUILD);
+        
+        Assertions.assertEquals("guild", before.guild().name());
+        Assertions.assertEquals(8, before.role(5).permissionsRaw());
+        Assertions.assertNull(before.role(6));
+        Assertions.assertEquals(1, before.roles().size());
+        Assertions.assertEquals(0, after.role(5).permissionsRaw());
+        Assertions.assertEquals(2, after.roles().size());
+        Assertions.assertEquals(before.version() + 2, after.version());
+    }
+    
+    @Test
+    public void quietGuildsReuseCopies() {
+        final SplitMemoryEntityCache cache = cache();
+        cache.bulkCacheRoles(1, Collections.singletonList(role(5, 8)));
+        final GuildSnapshot first = cache.snapshot(GUILD);
+        final GuildSnapshot second = cache.snapshot(GUILD);
+        Assertions.assertEquals(first.version(), second.version());
+        Assertions.assertSame(first.roles(), second.roles());
+        // Member writes don't touch the guild's version
+        cache.bulkCacheMembers(1, Collections.singletonList(MemberImpl.builder().idAsLong(10).guildIdAsLong(GUILD)
+                .roleIds(Collections.emptySet()).joinedAt("2019-10-19T00:00:00Z").build()));
+        Assertions.assertSame(first.roles(), cache.snapshot(GUILD).roles());
+    }
+    
+    @Test
+    public void membersArePinned() {
+        final SplitMemoryEntityCache cache = cache();
+        cache.bulkCacheMembers(1, Collections.singletonList(MemberImpl.builder().idAsLong(10).guildIdAsLong(GUILD)
+                .nick("before").roleIds(Collections.emptySet()).joinedAt("2019-10-19T00:00:00Z").build()));
+        final GuildSnapshot snapshot = cache.snapshot(GUILD);
+        Assertions.assertEquals("before", snapshot.member(10).nick());
+        cache.bulkCacheMembers(1, Collections.singletonList(MemberImpl.builder().idAsLong(10).guildIdAsLong(GUILD)
+                .nick("after").roleIds(Collections.emptySet()).joinedAt("2019-10-19T00:00:00Z").build()));
+        Assertions.assertEquals("before", snapshot.member(10).nick());
+        Assertions.assertEquals("after", cache.snapshot(GUILD).member(10).nick());
+    }
+    
+    @Test
+    public void deletedGuilds() {
+        final SplitMemoryEntityCache cache = cache();
+        cache.bulkCacheRoles(1, Collections.singletonList(role(5, 8)));
+        final GuildSnapshot before = cache.snapshot(GUILD);
+        cache.updateCache(Raw.GUILD_DELETE, 1, new JsonObject().put("id", Long.toUnsignedString(GUILD)));
+        final GuildSnapshot after = cache.snapshot(GUILD);
+        Assertions.assertNotNull(before.role(5));
+        Assertions.assertNull(after.guild());
+        Assertions.assertNull(after.role(5));
+        Assertions.assertTrue(after.roles().isEmpty());
+        
+        // Writes after a delete start a new epoch
+        cache.bulkCacheRoles(1, Collections.singletonList(role(6, 0)));
+        Assertions.assertNotNull(cache.snapshot(GUILD).role(6));
+    }
+    
+    @Test
+    public void snapshotsOfUnknownGuilds() {
+        final SplitMemoryEntityCache cache = cache();
+        final GuildSnapshot snapshot = cache.snapshot(GUILD + 1);
+        Assertions.assertNull(snapshot.guild());
+        Assertions.assertTrue(snapshot.roles().isEmpty());
+        Assertions.assertEquals(0, snapshot.version());
+    }
+    
+    @Test
+    public void otherCachesAreLookedUp() {
+        // Caches that can't list a guild's roles, like remote ones, can
+        // still look them up one by one
+        final EntityCache cache = Mockito.mock(EntityCache.class, Mockito.CALLS_REAL_METHODS);
+        final Catnip catnip = Mockito.mock(Catnip.class);
+        Mockito.when(catnip.cache()).thenReturn(cache);
+        Mockito.doReturn(GuildImpl.builder().idAsLong(GUILD).ownerIdAsLong(1).name("guild").build()).when(cache).guild(GUILD);
+        Mockito.doReturn(role(GUILD, Permission.VIEW_CHANNEL.value())).when(cache).role(GUILD, GUILD);
+        Mockito.doReturn(role(5, Permission.SEND_MESSAGES.value())).when(cache).role(GUILD, 5);
+        Mockito.doReturn(CacheView.noop()).when(cache).roles(GUILD);
+        final Member member = MemberImpl.builder().catnip(catnip).idAsLong(10).guildIdAsLong(GUILD)
+                .roleIds(Collections.singleton("5")).joinedAt("2019-10-19T00:00:00Z").build();
+        
+        Assertions.assertTrue(member.hasPermissions(Permission.VIEW_CHANNEL, Permission.SEND_MESSAGES));
+        Assertions.assertFalse(member.hasPermissions(Permission.MANAGE_MESSAGES));
+        // Nothing is copied wholesale
+        Mockito.verify(cache, Mockito.never()).roles(GUILD);
+        Mockito.verify(cache, Mockito.never()).channels(GUILD);
+    }
+}
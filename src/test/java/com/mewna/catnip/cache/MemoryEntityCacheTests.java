@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.shard.DiscordEvent.Raw;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+
+public class MemoryEntityCacheTests {
+    private static final long GUILD = 1L << 22;
+    
+    private static UnifiedMemoryEntityCache cache() {
+        return CacheTestSupport.withCatnip(new UnifiedMemoryEntityCache());
+    }
+    
+    private static JsonObject user(final long id, final String username) {
+        return new JsonObject().put("id", Long.toUnsignedString(id)).put("username", username)
+                .put("discriminator", "0001");
+    }
+    
+    private static JsonObject member(final long id, final String username) {
+        return member(GUILD, id, username);
+    }
+    
+    private static JsonObject member(final long guild, final long id, final String username) {
+        return new JsonObject()
+                .put("guild_id", Long.toUnsignedString(guild))
+                .put("user", user(id, username))
+                .put("roles", new JsonArray())
+                .put("joined_at", "2019-10-19T00:00:00Z")
+                .put("deaf", false)
+                .put("mute", false);
+    }
+    
+    @Test
+    public void memberUpdatesPatchTheUser() {
+        final UnifiedMemoryEntityCache cache = cache();
+        cache.updateCache(Raw.GUILD_MEMBER_ADD, 1, member(10, "before"));
+        cache.updateCache(Raw.GUILD_MEMBER_UPDATE, 1, member(10, "after").put("nick", "nick"));
+        
+        Assertions.assertEquals("after", cache.user(10).username());
+        Assertions.assertEquals("nick", cache.member(GUILD, 10).nick());
+    }
+    
+    @Test
+    public void renamesAreReindexedInEveryGuild() {
+        final long otherGuild = GUILD + 1;
+        final UnifiedMemoryEntityCache cache = CacheTestSupport.withCatnip(new UnifiedMemoryEntityCache() {
+            @Override
+            protected boolean indexNames(@Nonnull final Class<?> type) {
+                return true;
+            }
+        });
+        cache.updateCache(Raw.GUILD_MEMBER_ADD, 1, member(GUILD, 10, "before"));
+        cache.updateCache(Raw.GUILD_MEMBER_ADD, 1, member(otherGuild, 10, "before"));
+        cache.updateCache(Raw.PRESENCE_UPDATE, 1, new JsonObject()
+                .put("guild_id", Long.toUnsignedString(GUILD))
+                .put("user", user(10, "after"))
+                .put("status", "online")
+                .put("activities", new JsonArray()));
+        
+        for(final long guild : new long[] {GUILD, otherGuild}) {
+            Assertions.assertEquals(1, cache.members(guild).findByName("after").size());
+            Assertions.assertTrue(cache.members(guild).findByName("before").isEmpty());
+        }
+    }
+}
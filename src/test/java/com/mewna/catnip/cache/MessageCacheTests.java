@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.entity.impl.MessageImpl;
+import com.mewna.catnip.entity.impl.MessageImpl.AttachmentImpl;
+import com.mewna.catnip.entity.impl.UserImpl;
+import com.mewna.catnip.entity.message.Message;
+import com.mewna.catnip.entity.message.MessageType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.Collections;
+
+public class MessageCacheTests {
+    private static Message message(final long channel, final long id, final String content) {
+        return MessageImpl.builder()
+                .idAsLong(id)
+                .channelIdAsLong(channel)
+                .guildIdAsLong(channel / 10)
+                .author(UserImpl.builder().idAsLong(5).username("user").discriminator("0001").bot(true).build())
+                .content(content)
+                .timestamp("2019-10-19T12:34:56.789+00:00")
+                .pinned(true)
+                .type(MessageType.DEFAULT)
+                .attachments(Collections.singletonList(AttachmentImpl.builder().idAsLong(7).fileName("cat.png")
+                        .size(1024).url("https://cdn.discordapp.com/cat.png").proxyUrl("https://media.discordapp.net/cat.png")
+                        .height(64).width(32).build()))
+                .build();
+    }
+    
+    private static String repeat(final String s, final int times) {
+        return String.join("", Collections.nCopies(times, s));
+    }
+    
+    @Test
+    public void roundTrip() {
+        final Catnip catnip = Mockito.mock(Catnip.class);
+        final MessageCache cache = new MessageCache(1 << 20).compressionThreshold(64).catnip(catnip);
+        final String content = repeat("meow ", 100);
+        Assertions.assertNull(cache.put(message(10, 1, content)));
+        // Compressible content is stored deflated
+        Assertions.assertTrue(cache.usedBytes() < content.length());
+        
+        final Message cached = cache.get(10, 1);
+        Assertions.assertNotNull(cached);
+        Assertions.assertSame(catnip, cached.catnip());
+        Assertions.assertEquals(content, cached.content());
+        Assertions.assertEquals(1, cached.guildIdAsLong());
+        Assertions.assertEquals("user", cached.author().username());
+        Assertions.assertTrue(cached.author().bot());
+        Assertions.assertTrue(cached.pinned());
+        Assertions.assertEquals(789, cached.timestamp().getNano() / 1_000_000);
+        Assertions.assertNull(cached.editedTimestamp());
+        Assertions.assertEquals("cat.png", cached.attachments().get(0).fileName());
+        Assertions.assertEquals(64, cached.attachments().get(0).height());
+        // Only attachment metadata is kept
+        Assertions.assertNull(cached.attachments().get(0).proxyUrl());
+        
+        Assertions.assertEquals(content, cache.put(message(10, 1, "edited")).content());
+        Assertions.assertEquals("edited", cache.get(10, 1).content());
+        Assertions.assertEquals("edited", cache.remove(10, 1).content());
+        Assertions.assertNull(cache.get(10, 1));
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertEquals(0, cache.usedBytes());
+    }
+    
+    @Test
+    public void channelCapacity() {
+        final MessageCache cache = new MessageCache(1 << 20).channelCapacity(3);
+        for(long id = 1; id <= 5; id++) {
+            cache.put(message(10, id, "message " + id));
+        }
+        cache.put(message(20, 1, "other channel"));
+        Assertions.assertNull(cache.get(10, 2));
+        Assertions.assertNotNull(cache.get(10, 3));
+        Assertions.assertNotNull(cache.get(10, 5));
+        Assertions.assertNotNull(cache.get(20, 1));
+        Assertions.assertEquals(4, cache.size());
+        // Removing from the middle keeps the rest in order
+        cache.remove(10, 4);
+        cache.put(message(10, 6, "message 6"));
+        cache.put(message(10, 7, "message 7"));
+        Assertions.assertNull(cache.get(10, 3));
+        Assertions.assertNotNull(cache.get(10, 5));
+        Assertions.assertNotNull(cache.get(10, 7));
+        Assertions.assertEquals(0, cache.evictionCount());
+    }
+    
+    @Test
+    public void budgetEvictsOldestFirst() {
+        final MessageCache probe = new MessageCache(1 << 20);
+        probe.put(message(10, 1, "message 1"));
+        final long recordSize = probe.usedBytes();
+        
+        final MessageCache cache = new MessageCache(recordSize * 3);
+        cache.put(message(10, 1, "message 1"));
+        cache.put(message(20, 2, "message 2"));
+        cache.put(message(10, 3, "message 3"));
+        cache.put(message(20, 4, "message 4"));
+        Assertions.assertNull(cache.get(10, 1));
+        Assertions.assertNotNull(cache.get(20, 2));
+        Assertions.assertEquals(3, cache.size());
+        Assertions.assertEquals(1, cache.evictionCount());
+        Assertions.assertTrue(cache.usedBytes() <= cache.maximumBytes());
+    }
+    
+    @Test
+    public void removeGuild() {
+        final MessageCache cache = new MessageCache(1 << 20);
+        cache.put(message(10, 1, "guild 1"));
+        cache.put(message(11, 2, "guild 1"));
+        cache.put(message(20, 3, "guild 2"));
+        cache.removeGuild(1);
+        Assertions.assertNull(cache.get(10, 1));
+        Assertions.assertNull(cache.get(11, 2));
+        Assertions.assertNotNull(cache.get(20, 3));
+        cache.removeChannel(20);
+        Assertions.assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.MutationLog.Kind;
+import com.mewna.catnip.cache.MutationLog.Mutation;
+import com.mewna.catnip.cache.MutationLog.Operation;
+import com.mewna.catnip.entity.impl.*;
+import com.mewna.catnip.shard.DiscordEvent.Raw;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class MutationLogTests {
+    // Guild 1 << 22 is on shard 1
+    private static final long GUILD = 1L << 22;
+    
+    private static <T extends MemoryEntityCache> T cache(final T cache, final Catnip catnip) {
+        cache.catnip(catnip);
+        return cache;
+    }
+    
+    private static MemberImpl member(final long id) {
+        return MemberImpl.builder().idAsLong(id).guildIdAsLong(GUILD).nick("nick " + id)
+                .roleIds(Collections.singleton("5")).joinedAt("2019-10-19T00:00:00Z").build();
+    }
+    
+    private static void populate(final MemoryEntityCache cache) {
+        cache.bulkCacheRoles(1, Collections.singletonList(RoleImpl.builder().idAsLong(5).guildIdAsLong(GUILD)
+                .name("role").build()));
+        cache.bulkCacheMembers(1, Arrays.asList(member(10), member(11)));
+        cache.bulkCacheUsers(1, Collections.singletonList(UserImpl.builder().idAsLong(10).username("ten").build()));
+        cache.updateCache(Raw.GUILD_MEMBER_UPDATE, 1, new JsonObject()
+                .put("guild_id", Long.toUnsignedString(GUILD))
+                .put("user", new JsonObject().put("id", "10"))
+                .put("nick", "patched")
+                .put("roles", new JsonArray()));
+        cache.updateCache(Raw.GUILD_MEMBER_REMOVE, 1, new JsonObject()
+                .put("guild_id", Long.toUnsignedString(GUILD))
+                .put("user", new JsonObject().put("id", "11")));
+    }
+    
+    private static void assertReplica(final MemoryEntityCache follower) {
+        Assertions.assertEquals("role", follower.role(GUILD, 5).name());
+        Assertions.assertEquals("patched", follower.member(GUILD, 10).nick());
+        Assertions.assertNull(follower.member(GUILD, 11));
+        // Patches and removes keep the follower's own indexes right too
+        Assertions.assertTrue(follower.membersWithRole(GUILD, 5).isEmpty());
+        Assertions.assertEquals("ten", follower.user(10).username());
+    }
+    
+    @Test
+    public void inProcess() {
+        final Catnip catnip = CacheTestSupport.catnip();
+        final SplitMemoryEntityCache primary = cache(new SplitMemoryEntityCache(), catnip);
+        final FollowerEntityCache follower = cache(new FollowerEntityCache(), catnip);
+        final List<Mutation> mutations = new ArrayList<>();
+        primary.mutationLog().subscribe(mutations::add);
+        primary.mutationLog().subscribe(follower);
+        populate(primary);
+        
+        assertReplica(follower);
+        Assertions.assertEquals(6, primary.mutationLog().sequence(1));
+        Assertions.assertEquals(6, follower.sequence(1));
+        Assertions.assertEquals(Operation.PATCH, mutations.get(4).operation());
+        Assertions.assertEquals(Operation.REMOVE, mutations.get(5).operation());
+        Assertions.assertEquals(Kind.MEMBER, mutations.get(5).kind());
+        Assertions.assertNull(mutations.get(5).entity());
+        for(int i = 0; i < mutations.size(); i++) {
+            Assertions.assertEquals(i + 1, mutations.get(i).sequence());
+        }
+        
+        // Gateway events given to the follower directly are ignored
+        follower.updateCache(Raw.GUILD_DELETE, 1, new JsonObject().put("id", Long.toUnsignedString(GUILD)));
+        Assertions.assertNotNull(follower.member(GUILD, 10));
+        primary.updateCache(Raw.GUILD_DELETE, 1, new JsonObject().put("id", Long.toUnsignedString(GUILD)));
+        Assertions.assertNull(follower.member(GUILD, 10));
+        Assertions.assertNull(follower.role(GUILD, 5));
+    }
+    
+    @Test
+    public void appendAndReplay(@TempDir final Path dir) throws IOException {
+        final Catnip catnip = CacheTestSupport.catnip();
+        final SplitMemoryEntityCache primary = cache(new SplitMemoryEntityCache(), catnip);
+        final Path path = dir.resolve("cache.log");
+        try(final MutationLog.Appender appender = new MutationLog.Appender(path)) {
+            primary.mutationLog().subscribe(appender);
+            populate(primary);
+        }
+        final FollowerEntityCache follower = cache(new FollowerEntityCache(), catnip);
+        Assertions.assertEquals(6, MutationLog.replay(path, catnip, follower));
+        assertReplica(follower);
+        Assertions.assertSame(catnip, follower.member(GUILD, 10).catnip());
+        
+        // A record cut short by a crash ends the replay
+        final byte[] data = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(data, data.length - 3));
+        Assertions.assertEquals(5, MutationLog.replay(path, catnip, __ -> {}));
+    }
+    
+    @Test
+    public void unchangedMembersArentPatched() {
+        final SplitMemoryEntityCache primary = cache(new SplitMemoryEntityCache(), CacheTestSupport.catnip());
+        final List<Mutation> mutations = new ArrayList<>();
+        primary.mutationLog().subscribe(mutations::add);
+        populate(primary);
+        final long sequence = primary.mutationLog().sequence(1);
+        primary.updateCache(Raw.GUILD_MEMBER_UPDATE, 1, new JsonObject()
+                .put("guild_id", Long.toUnsignedString(GUILD))
+                .put("user", new JsonObject().put("id", "10"))
+                .put("nick", "patched")
+                .put("roles", new JsonArray()));
+        
+        Assertions.assertEquals(sequence, primary.mutationLog().sequence(1));
+        Assertions.assertEquals(sequence, mutations.size());
+    }
+    
+    @Test
+    public void inactiveWithoutListeners() {
+        final SplitMemoryEntityCache primary = cache(new SplitMemoryEntityCache(), CacheTestSupport.catnip());
+        populate(primary);
+        Assertions.assertFalse(primary.mutationLog().active());
+        Assertions.assertEquals(0, primary.mutationLog().sequence(1));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.impl.MemberImpl;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.*;
+
+public class OffHeapMemberStoreTests {
+    private static Member member(final long id, final String nick, final String... roles) {
+        return MemberImpl.builder()
+                .idAsLong(id)
+                .guildIdAsLong(42)
+                .nick(nick)
+                .roleIds(new HashSet<>(Arrays.asList(roles)))
+                .joinedAt("2019-10-19T12:34:56.789012+00:00")
+                .deaf(id % 2 == 0)
+                .mute(id % 3 == 0)
+                .build();
+    }
+    
+    private static void assertMember(final Member expected, final Member actual) {
+        Assertions.assertNotNull(actual);
+        Assertions.assertEquals(expected.idAsLong(), actual.idAsLong());
+        Assertions.assertEquals(expected.guildIdAsLong(), actual.guildIdAsLong());
+        Assertions.assertEquals(expected.nick(), actual.nick());
+        Assertions.assertEquals(expected.roleIds(), actual.roleIds());
+        Assertions.assertEquals(expected.joinedAt(), actual.joinedAt());
+        Assertions.assertEquals(expected.deaf(), actual.deaf());
+        Assertions.assertEquals(expected.mute(), actual.mute());
+    }
+    
+    @Test
+    public void roundTrip() {
+        final OffHeapMemberStore store = new OffHeapMemberStore(Mockito.mock(Catnip.class), 1);
+        final Member first = member(1, "nick ✨", "10", "11");
+        final Member second = member(2, null);
+        store.put(1L, first);
+        store.put(2L, second);
+        assertMember(first, store.get(1));
+        assertMember(second, store.get(2));
+        Assertions.assertNull(store.get(3));
+        
+        final Member updated = member(1, null, "12");
+        assertMember(first, store.put(1, updated));
+        assertMember(updated, store.get(1));
+        Assertions.assertEquals(2, store.size());
+    }
+    
+    @Test
+    public void removeAndCompact() {
+        final OffHeapMemberStore store = new OffHeapMemberStore(Mockito.mock(Catnip.class), 1);
+        final Map<Long, Member> expected = new HashMap<>();
+        for(long i = 0; i < 5000; i++) {
+            final Member member = member(i, "member " + i, String.valueOf(i), "1");
+            store.put(i, member);
+            expected.put(i, member);
+        }
+        // Churn enough to force both arenas to compact
+        for(long i = 0; i < 5000; i += 2) {
+            store.remove(i);
+            expected.remove(i);
+        }
+        for(long i = 1; i < 5000; i += 4) {
+            final Member member = member(i, "renamed " + i, "2");
+            store.put(i, member);
+            expected.put(i, member);
+        }
+        Assertions.assertEquals(expected.size(), store.size());
+        expected.forEach((id, member) -> assertMember(member, store.get(id)));
+        Assertions.assertEquals(expected.keySet(), new HashSet<>(store.keySet()));
+        Assertions.assertNull(store.remove(0L));
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.cache.KeyValueTransport.Write;
+import com.mewna.catnip.cache.MutationLog.Kind;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.util.Permission;
+import com.mewna.catnip.shard.DiscordEvent.Raw;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class RemoteEntityCacheTests {
+    private static final long GUILD = 1L << 22;
+    
+    private static JsonObject user(final long id) {
+        return new JsonObject().put("id", Long.toUnsignedString(id)).put("username", "user " + id)
+                .put("discriminator", "0001");
+    }
+    
+    private static JsonObject memberAdd(final long id, final String nick) {
+        return new JsonObject()
+                .put("guild_id", Long.toUnsignedString(GUILD))
+                .put("user", user(id))
+                .put("nick", nick)
+                .put("roles", new JsonArray())
+                .put("joined_at", "2019-10-19T00:00:00Z")
+                .put("deaf", false)
+                .put("mute", false);
+    }
+    
+    private static JsonObject memberUpdate(final long id, final String nick) {
+        return new JsonObject()
+                .put("guild_id", Long.toUnsignedString(GUILD))
+                .put("user", user(id))
+                .put("nick", nick)
+                .put("roles", new JsonArray().add("5"));
+    }
+    
+    private static JsonObject presence(final long id, final String status) {
+        return new JsonObject().put("user", new JsonObject().put("id", Long.toUnsignedString(id)))
+                .put("status", status).put("client_status", new JsonObject().put("desktop", status));
+    }
+    
+    private static JsonObject role(final long id, final long permissions) {
+        return new JsonObject().put("id", Long.toUnsignedString(id)).put("name", "role " + id).put("color", 0)
+                .put("hoist", false).put("position", 0).put("permissions", permissions).put("managed", false)
+                .put("mentionable", false);
+    }
+    
+    @Test
+    public void writesAreCoalescedWhileABatchIsInFlight() {
+        final StandInServer server = new StandInServer();
+        server.holdWrites = true;
+        final RemoteEntityCache cache = new RemoteEntityCache(server);
+        CacheTestSupport.withCatnip(cache);
+        
+        final int events = 200;
+        for(int i = 0; i < events / 2; i++) {
+            cache.updateCache(Raw.GUILD_MEMBER_ADD, 1, memberAdd(i, "member " + i));
+            cache.updateCache(Raw.PRESENCE_UPDATE, 1, presence(i, "online"));
+        }
+        // Repeats of what's already cached aren't written at all
+        cache.updateCache(Raw.PRESENCE_UPDATE, 1, presence(0, "online"));
+        // Only the first event went out, as the rest arrived while it was
+        // in flight, but everything is already visible locally
+        Assertions.assertEquals(1, server.writeRoundTrips);
+        Assertions.assertEquals("member 99", cache.member(GUILD, 99).nick());
+        server.release();
+        
+        // The first event, then everything queued behind it
+        Assertions.assertEquals(2, server.writeRoundTrips);
+        Assertions.assertEquals(2, cache.batchCount());
+        Assertions.assertEquals(events + events / 2, cache.writeCount());
+        Assertions.assertEquals(events + events / 2, server.store.size());
+        Assertions.assertEquals(0, server.readRoundTrips);
+        // Round-trips saved per event, against writing every event on its own
+        final double saved = (events - server.writeRoundTrips) / (double) events;
+        Assertions.assertTrue(saved > 0.98, "saved " + saved + " round-trips per event");
+    }
+    
+    @Test
+    public void readsGoThroughTheNearCache() {
+        final StandInServer server = new StandInServer();
+        final RemoteEntityCache writer = new RemoteEntityCache(server);
+        CacheTestSupport.withCatnip(writer);
+        writer.updateCache(Raw.GUILD_MEMBER_ADD, 1, memberAdd(10, "ten"));
+        writer.updateCache(Raw.GUILD_MEMBER_ADD, 1, memberAdd(11, "eleven"));
+        
+        // Our own writes are cached locally
+        Assertions.assertEquals("ten", writer.member(GUILD, 10).nick());
+        Assertions.assertEquals(0, server.readRoundTrips);
+        
+        // Another process reads from the store, once
+        final RemoteEntityCache reader = new RemoteEntityCache(server, 10, 100);
+        CacheTestSupport.withCatnip(reader);
+        Assertions.assertEquals("ten", reader.member(GUILD, 10).nick());
+        Assertions.assertEquals("ten", reader.member(GUILD, 10).nick());
+        Assertions.assertNull(reader.member(GUILD, 12));
+        Assertions.assertEquals(2, server.readRoundTrips);
+        
+        // Many members in one round-trip
+        final List<Member> members = reader.membersAsync(GUILD, Arrays.asList(10L, 11L, 12L)).join();
+        Assertions.assertEquals(2, members.size());
+        Assertions.assertEquals("eleven", members.get(1).nick());
+        Assertions.assertEquals(3, server.readRoundTrips);
+    }
+    
+    @Test
+    public void patchesWaitForTheirRead() {
+        final StandInServer server = new StandInServer();
+        final RemoteEntityCache writer = new RemoteEntityCache(server);
+        CacheTestSupport.withCatnip(writer);
+        writer.updateCache(Raw.GUILD_MEMBER_ADD, 1, memberAdd(10, "ten"));
+        
+        // Nothing is cached locally, so the update has to read the member
+        server.holdReads = true;
+        final RemoteEntityCache cache = new RemoteEntityCache(server);
+        CacheTestSupport.withCatnip(cache);
+        cache.updateCache(Raw.GUILD_MEMBER_UPDATE, 1, memberUpdate(10, "TEN"));
+        cache.updateCache(Raw.GUILD_MEMBER_REMOVE, 1, new JsonObject()
+                .put("guild_id", Long.toUnsignedString(GUILD)).put("user", user(10)));
+        cache.updateCache(Raw.GUILD_MEMBER_UPDATE, 1, memberUpdate(10, "ghost"));
+        Assertions.assertEquals(1, server.readRoundTrips);
+        server.release();
+        
+        // The patch landed before the removal, and nothing came after it
+        Assertions.assertNull(cache.member(GUILD, 10));
+        Assertions.assertFalse(server.store.containsKey(RemoteEntityCache.key(Kind.MEMBER, GUILD, 10)));
+        
+        cache.updateCache(Raw.GUILD_MEMBER_ADD, 1, memberAdd(11, "eleven"));
+        cache.updateCache(Raw.GUILD_MEMBER_UPDATE, 1, memberUpdate(11, "ELEVEN"));
+        Assertions.assertEquals("ELEVEN", cache.member(GUILD, 11).nick());
+        Assertions.assertEquals(Collections.singleton("5"), cache.member(GUILD, 11).roleIds());
+    }
+    
+    @Test
+    public void memberUpdatesPatchTheUser() {
+        final StandInServer server = new StandInServer();
+        final RemoteEntityCache cache = new RemoteEntityCache(server);
+        CacheTestSupport.withCatnip(cache);
+        cache.updateCache(Raw.GUILD_MEMBER_ADD, 1, memberAdd(10, "ten"));
+        cache.updateCache(Raw.GUILD_MEMBER_UPDATE, 1, memberUpdate(10, "TEN")
+                .put("user", user(10).put("username", "renamed")));
+        
+        Assertions.assertEquals("renamed", cache.user(10).username());
+        Assertions.assertEquals("TEN", cache.member(GUILD, 10).nick());
+    }
+    
+    @Test
+    public void guildDeletesClearTheGuild() {
+        final StandInServer server = new StandInServer();
+        server.holdWrites = true;
+        final RemoteEntityCache cache = new RemoteEntityCache(server);
+        CacheTestSupport.withCatnip(cache);
+        cache.updateCache(Raw.GUILD_MEMBER_ADD, 1, memberAdd(10, "ten"));
+        cache.updateCache(Raw.GUILD_MEMBER_ADD, 1, memberAdd(11, "eleven"));
+        cache.updateCache(Raw.GUILD_DELETE, 1, new JsonObject().put("id", Long.toUnsignedString(GUILD)));
+        // Deleted before it was ever acknowledged
+        Assertions.assertNull(cache.member(GUILD, 11));
+        cache.updateCache(Raw.GUILD_MEMBER_ADD, 1, memberAdd(12, "twelve"));
+        server.release();
+        
+        Assertions.assertNull(cache.member(GUILD, 10));
+        Assertions.assertEquals("twelve", cache.member(GUILD, 12).nick());
+        Assertions.assertFalse(server.store.containsKey(RemoteEntityCache.key(Kind.MEMBER, GUILD, 10)));
+        Assertions.assertFalse(server.store.containsKey(RemoteEntityCache.key(Kind.MEMBER, GUILD, 11)));
+        Assertions.assertTrue(server.store.containsKey(RemoteEntityCache.key(Kind.MEMBER, GUILD, 12)));
+        // Users aren't in the guild
+        Assertions.assertTrue(server.store.containsKey(RemoteEntityCache.key(Kind.USER, 0, 11)));
+    }
+    
+    @Test
+    public void permissionsUseTheRemoteRoles() {
+        final StandInServer server = new StandInServer();
+        final RemoteEntityCache writer = new RemoteEntityCache(server);
+        CacheTestSupport.withCatnip(writer);
+        final String guild = Long.toUnsignedString(GUILD);
+        writer.updateCache(Raw.GUILD_UPDATE, 1, new JsonObject().put("id", guild).put("name", "guild")
+                .put("owner_id", "1"));
+        writer.updateCache(Raw.GUILD_ROLE_CREATE, 1, new JsonObject().put("guild_id", guild)
+                .put("role", role(GUILD, Permission.VIEW_CHANNEL.value())));
+        writer.updateCache(Raw.GUILD_ROLE_CREATE, 1, new JsonObject().put("guild_id", guild)
+                .put("role", role(5, Permission.SEND_MESSAGES.value())));
+        writer.updateCache(Raw.GUILD_MEMBER_ADD, 1, memberAdd(10, "ten").put("roles", new JsonArray().add("5")));
+        
+        final RemoteEntityCache cache = new RemoteEntityCache(server);
+        CacheTestSupport.withCatnip(cache);
+        final Member member = cache.member(GUILD, 10);
+        Assertions.assertTrue(member.hasPermissions(Permission.VIEW_CHANNEL, Permission.SEND_MESSAGES));
+        // Would be granted if the roles couldn't be found
+        Assertions.assertFalse(member.hasPermissions(Permission.MANAGE_MESSAGES));
+        // The member, the guild with its public role, and the member's role
+        Assertions.assertEquals(3, server.readRoundTrips);
+    }
+    
+    /**
+     * In-process stand-in for a key-value store, counting round-trips.
+     * Writes and reads can be held to act like they're in flight.
+     */
+    private static final class StandInServer implements KeyValueTransport {
+        private final Map<String, byte[]> store = new ConcurrentHashMap<>();
+        private final Deque<Runnable> held = new ArrayDeque<>();
+        private boolean holdWrites;
+        private boolean holdReads;
+        private int writeRoundTrips;
+        private int readRoundTrips;
+        
+        @Nonnull
+        @Override
+        public CompletableFuture<List<byte[]>> read(@Nonnull final List<String> keys) {
+            readRoundTrips++;
+            final CompletableFuture<List<byte[]>> future = new CompletableFuture<>();
+            final Runnable read = () -> {
+                final List<byte[]> values = new ArrayList<>();
+                keys.forEach(key -> values.add(store.get(key)));
+                future.complete(values);
+            };
+            if(holdReads) {
+                held.add(read);
+            } else {
+                read.run();
+            }
+            return future;
+        }
+        
+        @Nonnull
+        @Override
+        public CompletableFuture<Void> write(@Nonnull final List<Write> writes) {
+            writeRoundTrips++;
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            final Runnable apply = () -> {
+                for(final Write write : writes) {
+                    switch(write.operation()) {
+                        case SET: {
+                            store.put(write.key(), write.value());
+                            break;
+                        }
+                        case DELETE: {
+                            store.remove(write.key());
+                            break;
+                        }
+                        case DELETE_PREFIX: {
+                            store.keySet().removeIf(key -> key.startsWith(write.key()));
+                            break;
+                        }
+                    }
+                }
+                future.complete(null);
+            };
+            if(holdWrites) {
+                held.add(apply);
+            } else {
+                apply.run();
+            }
+            return future;
+        }
+        
+        private void release() {
+            holdWrites = false;
+            holdReads = false;
+            while(!held.isEmpty()) {
+                held.poll().run();
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.impl.MemberImpl;
+import com.mewna.catnip.entity.impl.VoiceStateImpl;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class SecondaryIndexTests {
+    private static final SecondaryIndex.Keys<Set<Long>> IDENTITY = (keys, sink) -> keys.forEach(sink::accept);
+    
+    @SafeVarargs
+    private static <T> Set<T> set(final T... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+    
+    private static MemberImpl member(final long id, final String... roles) {
+        return MemberImpl.builder().idAsLong(id).guildIdAsLong(1).roleIds(set(roles)).build();
+    }
+    
+    @Test
+    public void update() {
+        final SecondaryIndex<Set<Long>> index = new SecondaryIndex<>(IDENTITY);
+        index.update(3, null, set(10L, 20L));
+        index.update(1, null, set(10L));
+        index.update(2, null, set(10L));
+        Assertions.assertArrayEquals(new long[] {1, 2, 3}, index.ids(10));
+        Assertions.assertArrayEquals(new long[] {3}, index.ids(20));
+        
+        index.update(3, set(10L, 20L), set(30L));
+        Assertions.assertArrayEquals(new long[] {1, 2}, index.ids(10));
+        Assertions.assertArrayEquals(new long[0], index.ids(20));
+        Assertions.assertArrayEquals(new long[] {3}, index.ids(30));
+        
+        index.update(1, set(10L), null);
+        index.update(2, set(10L), null);
+        index.update(3, set(30L), null);
+        Assertions.assertEquals(0, index.keyCount());
+    }
+    
+    @Test
+    public void carries() {
+        final SecondaryIndex<Set<Long>> index = new SecondaryIndex<>(IDENTITY);
+        Assertions.assertTrue(index.carries(set(1L, 2L), 2));
+        Assertions.assertFalse(index.carries(set(1L, 2L), 3));
+    }
+    
+    @Test
+    public void memoryCacheQueries() {
+        final UnifiedMemoryEntityCache cache = new UnifiedMemoryEntityCache();
+        cache.catnip(Mockito.mock(Catnip.class));
+        cache.bulkCacheMembers(0, Arrays.asList(member(10, "5"), member(11, "5", "6"), member(12)));
+        Assertions.assertEquals(set(10L, 11L), cache.membersWithRole(1, 5).stream()
+                .map(Member::idAsLong).collect(Collectors.toSet()));
+        // Replacing a member moves it between keys
+        cache.bulkCacheMembers(0, Collections.singletonList(member(10, "6")));
+        Assertions.assertEquals(Collections.singletonList(11L), cache.membersWithRole(1, 5).stream()
+                .map(Member::idAsLong).collect(Collectors.toList()));
+        Assertions.assertEquals(2, cache.membersWithRole(1, 6).size());
+        Assertions.assertTrue(cache.membersWithRole(2, 5).isEmpty());
+        
+        cache.bulkCacheVoiceStates(0, Arrays.asList(
+                VoiceStateImpl.builder().guildIdAsLong(1).userIdAsLong(10).channelIdAsLong(20).build(),
+                VoiceStateImpl.builder().guildIdAsLong(1).userIdAsLong(11).channelIdAsLong(20).build()));
+        Assertions.assertEquals(2, cache.voiceStatesInChannel(1, 20).size());
+        // Leaving voice clears the channel id
+        cache.bulkCacheVoiceStates(0, Collections.singletonList(
+                VoiceStateImpl.builder().guildIdAsLong(1).userIdAsLong(10).build()));
+        Assertions.assertEquals(1, cache.voiceStatesInChannel(1, 20).size());
+        
+        cache.deleteMemberCache(1);
+        Assertions.assertTrue(cache.membersWithRole(1, 6).isEmpty());
+        Assertions.assertTrue(cache.membersByRole.isEmpty());
+    }
+}
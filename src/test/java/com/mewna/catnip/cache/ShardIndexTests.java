@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ShardIndexTests {
+    @Test
+    public void addAndLookup() {
+        final ShardIndex index = new ShardIndex();
+        Assertions.assertNull(index.shards(1));
+        index.add(1, 0);
+        index.add(1, 0);
+        Assertions.assertArrayEquals(new int[]{0}, index.shards(1));
+        index.add(1, 3);
+        Assertions.assertArrayEquals(new int[]{0, 3}, index.shards(1));
+        index.add(2, 0);
+        index.add(4, 3);
+        Assertions.assertArrayEquals(new int[]{3}, index.shards(4));
+    }
+    
+    @Test
+    public void removeShard() {
+        final ShardIndex index = new ShardIndex();
+        index.add(1, 0);
+        index.add(1, 1);
+        index.add(2, 1);
+        index.add(3, 2);
+        index.removeShard(1);
+        Assertions.assertArrayEquals(new int[]{0}, index.shards(1));
+        Assertions.assertNull(index.shards(2));
+        Assertions.assertArrayEquals(new int[]{2}, index.shards(3));
+    }
+}
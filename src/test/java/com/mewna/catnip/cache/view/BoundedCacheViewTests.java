@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache.view;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BoundedCacheViewTests {
+    @Test
+    public void evictsLeastRecentlyUsedAcrossViews() {
+        final List<Long> evicted = new ArrayList<>();
+        final CacheBudget<String> budget = new CacheBudget<String>(3)
+                .listener((id, entity, cause) -> evicted.add(id));
+        final BoundedCacheView<String> first = budget.createView();
+        final BoundedCacheView<String> second = budget.createView();
+        first.put(1, "a");
+        second.put(2, "b");
+        first.put(3, "c");
+        Assertions.assertEquals("a", first.getById(1));
+        second.put(4, "d");
+        Assertions.assertEquals(Arrays.asList(2L), evicted);
+        Assertions.assertNull(second.getById(2));
+        Assertions.assertEquals(2, first.size());
+        Assertions.assertEquals(3, budget.weightedSize());
+        Assertions.assertEquals(1, budget.evictionCount());
+    }
+    
+    @Test
+    public void weighsEntries() {
+        final CacheBudget<String> budget = new CacheBudget<String>(5).weigher(String::length);
+        final BoundedCacheView<String> view = budget.createView();
+        view.put(1, "aa");
+        view.put(2, "bbb");
+        view.put(3, "c");
+        Assertions.assertNull(view.getById(1));
+        Assertions.assertEquals(4, budget.weightedSize());
+        view.remove(2);
+        Assertions.assertEquals(1, budget.weightedSize());
+    }
+    
+    @Test
+    public void expiresAfterAccess() {
+        final AtomicLong time = new AtomicLong();
+        final CacheBudget<String> budget = new CacheBudget<String>(10)
+                .expireAfterAccess(10, TimeUnit.NANOSECONDS)
+                .ticker(time::get);
+        final BoundedCacheView<String> view = budget.createView();
+        view.put(1, "a");
+        view.put(2, "b");
+        time.set(5);
+        Assertions.assertEquals("a", view.getById(1));
+        time.set(12);
+        Assertions.assertNull(view.getById(2));
+        Assertions.assertEquals("a", view.getById(1));
+        time.set(30);
+        view.put(3, "c");
+        Assertions.assertEquals(1, view.size());
+        Assertions.assertEquals(2, budget.expirationCount());
+    }
+    
+    @Test
+    public void cleanUpDropsExpiredEntries() {
+        final AtomicLong time = new AtomicLong();
+        final CacheBudget<String> budget = new CacheBudget<String>(10)
+                .expireAfterAccess(10, TimeUnit.NANOSECONDS)
+                .ticker(time::get);
+        final BoundedCacheView<String> first = budget.createView();
+        final BoundedCacheView<String> second = budget.createView();
+        first.put(1, "a");
+        second.put(2, "b");
+        time.set(5);
+        first.put(3, "c");
+        time.set(12);
+        // Only lookups drop expired entries on their own
+        Assertions.assertEquals(2, first.size());
+        budget.cleanUp();
+        Assertions.assertEquals(Collections.singletonList("c"), new ArrayList<>(first.values()));
+        Assertions.assertTrue(second.isEmpty());
+        Assertions.assertEquals(2, budget.expirationCount());
+    }
+    
+    @Test
+    public void lookupsOnlyTakeTheReadLock() {
+        final CacheBudget<String> budget = new CacheBudget<String>(2);
+        final BoundedCacheView<String> view = budget.createView();
+        view.put(1, "a");
+        view.put(2, "b");
+        // Waiting on the write lock while holding the read lock would never return
+        budget.lock.readLock().lock();
+        try {
+            Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                for(int i = 0; i < 1000; i++) {
+                    Assertions.assertEquals("a", view.getById(1));
+                }
+            });
+        } finally {
+            budget.lock.readLock().unlock();
+        }
+        // Reads are applied to the LRU list on the next write
+        view.put(3, "c");
+        Assertions.assertEquals("a", view.getById(1));
+        Assertions.assertNull(view.getById(2));
+    }
+    
+    @Test
+    public void tinyLfuRejectsColdEntries() {
+        final CacheBudget<String> budget = new CacheBudget<String>(2).policy(EvictionPolicy.tinyLfu(2));
+        final BoundedCacheView<String> view = budget.createView();
+        view.put(1, "a");
+        view.put(2, "b");
+        for(int i = 0; i < 5; i++) {
+            view.getById(1);
+            view.getById(2);
+        }
+        view.put(3, "c");
+        Assertions.assertNull(view.getById(3));
+        Assertions.assertEquals(2, view.size());
+    }
+}
@@ -27,6 +27,7 @@
 
 package com.mewna.catnip.cache.view;
 
+import com.koloboke.collect.set.LongSet;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -309,4 +310,42 @@ public class CompositeCacheViewTests {
         Assertions.assertTrue(snapshot2.contains("some string"));
         Assertions.assertFalse(snapshot2.contains("yet another string"));
     }
+    
+    @Test
+    public void parallelStream() {
+        final List<CacheView<Integer>> views = new ArrayList<>();
+        for(int v = 0; v < 5; v++) {
+            final MutableCacheView<Integer> view = v % 2 == 0 ? new DefaultCacheView<>() : new CopyOnWriteCacheView<>();
+            for(int i = 0; i < 1000; i++) {
+                view.put(v * 1000 + i, v * 1000 + i);
+            }
+            views.add(view);
+        }
+        final CompositeCacheView<Integer> composite = new CompositeCacheView<>(views);
+        final Spliterator<Integer> spliterator = composite.spliterator();
+        Assertions.assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+        Assertions.assertEquals(5000, spliterator.estimateSize());
+        final Spliterator<Integer> prefix = spliterator.trySplit();
+        Assertions.assertEquals(5000, prefix.estimateSize() + spliterator.estimateSize());
+        Assertions.assertEquals(5000, composite.parallelStream().distinct().count());
+        Assertions.assertEquals(12497500L, composite.parallelStream().mapToLong(Integer::longValue).sum());
+    }
+    
+    @Test
+    public void primitiveKeys() {
+        final DefaultCacheView<String> cache1 = new DefaultCacheView<>();
+        cache1.put(123, "some string");
+        final ConcurrentCacheView<String> cache2 = new ConcurrentCacheView<>();
+        cache2.put(123, "some string");
+        cache2.put(456, "some other string");
+        final CompositeCacheView<String> composite = composite(cache1, cache2);
+        final LongSet keys = composite.keysAsLongSet();
+        Assertions.assertEquals(2, keys.size());
+        Assertions.assertTrue(keys.contains(123));
+        Assertions.assertTrue(keys.contains(456));
+        Assertions.assertEquals(123 + 456, composite.keyStream().sum());
+        final List<Long> seen = new ArrayList<>();
+        composite.forEachKey(seen::add);
+        Assertions.assertEquals(3, seen.size());
+    }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache.view;
+
+import com.koloboke.collect.LongIterator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConcurrentLongEntityMapTests {
+    @Test
+    public void putGetRemove() {
+        final LongEntityMap<String> map = LongEntityMap.createConcurrent();
+        Assertions.assertNull(map.put(123, "a"));
+        Assertions.assertEquals("a", map.put(123, "b"));
+        Assertions.assertEquals("b", map.get(123));
+        Assertions.assertEquals(1, map.size());
+        Assertions.assertEquals("b", map.remove(123));
+        Assertions.assertNull(map.remove(123));
+        Assertions.assertNull(map.get(123));
+        Assertions.assertTrue(map.isEmpty());
+        // Reuses the removed slot
+        Assertions.assertNull(map.put(123, "c"));
+        Assertions.assertEquals("c", map.get(123L));
+        Assertions.assertTrue(map.containsKey(123L));
+        Assertions.assertEquals(1, map.size());
+    }
+    
+    @Test
+    public void grow() {
+        final LongEntityMap<Long> map = LongEntityMap.createConcurrent();
+        for(long i = 0; i < 10_000; i++) {
+            map.put(i << 22, (Long) i);
+        }
+        for(long i = 0; i < 10_000; i += 2) {
+            map.remove(i << 22);
+        }
+        Assertions.assertEquals(5_000, map.size());
+        for(long i = 0; i < 10_000; i++) {
+            Assertions.assertEquals(i % 2 == 0 ? null : (Long) i, map.get(i << 22));
+        }
+    }
+    
+    @Test
+    public void iterate() {
+        final LongEntityMap<String> map = LongEntityMap.createConcurrent();
+        map.put(1, "a");
+        map.put(2, "b");
+        map.put(3, "c");
+        map.remove(2);
+        Assertions.assertEquals(new HashSet<>(Arrays.asList(1L, 3L)), new HashSet<>(map.keySet()));
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("a", "c")), new HashSet<>(map.values()));
+        final Map<Long, String> copy = new HashMap<>(map);
+        Assertions.assertEquals(2, copy.size());
+        Assertions.assertEquals("c", copy.get(3L));
+        
+        final LongIterator iterator = map.iterator();
+        while(iterator.hasNext()) {
+            if(iterator.nextLong() == 1) {
+                iterator.remove();
+            }
+        }
+        Assertions.assertEquals(Collections.singleton(3L), new HashSet<>(map.keySet()));
+    }
+    
+    @Test
+    public void iterateWhileWriting() {
+        final LongEntityMap<Long> map = LongEntityMap.createConcurrent();
+        for(long i = 0; i < 100; i++) {
+            map.put(i, (Long) i);
+        }
+        // Weakly consistent, so this must not throw
+        for(final Long value : map.values()) {
+            map.put(value + 1000, value);
+            map.remove(value);
+        }
+        Assertions.assertEquals(100, map.size());
+    }
+    
+    @Test
+    public void readsDuringWrites() throws InterruptedException {
+        final LongEntityMap<Long> map = LongEntityMap.createConcurrent();
+        map.put(1, 1L);
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final Thread reader = new Thread(() -> {
+            try {
+                while(!done.get()) {
+                    Assertions.assertEquals(Long.valueOf(1L), map.get(1));
+                    for(final Map.Entry<Long, Long> entry : map.entrySet()) {
+                        Assertions.assertEquals(entry.getKey(), entry.getValue());
+                    }
+                }
+            } catch(final Throwable t) {
+                error.set(t);
+            }
+        });
+        reader.start();
+        for(long i = 2; i < 50_000; i++) {
+            map.put(i, (Long) i);
+            if(i % 3 == 0) {
+                map.remove(i - 1);
+            }
+        }
+        done.set(true);
+        reader.join();
+        Assertions.assertNull(error.get());
+    }
+    
+    @Test
+    public void cacheView() {
+        final ConcurrentNamedCacheView<String> cache = new ConcurrentNamedCacheView<>(s -> s);
+        cache.put(123, "string");
+        cache.put(456, "other");
+        Assertions.assertEquals("string", cache.getById(123));
+        Assertions.assertFalse(cache.findByName("string").isEmpty());
+        cache.removeIf(id -> id == 123);
+        Assertions.assertNull(cache.getById(123));
+        Assertions.assertEquals(1, cache.snapshot().size());
+    }
+}
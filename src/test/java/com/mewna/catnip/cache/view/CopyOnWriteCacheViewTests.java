@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache.view;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.function.Function;
+
+public class CopyOnWriteCacheViewTests {
+    @Test
+    public void putAndRemove() {
+        final CopyOnWriteCacheView<String> cache = new CopyOnWriteCacheView<>();
+        Assertions.assertNull(cache.put(123, "some string"));
+        Assertions.assertEquals("some string", cache.put(123, "some other string"));
+        Assertions.assertEquals("some other string", cache.getById(123));
+        Assertions.assertEquals(1, cache.size());
+        Assertions.assertNull(cache.remove(456));
+        Assertions.assertEquals("some other string", cache.remove(123));
+        Assertions.assertTrue(cache.isEmpty());
+    }
+    
+    @Test
+    public void removeIf() {
+        final CopyOnWriteCacheView<String> cache = new CopyOnWriteCacheView<>();
+        cache.put(123, "some string");
+        cache.put(456, "some other string");
+        cache.removeIf(id -> id == 123);
+        Assertions.assertNull(cache.getById(123));
+        Assertions.assertEquals(1, cache.size());
+    }
+    
+    @Test
+    public void snapshotIsNotAffectedByWrites() {
+        final CopyOnWriteCacheView<String> cache = new CopyOnWriteCacheView<>();
+        cache.put(123, "some string");
+        final Collection<String> snapshot = cache.snapshot();
+        final Iterator<String> iterator = cache.iterator();
+        cache.put(456, "some other string");
+        cache.remove(123);
+        Assertions.assertEquals(1, snapshot.size());
+        Assertions.assertTrue(snapshot.contains("some string"));
+        Assertions.assertEquals("some string", iterator.next());
+        Assertions.assertFalse(iterator.hasNext());
+    }
+    
+    @Test
+    public void findByName() {
+        final CopyOnWriteNamedCacheView<String> cache = new CopyOnWriteNamedCacheView<>(Function.identity());
+        cache.put(123, "string");
+        Assertions.assertFalse(cache.findByName("string").isEmpty());
+        Assertions.assertTrue(cache.findByName("StRiNg").isEmpty());
+        Assertions.assertFalse(cache.findByNameStartsWith("StR", true).isEmpty());
+    }
+}
@@ -27,11 +27,14 @@
 
 package com.mewna.catnip.cache.view;
 
+import com.koloboke.collect.LongIterator;
+import com.koloboke.collect.set.LongSet;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class DefaultCacheViewTests {
     @Test
@@ -281,4 +284,78 @@ public class DefaultCacheViewTests {
         Assertions.assertTrue(snapshot2.contains("some string"));
         Assertions.assertFalse(snapshot2.contains("yet another string"));
     }
+    
+    @Test
+    public void update() {
+        final DefaultCacheView<String> cache = new DefaultCacheView<>();
+        Assertions.assertNull(cache.update(123, s -> s + "!"));
+        Assertions.assertTrue(cache.isEmpty());
+        cache.put(123, "some string");
+        Assertions.assertEquals("some string!", cache.update(123, s -> s + "!"));
+        Assertions.assertEquals("some string!", cache.getById(123));
+        final String current = cache.getById(123);
+        Assertions.assertSame(current, cache.update(123, s -> s));
+        Assertions.assertSame(current, cache.getById(123));
+    }
+    
+    @Test
+    public void parallelStream() {
+        final DefaultCacheView<Integer> cache = new DefaultCacheView<>();
+        for(int i = 0; i < 10000; i++) {
+            cache.put(i, i);
+        }
+        final Spliterator<Integer> spliterator = cache.spliterator();
+        Assertions.assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+        Assertions.assertEquals(10000, spliterator.estimateSize());
+        final Stream<Integer> stream = cache.parallelStream();
+        Assertions.assertTrue(stream.isParallel());
+        // Streams see the view as it was when they were created
+        cache.put(10000, 10000);
+        Assertions.assertEquals(49995000L, stream.mapToLong(Integer::longValue).sum());
+    }
+    
+    @Test
+    public void primitiveKeys() {
+        final DefaultCacheView<String> cache = new DefaultCacheView<>();
+        cache.put(123, "some string");
+        cache.put(456, "some other string");
+        final LongSet keys = cache.keysAsLongSet();
+        cache.put(789, "yet another string");
+        Assertions.assertEquals(2, keys.size());
+        Assertions.assertTrue(keys.contains(123));
+        Assertions.assertTrue(keys.contains(456));
+        Assertions.assertFalse(keys.contains(789));
+        // The copy is separate from the view
+        keys.removeLong(123);
+        Assertions.assertNotNull(cache.getById(123));
+        Assertions.assertEquals(123 + 456 + 789, cache.keyStream().sum());
+        final Set<Long> seen = new HashSet<>();
+        cache.forEachKey(seen::add);
+        Assertions.assertEquals(cache.keys(), seen);
+    }
+    
+    @Test
+    public void keyCopiesAreIndependent() {
+        final DefaultCacheView<Integer> cache = new DefaultCacheView<>();
+        for(int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        final LongSet first = cache.keysAsLongSet();
+        final LongSet second = cache.keysAsLongSet();
+        first.removeIf((long key) -> key % 2 == 0);
+        final LongIterator iterator = second.iterator();
+        while(iterator.hasNext()) {
+            if(iterator.nextLong() < 500) {
+                iterator.remove();
+            }
+        }
+        Assertions.assertEquals(500, first.size());
+        Assertions.assertTrue(first.contains(999));
+        Assertions.assertFalse(first.contains(998));
+        Assertions.assertEquals(500, second.size());
+        Assertions.assertTrue(second.contains(998));
+        Assertions.assertFalse(second.contains(499));
+        Assertions.assertEquals(1000, cache.size());
+        Assertions.assertEquals(1000, cache.keysAsLongSet().size());
+    }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache.view;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.function.Function;
+
+public class IndexedNamedCacheViewTests {
+    @Test
+    public void findByName() {
+        final IndexedNamedCacheView<String> cache = new IndexedNamedCacheView<>(Function.identity());
+        cache.put(123, "string");
+        cache.put(456, "StRiNg");
+        Assertions.assertEquals(Collections.singletonList("string"), cache.findByName("string"));
+        Assertions.assertEquals(2, cache.findByName("STRING", true).size());
+        Assertions.assertTrue(cache.findByName("strin", true).isEmpty());
+    }
+    
+    @Test
+    public void findByNameStartsWith() {
+        final IndexedNamedCacheView<String> cache = new IndexedNamedCacheView<>(Function.identity());
+        cache.put(1, "cat");
+        cache.put(2, "Catnip");
+        cache.put(3, "catnip");
+        cache.put(4, "dog");
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("cat", "catnip")),
+                new HashSet<>(cache.findByNameStartsWith("cat")));
+        Assertions.assertEquals(3, cache.findByNameStartsWith("CAT", true).size());
+        Assertions.assertEquals(4, cache.findByNameStartsWith("", true).size());
+        Assertions.assertTrue(cache.findByNameStartsWith("catnipped", true).isEmpty());
+    }
+    
+    @Test
+    public void updatesOnPutAndRemove() {
+        final IndexedNamedCacheView<String> cache = new IndexedNamedCacheView<>(Function.identity());
+        cache.put(123, "old");
+        cache.put(123, "new");
+        Assertions.assertTrue(cache.findByName("old").isEmpty());
+        Assertions.assertEquals(1, cache.findByName("new").size());
+        cache.remove(123);
+        Assertions.assertTrue(cache.findByName("new").isEmpty());
+        cache.put(456, "other");
+        cache.removeIf(id -> id == 456);
+        Assertions.assertTrue(cache.findByNameStartsWith("o").isEmpty());
+    }
+    
+    @Test
+    public void reindex() {
+        final Map<Long, String> names = new HashMap<>();
+        names.put(123L, "before");
+        final IndexedNamedCacheView<Long> cache = new IndexedNamedCacheView<>(names::get);
+        cache.put(123, 123L);
+        names.put(123L, "after");
+        // Stale entries are never returned...
+        Assertions.assertTrue(cache.findByName("before").isEmpty());
+        Assertions.assertTrue(cache.findByName("after").isEmpty());
+        // ...and show up again once reindexed
+        cache.reindex(123);
+        Assertions.assertEquals(1, cache.findByName("after").size());
+    }
+    
+    @Test
+    public void matchesDefaultView() {
+        final String[] names = {"Amy", "amy", "AMY", "amelia", "Ämy", "ämy", "İlker", "ilker", "", "straße", "STRASSE"};
+        final IndexedNamedCacheView<String> indexed = new IndexedNamedCacheView<>(Function.identity());
+        final DefaultNamedCacheView<String> scanned = new DefaultNamedCacheView<>(Function.identity());
+        for(int i = 0; i < names.length; i++) {
+            indexed.put(i, names[i]);
+            scanned.put(i, names[i]);
+        }
+        for(final String name : names) {
+            for(final boolean ignoreCase : new boolean[]{false, true}) {
+                Assertions.assertEquals(new HashSet<>(scanned.findByName(name, ignoreCase)),
+                        new HashSet<>(indexed.findByName(name, ignoreCase)));
+                Assertions.assertEquals(new HashSet<>(scanned.findByNameStartsWith(name, ignoreCase)),
+                        new HashSet<>(indexed.findByNameStartsWith(name, ignoreCase)));
+            }
+        }
+    }
+    
+    @Test
+    public void updateReindexes() {
+        final IndexedNamedCacheView<String> cache = new IndexedNamedCacheView<>(Function.identity());
+        cache.put(123, "old");
+        Assertions.assertEquals("new", cache.update(123, s -> "new"));
+        Assertions.assertTrue(cache.findByName("old").isEmpty());
+        Assertions.assertEquals(Collections.singletonList("new"), cache.findByName("new"));
+    }
+}
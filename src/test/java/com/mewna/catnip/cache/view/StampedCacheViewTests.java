@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache.view;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+public class StampedCacheViewTests {
+    @Test
+    public void getById() {
+        final StampedCacheView<String> cache = new StampedCacheView<>();
+        cache.put(123, "some string");
+        Assertions.assertEquals("some string", cache.getById(123));
+        Assertions.assertNull(cache.getById(456));
+    }
+    
+    @Test
+    public void size() {
+        final StampedCacheView<String> cache = new StampedCacheView<>();
+        Assertions.assertTrue(cache.isEmpty());
+        cache.put(123, "some string");
+        cache.put(456, "some other string");
+        Assertions.assertEquals(2, cache.size());
+        cache.remove(123);
+        Assertions.assertEquals(1, cache.size());
+        Assertions.assertFalse(cache.isEmpty());
+    }
+    
+    @Test
+    public void findByName() {
+        final StampedNamedCacheView<String> cache = new StampedNamedCacheView<>(Function.identity());
+        cache.put(123, "string");
+        Assertions.assertEquals("string", cache.getById(123));
+        Assertions.assertFalse(cache.findByName("string").isEmpty());
+    }
+    
+    @Test
+    public void getByIdDuringRehash() throws InterruptedException {
+        final StampedCacheView<Long> cache = new StampedCacheView<>();
+        cache.put(1, 1L);
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final Thread reader = new Thread(() -> {
+            try {
+                while(!done.get()) {
+                    Assertions.assertEquals(Long.valueOf(1L), cache.getById(1));
+                }
+            } catch(final Throwable t) {
+                error.set(t);
+            }
+        });
+        reader.start();
+        // Forces the backing map to grow many times while being read
+        for(long i = 2; i < 100_000; i++) {
+            cache.put(i, i);
+        }
+        done.set(true);
+        reader.join();
+        Assertions.assertNull(error.get());
+    }
+}
@@ -366,7 +366,7 @@ class CodecTest {
                 .splash(imageUrl())
                 .owned(ThreadLocalRandom.current().nextBoolean())
                 .ownerIdAsLong(randomPositiveLong())
-                .permissions(EnumSet.allOf(Permission.class))
+                .permissionsRaw(Permission.ALL)
                 .region("Sealand")
                 .afkChannelIdAsLong(randomPositiveLong())
                 .afkTimeout(60)
@@ -516,7 +516,7 @@ class CodecTest {
                 .name("Best partial guild EUW")
                 .icon(imageUrl())
                 .owned(ThreadLocalRandom.current().nextBoolean())
-                .permissions(EnumSet.allOf(Permission.class))
+                .permissionsRaw(Permission.ALL)
                 .build();
         
         testEntity(partialGuild);
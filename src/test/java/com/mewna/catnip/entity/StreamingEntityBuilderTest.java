@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.entity;
+
+import com.cedarsoftware.util.DeepEquals;
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.EntityCache;
+import com.mewna.catnip.cache.EntityCacheWorker;
+import com.mewna.catnip.cache.UnifiedMemoryEntityCache;
+import com.mewna.catnip.entity.impl.EntityBuilder;
+import com.mewna.catnip.entity.impl.StreamingEntityBuilder;
+import com.mewna.catnip.entity.impl.StreamingEntityBuilder.RawGuildCollections;
+import com.mewna.catnip.entity.message.Message;
+import com.mewna.catnip.shard.manager.ShardManager;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.Invocation;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Feeds the same Discord payloads through {@link EntityBuilder} and
+ * {@link StreamingEntityBuilder}, and makes sure both produce the same
+ * entities, the same way {@link CodecTest} compares them.
+ */
+@SuppressWarnings("WeakerAccess")
+public class StreamingEntityBuilderTest {
+    private Catnip catnip;
+    private EntityCacheWorker cacheWorker;
+    private EntityBuilder tree;
+    private StreamingEntityBuilder streaming;
+    
+    private static JsonObject user(final String id) {
+        return new JsonObject()
+                .put("id", id)
+                .put("username", "user" + id)
+                .put("discriminator", "0001")
+                .putNull("avatar")
+                .put("bot", false);
+    }
+    
+    private static void assertDeepEquals(final Object expected, final Object actual) {
+        final Map<Object, Object> deepEqualsOptions = new HashMap<>();
+        deepEqualsOptions.put(DeepEquals.IGNORE_CUSTOM_EQUALS, Collections.emptySet()); //empty set = ignore all
+        assertTrue(DeepEquals.deepEquals(expected, actual, deepEqualsOptions));
+    }
+    
+    @BeforeEach
+    public void setup() {
+        catnip = Mockito.mock(Catnip.class);
+        cacheWorker = Mockito.mock(EntityCacheWorker.class);
+        final ShardManager shardManager = Mockito.mock(ShardManager.class);
+        Mockito.when(shardManager.shardCount()).thenReturn(1);
+        Mockito.when(catnip.cacheWorker()).thenReturn(cacheWorker);
+        Mockito.when(catnip.shardManager()).thenReturn(shardManager);
+        Mockito.when(catnip.cache()).thenReturn(Mockito.mock(EntityCache.class));
+        tree = new EntityBuilder(catnip);
+        streaming = new StreamingEntityBuilder(catnip);
+    }
+    
+    @Test
+    public void testMessage() {
+        final JsonObject data = new JsonObject()
+                .put("id", "575062473468133376")
+                .put("channel_id", "411631981396672522")
+                .put("author", user("128316294742147072"))
+                .put("member", new JsonObject()
+                        .put("roles", new JsonArray().add("411632070634299393"))
+                        .put("joined_at", "2018-02-11T18:52:29.813000+00:00")
+                        .putNull("nick")
+                        .put("deaf", false)
+                        .put("mute", false))
+                .put("content", "hello <@!267500017260953601>")
+                .put("timestamp", "2019-05-05T19:37:18.212000+00:00")
+                .putNull("edited_timestamp")
+                .put("tts", false)
+                .put("mention_everyone", false)
+                .put("mentions", new JsonArray()
+                        .add(user("267500017260953601").put("member", new JsonObject()
+                                .put("roles", new JsonArray())
+                                .put("joined_at", "2018-02-11T18:52:29.813000+00:00")
+                                .put("deaf", false)
+                                .put("mute", true)))
+                        .add(user("128316294742147073")))
+                .put("mention_roles", new JsonArray().add("411632070634299393"))
+                .put("attachments", new JsonArray().add(new JsonObject()
+                        .put("id", "575062473468133377")
+                        .put("filename", "cat.png")
+                        .put("size", 1024)
+                        .put("url", "https://cdn.discordapp.com/cat.png")
+                        .put("proxy_url", "https://media.discordapp.net/cat.png")
+                        .put("height", 256)))
+                .put("embeds", new JsonArray().add(new JsonObject()
+                        .put("type", "rich")
+                        .put("title", "Embed")
+                        .put("color", 0xFF00FF)
+                        .put("footer", new JsonObject().put("text", "footer"))
+                        .put("image", new JsonObject().put("proxy_url", "invalid without url"))
+                        .put("author", new JsonObject().put("name", "author").put("url", "https://mewna.com"))
+                        .put("fields", new JsonArray()
+                                .add(new JsonObject().put("name", "a").put("value", "b").put("inline", true))
+                                .add(new JsonObject().put("name", "c").put("value", "d")))))
+                .put("reactions", new JsonArray()
+                        .add(new JsonObject().put("count", 2).put("self", true)
+                                .put("emoji", new JsonObject().put("id", "575062473468133378").put("name", "catnip")))
+                        .add(new JsonObject().put("count", 1)
+                                .put("emoji", new JsonObject().putNull("id").put("name", "🐱"))))
+                .put("nonce", 12345)
+                .put("pinned", false)
+                .put("type", 0)
+                .put("unknown_field", new JsonObject().put("nested", new JsonArray().add(1)))
+                // Deliberately last, as most of the message depends on it
+                .put("guild_id", "411631981396672520");
+        final Message expected = tree.createMessage(data);
+        final Message actual = streaming.createMessage(data.toBuffer());
+        assertDeepEquals(expected, actual);
+        assertEquals(2, actual.mentionedMembers().size());
+        assertNotNull(actual.mentionedMembers().get(0));
+        assertNull(actual.mentionedMembers().get(1));
+        assertEquals(411631981396672520L, actual.member().guildIdAsLong());
+        
+        final JsonObject dm = new JsonObject()
+                .put("id", "575062473468133376")
+                .put("channel_id", "411631981396672522")
+                .put("author", user("128316294742147072"))
+                .put("content", "hi")
+                .put("timestamp", "2019-05-05T19:37:18.212000+00:00")
+                .put("mentions", new JsonArray().add(user("267500017260953601")))
+                .put("mention_roles", new JsonArray())
+                .put("type", 0);
+        assertDeepEquals(tree.createMessage(dm), streaming.createMessage(dm.toBuffer()));
+    }
+    
+    @Test
+    public void testMember() {
+        final JsonObject data = new JsonObject()
+                .put("user", user("128316294742147072"))
+                .put("nick", "amy")
+                .put("roles", new JsonArray().add("411632070634299393").add("411632070634299394"))
+                .put("joined_at", "2018-02-11T18:52:29.813000+00:00")
+                .put("deaf", true)
+                .put("mute", false);
+        assertDeepEquals(tree.createMember("411631981396672520", data),
+                streaming.createMember("411631981396672520", data.toBuffer()));
+        // Both paths should have cached the member's user
+        verify(cacheWorker, times(2)).bulkCacheUsers(anyInt(), any());
+        
+        data.remove("joined_at");
+        assertDeepEquals(tree.createMember("411631981396672520", data),
+                streaming.createMember("411631981396672520", data.toBuffer()));
+    }
+    
+    @Test
+    public void testGuild() {
+        final JsonObject data = new JsonObject()
+                .put("id", "411631981396672520")
+                .put("name", "catnip")
+                .put("icon", "a_1234")
+                .putNull("splash")
+                .put("owner_id", "128316294742147072")
+                .put("region", "us-west")
+                .putNull("afk_channel_id")
+                .put("afk_timeout", 300)
+                .put("verification_level", 2)
+                .put("default_message_notifications", 1)
+                .put("explicit_content_filter", 2)
+                .put("roles", new JsonArray().add(new JsonObject().put("id", "411631981396672520")))
+                .put("emojis", new JsonArray())
+                .put("features", new JsonArray().add("INVITE_SPLASH").add("VANITY_URL"))
+                .put("mfa_level", 1)
+                .putNull("application_id")
+                .put("system_channel_id", "411631981396672522")
+                .put("joined_at", "2018-02-11T18:52:29.813000+00:00")
+                .put("large", true)
+                .put("member_count", 1234)
+                .put("members", new JsonArray().add(new JsonObject().put("user", user("128316294742147072"))))
+                .putNull("max_presences")
+                .put("max_members", 250000)
+                .put("permissions", 2146958847L)
+                .put("vanity_url_code", "catnip")
+                .putNull("description")
+                .putNull("banner");
+        assertDeepEquals(tree.createGuild(data), streaming.createGuild(data.toBuffer()));
+        
+        data.remove("max_presences");
+        data.remove("permissions");
+        assertDeepEquals(tree.createGuild(data), streaming.createGuild(data.toBuffer()));
+    }
+    
+    @Test
+    public void testPresence() {
+        final JsonObject data = new JsonObject()
+                .put("user", new JsonObject().put("id", "128316294742147072"))
+                .put("status", "dnd")
+                .put("game", new JsonObject()
+                        .put("name", "catnip")
+                        .put("type", 0)
+                        .put("application_id", "411631981396672525")
+                        .put("details", "details")
+                        .put("state", "state")
+                        // Stringly-typed, see EntityBuilder#createTimestamps
+                        .put("timestamps", new JsonObject().put("start", "1557085038212").put("end", 1557085099999L))
+                        .put("party", new JsonObject().put("id", "party").put("size", new JsonArray().add(1).add(4)))
+                        .put("assets", new JsonObject().put("large_image", "large").put("small_text", "small"))
+                        .put("secrets", new JsonObject().put("join", "join"))
+                        .put("instance", true)
+                        .put("flags", 3))
+                .put("client_status", new JsonObject().put("desktop", "dnd").put("mobile", "idle"));
+        assertDeepEquals(tree.createPresence(data), streaming.createPresence(data.toBuffer()));
+        
+        data.putNull("game").put("status", "offline").remove("client_status");
+        assertDeepEquals(tree.createPresence(data), streaming.createPresence(data.toBuffer()));
+    }
+    
+    @Test
+    public void testVoiceState() {
+        final JsonObject data = new JsonObject()
+                .put("guild_id", "411631981396672520")
+                .put("channel_id", "411631981396672523")
+                .put("user_id", "128316294742147072")
+                .put("session_id", "c0ffee")
+                .put("deaf", false)
+                .put("mute", true)
+                .put("self_deaf", true)
+                .put("self_mute", false)
+                .put("suppress", false);
+        assertDeepEquals(tree.createVoiceState(data), streaming.createVoiceState(data.toBuffer()));
+    }
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStreamedGuildCreate() {
+        final String guildId = "411631981396672520";
+        final JsonArray members = new JsonArray();
+        final JsonArray presences = new JsonArray();
+        for(int i = 0; i < 5; i++) {
+            final String id = "12831629474214707" + i;
+            members.add(new JsonObject()
+                    .put("user", user(id))
+                    .put("roles", new JsonArray().add(guildId))
+                    .put("joined_at", "2018-02-11T18:52:29.813000+00:00")
+                    .put("deaf", false)
+                    .put("mute", i % 2 == 0));
+            presences.add(new JsonObject()
+                    .put("user", new JsonObject().put("id", id))
+                    .put("status", i % 2 == 0 ? "online" : "idle")
+                    .putNull("game"));
+        }
+        final JsonObject guild = new JsonObject()
+                .put("id", guildId)
+                .put("name", "catnip")
+                .put("features", new JsonArray().add("VANITY_URL"))
+                .put("member_count", 5)
+                .put("roles", new JsonArray().add(new JsonObject()
+                        .put("id", guildId)
+                        .put("name", "@everyone")
+                        .put("color", 0)
+                        .put("hoist", false)
+                        .put("position", 0)
+                        .put("permissions", 104324673)
+                        .put("managed", false)
+                        .put("mentionable", false)))
+                .put("channels", new JsonArray().add(new JsonObject()
+                        .put("id", "411631981396672522")
+                        .put("type", 0)
+                        .put("name", "general")
+                        .put("position", 0)
+                        .put("permission_overwrites", new JsonArray().add(new JsonObject()
+                                .put("id", guildId)
+                                .put("type", "role")
+                                .put("allow", 0)
+                                .put("deny", 2048)))))
+                .put("members", members)
+                .put("emojis", new JsonArray().add(new JsonObject()
+                        .put("id", "411631981396672524")
+                        .put("name", "blobcat")
+                        .put("roles", new JsonArray())
+                        .put("require_colons", true)
+                        .put("managed", false)
+                        .put("animated", false)))
+                .put("presences", presences)
+                .put("voice_states", new JsonArray().add(new JsonObject()
+                        .put("channel_id", "411631981396672523")
+                        .put("user_id", "128316294742147070")
+                        .put("session_id", "c0ffee")
+                        .put("deaf", false)
+                        .put("mute", false)
+                        .put("self_deaf", true)
+                        .put("self_mute", false)
+                        .put("suppress", false)));
+        final JsonObject event = new JsonObject()
+                .put("t", "GUILD_CREATE")
+                .put("s", 2)
+                .put("op", 0)
+                .put("d", guild);
+        
+        // Slicing a buffer makes sure that byte offsets are relative to the payload
+        final Buffer payload = Buffer.buffer().appendString("garbage").appendBuffer(event.toBuffer()).slice(7, 7 + event.toBuffer().length());
+        final JsonObject sliced = StreamingEntityBuilder.sliceGuildCreate(payload);
+        assertNotNull(sliced);
+        assertEquals(2, (int) sliced.getInteger("s"));
+        final JsonObject data = sliced.getJsonObject("d");
+        assertNull(data.getValue("members"));
+        assertNull(data.getValue("presences"));
+        assertEquals(5, (int) data.getInteger("member_count"));
+        assertDeepEquals(tree.createGuild(guild), tree.createGuild(data));
+        assertNull(StreamingEntityBuilder.sliceGuildCreate(new JsonObject().put("t", "GUILD_UPDATE").put("d", guild).toBuffer()));
+        assertNull(StreamingEntityBuilder.sliceGuildCreate(new JsonObject().put("d", guild).put("t", "GUILD_CREATE").toBuffer()));
+        // Shards reuse the buffer they decompress into for the next payload
+        for(int i = 0; i < payload.length(); i++) {
+            payload.setByte(i, (byte) ' ');
+        }
+        
+        final EntityCacheWorker treeWorker = cacheWorker;
+        tree.createAndCacheGuild(0, guild);
+        cacheWorker = Mockito.mock(EntityCacheWorker.class);
+        Mockito.when(catnip.cacheWorker()).thenReturn(cacheWorker);
+        streaming.cacheGuildCollections(0, guildId, (RawGuildCollections) data.getValue(StreamingEntityBuilder.RAW_GUILD_COLLECTIONS_KEY), 2);
+        
+        // 5 members and presences in batches of 2
+        verify(cacheWorker, times(3)).bulkCacheMembers(anyInt(), any());
+        verify(cacheWorker, times(3)).bulkCacheUsers(anyInt(), any());
+        verify(cacheWorker, times(3)).bulkCachePresences(anyInt(), any());
+        
+        verify(treeWorker).bulkCacheMembers(anyInt(), any());
+        verify(treeWorker).bulkCacheRoles(anyInt(), any());
+        verify(cacheWorker).bulkCacheRoles(anyInt(), any());
+        verify(treeWorker).bulkCacheChannels(anyInt(), any());
+        verify(cacheWorker).bulkCacheChannels(anyInt(), any());
+        verify(treeWorker).bulkCacheEmoji(anyInt(), any());
+        verify(cacheWorker).bulkCacheEmoji(anyInt(), any());
+        verify(treeWorker).bulkCacheVoiceStates(anyInt(), any());
+        verify(cacheWorker).bulkCacheVoiceStates(anyInt(), any());
+        verify(treeWorker).bulkCachePresences(anyInt(), any());
+        final String[] collections = {"bulkCacheUsers", "bulkCacheMembers", "bulkCacheRoles", "bulkCacheChannels",
+                "bulkCacheEmoji", "bulkCacheVoiceStates"};
+        assertDeepEquals(cached(treeWorker, collections), cached(cacheWorker, collections));
+        assertDeepEquals(cachedPresences(treeWorker), cachedPresences(cacheWorker));
+    }
+    
+    @Test
+    public void testStreamedCollectionsAreConsumed() throws InterruptedException {
+        final String guildId = "411631981396672520";
+        final JsonObject guild = new JsonObject()
+                .put("id", guildId)
+                .put("name", "catnip")
+                .put("member_count", 1)
+                .put("members", new JsonArray().add(new JsonObject()
+                        .put("user", user("128316294742147072"))
+                        .put("roles", new JsonArray())
+                        .put("joined_at", "2018-02-11T18:52:29.813000+00:00")
+                        .put("deaf", false)
+                        .put("mute", false)));
+        final JsonObject sliced = StreamingEntityBuilder.sliceGuildCreate(new JsonObject()
+                .put("t", "GUILD_CREATE")
+                .put("d", guild)
+                .toBuffer());
+        assertNotNull(sliced);
+        final JsonObject data = sliced.getJsonObject("d");
+        final RawGuildCollections collections = (RawGuildCollections) data.getValue(StreamingEntityBuilder.RAW_GUILD_COLLECTIONS_KEY);
+        assertEquals(Collections.singleton("members"), collections.names());
+        
+        final UnifiedMemoryEntityCache cache = new UnifiedMemoryEntityCache();
+        Mockito.when(catnip.cacheWorker()).thenReturn(cache);
+        cache.catnip(catnip);
+        final CountDownLatch latch = new CountDownLatch(1);
+        cache.updateCache("GUILD_CREATE", 0, data).setHandler(__ -> latch.countDown());
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        
+        // Handlers only ever see the slimmed-down guild
+        assertFalse(data.containsKey(StreamingEntityBuilder.RAW_GUILD_COLLECTIONS_KEY));
+        assertEquals(1, cache.members(guildId).size());
+    }
+    
+    /**
+     * @return Everything given to the worker's bulk cache methods with the
+     * given names, in order.
+     */
+    private static List<Object> cached(final EntityCacheWorker worker, final String... methods) {
+        final List<Object> ret = new ArrayList<>();
+        for(final String method : methods) {
+            for(final Invocation invocation : Mockito.mockingDetails(worker).getInvocations()) {
+                if(invocation.getMethod().getName().equals(method)) {
+                    ret.addAll(invocation.<Collection<?>>getArgument(1));
+                }
+            }
+        }
+        return ret;
+    }
+    
+    private static Map<Object, Object> cachedPresences(final EntityCacheWorker worker) {
+        final Map<Object, Object> ret = new HashMap<>();
+        for(final Invocation invocation : Mockito.mockingDetails(worker).getInvocations()) {
+            if(invocation.getMethod().getName().equals("bulkCachePresences")) {
+                ret.putAll(invocation.<Map<?, ?>>getArgument(1));
+            }
+        }
+        return ret;
+    }
+}
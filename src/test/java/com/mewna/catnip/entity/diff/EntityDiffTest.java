@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.entity.diff;
+
+import com.mewna.catnip.entity.impl.PresenceImpl;
+import com.mewna.catnip.entity.impl.PresenceImpl.ActivityImpl;
+import com.mewna.catnip.entity.impl.PresenceImpl.ActivityTimestampsImpl;
+import com.mewna.catnip.entity.impl.RoleImpl;
+import com.mewna.catnip.entity.user.Presence;
+import com.mewna.catnip.entity.user.Presence.ActivityType;
+import com.mewna.catnip.entity.user.Presence.OnlineStatus;
+import com.mewna.catnip.shard.event.DiffPair;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SuppressWarnings("WeakerAccess")
+public class EntityDiffTest {
+    private static RoleImpl role(final String name, final long permissions) {
+        return RoleImpl.builder().idAsLong(1L).name(name).color(0xFF00FF).permissionsRaw(permissions).build();
+    }
+    
+    private static Presence presence(final OnlineStatus status, final long start) {
+        return PresenceImpl.builder()
+                .status(status)
+                .activity(ActivityImpl.builder()
+                        .name("catnip")
+                        .type(ActivityType.PLAYING)
+                        .timestamps(ActivityTimestampsImpl.builder().start(start).end(-1L).build())
+                        .build())
+                .build();
+    }
+    
+    @Test
+    public void testChangedFields() {
+        final EntityDiff<RoleField> diff = EntityDiff.compute(RoleField.class, role("a", 8L), role("b", 8L));
+        assertTrue(diff.oldCached());
+        assertFalse(diff.isEmpty());
+        assertTrue(diff.changed(RoleField.NAME));
+        assertFalse(diff.changed(RoleField.PERMISSIONS));
+        assertTrue(diff.changedAny(RoleField.COLOR, RoleField.NAME));
+        assertEquals(EnumSet.of(RoleField.NAME), diff.changedFields());
+        assertEquals(1L << RoleField.NAME.ordinal(), diff.mask());
+    }
+    
+    @Test
+    public void testUnchangedPresence() {
+        // Distinct but equal activities must not count as a change
+        final EntityDiff<PresenceField> same = EntityDiff.compute(PresenceField.class,
+                presence(OnlineStatus.ONLINE, 1000L), presence(OnlineStatus.ONLINE, 1000L));
+        assertTrue(same.isEmpty());
+        
+        final EntityDiff<PresenceField> changed = EntityDiff.compute(PresenceField.class,
+                presence(OnlineStatus.ONLINE, 1000L), presence(OnlineStatus.IDLE, 2000L));
+        assertEquals(EnumSet.of(PresenceField.STATUS, PresenceField.ACTIVITY), changed.changedFields());
+    }
+    
+    @Test
+    public void testUncachedOld() {
+        final EntityDiff<RoleField> diff = EntityDiff.compute(RoleField.class, null, role("a", 8L));
+        assertFalse(diff.oldCached());
+        assertEquals(EnumSet.allOf(RoleField.class), diff.changedFields());
+    }
+    
+    @Test
+    public void testDiffPair() {
+        final RoleImpl old = role("a", 8L);
+        final RoleImpl updated = role("a", 0L);
+        final DiffPair<RoleImpl, RoleImpl> pair = DiffPair.of(old, updated, EntityDiff.compute(RoleField.class, old, updated));
+        assertSame(old, pair.getLeft());
+        assertSame(updated, pair.getRight());
+        assertEquals(ImmutablePair.of(old, updated), pair);
+        assertTrue(DiffPair.diff(pair, RoleField.class).changed(RoleField.PERMISSIONS));
+        assertThrows(IllegalArgumentException.class, () -> DiffPair.diff(pair, GuildField.class));
+        assertThrows(IllegalArgumentException.class, () -> DiffPair.diff(ImmutablePair.of(old, updated), RoleField.class));
+    }
+}
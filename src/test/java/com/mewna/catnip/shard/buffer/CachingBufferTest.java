@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.shard.buffer;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.UnifiedMemoryEntityCache;
+import com.mewna.catnip.entity.guild.Role;
+import com.mewna.catnip.entity.impl.EntityBuilder;
+import com.mewna.catnip.shard.DiscordEvent.Raw;
+import com.mewna.catnip.shard.event.DispatchManager;
+import com.mewna.catnip.shard.manager.ShardManager;
+import com.mewna.catnip.util.logging.LogAdapter;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.Collections;
+
+public class CachingBufferTest {
+    // Guild 1 << 22 is on shard 1
+    private static final String GUILD = Long.toUnsignedString(1L << 22);
+    
+    private static JsonObject event(final String type, final JsonObject data) {
+        return new JsonObject().put("t", type).put("d", data).put("shard", new JsonObject().put("id", 1));
+    }
+    
+    private static JsonObject role(final String name) {
+        return new JsonObject().put("id", "5").put("name", name).put("color", 0).put("hoist", false)
+                .put("position", 1).put("permissions", 0L).put("managed", false).put("mentionable", false);
+    }
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    public void awaitedUpdatesAreDiffedAgainstTheOldEntity() {
+        final Catnip catnip = Mockito.mock(Catnip.class);
+        final ShardManager shardManager = Mockito.mock(ShardManager.class);
+        final DispatchManager dispatchManager = Mockito.mock(DispatchManager.class);
+        final UnifiedMemoryEntityCache cache = new UnifiedMemoryEntityCache();
+        Mockito.when(shardManager.shardCount()).thenReturn(2);
+        Mockito.when(catnip.shardManager()).thenReturn(shardManager);
+        Mockito.when(catnip.dispatchManager()).thenReturn(dispatchManager);
+        Mockito.when(catnip.logAdapter()).thenReturn(Mockito.mock(LogAdapter.class));
+        Mockito.when(catnip.cacheWorker()).thenReturn(cache);
+        Mockito.when(catnip.cache()).thenReturn(cache);
+        Mockito.when(catnip.emitEventObjects()).thenReturn(true);
+        Mockito.when(catnip.disabledEvents()).thenReturn(Collections.singleton(Raw.READY));
+        Mockito.when(catnip.awaitCacheUpdates()).thenReturn(true);
+        cache.catnip(catnip);
+        cache.bulkCacheRoles(1, Collections.singletonList(new EntityBuilder(catnip).createRole(GUILD, role("before"))));
+        final CachingBuffer buffer = new CachingBuffer();
+        buffer.catnip(catnip);
+        buffer.buffer(event(Raw.READY, new JsonObject()
+                .put("user", new JsonObject().put("id", "99").put("username", "me").put("discriminator", "0001"))
+                .put("guilds", new JsonArray())));
+        
+        buffer.buffer(event(Raw.GUILD_ROLE_UPDATE, new JsonObject().put("guild_id", GUILD).put("role", role("after"))));
+        
+        final ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(dispatchManager).dispatchEvent(Mockito.eq(Raw.GUILD_ROLE_UPDATE), captor.capture());
+        final Pair<Role, Role> pair = (Pair<Role, Role>) captor.getValue();
+        Assertions.assertEquals("before", pair.getLeft().name());
+        Assertions.assertEquals("after", pair.getRight().name());
+        Assertions.assertEquals("after", cache.role(GUILD, "5").name());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.mewna.catnip.util.JsonUtil.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SuppressWarnings("WeakerAccess")
+public class SnowflakeParsingTest {
+    @Test
+    public void testMatchesJdk() {
+        for(int i = 0; i < 10000; i++) {
+            final String value = Long.toUnsignedString(ThreadLocalRandom.current().nextLong());
+            assertEquals(Long.parseUnsignedLong(value), parseSnowflake(value));
+        }
+        assertEquals(0L, parseSnowflake("0"));
+        assertEquals(-1L, parseSnowflake("18446744073709551615"));
+    }
+    
+    @Test
+    public void testMalformed() {
+        assertThrows(NumberFormatException.class, () -> parseSnowflake(""));
+        assertThrows(NumberFormatException.class, () -> parseSnowflake("-1"));
+        assertThrows(NumberFormatException.class, () -> parseSnowflake("12a4"));
+        assertThrows(NumberFormatException.class, () -> parseSnowflake("18446744073709551616"));
+        assertThrows(NumberFormatException.class, () -> parseSnowflake("99999999999999999999"));
+        assertThrows(NumberFormatException.class, () -> parseSnowflake("100000000000000000000"));
+    }
+    
+    @Test
+    public void testJsonObject() {
+        final JsonObject object = new JsonObject()
+                .put("id", "542339536296157185")
+                .put("number", 1234L)
+                .putNull("parent_id");
+        assertEquals(542339536296157185L, snowflake(object, "id"));
+        assertEquals(1234L, snowflake(object, "number"));
+        assertEquals(0L, snowflake(object, "parent_id"));
+        assertEquals(0L, snowflake(object, "missing"));
+    }
+    
+    @Test
+    public void testParser() throws IOException {
+        final Buffer buffer = Buffer.buffer("{\"id\":\"542339536296157185\",\"owner_id\":1234,\"afk_channel_id\":null}");
+        final long[] expected = {542339536296157185L, 1234L, 0L};
+        try(final JsonParser parser = createParser(buffer)) {
+            assertEquals(JsonToken.START_OBJECT, parser.nextToken());
+            for(final long value : expected) {
+                assertEquals(JsonToken.FIELD_NAME, parser.nextToken());
+                parser.nextToken();
+                assertEquals(value, readSnowflake(parser));
+            }
+        }
+        final Buffer raw = Buffer.buffer("\"542339536296157185\"");
+        assertEquals(542339536296157185L, parseSnowflake(raw, 1, raw.length() - 1));
+    }
+}